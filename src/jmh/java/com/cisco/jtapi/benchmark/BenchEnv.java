@@ -0,0 +1,83 @@
+package com.cisco.jtapi.benchmark;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Shared set-up for the benchmarks: sample settings as if read from .env, and
+// an in-process simulated provider, so nothing here needs a CUCM.  Event
+// latency and auto-answer delay default to zero so the numbers are the cost
+// of the sample code and the JTAPI object model, not of simulated waiting.
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.telephony.*;
+
+import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.simulator.SimConfig;
+import com.cisco.jtapi.simulator.SimulatedJtapiPeer;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public final class BenchEnv {
+
+    public static final String ALICE_DN = "4001";
+    public static final String BOB_DN = "4002";
+    public static final String ROUTE_POINT_DN = "3000";
+    public static final String CTI_PORT_DNS = "3001,3002,3003,3004";
+
+    private BenchEnv() {
+    }
+
+    // Settings for the benchmark, given as alternating key/value overrides
+    public static Dotenv dotenv(String... overrides) {
+        Map<String, String> settings = new LinkedHashMap<String, String>();
+        settings.put("ALICE_DN", ALICE_DN);
+        settings.put("BOB_DN", BOB_DN);
+        settings.put("CTI_ROUTE_POINT_DN", ROUTE_POINT_DN);
+        settings.put("CTI_PORT_DN", CTI_PORT_DNS);
+        settings.put("SIM_PROVIDER_OPEN_MS", "0");
+        settings.put("SIM_EVENT_LATENCY_MS", "0");
+        settings.put("SIM_ANSWER_DELAY_MS", "0");
+        for (int i = 0; i + 1 < overrides.length; i += 2) {
+            settings.put(overrides[i], overrides[i + 1]);
+        }
+        StringBuilder env = new StringBuilder();
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            env.append(setting.getKey()).append('=').append(setting.getValue()).append('\n');
+        }
+        try {
+            Path dir = Files.createTempDirectory("jtapi-bench");
+            Path file = dir.resolve(".env");
+            Files.write(file, env.toString().getBytes(StandardCharsets.UTF_8));
+            file.toFile().deleteOnExit();
+            dir.toFile().deleteOnExit();
+            return Dotenv.configure().directory(dir.toString()).load();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static CiscoProvider openProvider(Dotenv dotenv) throws ProviderUnavailableException {
+        return (CiscoProvider) new SimulatedJtapiPeer(new SimConfig(dotenv)).getProvider("benchmark");
+    }
+}
@@ -0,0 +1,157 @@
+package com.cisco.jtapi.benchmark;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// End-to-end latency of the samples' call sequences against the simulator,
+// including the EventDispatcher hop between the simulator's event thread and
+// the handlers:
+//   makeCall       connect ALICE_DN -> BOB_DN, wait for CallActiveEv through
+//                  a CallEventAwaiter, drop
+//   dialViaOffice  ALICE_DN calls the Route Point; time until the sample's
+//                  DialViaOfficeCall session has answered, held, dialled out,
+//                  redirected both legs to a leased CTI Port and transferred
+//                  them, then the remaining call is dropped
+// SIM_EVENT_LATENCY_MS adds a fixed delay to every simulated event (0 by
+// default, so the score is the samples' own overhead).
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.CallControlCall;
+import javax.telephony.events.CallActiveEv;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.cisco.jtapi.common.CallEventAwaiter;
+import com.cisco.jtapi.common.EventDispatcher;
+import com.cisco.jtapi.common.LineBootstrap;
+import com.cisco.jtapi.dialviaoffice.DialViaOfficeCall;
+import com.cisco.jtapi.dialviaoffice.dialViaOffice;
+import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.makecall.Handler;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-DLOG_LEVEL=WARN")
+public class CallSetupBenchmark {
+
+    // A session taking longer than this has stalled
+    private static final long SESSION_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    @State(Scope.Benchmark)
+    public static class MakeCall {
+
+        @Param({ "0" })
+        public String eventLatencyMs;
+
+        CiscoProvider provider;
+        CiscoAddress fromAddress;
+        CiscoTerminal fromTerminal;
+        Handler handler;
+        CallEventAwaiter awaiter;
+
+        // Same set-up as makeCall.main()
+        @Setup(Level.Trial)
+        public void open() throws Exception {
+            Dotenv dotenv = BenchEnv.dotenv("SIM_EVENT_LATENCY_MS", eventLatencyMs);
+            handler = new Handler();
+            awaiter = new CallEventAwaiter();
+            EventDispatcher dispatcher = EventDispatcher.create(dotenv);
+            EventDispatcher.Observer observer = dispatcher.wrap(handler);
+            provider = BenchEnv.openProvider(dotenv);
+            provider.addObserver(observer);
+            handler.providerInService.waitTrue();
+            LineBootstrap.Line fromLine = new LineBootstrap(provider, observer).open(BenchEnv.ALICE_DN).get(0);
+            fromAddress = fromLine.address;
+            fromTerminal = fromLine.terminal;
+            fromAddress.addCallObserver(dispatcher.wrap(awaiter));
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            provider.shutdown();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class DialViaOffice {
+
+        @Param({ "0" })
+        public String eventLatencyMs;
+
+        CiscoProvider provider;
+        CiscoAddress alice;
+        CiscoTerminal aliceTerminal;
+
+        // Same set-up as dialViaOffice.main()
+        @Setup(Level.Trial)
+        public void open() throws Exception {
+            Dotenv dotenv = BenchEnv.dotenv("SIM_EVENT_LATENCY_MS", eventLatencyMs);
+            provider = BenchEnv.openProvider(dotenv);
+            dialViaOffice.start(provider, dotenv);
+            alice = (CiscoAddress) provider.getAddress(BenchEnv.ALICE_DN);
+            aliceTerminal = (CiscoTerminal) alice.getTerminals()[0];
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            provider.shutdown();
+            dialViaOffice.callControl.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void makeCall(MakeCall state) throws Exception {
+        CallControlCall call = (CallControlCall) state.provider.createCall();
+        state.awaiter.request(call, CallActiveEv.class,
+                () -> call.connect(state.fromTerminal, state.fromAddress, BenchEnv.BOB_DN), Runnable::run).join();
+        call.drop();
+    }
+
+    @Benchmark
+    public void dialViaOffice(DialViaOffice state) throws Exception {
+        Call call = state.provider.createCall();
+        call.connect(state.aliceTerminal, state.alice, BenchEnv.ROUTE_POINT_DN);
+        long deadline = System.nanoTime() + SESSION_TIMEOUT_NANOS;
+        // The session registers itself under the dialin call when the Route
+        // Point rings, and removes itself once it has completed or failed
+        DialViaOfficeCall session;
+        while ((session = dialViaOffice.calls.get(call)) == null) {
+            pause(deadline, call);
+        }
+        while (dialViaOffice.calls.containsKey(call)) {
+            pause(deadline, call);
+        }
+        ((CallControlCall) call).drop();
+        if (session.getState() != DialViaOfficeCall.State.COMPLETED) {
+            throw new IllegalStateException("Session ended in state " + session.getState());
+        }
+    }
+
+    private static void pause(long deadline, Call call) {
+        if (System.nanoTime() > deadline) {
+            throw new IllegalStateException("Session for " + call + " timed out");
+        }
+        LockSupport.parkNanos(10_000);
+    }
+}
@@ -0,0 +1,119 @@
+package com.cisco.jtapi.benchmark;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Wake-up latency of the samples' com.cisco.cti.util.Condition against the
+// java.util.concurrent alternatives.  Each operation creates a fresh signal
+// (a Condition can't be reset), hands its "set" to a responder thread that
+// polls for work, and waits for it.  The responder can hold off for
+// delayNanos first so that the waiter is really parked when the signal
+// arrives; the score then includes that delay.
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.cisco.cti.util.Condition;
+
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConditionWakeupBenchmark {
+
+    @Param({ "0", "20000" })
+    public long delayNanos;
+
+    private final AtomicReference<Runnable> pending = new AtomicReference<Runnable>();
+    private Thread responder;
+    private volatile boolean running;
+
+    @Setup(Level.Trial)
+    public void start() {
+        running = true;
+        responder = new Thread(() -> {
+            while (running) {
+                Runnable signal = pending.getAndSet(null);
+                if (signal == null) {
+                    // Yield rather than spin so this works on a single core too
+                    Thread.yield();
+                    continue;
+                }
+                long until = System.nanoTime() + delayNanos;
+                while (System.nanoTime() < until) {
+                    Thread.onSpinWait();
+                }
+                signal.run();
+            }
+        }, "responder");
+        responder.setDaemon(true);
+        responder.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws InterruptedException {
+        running = false;
+        responder.join();
+    }
+
+    private void signal(Runnable set) {
+        while (!pending.compareAndSet(null, set)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Benchmark
+    public boolean condition() {
+        Condition condition = new Condition();
+        signal(condition::set);
+        return condition.waitTrue();
+    }
+
+    @Benchmark
+    public void countDownLatch() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        signal(latch::countDown);
+        latch.await();
+    }
+
+    @Benchmark
+    public Object completableFuture() {
+        CompletableFuture<Object> future = new CompletableFuture<Object>();
+        signal(() -> future.complete(Boolean.TRUE));
+        return future.join();
+    }
+
+    @Benchmark
+    public void parkUnpark() {
+        Thread waiter = Thread.currentThread();
+        AtomicReference<Boolean> done = new AtomicReference<Boolean>(Boolean.FALSE);
+        signal(() -> {
+            done.set(Boolean.TRUE);
+            LockSupport.unpark(waiter);
+        });
+        while (!done.get()) {
+            LockSupport.park(this);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.cisco.jtapi.benchmark;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Cost of the samples' observer callbacks.  A real call (ALICE_DN calls
+// BOB_DN, BOB_DN answers, ALICE_DN hangs up) is made once against the
+// simulator and its event batches recorded; each benchmark operation then
+// replays the whole recording into one sample's Handler, so the score is the
+// callback cost of one call's worth of events.  dispatchedCallChangedEvent
+// measures the same replay through EventDispatcher, i.e. what is left on the
+// JTAPI event thread once the handlers run on the dispatcher's workers.
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.CallControlCallObserver;
+import javax.telephony.callcontrol.events.CallCtlTermConnTalkingEv;
+import javax.telephony.events.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.cisco.cti.util.Condition;
+import com.cisco.jtapi.common.EventDispatcher;
+import com.cisco.jtapi.extensions.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-DLOG_LEVEL=WARN")
+public class ObserverDispatchBenchmark {
+
+    // Records every batch the simulator delivers for ALICE_DN
+    static class Recorder implements TerminalObserver, AddressObserver, CallControlCallObserver {
+
+        final List<CallEv[]> callBatches = new ArrayList<CallEv[]>();
+        final List<TermEv[]> termBatches = new ArrayList<TermEv[]>();
+        final Condition terminalInService = new Condition();
+        final Condition addressInService = new Condition();
+        final Condition callTalking = new Condition();
+        final Condition callInvalid = new Condition();
+
+        public synchronized void terminalChangedEvent(TermEv[] events) {
+            termBatches.add(events);
+            for (TermEv ev : events) {
+                if (ev.getID() == CiscoTermInServiceEv.ID) {
+                    terminalInService.set();
+                }
+            }
+        }
+
+        public void addressChangedEvent(AddrEv[] events) {
+            for (AddrEv ev : events) {
+                if (ev.getID() == CiscoAddrInServiceEv.ID) {
+                    addressInService.set();
+                }
+            }
+        }
+
+        public synchronized void callChangedEvent(CallEv[] events) {
+            callBatches.add(events);
+            for (CallEv ev : events) {
+                switch (ev.getID()) {
+                    case CallCtlTermConnTalkingEv.ID:
+                        callTalking.set();
+                        break;
+                    case CallInvalidEv.ID:
+                        callInvalid.set();
+                        break;
+                }
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recording {
+
+        CallEv[][] callBatches;
+        TermEv[][] termBatches;
+        private CiscoProvider provider;
+
+        @Setup(Level.Trial)
+        public void record() throws Exception {
+            provider = BenchEnv.openProvider(BenchEnv.dotenv());
+            CiscoAddress alice = (CiscoAddress) provider.getAddress(BenchEnv.ALICE_DN);
+            CiscoTerminal aliceTerminal = (CiscoTerminal) alice.getTerminals()[0];
+            Recorder recorder = new Recorder();
+
+            // Device state events are what superProvider_deviceStateServer handles
+            CiscoTermEvFilter filter = aliceTerminal.getFilter();
+            filter.setDeviceStateActiveEvFilter(true);
+            filter.setDeviceStateAlertingEvFilter(true);
+            filter.setDeviceStateHeldEvFilter(true);
+            filter.setDeviceStateIdleEvFilter(true);
+            aliceTerminal.addObserver(recorder);
+            aliceTerminal.setFilter(filter);
+            alice.addObserver(recorder);
+            alice.addCallObserver(recorder);
+            recorder.terminalInService.waitTrue();
+            recorder.addressInService.waitTrue();
+
+            CiscoCall call = (CiscoCall) provider.createCall();
+            call.connect(aliceTerminal, alice, BenchEnv.BOB_DN);
+            recorder.callTalking.waitTrue();
+            call.drop();
+            recorder.callInvalid.waitTrue();
+
+            synchronized (recorder) {
+                callBatches = recorder.callBatches.toArray(new CallEv[0][]);
+                termBatches = recorder.termBatches.toArray(new TermEv[0][]);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            provider.shutdown();
+        }
+    }
+
+    // Sample handlers that observe calls
+    @State(Scope.Benchmark)
+    public static class CallHandler {
+
+        @Param({ "makecall.Handler", "conference.Handler", "dialviaoffice.Handler", "dialviaoffice.CtiPortHandler",
+                "playmedia.Handler", "playmedia.CtiPortHandler", "sendData.Handler" })
+        public String handler;
+
+        CallObserver observer;
+
+        @Setup(Level.Trial)
+        public void create() throws ReflectiveOperationException {
+            observer = (CallObserver) newHandler(handler);
+        }
+    }
+
+    // Sample handlers that observe terminals
+    @State(Scope.Benchmark)
+    public static class TerminalHandler {
+
+        @Param({ "makecall.Handler", "conference.Handler", "dialviaoffice.Handler", "dialviaoffice.CtiPortHandler",
+                "playmedia.Handler", "playmedia.CtiPortHandler", "sendData.Handler",
+                "superProvider_deviceStateServer.Handler" })
+        public String handler;
+
+        TerminalObserver observer;
+
+        @Setup(Level.Trial)
+        public void create() throws ReflectiveOperationException {
+            observer = (TerminalObserver) newHandler(handler);
+        }
+    }
+
+    // The makeCall Handler behind an EventDispatcher, as the samples run it
+    @State(Scope.Benchmark)
+    public static class Dispatched {
+
+        @Param({ "2" })
+        public String workers;
+
+        @Param({ "BLOCK" })
+        public String backpressure;
+
+        EventDispatcher dispatcher;
+        CallObserver observer;
+
+        @Setup(Level.Trial)
+        public void create() throws ReflectiveOperationException {
+            dispatcher = EventDispatcher.create(BenchEnv.dotenv("EVENT_DISPATCH_WORKERS", workers,
+                    "EVENT_DISPATCH_BACKPRESSURE", backpressure));
+            observer = dispatcher.wrap(newHandler("makecall.Handler"));
+        }
+
+        @TearDown(Level.Iteration)
+        public void report() {
+            // Straight to JMH's output: the fork runs at LOG_LEVEL=WARN
+            System.out.println(dispatcher.getStats());
+        }
+    }
+
+    static Object newHandler(String name) throws ReflectiveOperationException {
+        return Class.forName("com.cisco.jtapi." + name).getDeclaredConstructor().newInstance();
+    }
+
+    @Benchmark
+    public void callChangedEvent(Recording recording, CallHandler handler) {
+        for (CallEv[] batch : recording.callBatches) {
+            handler.observer.callChangedEvent(batch);
+        }
+    }
+
+    @Benchmark
+    public void terminalChangedEvent(Recording recording, TerminalHandler handler) {
+        for (TermEv[] batch : recording.termBatches) {
+            handler.observer.terminalChangedEvent(batch);
+        }
+    }
+
+    @Benchmark
+    public void dispatchedCallChangedEvent(Recording recording, Dispatched dispatched) {
+        for (CallEv[] batch : recording.callBatches) {
+            dispatched.observer.callChangedEvent(batch);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.cisco.jtapi.benchmark;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Cost of each TraceProfile on the JTAPI event path, against the simulator
+// with SIM_TRACE=on (SimTrace traces events the way the profile's levels and
+// facilities would have Cisco JTAPI trace them, to files in a temporary
+// TracePath).  Each operation is one call, ALICE_DN -> BOB_DN, answered and
+// dropped, waited for until CallInvalidEv; "none" is the simulator without
+// any trace.  The events counter is the events delivered to ALICE_DN's
+// observers, so events/s against "none" gives the per-event cost of a
+// profile.
+
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.CallControlCall;
+import javax.telephony.callcontrol.CallControlCallObserver;
+import javax.telephony.events.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.cisco.jtapi.common.CallEventAwaiter;
+import com.cisco.jtapi.common.TraceProfile;
+import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.simulator.SimConfig;
+import com.cisco.jtapi.simulator.SimulatedJtapiPeer;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-DLOG_LEVEL=WARN")
+public class TraceProfileBenchmark {
+
+    // Counts the call events ALICE_DN's observers receive
+    static class Counter implements CallControlCallObserver {
+        volatile long events;
+
+        public void callChangedEvent(CallEv[] batch) {
+            events += batch.length;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Traced {
+
+        @Param({ "none", "perf", "standard", "forensic" })
+        public String profile;
+
+        CiscoProvider provider;
+        CiscoAddress fromAddress;
+        CiscoTerminal fromTerminal;
+        CallEventAwaiter awaiter = new CallEventAwaiter();
+        Counter counter = new Counter();
+
+        @Setup(Level.Trial)
+        public void open() throws Exception {
+            boolean traced = !profile.equals("none");
+            Dotenv dotenv = BenchEnv.dotenv("SIM_TRACE", traced ? "on" : "off");
+            SimulatedJtapiPeer peer = new SimulatedJtapiPeer(new SimConfig(dotenv));
+            if (traced) {
+                peer.getJtapiProperties().setTracePath(Files.createTempDirectory("jtapi-trace").toString());
+                TraceProfile.named(profile).applyTo(peer);
+            }
+            provider = (CiscoProvider) peer.getProvider("benchmark");
+            fromAddress = (CiscoAddress) provider.getAddress(BenchEnv.ALICE_DN);
+            fromTerminal = (CiscoTerminal) fromAddress.getTerminals()[0];
+            fromAddress.addCallObserver(awaiter);
+            fromAddress.addCallObserver(counter);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            provider.shutdown();
+        }
+    }
+
+    // Reported next to the score: events delivered per second
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Events {
+        public long events;
+    }
+
+    @Benchmark
+    public void call(Traced state, Events events) throws Exception {
+        long before = state.counter.events;
+        CallControlCall call = (CallControlCall) state.provider.createCall();
+        state.awaiter.request(call, CallActiveEv.class, null,
+                () -> call.connect(state.fromTerminal, state.fromAddress, BenchEnv.BOB_DN), Runnable::run).join();
+        state.awaiter.request(call, CallInvalidEv.class, null, call::drop, Runnable::run).join();
+        events.events += state.counter.events - before;
+    }
+}
@@ -0,0 +1,265 @@
+package com.cisco.jtapi.campaign;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// One campaign call, from connect() to the call going invalid.  The Handler
+// feeds it events; each transition either issues the next JTAPI request on the
+// Dialer's callControl executor or schedules a timer on the Dialer's scheduler,
+// and returns immediately.
+
+// DIALING   connect() issued; CallActiveEv marks call set-up.  No answer
+//           within CAMPAIGN_RING_TIMEOUT_MS: drop, NO_ANSWER
+// ANSWERED  the far end's connection is established: hold the call for
+//           CAMPAIGN_HOLD_MS, then drop
+// ENDING    drop() issued, or the far end failed/hung up: wait for
+//           CallInvalidEv, then report the result
+
+// Each ended call records Metrics steps campaign.setup (connect() to
+// CallActiveEv) and campaign.answer (connect() to answer), where it got that
+// far.
+
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.*;
+
+import com.cisco.jtapi.common.LineBootstrap;
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.common.Metrics;
+import com.cisco.jtapi.extensions.CiscoCall;
+
+public class CampaignCall {
+
+    public enum State {
+        DIALING,
+        ANSWERED,
+        ENDING,
+        ENDED
+    }
+
+    public enum Outcome {
+        ANSWERED,
+        NO_ANSWER,
+        FAILED,
+        ERROR
+    }
+
+    private final Dialer dialer;
+    private final Dialer.Target target;
+    private final LineBootstrap.Line line;
+    final int lineIndex;
+    private Call call;
+    // connect() has returned: the call can be dropped
+    private boolean connected;
+    private State state = State.DIALING;
+    private Outcome outcome;
+    private String cause = "";
+    private ScheduledFuture<?> timer;
+
+    // Progress times
+    private final long startedMillis = Log.currentTimeMillis();
+    private final long startedNanos = System.nanoTime();
+    private long activeNanos;
+    private long answeredNanos;
+    private long endedNanos;
+
+    CampaignCall(Dialer dialer, Dialer.Target target, LineBootstrap.Line line, int lineIndex) {
+        this.dialer = dialer;
+        this.target = target;
+        this.line = line;
+        this.lineIndex = lineIndex;
+    }
+
+    public synchronized Outcome getOutcome() {
+        return outcome;
+    }
+
+    // Connect the call, and give it until the ring timeout to be answered
+    synchronized void dial() {
+        timer = dialer.scheduler.schedule(this::ringTimeout, dialer.ringTimeoutMillis, TimeUnit.MILLISECONDS);
+        dialer.callControl.execute(() -> {
+            try {
+                // On the line's own provider, which may be any of the pool's
+                Call created = line.address.getProvider().createCall();
+                // Register before connecting so early events find this call
+                synchronized (this) {
+                    if (state != State.DIALING) {
+                        // Timed out before the call was created: don't place
+                        // it, and with no events to come, report now
+                        ended();
+                        return;
+                    }
+                    call = created;
+                    dialer.calls.put(created, this);
+                }
+                created.connect(line.terminal, line.address, target.destination);
+                synchronized (this) {
+                    connected = true;
+                    if (state == State.ENDING) {
+                        // Timed out while connecting: end() left the drop to us
+                        drop();
+                    }
+                }
+            } catch (Exception e) {
+                // No events will follow: report straight away
+                synchronized (this) {
+                    end(Outcome.ERROR, e.toString());
+                    ended();
+                }
+            }
+        });
+    }
+
+    // CallActiveEv: the call is set up on the originating line
+    public synchronized void active() {
+        if (activeNanos == 0) {
+            activeNanos = System.nanoTime();
+        }
+    }
+
+    // CallCtlConnEstablishedEv for the far end: answered
+    public synchronized void established() {
+        if (state != State.DIALING) {
+            return;
+        }
+        state = State.ANSWERED;
+        answeredNanos = System.nanoTime();
+        timer.cancel(false);
+        timer = dialer.scheduler.schedule(this::hangUp, dialer.holdMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // CallCtlConnFailedEv for the far end: busy, unreachable, rejected...
+    public synchronized void failed(int cause) {
+        end(Outcome.FAILED, "cause " + cause);
+    }
+
+    // CallCtlConnDisconnectedEv for the far end
+    public synchronized void disconnected() {
+        if (state == State.ANSWERED) {
+            end(Outcome.ANSWERED, "far end hung up");
+        } else {
+            end(Outcome.FAILED, "far end disconnected");
+        }
+    }
+
+    // CallInvalidEv: the call is over
+    public synchronized void invalid() {
+        if (state != State.ENDING) {
+            // Ended without us asking, e.g. dropped at the originating phone
+            end(state == State.ANSWERED ? Outcome.ANSWERED : Outcome.FAILED, "call ended");
+        }
+        ended();
+    }
+
+    // The provider failed over: continue with the standby's call with the same
+    // global call ID, if it has one.  Returns false if the call was lost
+    synchronized boolean resync(Map<Integer, Call> standbyCalls) {
+        if (state == State.ENDED) {
+            return true;
+        }
+        Call replacement = call == null ? null
+                : standbyCalls.get(((CiscoCall) call).getCallID().getGlobalCallID());
+        if (call != null) {
+            dialer.calls.remove(call);
+        }
+        if (replacement == null) {
+            // Nothing more will be heard about it
+            end(Outcome.ERROR, "lost in provider failover");
+            ended();
+            return false;
+        }
+        call = replacement;
+        dialer.calls.put(replacement, this);
+        return true;
+    }
+
+    private synchronized void ringTimeout() {
+        if (state == State.DIALING) {
+            end(Outcome.NO_ANSWER, "no answer in " + dialer.ringTimeoutMillis + " ms");
+        }
+    }
+
+    private synchronized void hangUp() {
+        if (state == State.ANSWERED) {
+            end(Outcome.ANSWERED, "");
+        }
+    }
+
+    // Record the outcome and drop the call; the result is reported once the
+    // call is invalid
+    private void end(Outcome result, String reason) {
+        if (state == State.ENDING || state == State.ENDED) {
+            return;
+        }
+        state = State.ENDING;
+        outcome = result;
+        cause = reason;
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        if (connected) {
+            drop();
+        }
+    }
+
+    private void drop() {
+        Call toDrop = call;
+        if (toDrop != null) {
+            dialer.callControl.execute(() -> {
+                try {
+                    if (toDrop.getState() != Call.INVALID) {
+                        ((CallControlCall) toDrop).drop();
+                    }
+                } catch (Exception e) {
+                    // Already gone
+                }
+            });
+        }
+    }
+
+    private void ended() {
+        if (state == State.ENDED) {
+            return;
+        }
+        state = State.ENDED;
+        endedNanos = System.nanoTime();
+        if (activeNanos != 0) {
+            Metrics.record("campaign.setup", activeNanos - startedNanos);
+        }
+        if (answeredNanos != 0) {
+            Metrics.record("campaign.answer", answeredNanos - startedNanos);
+        }
+        if (call != null) {
+            dialer.calls.remove(call);
+        }
+        dialer.completed(this);
+    }
+
+    // The result as a line of the results file
+    synchronized String toResult() {
+        return String.join(",", target.destination, line.getName(), outcome.name(), cause.replace(',', ';'),
+                Dialer.timestamp(startedMillis), millis(startedNanos, activeNanos),
+                millis(startedNanos, answeredNanos), millis(answeredNanos, endedNanos), target.reference) + "\n";
+    }
+
+    private static String millis(long from, long to) {
+        return from == 0 || to == 0 ? "" : String.valueOf((to - from) / 1_000_000);
+    }
+}
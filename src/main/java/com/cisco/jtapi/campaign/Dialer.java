@@ -0,0 +1,261 @@
+package com.cisco.jtapi.campaign;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Paces the campaign: keeps up to CAMPAIGN_CONCURRENCY calls in flight across
+// the originating lines, starting new ones no faster than the token bucket
+// allows, and appends each call's result to the results file as it finishes.
+
+// Everything here runs on the one "Dialer" scheduler thread: the pacing tick,
+// ring/hold timers and result writing.  JTAPI requests go to the callControl
+// executor and call progress arrives as events, so there is no thread per
+// call however many are in flight.
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.telephony.*;
+
+import com.cisco.jtapi.common.CallThreads;
+import com.cisco.jtapi.common.LineBootstrap;
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.common.TokenBucket;
+import com.cisco.jtapi.extensions.CiscoCall;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class Dialer {
+
+    // How often the dialer checks whether it can start more calls
+    private static final long TICK_MILLIS = 10;
+
+    // A destination from the campaign file
+    public static class Target {
+        final String destination;
+        // The rest of the CSV row, copied to the result
+        final String reference;
+
+        Target(String destination, String reference) {
+            this.destination = destination;
+            this.reference = reference;
+        }
+    }
+
+    final long ringTimeoutMillis;
+    final long holdMillis;
+    final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "Dialer"));
+    // JTAPI requests are issued from here, never from the observer threads
+    // (CALL_THREADS=virtual: each on its own virtual thread)
+    final ExecutorService callControl;
+    // Calls in flight, by Call, for the Handler to find
+    final Map<Call, CampaignCall> calls = new ConcurrentHashMap<Call, CampaignCall>();
+
+    // Replaced by failedOver(), with the same lines on the standby provider
+    private volatile List<LineBootstrap.Line> lines;
+    private final int[] lineCalls;
+    private final int callsPerLine;
+    private final int concurrency;
+    private final TokenBucket attempts;
+    private final ArrayDeque<Target> targets;
+    private final int total;
+    private final BufferedWriter results;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final long started = System.nanoTime();
+
+    // Only touched on the scheduler thread
+    private int nextLine;
+    private int inFlight;
+    private int done;
+    private boolean unflushed;
+    private final Map<CampaignCall.Outcome, Integer> outcomes = new EnumMap<CampaignCall.Outcome, Integer>(
+            CampaignCall.Outcome.class);
+
+    public Dialer(List<LineBootstrap.Line> lines, List<Target> targets, Dotenv dotenv) throws IOException {
+        this.callControl = CallThreads.create(dotenv).newExecutor("callControl", 4);
+        this.lines = lines;
+        this.lineCalls = new int[lines.size()];
+        this.callsPerLine = Math.max(1, Integer.parseInt(dotenv.get("CAMPAIGN_CALLS_PER_LINE", "1")));
+        String concurrency = dotenv.get("CAMPAIGN_CONCURRENCY", "");
+        this.concurrency = concurrency.isEmpty() ? lines.size() * callsPerLine
+                : Math.max(1, Integer.parseInt(concurrency));
+        this.attempts = new TokenBucket(Double.parseDouble(dotenv.get("CAMPAIGN_RATE", "1")),
+                Double.parseDouble(dotenv.get("CAMPAIGN_BURST", "1")));
+        this.ringTimeoutMillis = Long.parseLong(dotenv.get("CAMPAIGN_RING_TIMEOUT_MS", "30000"));
+        this.holdMillis = Long.parseLong(dotenv.get("CAMPAIGN_HOLD_MS", "5000"));
+        this.targets = new ArrayDeque<Target>(targets);
+        this.total = targets.size();
+        this.results = Files.newBufferedWriter(Paths.get(dotenv.get("CAMPAIGN_RESULTS_FILE", "campaign-results.csv")),
+                StandardCharsets.UTF_8);
+        results.write("destination,line,outcome,cause,started,setup_ms,answer_ms,talk_ms,reference\n");
+    }
+
+    // Destinations from a CSV file: the first column is the number to dial, the
+    // rest is kept as a reference.  Blank lines, # comments and a header row
+    // starting with "destination" are skipped
+    public static List<Target> readTargets(String file) throws IOException {
+        List<Target> targets = new ArrayList<Target>();
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int comma = line.indexOf(',');
+            String destination = (comma < 0 ? line : line.substring(0, comma)).trim().replace("\"", "");
+            if (destination.equalsIgnoreCase("destination")) {
+                continue;
+            }
+            targets.add(new Target(destination, comma < 0 ? "" : line.substring(comma + 1).trim()));
+        }
+        return targets;
+    }
+
+    public void start(long progressMillis) {
+        if (total == 0) {
+            scheduler.execute(this::finish);
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::pump, 0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        if (progressMillis > 0) {
+            scheduler.scheduleAtFixedRate(() -> Log.info(getStats()), progressMillis, progressMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void await() throws InterruptedException {
+        finished.await();
+    }
+
+    // Start as many calls as the concurrency limit, the lines and the rate
+    // limit allow
+    private void pump() {
+        while (!targets.isEmpty() && inFlight < concurrency) {
+            int line = freeLine();
+            if (line < 0 || !attempts.tryAcquire()) {
+                break;
+            }
+            lineCalls[line]++;
+            inFlight++;
+            new CampaignCall(this, targets.poll(), lines.get(line), line).dial();
+        }
+        flush();
+    }
+
+    // The next line, round-robin, with room for another call; -1 if none
+    private int freeLine() {
+        for (int i = 0; i < lines.size(); i++) {
+            int line = (nextLine + i) % lines.size();
+            if (lineCalls[line] < callsPerLine) {
+                nextLine = line + 1;
+                return line;
+            }
+        }
+        return -1;
+    }
+
+    // The standby provider has taken over: dial from its lines from now on, and
+    // carry each call in flight over to the standby's view of the same call
+    // (by global call ID), or report it as lost
+    public void failedOver(List<LineBootstrap.Line> standbyLines, Call[] snapshot) {
+        lines = standbyLines;
+        Map<Integer, Call> byID = new HashMap<Integer, Call>();
+        for (Call call : snapshot) {
+            byID.put(((CiscoCall) call).getCallID().getGlobalCallID(), call);
+        }
+        int resynced = 0;
+        int lost = 0;
+        for (CampaignCall call : new ArrayList<CampaignCall>(calls.values())) {
+            if (call.resync(byID)) {
+                resynced++;
+            } else {
+                lost++;
+            }
+        }
+        Log.info("Campaign: failed over, " + resynced + " call(s) in flight carried over, " + lost + " lost");
+    }
+
+    // Called by a CampaignCall once it has ended, on any thread
+    void completed(CampaignCall call) {
+        scheduler.execute(() -> {
+            lineCalls[call.lineIndex]--;
+            inFlight--;
+            done++;
+            outcomes.merge(call.getOutcome(), 1, Integer::sum);
+            try {
+                results.write(call.toResult());
+                unflushed = true;
+            } catch (IOException e) {
+                Log.warn("Unable to write result: " + e);
+            }
+            if (done == total) {
+                finish();
+            } else {
+                pump();
+            }
+        });
+    }
+
+    private void flush() {
+        if (unflushed) {
+            try {
+                results.flush();
+            } catch (IOException e) {
+                Log.warn("Unable to write results: " + e);
+            }
+            unflushed = false;
+        }
+    }
+
+    private void finish() {
+        // close() flushes; a pacing tick may still run after this
+        unflushed = false;
+        try {
+            results.close();
+        } catch (IOException e) {
+            Log.warn("Unable to write results: " + e);
+        }
+        Log.info(getStats());
+        finished.countDown();
+    }
+
+    static String timestamp(long epochMillis) {
+        return Instant.ofEpochMilli(epochMillis).toString();
+    }
+
+    // Call from the scheduler thread (or once finished)
+    public String getStats() {
+        double seconds = (System.nanoTime() - started) / 1e9;
+        return String.format("Campaign: %d/%d done, %d in flight, %.1f calls/s; %s", done, total, inFlight,
+                seconds == 0 ? 0.0 : done / seconds, outcomes);
+    }
+}
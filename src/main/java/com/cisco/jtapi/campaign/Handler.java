@@ -0,0 +1,90 @@
+package com.cisco.jtapi.campaign;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+import javax.telephony.*;
+import javax.telephony.events.*;
+import javax.telephony.callcontrol.*;
+import javax.telephony.callcontrol.events.CallCtlConnDisconnectedEv;
+import javax.telephony.callcontrol.events.CallCtlConnEstablishedEv;
+import javax.telephony.callcontrol.events.CallCtlConnFailedEv;
+
+import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.common.Log;
+
+public class Handler implements ProviderObserver, TerminalObserver, AddressObserver, CallControlCallObserver {
+
+    public void providerChangedEvent(ProvEv[] events) {
+        for (ProvEv ev : events) {
+            Log.event("Provider", ev);
+        }
+    }
+
+    public void terminalChangedEvent(TermEv[] events) {
+        for (TermEv ev : events) {
+            Log.event("Terminal", ev);
+        }
+    }
+
+    public void addressChangedEvent(AddrEv[] events) {
+        for (AddrEv ev : events) {
+            Log.event("Address", ev);
+        }
+    }
+
+    public void callChangedEvent(CallEv[] events) {
+        // Lines are observed before the Dialer is created; calls seen until
+        // then aren't the campaign's
+        Dialer dialer = campaign.dialer;
+        for (CallEv ev : events) {
+            Log.event("Call", ev);
+            CampaignCall call = dialer == null ? null : dialer.calls.get(ev.getCall());
+            if (call == null) {
+                continue;
+            }
+            switch (ev.getID()) {
+                case CallActiveEv.ID:
+                    call.active();
+                    break;
+                case CallCtlConnEstablishedEv.ID:
+                    if (farEnd(((CallCtlConnEstablishedEv) ev).getConnection())) {
+                        call.established();
+                    }
+                    break;
+                case CallCtlConnFailedEv.ID:
+                    if (farEnd(((CallCtlConnFailedEv) ev).getConnection())) {
+                        call.failed(ev.getCause());
+                    }
+                    break;
+                case CallCtlConnDisconnectedEv.ID:
+                    if (farEnd(((CallCtlConnDisconnectedEv) ev).getConnection())) {
+                        call.disconnected();
+                    }
+                    break;
+                case CallInvalidEv.ID:
+                    call.invalid();
+                    break;
+            }
+        }
+    }
+
+    // Any connection not on one of the campaign's own lines
+    private static boolean farEnd(Connection connection) {
+        return !campaign.lineDNs.contains(connection.getAddress().getName());
+    }
+}
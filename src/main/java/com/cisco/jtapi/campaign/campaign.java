@@ -0,0 +1,146 @@
+package com.cisco.jtapi.campaign;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Outbound notification campaign, built on the makeCall scenario: dials every
+// destination in a CSV file from a pool of originating lines, keeping a target
+// number of calls in flight and limiting call attempts per second with a
+// token bucket.  Each call is tracked to CallActiveEv, answer and disconnect,
+// and its result is appended to a results CSV as soon as it ends.
+
+// Devices used / requirements (configure these in .env):
+//   * CAMPAIGN_LINES / one or more CTI supported phones, associated with the
+//     JTAPI user (comma-separated DNs; default ALICE_DN)
+//   * CAMPAIGN_FILE / CSV of destinations, one per row: the number to dial,
+//     optionally followed by columns copied to the results (e.g. a customer id)
+
+// Scenario:
+// 1. The lines are opened together (LineBootstrap), spread across the
+//    PROVIDER_POOL_SIZE providers of the shared ProviderPool - or, with
+//    PROVIDER_STANDBY=on, on both an active and a warm-standby provider
+//    (StandbyProvider), dialing from the standby's if the active one fails
+// 2. Calls are connected from free lines, up to CAMPAIGN_CONCURRENCY at once
+//    and at most CAMPAIGN_RATE attempts/second (bursts of CAMPAIGN_BURST)
+// 3. Answered calls are held for CAMPAIGN_HOLD_MS and dropped; calls not
+//    answered within CAMPAIGN_RING_TIMEOUT_MS are dropped as NO_ANSWER
+// 4. Each result is written to CAMPAIGN_RESULTS_FILE as the call ends
+// 5. Once every destination has been called, a summary is logged
+
+// Be sure to rename .env.example to .env and configure your CUCM/user/DN
+//   details for the scenario.
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.telephony.*;
+
+import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.common.CtiPortPool;
+import com.cisco.jtapi.common.EventDispatcher;
+import com.cisco.jtapi.common.EventSubscription;
+import com.cisco.jtapi.common.LineBootstrap;
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.common.Metrics;
+import com.cisco.jtapi.common.MetricsServer;
+import com.cisco.jtapi.common.ProviderPool;
+import com.cisco.jtapi.common.StandbyProvider;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class campaign {
+
+    public static volatile Dialer dialer;
+    public static Set<String> lineDNs = new HashSet<String>();
+
+    private static void log(String msg) {
+        Log.info(msg);
+    }
+
+    public static void main(String[] args) throws
+
+    JtapiPeerUnavailableException, ResourceUnavailableException, MethodNotSupportedException, InvalidArgumentException,
+            PrivilegeViolationException, InterruptedException, IOException {
+
+        // Retrieve environment variables from .env, if present
+        Dotenv dotenv = Dotenv.load();
+
+        // Step latencies on METRICS_PORT, if set
+        MetricsServer.start(dotenv);
+
+        List<Dialer.Target> targets = Dialer.readTargets(dotenv.get("CAMPAIGN_FILE"));
+        log("Loaded " + targets.size() + " destinations from " + dotenv.get("CAMPAIGN_FILE"));
+
+        // The Handler class provides observers for provider/address/terminal/call events
+        Handler handler = new Handler();
+
+        // Handler callbacks run on the dispatcher's worker threads, so the JTAPI
+        // event thread only has to queue each event batch
+        EventDispatcher dispatcher = EventDispatcher.create(dotenv);
+        // Only the events listed for campaign in event_subscriptions.properties
+        // are delivered
+        EventSubscription subscription = EventSubscription.load(dotenv, "campaign");
+
+        String lineList = dotenv.get("CAMPAIGN_LINES", "");
+        String[] dns = CtiPortPool.parseDNs(lineList.isEmpty() ? dotenv.get("ALICE_DN") : lineList);
+        List<LineBootstrap.Line> lines;
+        ProviderPool pool = null;
+        StandbyProvider standby = null;
+        if (dotenv.get("PROVIDER_STANDBY", "off").equalsIgnoreCase("on")) {
+            // An active and a warm-standby provider on different CTI Managers, with
+            // every line open on both, so a CTI Manager outage only costs a switch
+            log("Opening active and standby providers at: " + dotenv.get("CUCM_ADDRESS"));
+            standby = StandbyProvider.open(dotenv);
+            log("Opening campaign line DN(s) on both providers: " + String.join(", ", dns));
+            lines = standby.openLines(dispatcher, handler, subscription, dns);
+        } else {
+            // Open the provider pool - PROVIDER_POOL_SIZE JTAPI connections to CUCM CTI
+            // Manager(s), shared with any other scenario in this JVM - and wait for
+            // all of them to go in service
+            log("Opening provider pool at: " + dotenv.get("CUCM_ADDRESS"));
+            pool = ProviderPool.shared(dotenv);
+            EventDispatcher.Observer observer = dispatcher.wrap(handler, subscription);
+            pool.addObserver(observer);
+
+            // Open the originating lines and wait for all of them to go in service
+            log("Opening campaign line DN(s): " + String.join(", ", dns));
+            LineBootstrap bootstrap = new LineBootstrap(pool, observer);
+            lines = bootstrap.open(dns);
+            log(bootstrap.getStats());
+        }
+        for (LineBootstrap.Line line : lines) {
+            lineDNs.add(line.getName());
+        }
+
+        dialer = new Dialer(lines, targets, dotenv);
+        if (standby != null) {
+            // On failover, dial from the standby's lines and carry calls over
+            standby.setListener(dialer::failedOver);
+        }
+        log("Starting campaign; results to " + dotenv.get("CAMPAIGN_RESULTS_FILE", "campaign-results.csv"));
+        dialer.start(Long.parseLong(dotenv.get("CAMPAIGN_PROGRESS_MS", "5000")));
+        dialer.await();
+
+        log(subscription.getStats());
+        log(standby != null ? standby.getStats() : pool.getStats());
+        log(Metrics.summary());
+        log("Done.");
+        System.exit(0);
+    }
+}
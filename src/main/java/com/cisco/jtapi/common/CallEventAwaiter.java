@@ -0,0 +1,179 @@
+package com.cisco.jtapi.common;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Waits for call events as CompletableFutures, instead of one-shot Condition
+// fields on the Handler.
+
+// A wait names the Call (or null for any call), the event type and optionally
+// a filter, and is registered before the request that will cause the event,
+// so the event can't slip past it.  The matching event completes the future,
+// once, on the observer thread, and the wait is removed; a timeout completes
+// it exceptionally with a TimeoutException.  Waits can be re-registered for
+// every step of every call, so a call flow can be composed asynchronously:
+
+//   awaiter.request(call, CallActiveEv.class, () -> call.connect(...), executor)
+//       .thenCompose(ev -> ...)
+
+// Add the awaiter as a call observer, typically wrapped by EventDispatcher so
+// futures complete on its worker threads.  Continuations that make JTAPI
+// requests should use the *Async stages with an executor (or request()), never
+// block the observer thread.
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.*;
+import javax.telephony.events.*;
+
+public class CallEventAwaiter implements CallControlCallObserver {
+
+    // Waits with no timeout given get this one
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30_000;
+
+    // A JTAPI request made for a step
+    public interface Request {
+        void run() throws Exception;
+    }
+
+    private static class Wait<E extends CallEv> {
+        final Class<E> type;
+        final Predicate<? super E> filter;
+        final CompletableFuture<E> future = new CompletableFuture<E>();
+
+        Wait(Class<E> type, Predicate<? super E> filter) {
+            this.type = type;
+            this.filter = filter;
+        }
+
+        // Complete with ev if it matches; true if it did
+        boolean offer(CallEv ev) {
+            if (!type.isInstance(ev)) {
+                return false;
+            }
+            E typed = type.cast(ev);
+            if (filter != null && !filter.test(typed)) {
+                return false;
+            }
+            return future.complete(typed);
+        }
+    }
+
+    // Key for waits on any call
+    private static final Object ANY_CALL = new Object();
+
+    private final Map<Object, List<Wait<?>>> waits = new ConcurrentHashMap<Object, List<Wait<?>>>();
+
+    // The next event of this type on call (null: any call)
+    public <E extends CallEv> CompletableFuture<E> await(Call call, Class<E> type) {
+        return await(call, type, null, DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // The next event of this type on call (null: any call) accepted by filter
+    // (null: any), or a TimeoutException after timeout
+    public <E extends CallEv> CompletableFuture<E> await(Call call, Class<E> type, Predicate<? super E> filter,
+            long timeout, TimeUnit unit) {
+        Object key = call == null ? ANY_CALL : call;
+        Wait<E> wait = new Wait<E>(type, filter);
+        // Added under the map's lock for the key, so it can't race remove()
+        // dropping an emptied list
+        waits.compute(key, (k, list) -> {
+            List<Wait<?>> added = list == null ? new CopyOnWriteArrayList<Wait<?>>() : list;
+            added.add(wait);
+            return added;
+        });
+        wait.future.orTimeout(timeout, unit).whenComplete((ev, e) -> remove(key, wait));
+        return wait.future;
+    }
+
+    // Register a wait, then make the request that should cause the event on
+    // executor; the future also completes exceptionally if the request fails.
+    // The time from request to event is recorded as step request.<event type>
+    public <E extends CallEv> CompletableFuture<E> request(Call call, Class<E> type, Predicate<? super E> filter,
+            Request request, Executor executor) {
+        CompletableFuture<E> future = await(call, type, filter, DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        LatencyHistogram latency = Metrics.histogram("request." + type.getSimpleName());
+        future.thenRun(() -> latency.recordSince(start));
+        executor.execute(() -> {
+            try {
+                request.run();
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    public <E extends CallEv> CompletableFuture<E> request(Call call, Class<E> type, Request request,
+            Executor executor) {
+        return request(call, type, null, request, executor);
+    }
+
+    // Number of waits not yet completed
+    public int pending() {
+        int count = 0;
+        for (List<Wait<?>> list : waits.values()) {
+            count += list.size();
+        }
+        return count;
+    }
+
+    private void remove(Object key, Wait<?> wait) {
+        waits.computeIfPresent(key, (k, list) -> {
+            list.remove(wait);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    public void callChangedEvent(CallEv[] events) {
+        for (CallEv ev : events) {
+            offer(waits.get(ev.getCall()), ev);
+            offer(waits.get(ANY_CALL), ev);
+        }
+    }
+
+    private static void offer(List<Wait<?>> list, CallEv ev) {
+        if (list == null) {
+            return;
+        }
+        for (Wait<?> wait : list) {
+            // Completed waits remove themselves
+            wait.offer(ev);
+        }
+    }
+
+    // For callers that want to tell a timeout from a failed request
+    public static boolean isTimeout(Throwable e) {
+        while (e != null) {
+            if (e instanceof TimeoutException) {
+                return true;
+            }
+            e = e.getCause();
+        }
+        return false;
+    }
+}
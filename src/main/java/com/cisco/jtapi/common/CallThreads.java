@@ -0,0 +1,79 @@
+package com.cisco.jtapi.common;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Threads for the samples' call flows: the executors that issue JTAPI requests
+// for each call, or run a per-call script.
+
+// CALL_THREADS selects the mode:
+//   platform  (default) a small fixed pool of platform threads per executor
+//   virtual   a new Java 21 virtual thread for every task, so a request that
+//             blocks for a CTI Manager round-trip holds no platform thread
+//             while it waits, and thousands of calls can be in progress, each
+//             written as plain sequential code
+
+// A virtual thread blocked inside a synchronized block or a monitor wait() is
+// pinned to its carrier thread.  Call flows should therefore wait on
+// java.util.concurrent primitives - CallEventAwaiter futures, latches - never
+// on com.cisco.cti.util.Condition, whose waitTrue() waits on a monitor.  Run
+// with -Djdk.tracePinnedThreads=short to see any pinning that remains.
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class CallThreads {
+
+    public enum Mode {
+        PLATFORM,
+        VIRTUAL
+    }
+
+    private final Mode mode;
+
+    public CallThreads(Mode mode) {
+        this.mode = mode;
+    }
+
+    // The mode named by CALL_THREADS
+    public static CallThreads create(Dotenv dotenv) {
+        String mode = dotenv.get("CALL_THREADS", "");
+        return new CallThreads(mode.isEmpty() ? Mode.PLATFORM : Mode.valueOf(mode.toUpperCase()));
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    // An executor for JTAPI requests: poolSize platform threads, or a virtual
+    // thread per task
+    public ExecutorService newExecutor(String name, int poolSize) {
+        if (mode == Mode.VIRTUAL) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+        }
+        return Executors.newFixedThreadPool(poolSize, platformThreads(name));
+    }
+
+    private static ThreadFactory platformThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> new Thread(r, name + "-" + count.incrementAndGet());
+    }
+}
@@ -0,0 +1,329 @@
+package com.cisco.jtapi.common;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// A pool of CTI Ports, registered up front, each with its own RTP port.
+// Ports are leased to a call while it is using them and returned when the
+// call is done; lease requests made while every port is busy are queued and
+// granted in order as ports come back.  Saturation and wait-time statistics
+// are kept so the pool can be sized against peak call arrival rate, and each
+// lease's wait is recorded as Metrics step ctiPort.leaseWait.
+
+// The CTI_PORT_DN setting may list several DNs, separated by commas.
+
+// With an RtpReceiver set, each port's RTP port is one of the receiver's
+// Endpoints, bound for as long as the pool is open, so the port's inbound
+// media can be read; otherwise an ephemeral port number is only probed.
+
+// A DN listed twice is opened once, and open() waits once for each distinct
+// Address and Terminal.  Ports not in service within OPEN_TIMEOUT_MILLIS fail
+// open() with their DNs.
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.telephony.*;
+import javax.telephony.events.*;
+
+import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.media.RtpReceiver;
+
+public class CtiPortPool implements AddressObserver, TerminalObserver {
+
+    public static final long OPEN_TIMEOUT_MILLIS = 30_000;
+
+    public static class Port {
+        public final CiscoAddress address;
+        public final CiscoMediaTerminal terminal;
+        public final InetAddress rtpAddress;
+        public final int rtpPort;
+        // Where the port's inbound RTP is read, or null
+        public final RtpReceiver.Endpoint endpoint;
+        private boolean busy;
+
+        Port(CiscoAddress address, CiscoMediaTerminal terminal, InetAddress rtpAddress, int rtpPort,
+                RtpReceiver.Endpoint endpoint) {
+            this.address = address;
+            this.terminal = terminal;
+            this.rtpAddress = rtpAddress;
+            this.rtpPort = rtpPort;
+            this.endpoint = endpoint;
+        }
+
+        public String getName() {
+            return address.getName();
+        }
+    }
+
+    // A queued lease request
+    private static class Waiter {
+        final Consumer<Port> onLeased;
+        final long requested = System.nanoTime();
+
+        Waiter(Consumer<Port> onLeased) {
+            this.onLeased = onLeased;
+        }
+    }
+
+    private final List<Port> ports = new ArrayList<Port>();
+    private final ArrayDeque<Port> idle = new ArrayDeque<Port>();
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<Waiter>();
+    private final Set<Object> inService = new HashSet<Object>();
+    // Guarded by inService: the devices open() is still waiting for
+    private Set<Object> waiting;
+    private CountDownLatch allInService;
+    private RtpReceiver receiver;
+    private volatile long startNanos;
+
+    // Statistics
+    private long leases;
+    private long queuedLeases;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private int peakBusy;
+
+    public static String[] parseDNs(String dnList) {
+        return dnList.trim().split("\\s*,\\s*");
+    }
+
+    // Read the ports' inbound RTP with receiver; set before open()
+    public void setReceiver(RtpReceiver receiver) {
+        this.receiver = receiver;
+    }
+
+    // Open and register a CTI Port for each DN, adding observer to each address
+    // and terminal, and wait until all of them are in service
+    public void open(CiscoProvider provider, String[] dns, Object observer) throws InvalidArgumentException,
+            ResourceUnavailableException, MethodNotSupportedException, PrivilegeViolationException, InvalidStateException,
+            CiscoRegistrationException, IOException, InterruptedException {
+
+        InetAddress rtpAddress = InetAddress.getLocalHost();
+        startNanos = System.nanoTime();
+        List<Port> opened = new ArrayList<Port>();
+        for (String dn : dns) {
+            CiscoAddress address = (CiscoAddress) provider.getAddress(dn);
+            if (find(address) != null) {
+                continue;
+            }
+            address.addObserver(this);
+            address.addObserver((AddressObserver) observer);
+            CiscoMediaTerminal terminal = (CiscoMediaTerminal) address.getTerminals()[0];
+            terminal.addObserver(this);
+            terminal.addObserver((TerminalObserver) observer);
+            // Each port gets its own ephemeral RTP port number
+            RtpReceiver.Endpoint endpoint = null;
+            int rtpPort;
+            if (receiver != null) {
+                endpoint = receiver.open(rtpAddress);
+                rtpPort = endpoint.getPort();
+            } else {
+                DatagramSocket sock = new DatagramSocket();
+                rtpPort = sock.getLocalPort();
+                sock.close();
+            }
+            terminal.register(rtpAddress, rtpPort,
+                    new CiscoMediaCapability[] { CiscoMediaCapability.G711_64K_30_MILLISECONDS });
+            Port port = new Port(address, terminal, rtpAddress, rtpPort, endpoint);
+            ports.add(port);
+            opened.add(port);
+        }
+        // Wait once for each distinct device, less any already in service
+        synchronized (inService) {
+            waiting = new LinkedHashSet<Object>();
+            for (Port port : opened) {
+                waiting.add(port.address);
+                waiting.add(port.terminal);
+            }
+            waiting.removeAll(inService);
+            allInService = new CountDownLatch(waiting.size());
+        }
+        if (!allInService.await(OPEN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            throw new ResourceUnavailableException(ResourceUnavailableException.UNKNOWN,
+                    "CTI Ports not in service: " + notInService(opened));
+        }
+        EventSubscription subscription = EventSubscription.of(observer);
+        for (Port port : opened) {
+            subscription.applyTo(port.terminal);
+            subscription.applyTo(port.address);
+            // Enable auto accept for incoming offering calls
+            port.address.setAutoAcceptStatus(CiscoAddress.AUTOACCEPT_ON, port.terminal);
+            port.address.addCallObserver((CallObserver) observer);
+            synchronized (this) {
+                idle.add(port);
+            }
+        }
+    }
+
+    // Add a port that is already open, registered and in service (e.g. one of
+    // EventReplayer's stand-ins)
+    public synchronized void add(CiscoAddress address, CiscoMediaTerminal terminal, InetAddress rtpAddress,
+            int rtpPort) {
+        Port port = new Port(address, terminal, rtpAddress, rtpPort, null);
+        ports.add(port);
+        idle.add(port);
+    }
+
+    public List<Port> getPorts() {
+        return Collections.unmodifiableList(ports);
+    }
+
+    public Port find(Address address) {
+        for (Port port : ports) {
+            if (port.address.equals(address)) {
+                return port;
+            }
+        }
+        return null;
+    }
+
+    public Port find(Terminal terminal) {
+        for (Port port : ports) {
+            if (port.terminal.equals(terminal)) {
+                return port;
+            }
+        }
+        return null;
+    }
+
+    // Lease any idle port; onLeased is called immediately if one is free, else
+    // from release() once one comes back
+    public void lease(Consumer<Port> onLeased) {
+        Port port;
+        synchronized (this) {
+            port = idle.poll();
+            if (port == null) {
+                queuedLeases++;
+                waiters.add(new Waiter(onLeased));
+                return;
+            }
+            granted(port, 0);
+        }
+        onLeased.accept(port);
+    }
+
+    // Mark a specific port busy, e.g. when a call arrives at it directly.
+    // Returns false if the port was already leased
+    public synchronized boolean acquire(Port port) {
+        if (port.busy) {
+            return false;
+        }
+        idle.remove(port);
+        granted(port, 0);
+        return true;
+    }
+
+    // Return a port to the pool, handing it straight to the oldest waiter if any
+    public void release(Port port) {
+        Waiter waiter;
+        synchronized (this) {
+            if (!port.busy) {
+                return;
+            }
+            port.busy = false;
+            waiter = waiters.poll();
+            if (waiter == null) {
+                idle.add(port);
+                return;
+            }
+            granted(port, System.nanoTime() - waiter.requested);
+        }
+        waiter.onLeased.accept(port);
+    }
+
+    private void granted(Port port, long waitNanos) {
+        port.busy = true;
+        leases++;
+        totalWaitNanos += waitNanos;
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+        Metrics.record("ctiPort.leaseWait", waitNanos);
+        peakBusy = Math.max(peakBusy, busyCount());
+    }
+
+    public synchronized int busyCount() {
+        return ports.size() - idle.size();
+    }
+
+    public synchronized int waitingCount() {
+        return waiters.size();
+    }
+
+    // Fraction of ports currently leased, 0.0 - 1.0
+    public synchronized double saturation() {
+        return ports.isEmpty() ? 0 : (double) busyCount() / ports.size();
+    }
+
+    public synchronized String getStats() {
+        return String.format(
+                "CTI Port pool: %d/%d busy (peak %d), %d waiting, %d leases, %d queued (%.1f%%), wait avg %.1f ms / max %.1f ms",
+                busyCount(), ports.size(), peakBusy, waiters.size(), leases, queuedLeases,
+                leases == 0 ? 0.0 : 100.0 * queuedLeases / leases,
+                leases == 0 ? 0.0 : totalWaitNanos / 1e6 / leases, maxWaitNanos / 1e6);
+    }
+
+    private String notInService(List<Port> opened) {
+        List<String> names = new ArrayList<String>();
+        synchronized (inService) {
+            for (Port port : opened) {
+                if (waiting.contains(port.address) || waiting.contains(port.terminal)) {
+                    names.add(port.getName());
+                }
+            }
+        }
+        return String.join(", ", names);
+    }
+
+    // True the first time device comes into service
+    private boolean inService(Object device) {
+        synchronized (inService) {
+            if (!inService.add(device)) {
+                return false;
+            }
+            if (waiting != null && waiting.remove(device)) {
+                allInService.countDown();
+            }
+            return true;
+        }
+    }
+
+    public void terminalChangedEvent(TermEv[] events) {
+        for (TermEv ev : events) {
+            if (ev.getID() == CiscoTermInServiceEv.ID && inService(ev.getTerminal())) {
+                Metrics.recordSince("ctiPort.terminalInService", startNanos);
+            }
+        }
+    }
+
+    public void addressChangedEvent(AddrEv[] events) {
+        for (AddrEv ev : events) {
+            if (ev.getID() == CiscoAddrInServiceEv.ID && inService(ev.getAddress())) {
+                Metrics.recordSince("ctiPort.addressInService", startNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.cisco.jtapi.common;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Moves observer callbacks off the JTAPI event thread.  wrap() returns an
+// observer that copies each event batch into a bounded lock-free ring buffer
+// and returns at once; worker threads then deliver the batch to the real
+// handler.  Batches are assigned to a worker by Call (or Terminal/Address for
+// those events), so the events of any one call are always handled in order.
+// Wrapped with an EventSubscription, only the events the handler subscribes to
+// are queued.  With an EventJournal, every event is first recorded there,
+// whether subscribed to or not.
+
+// Configuration (.env, all optional):
+//   EVENT_DISPATCH_WORKERS      worker threads (default 2)
+//   EVENT_DISPATCH_CAPACITY     queued batches per worker (default 4096)
+//   EVENT_DISPATCH_BACKPRESSURE what to do when a worker's queue is full:
+//       BLOCK       wait for space (default; nothing is lost)
+//       CALLER_RUNS deliver on the JTAPI thread (may reorder that call)
+//       DROP        discard the batch and count it
+//   EVENT_JOURNAL_DIR           record all events to an EventJournal here
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.*;
+import javax.telephony.events.*;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class EventDispatcher {
+
+    public enum Backpressure {
+        BLOCK, CALLER_RUNS, DROP
+    }
+
+    // Event kinds, also used by EventSubscription
+    static final int PROVIDER = 0;
+    static final int TERMINAL = 1;
+    static final int ADDRESS = 2;
+    static final int CALL = 3;
+
+    private static final LatencyHistogram queueTime = Metrics.histogram("dispatch.queue");
+    private static final LatencyHistogram handlerTime = Metrics.histogram("dispatch.handler");
+    private static final AtomicInteger observers = new AtomicInteger();
+
+    // A copied event batch and where it is going
+    private static class Batch {
+        final Object handler;
+        final int kind;
+        final Ev[] events;
+        final long queued = System.nanoTime();
+
+        Batch(Object handler, int kind, Ev[] events) {
+            this.handler = handler;
+            this.kind = kind;
+            this.events = events;
+        }
+    }
+
+    private class Lane implements Runnable {
+        final RingBuffer<Batch> queue;
+        final Thread worker;
+        volatile boolean parked;
+
+        Lane(int index, int capacity) {
+            queue = new RingBuffer<Batch>(capacity);
+            worker = new Thread(this, "EventDispatcher-" + index);
+            worker.setDaemon(true);
+        }
+
+        void wake() {
+            if (parked) {
+                LockSupport.unpark(worker);
+            }
+        }
+
+        public void run() {
+            while (true) {
+                Batch batch = queue.poll();
+                if (batch == null) {
+                    parked = true;
+                    // Re-check after advertising we're parked so a racing offer isn't missed
+                    batch = queue.poll();
+                    if (batch == null) {
+                        LockSupport.park(this);
+                        parked = false;
+                        continue;
+                    }
+                    parked = false;
+                }
+                deliver(batch);
+            }
+        }
+    }
+
+    // The observer handed to JTAPI in place of the real handler
+    public class Observer implements ProviderObserver, TerminalObserver, AddressObserver, CallControlCallObserver {
+
+        private final Object handler;
+        private final EventSubscription subscription;
+        // Creation order in the JVM, which tells replayed handlers apart
+        private final int index = observers.getAndIncrement();
+
+        Observer(Object handler, EventSubscription subscription) {
+            this.handler = handler;
+            this.subscription = subscription;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public Object getHandler() {
+            return handler;
+        }
+
+        public EventSubscription getSubscription() {
+            return subscription;
+        }
+
+        public void providerChangedEvent(ProvEv[] events) {
+            record(PROVIDER, index, events);
+            ProvEv[] wanted = subscription.filter(PROVIDER, events);
+            if (wanted != null) {
+                dispatch(new Batch(handler, PROVIDER, wanted), 0);
+            }
+        }
+
+        public void terminalChangedEvent(TermEv[] events) {
+            record(TERMINAL, index, events);
+            TermEv[] wanted = subscription.filter(TERMINAL, events);
+            if (wanted != null) {
+                dispatch(new Batch(handler, TERMINAL, wanted), events[0].getTerminal().hashCode());
+            }
+        }
+
+        public void addressChangedEvent(AddrEv[] events) {
+            record(ADDRESS, index, events);
+            AddrEv[] wanted = subscription.filter(ADDRESS, events);
+            if (wanted != null) {
+                dispatch(new Batch(handler, ADDRESS, wanted), events[0].getAddress().hashCode());
+            }
+        }
+
+        public void callChangedEvent(CallEv[] events) {
+            record(CALL, index, events);
+            CallEv[] wanted = subscription.filter(CALL, events);
+            if (wanted != null) {
+                dispatch(new Batch(handler, CALL, wanted), events[0].getCall().hashCode());
+            }
+        }
+    }
+
+    private final Lane[] lanes;
+    private final Backpressure backpressure;
+    private volatile EventJournal journal;
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong callerRuns = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public EventDispatcher(int workers, int capacity, Backpressure backpressure) {
+        this.backpressure = backpressure;
+        lanes = new Lane[workers];
+        for (int i = 0; i < workers; i++) {
+            lanes[i] = new Lane(i, capacity);
+            lanes[i].worker.start();
+        }
+    }
+
+    public static EventDispatcher create(Dotenv dotenv) {
+        EventDispatcher dispatcher = new EventDispatcher(
+                Integer.parseInt(dotenv.get("EVENT_DISPATCH_WORKERS", "2")),
+                Integer.parseInt(dotenv.get("EVENT_DISPATCH_CAPACITY", "4096")),
+                Backpressure.valueOf(dotenv.get("EVENT_DISPATCH_BACKPRESSURE", "BLOCK")));
+        dispatcher.setJournal(EventJournal.shared(dotenv));
+        return dispatcher;
+    }
+
+    // Record every event received to journal (null: stop recording)
+    public void setJournal(EventJournal journal) {
+        this.journal = journal;
+    }
+
+    public EventJournal getJournal() {
+        return journal;
+    }
+
+    // Returns an observer to register with JTAPI in place of handler
+    public Observer wrap(Object handler) {
+        return new Observer(handler, EventSubscription.ALL);
+    }
+
+    // As wrap(handler), delivering only the events in subscription
+    public Observer wrap(Object handler, EventSubscription subscription) {
+        return new Observer(handler, subscription);
+    }
+
+    private void record(int kind, int observer, Ev[] events) {
+        EventJournal recorder = journal;
+        if (recorder != null) {
+            recorder.append(kind, observer, events);
+        }
+    }
+
+    private void dispatch(Batch batch, int key) {
+        Lane lane = lanes[(key & Integer.MAX_VALUE) % lanes.length];
+        if (!lane.queue.offer(batch)) {
+            switch (backpressure) {
+                case DROP:
+                    dropped.incrementAndGet();
+                    return;
+                case CALLER_RUNS:
+                    callerRuns.incrementAndGet();
+                    deliver(batch);
+                    return;
+                case BLOCK:
+                    blocked.incrementAndGet();
+                    while (!lane.queue.offer(batch)) {
+                        lane.wake();
+                        LockSupport.parkNanos(50_000);
+                    }
+                    break;
+            }
+        }
+        dispatched.incrementAndGet();
+        lane.wake();
+    }
+
+    private static void deliver(Batch batch) {
+        long start = System.nanoTime();
+        queueTime.record(start - batch.queued);
+        try {
+            switch (batch.kind) {
+                case PROVIDER:
+                    ((ProviderObserver) batch.handler).providerChangedEvent((ProvEv[]) batch.events);
+                    break;
+                case TERMINAL:
+                    ((TerminalObserver) batch.handler).terminalChangedEvent((TermEv[]) batch.events);
+                    break;
+                case ADDRESS:
+                    ((AddressObserver) batch.handler).addressChangedEvent((AddrEv[]) batch.events);
+                    break;
+                case CALL:
+                    ((CallObserver) batch.handler).callChangedEvent((CallEv[]) batch.events);
+                    break;
+            }
+        } catch (RuntimeException e) {
+            // A failing handler must not kill its worker
+            Log.warn("EventDispatcher: handler threw " + e);
+        }
+        handlerTime.recordSince(start);
+    }
+
+    public int queued() {
+        int total = 0;
+        for (Lane lane : lanes) {
+            total += lane.queue.size();
+        }
+        return total;
+    }
+
+    public String getStats() {
+        return String.format("Event dispatcher: %d workers, %d batches dispatched, %d queued, "
+                + "%d blocked, %d caller-runs, %d dropped (%s)",
+                lanes.length, dispatched.get(), queued(), blocked.get(), callerRuns.get(), dropped.get(),
+                backpressure);
+    }
+}
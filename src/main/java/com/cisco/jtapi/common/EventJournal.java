@@ -0,0 +1,752 @@
+package com.cisco.jtapi.common;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// A compact binary record of every event JTAPI delivers to the samples'
+// observers, for post-incident analysis without the cost of JTAPI's text
+// trace.  EventDispatcher appends each event as it arrives on the JTAPI event
+// thread (before subscription filtering): a fixed-size record of event ID,
+// kind, cause, call IDs and timestamp plus the address, terminal and
+// calling/called party names, written straight into a memory-mapped segment
+// file.  That is enough to rebuild the events for EventReplayer.  Appending is a
+// fetch-and-add on the segment's write position and a few stores - no lock,
+// no system call, no formatting; the OS writes the pages back, so records
+// survive a JVM crash.
+
+// Segments are a fixed size.  A background thread keeps the next segment
+// mapped ahead of time, forces full ones to disk and deletes the oldest once
+// there are more than EVENT_JOURNAL_SEGMENTS.  If the next segment isn't
+// ready when one fills (the disk can't keep up), events are dropped and
+// counted rather than holding up the JTAPI thread.
+
+// Segment layout (big-endian): int magic, int version, long segment number,
+// then records:
+//   int   record length, padded to a multiple of 4 and stored last (0: not
+//         written yet, -1: end of segment)
+//   long  timestamp, nanoseconds since the epoch
+//   int   event ID (Ev.getID())
+//   byte  kind: 0 provider, 1 terminal, 2 address, 3 call; plus 0x80 for
+//         the first event of a batch, 0x40 for a failed transfer
+//   byte  observer: the EventDispatcher.Observer it was delivered to, in the
+//         order they were created (EventDispatcher.wrap())
+//   int   cause (Ev.getCause())
+//   int   call ID (CiscoCallID.intValue()), 0 if none
+//   int   transferred/conferenced call ID for transfer/conference events
+//   then, each as a length byte and ASCII text (length 0 if none):
+//         address, terminal, calling address, called address
+// Reader streams the records back; com.cisco.jtapi.journal.readJournal prints
+// them.  A record whose length was never stored (the writer died part way
+// through it) is skipped: the reader scans forward, 4 bytes at a time, for
+// the next complete record, and counts the gap.
+
+// Configuration (.env, optional):
+//   EVENT_JOURNAL_DIR           directory for segment files; unset or empty:
+//                               no journal
+//   EVENT_JOURNAL_SEGMENT_MB    segment size (default 64)
+//   EVENT_JOURNAL_SEGMENTS      segments to keep (default 16)
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.URISyntaxException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.events.CallCtlCallEv;
+import javax.telephony.events.*;
+
+import com.cisco.jtapi.extensions.*;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class EventJournal {
+
+    public static final int MAGIC = 0x4A545631; // "JTV1"
+    public static final int VERSION = 2;
+    public static final String SUFFIX = ".jnl";
+    static final int HEADER_SIZE = 16;
+    static final int FIXED_SIZE = 34;
+    static final int MAX_NAME = 255;
+    static final int MAX_SIZE = (FIXED_SIZE + 4 * MAX_NAME + 3) & ~3;
+    static final int END = -1;
+    static final int BATCH_START = 0x80;
+    static final int TRANSFER_FAILED = 0x40;
+
+    // Publishes a record's length after the rest of it
+    private static final VarHandle LENGTH = MethodHandles.byteBufferViewVarHandle(int[].class,
+            ByteOrder.BIG_ENDIAN);
+
+    private static EventJournal shared;
+
+    // One mapped segment file
+    private static class Segment {
+        final File file;
+        final MappedByteBuffer buffer;
+        final AtomicInteger position = new AtomicInteger(HEADER_SIZE);
+
+        Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final int keep;
+    private final long epochOffsetNanos;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Deque<File> files = new ArrayDeque<File>();
+    private final ConcurrentLinkedQueue<Segment> full = new ConcurrentLinkedQueue<Segment>();
+    private final Thread roller;
+    private volatile Segment current;
+    private volatile Segment next;
+    private volatile boolean closed;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private long segments;
+
+    public EventJournal(File directory, int segmentSize, int keep) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.keep = Math.max(1, keep);
+        this.epochOffsetNanos = System.currentTimeMillis() * 1_000_000 - System.nanoTime();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        // Carry on numbering from segments left by earlier runs
+        for (File file : segmentFiles(directory)) {
+            files.add(file);
+            sequence.set(Math.max(sequence.get(), number(file) + 1));
+        }
+        current = map();
+        next = map();
+        roller = new Thread(this::roll, "EventJournal");
+        roller.setDaemon(true);
+        roller.start();
+    }
+
+    // A journal as configured in .env, or null if EVENT_JOURNAL_DIR isn't set
+    public static EventJournal open(Dotenv dotenv) throws IOException {
+        String dir = dotenv.get("EVENT_JOURNAL_DIR", "");
+        if (dir.isEmpty()) {
+            return null;
+        }
+        return new EventJournal(new File(dir),
+                Integer.parseInt(dotenv.get("EVENT_JOURNAL_SEGMENT_MB", "64")) * 1024 * 1024,
+                Integer.parseInt(dotenv.get("EVENT_JOURNAL_SEGMENTS", "16")));
+    }
+
+    // The JVM's journal, opened by the first dispatcher to ask for it and
+    // closed when the JVM exits
+    public static synchronized EventJournal shared(Dotenv dotenv) {
+        if (shared == null) {
+            try {
+                shared = open(dotenv);
+            } catch (IOException e) {
+                Log.warn("EventJournal: unable to open " + dotenv.get("EVENT_JOURNAL_DIR") + ": " + e);
+                return null;
+            }
+            if (shared != null) {
+                EventJournal journal = shared;
+                Runtime.getRuntime().addShutdownHook(new Thread(journal::close, "EventJournal-close"));
+                Log.info("EventJournal: writing to " + journal.directory);
+            }
+        }
+        return shared;
+    }
+
+    // Record a batch of events of one kind (EventDispatcher.PROVIDER...)
+    // delivered to an observer
+    public void append(int kind, int observer, Ev[] events) {
+        for (int i = 0; i < events.length; i++) {
+            append(i == 0 ? kind | BATCH_START : kind, observer, events[i]);
+        }
+    }
+
+    private void append(int flags, int observer, Ev ev) {
+        if (closed) {
+            return;
+        }
+        long timestamp = epochOffsetNanos + System.nanoTime();
+        String address = addressOf(ev);
+        String terminal = terminalOf(ev);
+        String calling = null;
+        String called = null;
+        if (ev instanceof CallCtlCallEv) {
+            calling = nameOf(((CallCtlCallEv) ev).getCallingAddress());
+            called = nameOf(((CallCtlCallEv) ev).getCalledAddress());
+        }
+        int related = 0;
+        if (ev instanceof CiscoTransferStartEv) {
+            related = callIdOf(((CiscoTransferStartEv) ev).getTransferredCall());
+        } else if (ev instanceof CiscoTransferEndEv) {
+            related = callIdOf(((CiscoTransferEndEv) ev).getTransferredCall());
+            if (!((CiscoTransferEndEv) ev).isSuccess()) {
+                flags |= TRANSFER_FAILED;
+            }
+        } else if (ev instanceof CiscoConferenceStartEv) {
+            related = callIdOf(((CiscoConferenceStartEv) ev).getConferencedCall());
+        } else if (ev instanceof CiscoConferenceEndEv) {
+            related = callIdOf(((CiscoConferenceEndEv) ev).getConferencedCall());
+        }
+        // Lengths are kept 4-byte aligned for the release store
+        int length = (FIXED_SIZE + nameLength(address) + nameLength(terminal) + nameLength(calling)
+                + nameLength(called) + 3) & ~3;
+        while (true) {
+            Segment segment = current;
+            int offset = segment.position.get() < segmentSize ? segment.position.getAndAdd(length) : segmentSize;
+            if (offset + length <= segmentSize) {
+                MappedByteBuffer buffer = segment.buffer;
+                int at = offset + 4;
+                buffer.putLong(at, timestamp);
+                buffer.putInt(at + 8, ev.getID());
+                buffer.put(at + 12, (byte) flags);
+                buffer.put(at + 13, (byte) observer);
+                buffer.putInt(at + 14, ev.getCause());
+                buffer.putInt(at + 18, callIdOf(ev));
+                buffer.putInt(at + 22, related);
+                at = putName(buffer, at + 26, address);
+                at = putName(buffer, at, terminal);
+                at = putName(buffer, at, calling);
+                putName(buffer, at, called);
+                LENGTH.setRelease(buffer, offset, length);
+                written.incrementAndGet();
+                return;
+            }
+            if (offset < segmentSize && offset + 4 <= segmentSize) {
+                // This record crossed the end: mark it for readers
+                LENGTH.setRelease(segment.buffer, offset, END);
+            }
+            if (!advance(segment)) {
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    // Swap in the pre-mapped next segment, unless another thread already has;
+    // false if it isn't ready
+    private synchronized boolean advance(Segment filled) {
+        if (current != filled) {
+            return true;
+        }
+        Segment ready = next;
+        if (ready == null || closed) {
+            return false;
+        }
+        next = null;
+        current = ready;
+        full.add(filled);
+        LockSupport.unpark(roller);
+        return true;
+    }
+
+    private static int nameLength(String name) {
+        return name == null ? 0 : Math.min(name.length(), MAX_NAME);
+    }
+
+    private static int putName(MappedByteBuffer buffer, int at, String name) {
+        int length = nameLength(name);
+        buffer.put(at++, (byte) length);
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            buffer.put(at++, (byte) (c < 128 ? c : '?'));
+        }
+        return at;
+    }
+
+    private static String addressOf(Ev ev) {
+        Address address = null;
+        if (ev instanceof AddrEv) {
+            address = ((AddrEv) ev).getAddress();
+        } else if (ev instanceof TermConnEv) {
+            TerminalConnection termConn = ((TermConnEv) ev).getTerminalConnection();
+            Connection connection = termConn == null ? null : termConn.getConnection();
+            address = connection == null ? null : connection.getAddress();
+        } else if (ev instanceof ConnEv) {
+            Connection connection = ((ConnEv) ev).getConnection();
+            address = connection == null ? null : connection.getAddress();
+        }
+        return nameOf(address);
+    }
+
+    private static String nameOf(Address address) {
+        return address == null ? null : address.getName();
+    }
+
+    private static String terminalOf(Ev ev) {
+        Terminal terminal = null;
+        if (ev instanceof TermEv) {
+            terminal = ((TermEv) ev).getTerminal();
+        } else if (ev instanceof TermConnEv) {
+            TerminalConnection termConn = ((TermConnEv) ev).getTerminalConnection();
+            terminal = termConn == null ? null : termConn.getTerminal();
+        }
+        return terminal == null ? null : terminal.getName();
+    }
+
+    private static int callIdOf(Ev ev) {
+        CiscoCallID callID = null;
+        if (ev instanceof CallEv) {
+            return callIdOf(((CallEv) ev).getCall());
+        } else if (ev instanceof CiscoRTPOutputStartedEv) {
+            callID = ((CiscoRTPOutputStartedEv) ev).getCallID();
+        } else if (ev instanceof CiscoRTPInputStartedEv) {
+            callID = ((CiscoRTPInputStartedEv) ev).getCallID();
+        } else if (ev instanceof CiscoRTPOutputStoppedEv) {
+            callID = ((CiscoRTPOutputStoppedEv) ev).getCallID();
+        } else if (ev instanceof CiscoRTPInputStoppedEv) {
+            callID = ((CiscoRTPInputStoppedEv) ev).getCallID();
+        }
+        return callID == null ? 0 : callID.intValue();
+    }
+
+    private static int callIdOf(Call call) {
+        CiscoCallID callID = call instanceof CiscoCall ? ((CiscoCall) call).getCallID() : null;
+        return callID == null ? 0 : callID.intValue();
+    }
+
+    // Create and map a new segment file
+    private Segment map() throws IOException {
+        long number = sequence.getAndIncrement();
+        File file = new File(directory, String.format("events-%08d%s", number, SUFFIX));
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(segmentSize);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, number);
+        synchronized (files) {
+            files.add(file);
+            segments++;
+        }
+        return new Segment(file, buffer);
+    }
+
+    // Background thread: map the next segment, flush and prune full ones
+    private void roll() {
+        while (!closed) {
+            if (next == null) {
+                try {
+                    Segment mapped = map();
+                    synchronized (this) {
+                        if (!closed) {
+                            next = mapped;
+                            mapped = null;
+                        }
+                    }
+                    if (mapped != null) {
+                        discard(mapped);
+                    }
+                } catch (IOException e) {
+                    Log.warn("EventJournal: unable to create a segment: " + e);
+                    LockSupport.parkNanos(1_000_000_000L);
+                }
+            }
+            // One segment at a time, so a new next segment isn't held up
+            Segment segment = full.poll();
+            if (segment != null) {
+                segment.buffer.force();
+                continue;
+            }
+            prune();
+            LockSupport.parkNanos(100_000_000L);
+        }
+    }
+
+    // Delete the oldest segments beyond the number to keep
+    private void prune() {
+        synchronized (files) {
+            while (files.size() > keep) {
+                File oldest = files.peekFirst();
+                if (oldest.equals(current.file) || (next != null && oldest.equals(next.file))) {
+                    break;
+                }
+                files.pollFirst();
+                if (!oldest.delete()) {
+                    Log.warn("EventJournal: unable to delete " + oldest);
+                }
+            }
+        }
+    }
+
+    // Flush everything written so far and stop; later events are ignored
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        LockSupport.unpark(roller);
+        Segment segment;
+        while ((segment = full.poll()) != null) {
+            segment.buffer.force();
+        }
+        current.buffer.force();
+        if (next != null) {
+            discard(next);
+        }
+    }
+
+    // Delete a segment that was never written to
+    private void discard(Segment unused) {
+        synchronized (files) {
+            files.remove(unused.file);
+            segments--;
+        }
+        unused.file.delete();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public String getStats() {
+        long count;
+        synchronized (files) {
+            count = segments;
+        }
+        return String.format("Event journal: %d events written, %d dropped, %d segment(s) in %s", written.get(),
+                dropped.get(), count, directory);
+    }
+
+    // Segment files in a directory, oldest first
+    public static List<File> segmentFiles(File directory) {
+        File[] found = directory.listFiles((dir, name) -> name.startsWith("events-") && name.endsWith(SUFFIX));
+        if (found == null) {
+            return Collections.emptyList();
+        }
+        List<File> files = new ArrayList<File>(Arrays.asList(found));
+        files.sort((a, b) -> Long.compare(number(a), number(b)));
+        return files;
+    }
+
+    private static long number(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring("events-".length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // One journal record
+    public static class Record {
+        public static final String[] KINDS = { "Provider", "Terminal", "Address", "Call" };
+
+        public final long timestamp;
+        public final int eventId;
+        public final int kind;
+        public final int observer;
+        // The first event of the batch it was delivered in
+        public final boolean batchStart;
+        public final boolean success;
+        public final int cause;
+        public final int callId;
+        public final int relatedCallId;
+        public final String address;
+        public final String terminal;
+        public final String callingAddress;
+        public final String calledAddress;
+
+        Record(long timestamp, int eventId, int flags, int observer, int cause, int callId, int relatedCallId,
+                String address, String terminal, String callingAddress, String calledAddress) {
+            this.timestamp = timestamp;
+            this.eventId = eventId;
+            this.kind = flags & 0x0f;
+            this.observer = observer;
+            this.batchStart = (flags & BATCH_START) != 0;
+            this.success = (flags & TRANSFER_FAILED) == 0;
+            this.cause = cause;
+            this.callId = callId;
+            this.relatedCallId = relatedCallId;
+            this.address = address;
+            this.terminal = terminal;
+            this.callingAddress = callingAddress;
+            this.calledAddress = calledAddress;
+        }
+
+        public String getKindName() {
+            return kind >= 0 && kind < KINDS.length ? KINDS[kind] : "Kind" + kind;
+        }
+
+        // The event interface's simple name, e.g. CallCtlConnEstablishedEv
+        public String getEventName() {
+            Class<? extends Ev> type = eventType(eventId);
+            return type == null ? "Ev" + eventId : type.getSimpleName();
+        }
+
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(Instant.ofEpochSecond(0, timestamp)).append(' ').append(getKindName())
+                    .append(' ').append(getEventName()).append(" cause=").append(cause);
+            if (callId != 0) {
+                text.append(" call=").append(callId);
+            }
+            if (address != null) {
+                text.append(" address=").append(address);
+            }
+            if (terminal != null) {
+                text.append(" terminal=").append(terminal);
+            }
+            if (callingAddress != null) {
+                text.append(" calling=").append(callingAddress);
+            }
+            if (calledAddress != null) {
+                text.append(" called=").append(calledAddress);
+            }
+            if (relatedCallId != 0) {
+                text.append(" otherCall=").append(relatedCallId);
+            }
+            if (!success) {
+                text.append(" failed");
+            }
+            if (observer != 0) {
+                text.append(" observer=").append(observer);
+            }
+            return text.toString();
+        }
+    }
+
+    // Streams the records of segment files back, in order.  A segment still
+    // being written is read up to its last complete record.
+    public static class Reader implements Iterator<Record> {
+        private final Iterator<File> files;
+        private MappedByteBuffer buffer;
+        private File file;
+        private int position;
+        private int name;
+        private Record next;
+        private int gaps;
+
+        public Reader(List<File> files) {
+            this.files = files.iterator();
+        }
+
+        // Every segment in a journal directory
+        public Reader(File directory) {
+            this(segmentFiles(directory));
+        }
+
+        public boolean hasNext() {
+            while (next == null) {
+                if (buffer != null) {
+                    next = read();
+                    if (next != null) {
+                        break;
+                    }
+                    buffer = null;
+                }
+                if (!files.hasNext()) {
+                    return false;
+                }
+                open(files.next());
+            }
+            return true;
+        }
+
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Record record = next;
+            next = null;
+            return record;
+        }
+
+        private void open(File file) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                if (mapped.capacity() < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+                    Log.warn("EventJournal: " + file + " is not a journal segment");
+                    return;
+                }
+                if (mapped.getInt(4) != VERSION) {
+                    Log.warn("EventJournal: " + file + " has unsupported version " + mapped.getInt(4));
+                    return;
+                }
+                buffer = mapped;
+                this.file = file;
+                position = HEADER_SIZE;
+            } catch (IOException e) {
+                Log.warn("EventJournal: unable to read " + file + ": " + e);
+            }
+        }
+
+        private Record read() {
+            if (position + 4 > buffer.capacity()) {
+                return null;
+            }
+            int length = (int) LENGTH.getAcquire(buffer, position);
+            if (length == 0) {
+                // Not written yet, or never will be: carry on from the next
+                // complete record, if there is one
+                int found = nextComplete(position + 4);
+                if (found < 0) {
+                    return null;
+                }
+                gaps++;
+                Log.warn(String.format("EventJournal: %s: skipped %d bytes of incomplete record(s) at offset %d",
+                        file, found - position, position));
+                position = found;
+                length = buffer.getInt(position);
+            }
+            if (length < FIXED_SIZE || position + length > buffer.capacity()) {
+                // The end-of-segment marker
+                return null;
+            }
+            int at = position + 4;
+            long timestamp = buffer.getLong(at);
+            int eventId = buffer.getInt(at + 8);
+            int flags = buffer.get(at + 12) & 0xff;
+            int observer = buffer.get(at + 13) & 0xff;
+            int cause = buffer.getInt(at + 14);
+            int callId = buffer.getInt(at + 18);
+            int relatedCallId = buffer.getInt(at + 22);
+            name = at + 26;
+            String address = getName();
+            String terminal = getName();
+            String calling = getName();
+            String called = getName();
+            position += length;
+            return new Record(timestamp, eventId, flags, observer, cause, callId, relatedCallId, address, terminal,
+                    calling, called);
+        }
+
+        // The offset of the first complete record from at on, or -1
+        private int nextComplete(int at) {
+            for (; at + FIXED_SIZE <= buffer.capacity(); at += 4) {
+                if (complete(at)) {
+                    return at;
+                }
+            }
+            return -1;
+        }
+
+        // Whether at holds a whole record: its stored length is the one its
+        // names add up to
+        private boolean complete(int at) {
+            int length = (int) LENGTH.getAcquire(buffer, at);
+            if (length < FIXED_SIZE || length > MAX_SIZE || (length & 3) != 0 || at + length > buffer.capacity()
+                    || (buffer.get(at + 16) & 0x0f) > 3) {
+                return false;
+            }
+            int end = at + 30;
+            for (int i = 0; i < 4; i++) {
+                if (end >= at + length) {
+                    return false;
+                }
+                end += 1 + (buffer.get(end) & 0xff);
+            }
+            return ((end - at + 3) & ~3) == length;
+        }
+
+        // Incomplete records skipped so far
+        public int getGaps() {
+            return gaps;
+        }
+
+        // The next length-prefixed name, advancing past it
+        private String getName() {
+            int length = buffer.get(name++) & 0xff;
+            if (length == 0) {
+                return null;
+            }
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) buffer.get(name++);
+            }
+            return new String(chars);
+        }
+    }
+
+    private static Map<Integer, Class<? extends Ev>> eventTypes;
+
+    // The event interface with an ID, from the JTAPI jar (javax.telephony and
+    // the Cisco extensions); null if unknown
+    public static synchronized Class<? extends Ev> eventType(int id) {
+        if (eventTypes == null) {
+            eventTypes = loadEventTypes();
+        }
+        return eventTypes.get(id);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Integer, Class<? extends Ev>> loadEventTypes() {
+        Map<Integer, Class<? extends Ev>> types = new HashMap<Integer, Class<? extends Ev>>();
+        for (Class<?> anchor : new Class<?>[] { Ev.class, CiscoTermInServiceEv.class }) {
+            File jar;
+            try {
+                jar = new File(anchor.getProtectionDomain().getCodeSource().getLocation().toURI());
+            } catch (URISyntaxException | NullPointerException e) {
+                continue;
+            }
+            if (!jar.isFile()) {
+                continue;
+            }
+            try (JarFile jarFile = new JarFile(jar)) {
+                Enumeration<JarEntry> entries = jarFile.entries();
+                while (entries.hasMoreElements()) {
+                    String name = entries.nextElement().getName();
+                    if (!name.endsWith("Ev.class")
+                            || !(name.startsWith("javax/telephony/") || name.startsWith("com/cisco/jtapi/extensions/"))) {
+                        continue;
+                    }
+                    try {
+                        Class<?> type = Class.forName(name.substring(0, name.length() - 6).replace('/', '.'), false,
+                                anchor.getClassLoader());
+                        if (type.isInterface() && Ev.class.isAssignableFrom(type)) {
+                            types.putIfAbsent(type.getDeclaredField("ID").getInt(null), (Class<? extends Ev>) type);
+                        }
+                    } catch (ReflectiveOperationException | LinkageError e) {
+                        // Not an event interface with an ID
+                    }
+                }
+            } catch (IOException e) {
+                Log.warn("EventJournal: unable to list event types in " + jar + ": " + e);
+            }
+        }
+        return types;
+    }
+}
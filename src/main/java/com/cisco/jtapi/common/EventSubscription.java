@@ -0,0 +1,316 @@
+package com.cisco.jtapi.common;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// The events a handler actually acts on, declared per handler in
+// event_subscriptions.properties (under jtapi_config/, so on the classpath):
+
+//   makeCall.provider = ProvInServiceEv
+//   makeCall.call     = CallActiveEv, CallInvalidEv
+
+// Each key is <subscription>.<provider|terminal|address|call> and lists event
+// class names (JTAPI or Cisco extension); an empty list means no events of that
+// kind, and a kind that isn't listed gets all of them.
+
+// A subscription is used in two places:
+//   * EventDispatcher.wrap(handler, subscription) drops the other events before
+//     they are queued, so the handler (and its event trace) never sees them
+//   * applyTo(terminal/address) turns off the CiscoTermEvFilter and
+//     CiscoAddrEvFilter flags for event families nobody subscribed to (RTP,
+//     button presses, device state...), so CTI Manager doesn't send them at
+//     all.  A filter belongs to the terminal or address, not the observer, and
+//     flags are only ever turned off, never on
+
+// EVENT_SUBSCRIPTIONS=off in .env delivers everything, as before; getStats()
+// reports how many events were dropped.
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+import javax.telephony.events.*;
+
+import com.cisco.jtapi.extensions.*;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class EventSubscription {
+
+    public static final String RESOURCE = "event_subscriptions.properties";
+
+    private static final String[] KINDS = { "provider", "terminal", "address", "call" };
+
+    // Delivers every event and changes no filters
+    public static final EventSubscription ALL = new EventSubscription("all", new int[KINDS.length][]);
+
+    // Where event classes named in the file are looked up
+    private static final String[] PACKAGES = { "javax.telephony.events", "javax.telephony.callcontrol.events",
+            "javax.telephony.media.events", "javax.telephony.privatedata.events", "com.cisco.jtapi.extensions" };
+
+    // A filter flag and the events it controls
+    private static class Flag<F> {
+        final String name;
+        final int[] events;
+        final Predicate<F> get;
+        final BiConsumer<F, Boolean> set;
+
+        Flag(String name, Predicate<F> get, BiConsumer<F, Boolean> set, int... events) {
+            this.name = name;
+            this.events = events;
+            this.get = get;
+            this.set = set;
+        }
+    }
+
+    private static final List<Flag<CiscoTermEvFilter>> TERMINAL_FLAGS = Arrays.asList(
+            new Flag<CiscoTermEvFilter>("RTP", CiscoTermEvFilter::getRTPEventsEnabled,
+                    CiscoTermEvFilter::setRTPEventsEnabled, CiscoRTPInputStartedEv.ID, CiscoRTPInputStoppedEv.ID,
+                    CiscoRTPOutputStartedEv.ID, CiscoRTPOutputStoppedEv.ID),
+            new Flag<CiscoTermEvFilter>("RTPKey", CiscoTermEvFilter::getRTPKeyEventsEnabled,
+                    CiscoTermEvFilter::setRTPKeyEventsEnabled, CiscoRTPInputKeyEv.ID, CiscoRTPOutputKeyEv.ID),
+            new Flag<CiscoTermEvFilter>("ButtonPressed", CiscoTermEvFilter::getButtonPressedEnabled,
+                    CiscoTermEvFilter::setButtonPressedEnabled, CiscoTermButtonPressedEv.ID),
+            new Flag<CiscoTermEvFilter>("DeviceData", CiscoTermEvFilter::getDeviceDataEnabled,
+                    CiscoTermEvFilter::setDeviceDataEnabled, CiscoTermDataEv.ID),
+            new Flag<CiscoTermEvFilter>("Snapshot", CiscoTermEvFilter::getSnapshotEnabled,
+                    CiscoTermEvFilter::setSnapshotEnabled, CiscoTermSnapshotEv.ID, CiscoTermSnapshotCompletedEv.ID),
+            new Flag<CiscoTermEvFilter>("DeviceStateIdle", CiscoTermEvFilter::getDeviceStateIdleEvFilter,
+                    CiscoTermEvFilter::setDeviceStateIdleEvFilter, CiscoTermDeviceStateIdleEv.ID),
+            new Flag<CiscoTermEvFilter>("DeviceStateActive", CiscoTermEvFilter::getDeviceStateActiveEvFilter,
+                    CiscoTermEvFilter::setDeviceStateActiveEvFilter, CiscoTermDeviceStateActiveEv.ID),
+            new Flag<CiscoTermEvFilter>("DeviceStateAlerting", CiscoTermEvFilter::getDeviceStateAlertingEvFilter,
+                    CiscoTermEvFilter::setDeviceStateAlertingEvFilter, CiscoTermDeviceStateAlertingEv.ID),
+            new Flag<CiscoTermEvFilter>("DeviceStateHeld", CiscoTermEvFilter::getDeviceStateHeldEvFilter,
+                    CiscoTermEvFilter::setDeviceStateHeldEvFilter, CiscoTermDeviceStateHeldEv.ID),
+            new Flag<CiscoTermEvFilter>("DeviceStateWhisper", CiscoTermEvFilter::getDeviceStateWhisperEvFilter,
+                    CiscoTermEvFilter::setDeviceStateWhisperEvFilter, CiscoTermDeviceStateWhisperEv.ID),
+            new Flag<CiscoTermEvFilter>("DNDChanged", CiscoTermEvFilter::getDNDChangedEvFilter,
+                    CiscoTermEvFilter::setDNDChangedEvFilter, CiscoTermDNDStatusChangedEv.ID),
+            new Flag<CiscoTermEvFilter>("DNDOptionChanged", CiscoTermEvFilter::getDNDOptionChangedEvFilter,
+                    CiscoTermEvFilter::setDNDOptionChangedEvFilter, CiscoTermDNDOptionChangedEv.ID),
+            new Flag<CiscoTermEvFilter>("HuntLogStatusChanged", CiscoTermEvFilter::getHuntLogStatusChangedEvFilter,
+                    CiscoTermEvFilter::setHuntLogStatusChangedEvFilter, CiscoTermHuntLogStatusChangedEv.ID));
+
+    private static final List<Flag<CiscoAddrEvFilter>> ADDRESS_FLAGS = Arrays.asList(
+            new Flag<CiscoAddrEvFilter>("ParkStatus", CiscoAddrEvFilter::getCiscoAddrParkStatusEvFilter,
+                    CiscoAddrEvFilter::setCiscoAddrParkStatusEvFilter, CiscoAddrParkStatusEv.ID),
+            new Flag<CiscoAddrEvFilter>("IntercomInfoChanged",
+                    CiscoAddrEvFilter::getCiscoAddrIntercomInfoChangedEvFilter,
+                    CiscoAddrEvFilter::setCiscoAddrIntercomInfoChangedEvFilter, CiscoAddrIntercomInfoChangedEv.ID),
+            new Flag<CiscoAddrEvFilter>("IntercomInfoRestorationFailed",
+                    CiscoAddrEvFilter::getCiscoAddrIntercomInfoRestorationFailedEvFilter,
+                    CiscoAddrEvFilter::setCiscoAddrIntercomInfoRestorationFailedEvFilter,
+                    CiscoAddrIntercomInfoRestorationFailedEv.ID),
+            new Flag<CiscoAddrEvFilter>("RecordingConfigChanged",
+                    CiscoAddrEvFilter::getCiscoAddrRecordingConfigChangedEvFilter,
+                    CiscoAddrEvFilter::setCiscoAddrRecordingConfigChangedEvFilter,
+                    CiscoAddrRecordingConfigChangedEv.ID),
+            new Flag<CiscoAddrEvFilter>("PickupGroupChanged", CiscoAddrEvFilter::getCiscoAddrPickupGroupChangedEvFilter,
+                    CiscoAddrEvFilter::setCiscoAddrPickupGroupChangedEvFilter, CiscoAddrPickupGroupChangedEv.ID),
+            new Flag<CiscoAddrEvFilter>("MonitoringTerminated",
+                    CiscoAddrEvFilter::getCiscoAddrMonitoringTerminatedEvFilter,
+                    CiscoAddrEvFilter::setCiscoAddrMonitoringTerminatedEvFilter, CiscoAddrMonitoringTerminatedEv.ID),
+            new Flag<CiscoAddrEvFilter>("VoiceMailPilotChanged",
+                    CiscoAddrEvFilter::getCiscoAddrVoiceMailPilotChangedEvFilter,
+                    CiscoAddrEvFilter::setCiscoAddrVoiceMailPilotChangedEvFilter,
+                    CiscoAddrVoiceMailPilotChangedEv.ID));
+
+    private final String name;
+    // Sorted event IDs wanted, per kind; null means all
+    private final int[][] wanted;
+    private final AtomicLong[] received = new AtomicLong[KINDS.length];
+    private final AtomicLong[] dropped = new AtomicLong[KINDS.length];
+    // Filter flags turned off, and on how many terminals/addresses
+    private final Map<String, Integer> flagsOff = new TreeMap<String, Integer>();
+
+    public EventSubscription(String name, int[][] wanted) {
+        this.name = name;
+        this.wanted = wanted;
+        for (int kind = 0; kind < KINDS.length; kind++) {
+            received[kind] = new AtomicLong();
+            dropped[kind] = new AtomicLong();
+        }
+    }
+
+    // The subscription called name in the properties resource, or ALL if
+    // EVENT_SUBSCRIPTIONS=off
+    public static EventSubscription load(Dotenv dotenv, String name) throws IOException {
+        if (dotenv.get("EVENT_SUBSCRIPTIONS", "on").equalsIgnoreCase("off")) {
+            return ALL;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = EventSubscription.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+            if (in == null) {
+                throw new IOException("Resource not found: " + RESOURCE);
+            }
+            properties.load(in);
+        }
+        int[][] wanted = new int[KINDS.length][];
+        for (int kind = 0; kind < KINDS.length; kind++) {
+            String events = properties.getProperty(name + "." + KINDS[kind]);
+            if (events != null) {
+                wanted[kind] = parse(events.trim());
+            }
+        }
+        return new EventSubscription(name, wanted);
+    }
+
+    private static int[] parse(String events) {
+        if (events.isEmpty()) {
+            return new int[0];
+        }
+        String[] names = events.split("\\s*,\\s*");
+        int[] ids = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ids[i] = eventID(names[i]);
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    // The ID constant of a JTAPI or Cisco event class
+    static int eventID(String className) {
+        for (String pkg : PACKAGES) {
+            try {
+                return Class.forName(pkg + "." + className).getField("ID").getInt(null);
+            } catch (ClassNotFoundException e) {
+                // Try the next package
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Not an event class: " + className, e);
+            }
+        }
+        throw new IllegalArgumentException("Unknown event: " + className);
+    }
+
+    // The subscription an observer from EventDispatcher.wrap() delivers; ALL
+    // for any other observer
+    public static EventSubscription of(Object observer) {
+        return observer instanceof EventDispatcher.Observer ? ((EventDispatcher.Observer) observer).getSubscription()
+                : ALL;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean wants(int kind, int id) {
+        return wanted[kind] == null || Arrays.binarySearch(wanted[kind], id) >= 0;
+    }
+
+    // A copy of events holding only the wanted ones (of the same array type),
+    // or null if there are none
+    <E extends Ev> E[] filter(int kind, E[] events) {
+        received[kind].addAndGet(events.length);
+        if (wanted[kind] == null) {
+            return events.clone();
+        }
+        E[] kept = events.clone();
+        int count = 0;
+        for (E ev : events) {
+            if (Arrays.binarySearch(wanted[kind], ev.getID()) >= 0) {
+                kept[count++] = ev;
+            }
+        }
+        if (count < events.length) {
+            dropped[kind].addAndGet(events.length - count);
+        }
+        return count == 0 ? null : count == kept.length ? kept : Arrays.copyOf(kept, count);
+    }
+
+    // Turn off the terminal's filter flags for events this subscription
+    // doesn't want
+    public void applyTo(CiscoTerminal terminal) {
+        if (wanted[EventDispatcher.TERMINAL] == null) {
+            return;
+        }
+        CiscoTermEvFilter filter = terminal.getFilter();
+        if (applyTo(filter)) {
+            terminal.setFilter(filter);
+        }
+    }
+
+    // The same, for a filter the caller is about to set anyway; true if it
+    // changed
+    public boolean applyTo(CiscoTermEvFilter filter) {
+        return wanted[EventDispatcher.TERMINAL] != null
+                && disable(filter, TERMINAL_FLAGS, wanted[EventDispatcher.TERMINAL]);
+    }
+
+    // Turn off the address's filter flags for events this subscription doesn't
+    // want
+    public void applyTo(CiscoAddress address) {
+        if (wanted[EventDispatcher.ADDRESS] == null) {
+            return;
+        }
+        CiscoAddrEvFilter filter = address.getFilter();
+        if (disable(filter, ADDRESS_FLAGS, wanted[EventDispatcher.ADDRESS])) {
+            address.setFilter(filter);
+        }
+    }
+
+    private <F> boolean disable(F filter, List<Flag<F>> flags, int[] ids) {
+        boolean changed = false;
+        for (Flag<F> flag : flags) {
+            if (flag.get.test(filter) && !any(ids, flag.events)) {
+                flag.set.accept(filter, false);
+                synchronized (flagsOff) {
+                    flagsOff.merge(flag.name, 1, Integer::sum);
+                }
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean any(int[] ids, int[] events) {
+        for (int id : events) {
+            if (Arrays.binarySearch(ids, id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getStats() {
+        long total = 0;
+        long totalDropped = 0;
+        List<String> kinds = new ArrayList<String>();
+        for (int kind = 0; kind < KINDS.length; kind++) {
+            total += received[kind].get();
+            totalDropped += dropped[kind].get();
+            if (dropped[kind].get() > 0) {
+                kinds.add(KINDS[kind] + " " + dropped[kind].get() + "/" + received[kind].get());
+            }
+        }
+        String flags;
+        synchronized (flagsOff) {
+            flags = flagsOff.isEmpty() ? "none" : flagsOff.toString();
+        }
+        return String.format("Event subscription %s: %d of %d events dropped (%.0f%%)%s; filter flags off: %s",
+                name, totalDropped, total, total == 0 ? 0.0 : 100.0 * totalDropped / total,
+                kinds.isEmpty() ? "" : " - " + String.join(", ", kinds), flags);
+    }
+}
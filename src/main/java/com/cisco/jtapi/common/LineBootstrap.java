@@ -0,0 +1,260 @@
+package com.cisco.jtapi.common;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Opens a set of lines (DNs) at start-up: observes each Address and its first
+// Terminal, waits until all of them are in service, then applies the
+// observer's EventSubscription filters and adds the call observer to each
+// Address.
+
+// The lines are opened at the same time rather than one after another.  The
+// getAddress/addObserver requests are issued from a small pool of threads,
+// and a single CountDownLatch counts the CiscoAddrInServiceEv and
+// CiscoTermInServiceEv events for all of them, so start-up takes about one
+// CTI Manager round-trip however many lines there are, instead of two per
+// line.  Given a ProviderPool, the lines are spread across its providers.
+
+// The latch is sized once every line has been resolved, from the distinct
+// Address and Terminal objects: lines on a shared device, or a DN given twice,
+// are waited for once.  Lines not in service within OPEN_TIMEOUT_MILLIS fail
+// open() with their names.
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.telephony.*;
+import javax.telephony.events.*;
+
+import com.cisco.jtapi.extensions.*;
+
+public class LineBootstrap implements AddressObserver, TerminalObserver {
+
+    // Most requests in flight at once
+    public static final int DEFAULT_PARALLELISM = 16;
+    public static final long OPEN_TIMEOUT_MILLIS = 30_000;
+
+    public static class Line {
+        public final CiscoAddress address;
+        public final CiscoTerminal terminal;
+
+        Line(CiscoAddress address, CiscoTerminal terminal) {
+            this.address = address;
+            this.terminal = terminal;
+        }
+
+        public String getName() {
+            return address.getName();
+        }
+    }
+
+    private final CiscoProvider provider;
+    private final ProviderPool pool;
+    private final Object observer;
+    private final int parallelism;
+    private final Set<Object> inService = new HashSet<Object>();
+    // Guarded by inService: the devices open() is still waiting for
+    private Set<Object> waiting;
+    private CountDownLatch allInService;
+    private volatile long startNanos;
+    private long openNanos;
+
+    // observer is added to each Address (as address and call observer) and
+    // Terminal, so it must implement AddressObserver, TerminalObserver and
+    // CallObserver, as EventDispatcher.Observer does
+    public LineBootstrap(CiscoProvider provider, Object observer) {
+        this(provider, observer, DEFAULT_PARALLELISM);
+    }
+
+    public LineBootstrap(CiscoProvider provider, Object observer, int parallelism) {
+        this(provider, null, observer, parallelism);
+    }
+
+    // Each line on the pool provider chosen for its DN
+    public LineBootstrap(ProviderPool pool, Object observer) {
+        this(null, pool, observer, DEFAULT_PARALLELISM);
+    }
+
+    private LineBootstrap(CiscoProvider provider, ProviderPool pool, Object observer, int parallelism) {
+        this.provider = provider;
+        this.pool = pool;
+        this.observer = observer;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    // Open the lines and wait until all are in service; the result is in the
+    // order of dns
+    public List<Line> open(String... dns) throws InvalidArgumentException, ResourceUnavailableException,
+            MethodNotSupportedException, PrivilegeViolationException, InterruptedException {
+
+        long start = System.nanoTime();
+        startNanos = start;
+        Line[] lines = new Line[dns.length];
+        Exception[] failure = new Exception[1];
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService requests = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, dns.length)),
+                r -> {
+                    Thread thread = new Thread(r, "LineBootstrap-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            CountDownLatch issued = new CountDownLatch(dns.length);
+            for (int i = 0; i < dns.length; i++) {
+                int index = i;
+                requests.execute(() -> {
+                    try {
+                        lines[index] = observe(dns[index]);
+                    } catch (Exception e) {
+                        synchronized (failure) {
+                            if (failure[0] == null) {
+                                failure[0] = e;
+                            }
+                        }
+                    } finally {
+                        issued.countDown();
+                    }
+                });
+            }
+            issued.await();
+            synchronized (failure) {
+                if (failure[0] != null) {
+                    rethrow(failure[0]);
+                }
+            }
+            // Wait once for each distinct device, less any already in service
+            synchronized (inService) {
+                waiting = new LinkedHashSet<Object>();
+                for (Line line : lines) {
+                    waiting.add(line.address);
+                    waiting.add(line.terminal);
+                }
+                waiting.removeAll(inService);
+                allInService = new CountDownLatch(waiting.size());
+            }
+            if (!allInService.await(OPEN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new ResourceUnavailableException(ResourceUnavailableException.UNKNOWN,
+                        "Lines not in service: " + notInService(lines));
+            }
+            EventSubscription subscription = EventSubscription.of(observer);
+            for (Line line : lines) {
+                subscription.applyTo(line.terminal);
+                subscription.applyTo(line.address);
+                line.address.addCallObserver((CallObserver) observer);
+            }
+        } finally {
+            requests.shutdown();
+        }
+        openNanos = System.nanoTime() - start;
+
+        List<Line> result = new ArrayList<Line>(lines.length);
+        Collections.addAll(result, lines);
+        return result;
+    }
+
+    private Line observe(String dn) throws InvalidArgumentException, ResourceUnavailableException,
+            MethodNotSupportedException {
+        CiscoProvider lineProvider = pool == null ? provider : pool.providerFor(dn);
+        CiscoAddress address = (CiscoAddress) lineProvider.getAddress(dn);
+        address.addObserver((AddressObserver) observer);
+        address.addObserver(this);
+        // The first Terminal for the Address; there could be several if it's a
+        // shared line
+        CiscoTerminal terminal = (CiscoTerminal) address.getTerminals()[0];
+        terminal.addObserver((TerminalObserver) observer);
+        terminal.addObserver(this);
+        if (pool != null) {
+            pool.track(address);
+            pool.track(terminal);
+        }
+        return new Line(address, terminal);
+    }
+
+    private String notInService(Line[] lines) {
+        Set<String> names = new LinkedHashSet<String>();
+        synchronized (inService) {
+            for (Line line : lines) {
+                if (waiting.contains(line.address) || waiting.contains(line.terminal)) {
+                    names.add(line.getName());
+                }
+            }
+        }
+        return String.join(", ", names);
+    }
+
+    private static void rethrow(Exception e) throws InvalidArgumentException, ResourceUnavailableException,
+            MethodNotSupportedException, PrivilegeViolationException {
+        if (e instanceof InvalidArgumentException) {
+            throw (InvalidArgumentException) e;
+        }
+        if (e instanceof ResourceUnavailableException) {
+            throw (ResourceUnavailableException) e;
+        }
+        if (e instanceof MethodNotSupportedException) {
+            throw (MethodNotSupportedException) e;
+        }
+        if (e instanceof PrivilegeViolationException) {
+            throw (PrivilegeViolationException) e;
+        }
+        throw (RuntimeException) e;
+    }
+
+    public String getStats() {
+        synchronized (inService) {
+            return String.format("Lines: %d address/terminal objects in service in %.1f ms", inService.size(),
+                    openNanos / 1e6);
+        }
+    }
+
+    // True the first time device comes into service
+    private boolean inService(Object device) {
+        synchronized (inService) {
+            if (!inService.add(device)) {
+                return false;
+            }
+            if (waiting != null && waiting.remove(device)) {
+                allInService.countDown();
+            }
+            return true;
+        }
+    }
+
+    public void terminalChangedEvent(TermEv[] events) {
+        for (TermEv ev : events) {
+            if (ev.getID() == CiscoTermInServiceEv.ID && inService(ev.getTerminal())) {
+                Metrics.recordSince("line.terminalInService", startNanos);
+            }
+        }
+    }
+
+    public void addressChangedEvent(AddrEv[] events) {
+        for (AddrEv ev : events) {
+            if (ev.getID() == CiscoAddrInServiceEv.ID && inService(ev.getAddress())) {
+                Metrics.recordSince("line.addressInService", startNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.cisco.jtapi.common;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Shared console logger for the samples.  Callers only fill in a pre-allocated
+// slot in a lock-free ring (no formatting, no clock call, no string building
+// beyond their own message); a single background writer thread does all the
+// formatting into reusable buffers and writes to stdout.  The writer also
+// maintains the coarse (~1 ms) clock that stamps each message.
+
+// If the writer falls behind, lower-priority messages are shed first: DEBUG
+// (event traces) is sampled once the ring is half full and dropped at three
+// quarters, INFO is dropped at 90%, WARN is never dropped.  Drop counts are
+// reported in the log once the writer catches up.
+
+// Configuration (.env, optional):
+//   LOG_LEVEL       DEBUG (default), INFO or WARN; a -DLOG_LEVEL system
+//                   property overrides it (used by the benchmarks)
+//   LOG_QUEUE_SIZE  ring size in messages (default 8192)
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public final class Log {
+
+    public static final int DEBUG = 0;
+    public static final int INFO = 1;
+    public static final int WARN = 2;
+
+    // Message kinds
+    private static final int LINE = 0; // "HH:mm:ss.SS text"
+    private static final int DETAIL = 1; // "text" + arg
+    private static final int EVENT = 2; // "    Received--> text/" + arg
+
+    private static final class Slot {
+        int kind;
+        long millis;
+        String text;
+        Object arg;
+    }
+
+    private static final int level;
+    private static final int mask;
+    private static final Slot[] slots;
+    private static final AtomicLongArray sequence;
+    private static final AtomicLong head = new AtomicLong();
+    private static volatile long tail;
+    private static volatile long clock = System.currentTimeMillis();
+    private static volatile boolean closing;
+    private static final Thread writer;
+
+    private static final AtomicLong droppedDebug = new AtomicLong();
+    private static final AtomicLong droppedInfo = new AtomicLong();
+    private static int sampleCounter;
+
+    static {
+        Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
+        String levelName = System.getProperty("LOG_LEVEL", dotenv.get("LOG_LEVEL", "DEBUG"));
+        level = levelName.equals("WARN") ? WARN : levelName.equals("INFO") ? INFO : DEBUG;
+        int size = Integer.highestOneBit(Math.max(2, Integer.parseInt(dotenv.get("LOG_QUEUE_SIZE", "8192"))) - 1) << 1;
+        mask = size - 1;
+        slots = new Slot[size];
+        sequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+            sequence.set(i, i);
+        }
+        writer = new Thread(new Writer(), "Log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // Samples end with System.exit(); make sure what was logged gets out
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::close));
+    }
+
+    private Log() {
+    }
+
+    // Timestamped message
+    public static void info(String msg) {
+        if (level <= INFO && admit(INFO)) {
+            publish(LINE, msg, null);
+        }
+    }
+
+    // Timestamped message that is never dropped
+    public static void warn(String msg) {
+        if (level <= WARN) {
+            while (!publish(LINE, msg, null)) {
+                LockSupport.parkNanos(100_000);
+            }
+        }
+    }
+
+    // Untimestamped detail line: text followed by arg.toString(), which is
+    // only called on the writer thread
+    public static void debug(String text, Object arg) {
+        if (level <= DEBUG && admit(DEBUG)) {
+            publish(DETAIL, text, arg);
+        }
+    }
+
+    // Observer event trace, printed as "    Received--> source/event"; above
+    // DEBUG, only events for a TraceFocus name
+    public static void event(String source, Object ev) {
+        if (level <= DEBUG ? admit(DEBUG) : TraceFocus.matches(ev) && admit(INFO)) {
+            publish(EVENT, source, ev);
+        }
+    }
+
+    public static boolean isDebugEnabled() {
+        return level <= DEBUG;
+    }
+
+    // The coarse clock, in epoch milliseconds
+    public static long currentTimeMillis() {
+        return clock;
+    }
+
+    // Decide whether a message of this level is accepted at the current ring fill
+    private static boolean admit(int msgLevel) {
+        long fill = head.get() - tail;
+        long capacity = mask + 1;
+        if (msgLevel == DEBUG) {
+            if (fill >= capacity * 3 / 4 || (fill >= capacity / 2 && (++sampleCounter & 15) != 0)) {
+                droppedDebug.incrementAndGet();
+                return false;
+            }
+        } else if (msgLevel == INFO && fill >= capacity * 9 / 10) {
+            droppedInfo.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean publish(int kind, String text, Object arg) {
+        long pos = head.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long diff = sequence.get(index) - pos;
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    Slot slot = slots[index];
+                    slot.kind = kind;
+                    slot.millis = clock;
+                    slot.text = text;
+                    slot.arg = arg;
+                    sequence.set(index, pos + 1);
+                    return true;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    // Drain what is queued and stop the writer
+    public static void close() {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Writer implements Runnable {
+
+        private final FileChannel out = new FileOutputStream(FileDescriptor.out).getChannel();
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final StringBuilder line = new StringBuilder(256);
+        private char[] chars = new char[256];
+        private CharBuffer charBuffer = CharBuffer.wrap(chars);
+        private final ByteBuffer bytes = ByteBuffer.allocateDirect(64 * 1024);
+        private final ZoneId zone = ZoneId.systemDefault();
+        private long cachedSecond = -1;
+        private final char[] secondPrefix = new char[9]; // "HH:mm:ss."
+        private long reportedDebug;
+        private long reportedInfo;
+        private long lastReport;
+
+        public void run() {
+            while (true) {
+                clock = System.currentTimeMillis();
+                boolean wrote = false;
+                long pos;
+                while ((pos = tail) < head.get()) {
+                    int index = (int) pos & mask;
+                    if (sequence.get(index) != pos + 1) {
+                        // Claimed but not yet filled in
+                        break;
+                    }
+                    Slot slot = slots[index];
+                    format(slot);
+                    slot.text = null;
+                    slot.arg = null;
+                    sequence.set(index, pos + mask + 1);
+                    tail = pos + 1;
+                    wrote = true;
+                }
+                if (clock - lastReport >= 1000) {
+                    wrote |= reportDrops();
+                }
+                if (wrote) {
+                    flush();
+                } else if (closing) {
+                    return;
+                } else {
+                    LockSupport.parkNanos(1_000_000);
+                }
+            }
+        }
+
+        private void format(Slot slot) {
+            line.setLength(0);
+            switch (slot.kind) {
+                case LINE:
+                    appendTime(slot.millis);
+                    line.append(' ').append(slot.text);
+                    break;
+                case DETAIL:
+                    line.append(slot.text).append(slot.arg);
+                    break;
+                case EVENT:
+                    line.append("    Received--> ").append(slot.text).append('/').append(slot.arg);
+                    break;
+            }
+            line.append('\n');
+            write();
+        }
+
+        private void appendTime(long millis) {
+            long second = millis / 1000;
+            if (second != cachedSecond) {
+                cachedSecond = second;
+                LocalTime t = LocalTime.ofInstant(Instant.ofEpochSecond(second), zone);
+                twoDigits(secondPrefix, 0, t.getHour());
+                secondPrefix[2] = ':';
+                twoDigits(secondPrefix, 3, t.getMinute());
+                secondPrefix[5] = ':';
+                twoDigits(secondPrefix, 6, t.getSecond());
+                secondPrefix[8] = '.';
+            }
+            line.append(secondPrefix);
+            int centis = (int) (millis % 1000) / 10;
+            line.append((char) ('0' + centis / 10)).append((char) ('0' + centis % 10));
+        }
+
+        private void twoDigits(char[] buf, int at, int value) {
+            buf[at] = (char) ('0' + value / 10);
+            buf[at + 1] = (char) ('0' + value % 10);
+        }
+
+        private boolean reportDrops() {
+            lastReport = clock;
+            long debug = droppedDebug.get();
+            long info = droppedInfo.get();
+            if (debug == reportedDebug && info == reportedInfo) {
+                return false;
+            }
+            line.setLength(0);
+            appendTime(clock);
+            line.append(" Log: writer fell behind, dropped ").append(debug - reportedDebug).append(" DEBUG and ")
+                    .append(info - reportedInfo).append(" INFO messages\n");
+            reportedDebug = debug;
+            reportedInfo = info;
+            write();
+            return true;
+        }
+
+        // Encode the current line into the output buffer, flushing as it fills
+        private void write() {
+            int length = line.length();
+            if (length > chars.length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+                charBuffer = CharBuffer.wrap(chars);
+            }
+            line.getChars(0, length, chars, 0);
+            charBuffer.clear().limit(length);
+            while (encoder.encode(charBuffer, bytes, true).isOverflow()) {
+                flush();
+            }
+            encoder.reset();
+        }
+
+        private void flush() {
+            bytes.flip();
+            try {
+                while (bytes.hasRemaining()) {
+                    out.write(bytes);
+                }
+            } catch (IOException e) {
+                // Nowhere left to report it
+            }
+            bytes.clear();
+        }
+    }
+}
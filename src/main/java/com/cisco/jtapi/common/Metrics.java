@@ -0,0 +1,94 @@
+package com.cisco.jtapi.common;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Step latencies for the samples' call flows, one LatencyHistogram per named
+// step: a JTAPI request to the event that completes it (e.g.
+// dialViaOffice.rp.answer is answer() -> CallCtlTermConnTalkingEv), plus
+// the EventDispatcher's own queueing and handler time.  A slow step with a
+// normal dispatch.queue/dispatch.handler points at CUCM or the network; a
+// slow dispatch.queue points at our own event handling.
+
+// Steps are recorded from anywhere, at any time; summary() formats them for
+// the log, and MetricsServer serves them over HTTP (METRICS_PORT).
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Metrics {
+
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    private Metrics() {
+    }
+
+    public static LatencyHistogram histogram(String step) {
+        return histograms.computeIfAbsent(step, s -> new LatencyHistogram());
+    }
+
+    public static void record(String step, long nanos) {
+        histogram(step).record(nanos);
+    }
+
+    // Record the time since a System.nanoTime() start
+    public static void recordSince(String step, long startNanos) {
+        histogram(step).recordSince(startNanos);
+    }
+
+    // All steps, by name
+    public static Map<String, LatencyHistogram> getHistograms() {
+        return new TreeMap<String, LatencyHistogram>(histograms);
+    }
+
+    // One line per step: count, p50/p99/p999 and max in milliseconds
+    public static String summary() {
+        StringBuilder text = new StringBuilder("Step latencies (ms):");
+        for (Map.Entry<String, LatencyHistogram> entry : getHistograms().entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            text.append(String.format("%n    %-36s n=%-7d p50=%-9.3f p99=%-9.3f p999=%-9.3f max=%.3f", entry.getKey(),
+                    h.getCount(), h.getValueAtQuantile(0.5) / 1e6, h.getValueAtQuantile(0.99) / 1e6,
+                    h.getValueAtQuantile(0.999) / 1e6, h.getMax() / 1e6));
+        }
+        return text.toString();
+    }
+
+    // Prometheus text exposition format: a summary per step, in seconds
+    public static String prometheus() {
+        StringBuilder text = new StringBuilder();
+        text.append("# HELP jtapi_step_seconds Latency of each call flow step\n");
+        text.append("# TYPE jtapi_step_seconds summary\n");
+        for (Map.Entry<String, LatencyHistogram> entry : getHistograms().entrySet()) {
+            String step = entry.getKey();
+            LatencyHistogram h = entry.getValue();
+            for (String q : new String[] { "0.5", "0.99", "0.999" }) {
+                text.append(String.format("jtapi_step_seconds{step=\"%s\",quantile=\"%s\"} %.9f%n", step, q,
+                        h.getValueAtQuantile(Double.parseDouble(q)) / 1e9));
+            }
+            text.append(String.format("jtapi_step_seconds_sum{step=\"%s\"} %.9f%n", step, h.getSum() / 1e9));
+            text.append(String.format("jtapi_step_seconds_count{step=\"%s\"} %d%n", step, h.getCount()));
+        }
+        text.append("# HELP jtapi_step_seconds_max Slowest occurrence of each call flow step\n");
+        text.append("# TYPE jtapi_step_seconds_max gauge\n");
+        for (Map.Entry<String, LatencyHistogram> entry : getHistograms().entrySet()) {
+            text.append(String.format("jtapi_step_seconds_max{step=\"%s\"} %.9f%n", entry.getKey(),
+                    entry.getValue().getMax() / 1e9));
+        }
+        return text.toString();
+    }
+}
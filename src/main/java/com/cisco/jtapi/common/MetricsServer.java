@@ -0,0 +1,131 @@
+package com.cisco.jtapi.common;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Serves Metrics on a local HTTP port, using the JDK's built-in server:
+//   GET /metrics          Prometheus text format (p50/p99/p999, sum, count, max)
+//   GET /metrics/summary  the plain-text table Metrics.summary() logs
+//   GET /trace?name=<DN or device>&seconds=<n>
+//                         trace that DN's/device's events for n seconds
+//                         (TraceFocus); /trace alone lists what is in focus
+
+// Configuration (.env, optional):
+//   METRICS_PORT     port to listen on; unset or empty: no server
+//   METRICS_ADDRESS  address to bind (default 127.0.0.1, local only)
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class MetricsServer {
+
+    // Longest /trace focus: a day
+    public static final long MAX_TRACE_SECONDS = 86_400;
+
+    private final HttpServer server;
+
+    public MetricsServer(String address, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/metrics", exchange -> {
+            if (exchange.getRequestURI().getPath().equals("/metrics/summary")) {
+                respond(exchange, "text/plain; charset=utf-8", () -> Metrics.summary() + "\n");
+            } else {
+                respond(exchange, "text/plain; version=0.0.4; charset=utf-8", Metrics::prometheus);
+            }
+        });
+        server.createContext("/trace", exchange -> {
+            String name = null;
+            long seconds = 60;
+            // Raw, so an encoded & or = in the name is decoded after splitting
+            String query = exchange.getRequestURI().getRawQuery();
+            if (query != null) {
+                for (String parameter : query.split("&")) {
+                    if (parameter.startsWith("name=")) {
+                        try {
+                            name = URLDecoder.decode(parameter.substring(5), StandardCharsets.UTF_8.name());
+                        } catch (IllegalArgumentException e) {
+                            respond(exchange, 400, "text/plain; charset=utf-8",
+                                    () -> "name must be URL-encoded\n");
+                            return;
+                        }
+                    } else if (parameter.startsWith("seconds=")) {
+                        try {
+                            seconds = Long.parseLong(parameter.substring(8));
+                        } catch (NumberFormatException e) {
+                            seconds = 0;
+                        }
+                        if (seconds <= 0 || seconds > MAX_TRACE_SECONDS) {
+                            respond(exchange, 400, "text/plain; charset=utf-8",
+                                    () -> "seconds must be a whole number from 1 to " + MAX_TRACE_SECONDS + "\n");
+                            return;
+                        }
+                    }
+                }
+            }
+            if (name != null && name.isEmpty()) {
+                respond(exchange, 400, "text/plain; charset=utf-8", () -> "name must not be empty\n");
+                return;
+            }
+            if (name != null) {
+                TraceFocus.focus(name, TimeUnit.SECONDS.toMillis(seconds));
+            }
+            respond(exchange, "text/plain; charset=utf-8", TraceFocus::describe);
+        });
+        // Requests are handled on the server's own thread; scrapes are rare
+        server.setExecutor(null);
+        server.start();
+    }
+
+    // A server on METRICS_PORT, or null if it isn't set
+    public static MetricsServer start(Dotenv dotenv) throws IOException {
+        String port = dotenv.get("METRICS_PORT", "");
+        if (port.isEmpty()) {
+            return null;
+        }
+        MetricsServer server = new MetricsServer(dotenv.get("METRICS_ADDRESS", "127.0.0.1"), Integer.parseInt(port));
+        Log.info("Metrics: http://" + dotenv.get("METRICS_ADDRESS", "127.0.0.1") + ":" + port + "/metrics");
+        return server;
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, Supplier<String> body) throws IOException {
+        respond(exchange, 200, contentType, body);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, Supplier<String> body)
+            throws IOException {
+        byte[] bytes = body.get().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,308 @@
+package com.cisco.jtapi.common;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// A set of providers (CTI logins) opened once and shared by every scenario in
+// the JVM.  The providers are opened in parallel, each with a different CTI
+// Manager as its primary if several are configured, and lines and devices are
+// spread across them: providerFor(name) gives each new address or terminal
+// name to the provider with the fewest so far, and always returns the same
+// provider for the same name.  Open time and the event rate of each provider
+// are reported by getStats().
+
+// Configuration (.env):
+//   PROVIDER_POOL_SIZE   providers to open (default 1)
+//   CUCM_ADDRESS         CTI Manager(s), separated by commas; if it names only
+//                        one, the CtiManagers listed in jtapi.ini are added
+// Provider N uses CTI Manager N (round robin) as its primary and the others,
+// in order, as backups.
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.telephony.*;
+import javax.telephony.events.*;
+
+import com.cisco.jtapi.extensions.*;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class ProviderPool {
+
+    public static final long OPEN_TIMEOUT_MILLIS = 60_000;
+
+    // One provider of the pool, and the observer that counts its events
+    public static class Member implements ProviderObserver, AddressObserver, TerminalObserver, CallObserver {
+        public final CiscoProvider provider;
+        public final String ctiManager;
+        private final CountDownLatch inService = new CountDownLatch(1);
+        private final AtomicLong events = new AtomicLong();
+        private long openNanos;
+        private long inServiceNanos;
+        private int assigned;
+
+        Member(CiscoProvider provider, String ctiManager) {
+            this.provider = provider;
+            this.ctiManager = ctiManager;
+        }
+
+        public long getEventCount() {
+            return events.get();
+        }
+
+        // Events per second since the provider came into service
+        public double getEventRate() {
+            double seconds = (System.nanoTime() - inServiceNanos) / 1e9;
+            return seconds <= 0 ? 0 : events.get() / seconds;
+        }
+
+        public void providerChangedEvent(ProvEv[] eventList) {
+            events.addAndGet(eventList.length);
+            for (ProvEv ev : eventList) {
+                if (ev.getID() == ProvInServiceEv.ID) {
+                    inService.countDown();
+                }
+            }
+        }
+
+        public void addressChangedEvent(AddrEv[] eventList) {
+            events.addAndGet(eventList.length);
+        }
+
+        public void terminalChangedEvent(TermEv[] eventList) {
+            events.addAndGet(eventList.length);
+        }
+
+        public void callChangedEvent(CallEv[] eventList) {
+            events.addAndGet(eventList.length);
+        }
+    }
+
+    private static ProviderPool shared;
+
+    private final List<Member> members;
+    private final Map<String, Member> assignments = new ConcurrentHashMap<String, Member>();
+
+    // Open a provider for each provider string, all at the same time, and wait
+    // until every one is in service
+    public ProviderPool(JtapiPeer peer, String[] providerStrings) throws InterruptedException {
+        Member[] opened = new Member[providerStrings.length];
+        RuntimeException[] failure = new RuntimeException[1];
+        Thread[] threads = new Thread[providerStrings.length];
+        for (int i = 0; i < providerStrings.length; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    opened[index] = open(peer, providerStrings[index]);
+                } catch (RuntimeException e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                } catch (InterruptedException e) {
+                    synchronized (failure) {
+                        failure[0] = new ProviderUnavailableException(ProviderUnavailableException.CAUSE_UNKNOWN,
+                                "Interrupted");
+                    }
+                }
+            }, "ProviderPool-" + (i + 1));
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        List<Member> list = new ArrayList<Member>(opened.length);
+        Collections.addAll(list, opened);
+        members = Collections.unmodifiableList(list);
+    }
+
+    // A pool as configured in .env
+    public static ProviderPool open(Dotenv dotenv) throws JtapiPeerUnavailableException, InterruptedException {
+        return open(dotenv, Math.max(1, Integer.parseInt(dotenv.get("PROVIDER_POOL_SIZE", "1"))));
+    }
+
+    // As above, with size providers
+    public static ProviderPool open(Dotenv dotenv, int size) throws JtapiPeerUnavailableException,
+            InterruptedException {
+        List<String> managers = ctiManagers(dotenv.get("CUCM_ADDRESS", ""));
+        String[] providerStrings = new String[size];
+        for (int i = 0; i < size; i++) {
+            StringBuilder hosts = new StringBuilder();
+            for (int j = 0; j < managers.size(); j++) {
+                if (j > 0) {
+                    hosts.append(',');
+                }
+                hosts.append(managers.get((i + j) % managers.size()));
+            }
+            providerStrings[i] = String.format("%s;login=%s;passwd=%s", hosts, dotenv.get("JTAPI_USERNAME"),
+                    dotenv.get("JTAPI_PASSWORD"));
+        }
+        // JTAPI_PEER may name an alternative, such as the simulator; unset means
+        // Cisco JTAPI
+        JtapiPeer peer = JtapiPeerFactory.getJtapiPeer(dotenv.get("JTAPI_PEER"));
+        TraceProfile.configure(peer, dotenv);
+        return new ProviderPool(peer, providerStrings);
+    }
+
+    // The JVM's pool, opened by the first scenario to ask for it
+    public static synchronized ProviderPool shared(Dotenv dotenv)
+            throws JtapiPeerUnavailableException, InterruptedException {
+        if (shared == null) {
+            shared = open(dotenv);
+            Log.info(shared.getStats());
+        }
+        return shared;
+    }
+
+    // CUCM_ADDRESS's CTI Managers, or its one plus jtapi.ini's CtiManagers
+    static List<String> ctiManagers(String cucmAddress) {
+        List<String> managers = new ArrayList<String>();
+        for (String host : cucmAddress.split(",")) {
+            if (!host.trim().isEmpty()) {
+                managers.add(host.trim());
+            }
+        }
+        if (managers.size() > 1) {
+            return managers;
+        }
+        Properties ini = new Properties();
+        try (InputStream in = ProviderPool.class.getClassLoader().getResourceAsStream("jtapi.ini")) {
+            if (in != null) {
+                ini.load(in);
+            }
+        } catch (IOException e) {
+            Log.warn("ProviderPool: unable to read jtapi.ini: " + e);
+        }
+        for (String host : ini.getProperty("CtiManagers", "").split(";")) {
+            if (!host.trim().isEmpty() && !managers.contains(host.trim())) {
+                managers.add(host.trim());
+            }
+        }
+        if (managers.isEmpty()) {
+            managers.add("");
+        }
+        return managers;
+    }
+
+    private static Member open(JtapiPeer peer, String providerString) throws InterruptedException {
+        String ctiManager = providerString.split("[,;]", 2)[0];
+        long start = System.nanoTime();
+        Member member = new Member((CiscoProvider) peer.getProvider(providerString), ctiManager);
+        try {
+            member.provider.addObserver(member);
+        } catch (ResourceUnavailableException | MethodNotSupportedException e) {
+            throw new ProviderUnavailableException(ProviderUnavailableException.CAUSE_UNKNOWN, e.toString());
+        }
+        if (!member.inService.await(OPEN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            throw new ProviderUnavailableException(ProviderUnavailableException.CAUSE_UNKNOWN,
+                    "No ProvInServiceEv from " + ctiManager);
+        }
+        member.inServiceNanos = System.nanoTime();
+        member.openNanos = member.inServiceNanos - start;
+        Metrics.record("provider.open", member.openNanos);
+        return member;
+    }
+
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    // The first provider, for work that isn't tied to a line or device
+    public CiscoProvider get() {
+        return members.get(0).provider;
+    }
+
+    // The provider for an address or terminal name: the least loaded one the
+    // first time a name is seen, and the same one after that
+    public CiscoProvider providerFor(String name) {
+        return assignments.computeIfAbsent(name, n -> {
+            synchronized (this) {
+                Member least = members.get(0);
+                for (Member member : members) {
+                    if (member.assigned < least.assigned) {
+                        least = member;
+                    }
+                }
+                least.assigned++;
+                return least;
+            }
+        }).provider;
+    }
+
+    // Count an address's or terminal's events against its provider
+    public void track(Address address) throws ResourceUnavailableException, MethodNotSupportedException {
+        Member member = member(address.getProvider());
+        address.addObserver(member);
+        address.addCallObserver(member);
+    }
+
+    public void track(Terminal terminal) throws ResourceUnavailableException, MethodNotSupportedException {
+        terminal.addObserver(member(terminal.getProvider()));
+    }
+
+    private Member member(Provider provider) {
+        for (Member member : members) {
+            if (member.provider.equals(provider)) {
+                return member;
+            }
+        }
+        throw new IllegalArgumentException(provider + " is not in the pool");
+    }
+
+    // Add a provider observer to every provider
+    public void addObserver(ProviderObserver observer) throws ResourceUnavailableException,
+            MethodNotSupportedException {
+        for (Member member : members) {
+            member.provider.addObserver(observer);
+        }
+    }
+
+    public void shutdown() {
+        for (Member member : members) {
+            member.provider.shutdown();
+        }
+    }
+
+    public String getStats() {
+        StringBuilder text = new StringBuilder(String.format("Provider pool: %d provider(s)", members.size()));
+        for (int i = 0; i < members.size(); i++) {
+            Member member = members.get(i);
+            int assigned;
+            synchronized (this) {
+                assigned = member.assigned;
+            }
+            text.append(String.format("%n    %d. %s: in service in %.1f ms, %d lines/devices, %d events (%.1f/s)",
+                    i + 1, member.ctiManager.isEmpty() ? "(default)" : member.ctiManager, member.openNanos / 1e6,
+                    assigned, member.getEventCount(), member.getEventRate()));
+        }
+        return text.toString();
+    }
+}
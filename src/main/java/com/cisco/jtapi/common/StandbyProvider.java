@@ -0,0 +1,309 @@
+package com.cisco.jtapi.common;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// An active provider plus a warm standby, so a CTI Manager outage costs
+// milliseconds instead of JTAPI's ProviderRetryInterval.  Both providers are
+// opened up front, the standby with the second CTI Manager as its primary
+// (ProviderPool's round robin), and every line is opened and observed on both.
+// The handler only gets the active provider's events: each provider's events
+// pass through a Gate that drops them unless that provider is active.
+
+// When the active provider sends ProvOutOfServiceEv (or ProvShutdownEv), the
+// gates switch to the standby straight away, on the JTAPI event thread.  The
+// calls now present on the standby's lines are then snapshotted
+// (Address.getConnections()) and handed to the Listener, which re-binds its
+// in-flight call state to them.  Until it has, the standby's events are held
+// back, then delivered in order, so none arrive for calls not yet re-bound.
+// The time to switch (failover.switch) and to finish re-syncing
+// (failover.recovery) are recorded as Metrics steps.  When the failed provider
+// comes back it becomes the standby.
+
+// With the simulator (SIM_OUTAGE_... in .env, or
+// SimulatedJtapiPeer.outOfService()) each provider has its own calls, so the
+// snapshot is empty and in-flight calls are reported as lost.
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.CallControlCallObserver;
+import javax.telephony.events.*;
+
+import com.cisco.jtapi.extensions.*;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class StandbyProvider {
+
+    public interface Listener {
+        // The standby has taken over: lines are its lines, in the order they
+        // were opened, and calls the calls on them now (possibly empty)
+        void failedOver(List<LineBootstrap.Line> lines, Call[] calls);
+    }
+
+    // Forwards one provider's events to the handler while it is active
+    private class Gate implements ProviderObserver, TerminalObserver, AddressObserver, CallControlCallObserver {
+        private final int index;
+        private final Object handler;
+
+        Gate(int index, Object handler) {
+            this.index = index;
+            this.handler = handler;
+        }
+
+        public void providerChangedEvent(ProvEv[] events) {
+            forward(() -> ((ProviderObserver) handler).providerChangedEvent(events));
+        }
+
+        public void terminalChangedEvent(TermEv[] events) {
+            forward(() -> ((TerminalObserver) handler).terminalChangedEvent(events));
+        }
+
+        public void addressChangedEvent(AddrEv[] events) {
+            forward(() -> ((AddressObserver) handler).addressChangedEvent(events));
+        }
+
+        public void callChangedEvent(CallEv[] events) {
+            forward(() -> ((CallObserver) handler).callChangedEvent(events));
+        }
+
+        private void forward(Runnable delivery) {
+            if (active != index) {
+                return;
+            }
+            synchronized (held) {
+                if (resyncing) {
+                    held.add(delivery);
+                    return;
+                }
+            }
+            delivery.run();
+        }
+    }
+
+    // Watches one provider's state, directly on the JTAPI event thread
+    private class Watch implements ProviderObserver {
+        private final int index;
+
+        Watch(int index) {
+            this.index = index;
+        }
+
+        public void providerChangedEvent(ProvEv[] events) {
+            for (ProvEv ev : events) {
+                switch (ev.getID()) {
+                    case ProvOutOfServiceEv.ID:
+                    case ProvShutdownEv.ID:
+                        down(index);
+                        break;
+                    case ProvInServiceEv.ID:
+                        up(index);
+                        break;
+                }
+            }
+        }
+    }
+
+    private final List<ProviderPool.Member> members;
+    private final List<List<LineBootstrap.Line>> lines = new ArrayList<List<LineBootstrap.Line>>();
+    private final boolean[] inService = { true, true };
+    // Re-syncs run here, off the JTAPI event thread
+    private final ExecutorService failover = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "StandbyProvider");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile int active;
+    // Set before active changes, and cleared once the listener has re-synced
+    // and the events held meanwhile are delivered; guarded by held
+    private boolean resyncing;
+    private final List<Runnable> held = new ArrayList<Runnable>();
+    private volatile Listener listener;
+    private int failovers;
+    private long lastRecoveryNanos;
+
+    // The first two providers of pool: the first active, the second standby
+    public StandbyProvider(ProviderPool pool) throws ResourceUnavailableException, MethodNotSupportedException {
+        if (pool.getMembers().size() < 2) {
+            throw new IllegalArgumentException("A standby needs a pool of two providers");
+        }
+        members = pool.getMembers().subList(0, 2);
+        for (int i = 0; i < 2; i++) {
+            members.get(i).provider.addObserver(new Watch(i));
+        }
+    }
+
+    // Open the active and standby providers as configured in .env
+    public static StandbyProvider open(Dotenv dotenv) throws JtapiPeerUnavailableException, InterruptedException,
+            ResourceUnavailableException, MethodNotSupportedException {
+        ProviderPool pool = ProviderPool.open(dotenv, 2);
+        Log.info(pool.getStats());
+        return new StandbyProvider(pool);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Open dns on both providers, each with the handler behind its own gate
+    // and dispatcher queue, and return the active provider's lines
+    public List<LineBootstrap.Line> openLines(EventDispatcher dispatcher, Object handler,
+            EventSubscription subscription, String... dns) throws InvalidArgumentException,
+            ResourceUnavailableException, MethodNotSupportedException, PrivilegeViolationException,
+            InterruptedException {
+        for (int i = 0; i < 2; i++) {
+            EventDispatcher.Observer observer = dispatcher.wrap(new Gate(i, handler), subscription);
+            members.get(i).provider.addObserver(observer);
+            lines.add(new LineBootstrap(members.get(i).provider, observer).open(dns));
+        }
+        return getLines();
+    }
+
+    public CiscoProvider getProvider() {
+        return members.get(active).provider;
+    }
+
+    public List<LineBootstrap.Line> getLines() {
+        return lines.get(active);
+    }
+
+    private void down(int index) {
+        long detected = System.nanoTime();
+        int standby = 1 - index;
+        synchronized (this) {
+            if (!inService[index]) {
+                return;
+            }
+            inService[index] = false;
+            if (index != active) {
+                Log.warn("StandbyProvider: standby " + name(index) + " out of service");
+                return;
+            }
+            if (!inService[standby]) {
+                Log.warn("StandbyProvider: both providers out of service");
+                return;
+            }
+            activate(standby);
+            failovers++;
+        }
+        long switched = System.nanoTime() - detected;
+        Metrics.record("failover.switch", switched);
+        failover.execute(() -> resync(index, standby, detected, switched));
+    }
+
+    private void up(int index) {
+        long detected = System.nanoTime();
+        synchronized (this) {
+            if (inService[index]) {
+                return;
+            }
+            inService[index] = true;
+            if (inService[active] && active != index) {
+                Log.info("StandbyProvider: " + name(index) + " back in service as the standby");
+                return;
+            }
+            // Both were down: whichever comes back first is active, a
+            // takeover only if it isn't the one that was
+            int failed = active;
+            activate(index);
+            if (index != failed) {
+                failovers++;
+            }
+            failover.execute(() -> resync(failed, index, detected, 0));
+        }
+    }
+
+    // Switch the gates to index, holding its events until resync() is done
+    private void activate(int index) {
+        synchronized (held) {
+            resyncing = true;
+        }
+        active = index;
+    }
+
+    // Deliver the events held during a re-sync, then let events through
+    private void release() {
+        while (true) {
+            List<Runnable> deliveries;
+            synchronized (held) {
+                if (held.isEmpty()) {
+                    resyncing = false;
+                    return;
+                }
+                deliveries = new ArrayList<Runnable>(held);
+                held.clear();
+            }
+            for (Runnable delivery : deliveries) {
+                try {
+                    delivery.run();
+                } catch (RuntimeException e) {
+                    Log.warn("StandbyProvider: handler threw " + e);
+                }
+            }
+        }
+    }
+
+    // Hand the calls on the new active provider's lines to the listener
+    private void resync(int failed, int standby, long detected, long switchNanos) {
+        Set<Call> calls = new LinkedHashSet<Call>();
+        for (LineBootstrap.Line line : lines.get(standby)) {
+            Connection[] connections = line.address.getConnections();
+            if (connections != null) {
+                for (Connection connection : connections) {
+                    calls.add(connection.getCall());
+                }
+            }
+        }
+        Listener current = listener;
+        if (current != null) {
+            try {
+                current.failedOver(lines.get(standby), calls.toArray(new Call[0]));
+            } catch (RuntimeException e) {
+                Log.warn("StandbyProvider: listener threw " + e);
+            }
+        }
+        release();
+        long recovery = System.nanoTime() - detected;
+        Metrics.record("failover.recovery", recovery);
+        synchronized (this) {
+            lastRecoveryNanos = recovery;
+        }
+        if (failed == standby) {
+            Log.warn(String.format("StandbyProvider: %s back in service; %d call(s) re-synced, recovered in %.1f ms",
+                    name(standby), calls.size(), recovery / 1e6));
+            return;
+        }
+        Log.warn(String.format("StandbyProvider: %s out of service, %s took over in %.3f ms; %d call(s) re-synced,"
+                + " recovered in %.1f ms", name(failed), name(standby), switchNanos / 1e6, calls.size(), recovery / 1e6));
+    }
+
+    private String name(int index) {
+        String ctiManager = members.get(index).ctiManager;
+        return "provider " + (index + 1) + (ctiManager.isEmpty() ? "" : " (" + ctiManager + ")");
+    }
+
+    public synchronized String getStats() {
+        return String.format("Standby provider: %s active, %d failover(s), last recovery %.1f ms", name(active),
+                failovers, lastRecoveryNanos / 1e6);
+    }
+}
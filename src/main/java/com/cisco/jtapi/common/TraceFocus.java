@@ -0,0 +1,133 @@
+package com.cisco.jtapi.common;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Full event tracing for one DN or device for a while, without raising
+// verbosity for everything else.  JTAPI's own trace can't be narrowed to a
+// device, so this works on the samples' side: while a name is in focus,
+// Log.event() prints the events that concern it (by address, terminal,
+// calling or called party) even when LOG_LEVEL is INFO or WARN.  Each focus
+// ends by itself after its time window.
+
+// Set from code with focus(), or at runtime over the METRICS_PORT server:
+//   GET /trace?name=4001&seconds=60   focus on 4001 for a minute
+//   GET /trace                        list what is in focus
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.events.CallCtlCallEv;
+import javax.telephony.events.*;
+
+public final class TraceFocus {
+
+    // Name -> System.nanoTime() the focus ends
+    private static final Map<String, Long> focused = new ConcurrentHashMap<String, Long>();
+    // Fast path: nothing in focus.  Only written holding the class lock, with
+    // the map change it follows
+    private static volatile boolean active;
+
+    private TraceFocus() {
+    }
+
+    // Trace every event for a DN or device name for the next millis
+    public static void focus(String name, long millis) {
+        synchronized (TraceFocus.class) {
+            focused.put(name, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+            active = true;
+        }
+        Log.warn("TraceFocus: tracing " + name + " for " + millis / 1000.0 + " s");
+    }
+
+    public static synchronized void unfocus(String name) {
+        focused.remove(name);
+        active = !focused.isEmpty();
+    }
+
+    // End a focus that has run out, unless it has been renewed since
+    private static synchronized boolean expire(String name, Long until) {
+        if (!focused.remove(name, until)) {
+            return false;
+        }
+        active = !focused.isEmpty();
+        return true;
+    }
+
+    // Whether an event concerns a name in focus
+    public static boolean matches(Object ev) {
+        if (!active) {
+            return false;
+        }
+        if (ev instanceof AddrEv && focused(((AddrEv) ev).getAddress())) {
+            return true;
+        }
+        if (ev instanceof TermEv && focused(((TermEv) ev).getTerminal())) {
+            return true;
+        }
+        if (ev instanceof ConnEv && ((ConnEv) ev).getConnection() != null
+                && focused(((ConnEv) ev).getConnection().getAddress())) {
+            return true;
+        }
+        if (ev instanceof TermConnEv && ((TermConnEv) ev).getTerminalConnection() != null
+                && focused(((TermConnEv) ev).getTerminalConnection().getTerminal())) {
+            return true;
+        }
+        if (ev instanceof CallCtlCallEv) {
+            CallCtlCallEv callEv = (CallCtlCallEv) ev;
+            return focused(callEv.getCallingAddress()) || focused(callEv.getCalledAddress());
+        }
+        return false;
+    }
+
+    private static boolean focused(Address address) {
+        return address != null && focused(address.getName());
+    }
+
+    private static boolean focused(Terminal terminal) {
+        return terminal != null && focused(terminal.getName());
+    }
+
+    private static boolean focused(String name) {
+        Long until = focused.get(name);
+        if (until == null) {
+            return false;
+        }
+        if (System.nanoTime() - until > 0) {
+            if (expire(name, until)) {
+                Log.warn("TraceFocus: tracing " + name + " ended");
+            }
+            return false;
+        }
+        return true;
+    }
+
+    // Names in focus and the seconds left, one per line
+    public static String describe() {
+        StringBuilder sb = new StringBuilder();
+        long now = System.nanoTime();
+        for (Map.Entry<String, Long> entry : focused.entrySet()) {
+            long left = entry.getValue() - now;
+            if (left > 0) {
+                sb.append(entry.getKey()).append(' ').append(String.format("%.1f", left / 1e9)).append(" s\n");
+            }
+        }
+        return sb.length() == 0 ? "nothing in focus\n" : sb.toString();
+    }
+}
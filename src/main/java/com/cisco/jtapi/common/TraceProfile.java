@@ -0,0 +1,103 @@
+package com.cisco.jtapi.common;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Named JTAPI trace configurations, laid over jtapi.ini at startup so the
+// ini's trace settings no longer decide the provider's throughput.  The
+// jtapi.ini shipped here traces everything (all levels, every *_DEBUGGING
+// facility including PROTOCOL and CTIIMPL), which is what FORENSIC keeps:
+//   perf       WARNING only, no debugging facilities - for busy providers
+//   standard   WARNING + INFORMATIONAL with JTAPI_DEBUGGING and CTI_DEBUGGING
+//              (the API calls and events, no internals or CTI message dumps)
+//   forensic   everything on, as shipped - for reproducing a problem
+// The profile named by JTAPI_TRACE_PROFILE is applied to the peer's
+// CiscoJtapiProperties before any provider is opened; unset keeps jtapi.ini
+// as it is.
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.telephony.JtapiPeer;
+
+import com.cisco.jtapi.extensions.CiscoJtapiPeer;
+import com.cisco.jtapi.extensions.CiscoJtapiProperties;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public enum TraceProfile {
+
+    PERF(Arrays.asList("WARNING"), Collections.<String>emptyList()),
+    STANDARD(Arrays.asList("WARNING", "INFORMATIONAL"), Arrays.asList("JTAPI_DEBUGGING", "CTI_DEBUGGING")),
+    FORENSIC(Arrays.asList("WARNING", "INFORMATIONAL", "DEBUG"), Arrays.asList("JTAPI_DEBUGGING",
+            "JTAPIIMPL_DEBUGGING", "CTI_DEBUGGING", "CTIIMPL_DEBUGGING", "PROTOCOL_DEBUGGING", "MISC_DEBUGGING"));
+
+    private final List<String> traces;
+    private final List<String> debugging;
+
+    TraceProfile(List<String> traces, List<String> debugging) {
+        this.traces = traces;
+        this.debugging = debugging;
+    }
+
+    // perf, standard or forensic
+    public static TraceProfile named(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown trace profile '" + name + "' (perf, standard, forensic)");
+        }
+    }
+
+    // Apply JTAPI_TRACE_PROFILE, if set, to a newly created peer; returns the
+    // profile applied, or null
+    public static TraceProfile configure(JtapiPeer peer, Dotenv dotenv) {
+        String name = dotenv.get("JTAPI_TRACE_PROFILE", "");
+        if (name.trim().isEmpty()) {
+            return null;
+        }
+        TraceProfile profile = named(name);
+        if (!profile.applyTo(peer)) {
+            Log.info("TraceProfile: " + peer.getName() + " has no trace settings; JTAPI_TRACE_PROFILE ignored");
+            return null;
+        }
+        Log.info("TraceProfile: JTAPI tracing set to " + profile.toString().toLowerCase());
+        return profile;
+    }
+
+    // Set the peer's trace levels and debugging facilities to this profile's;
+    // false if the peer has no settings to change
+    public boolean applyTo(JtapiPeer peer) {
+        if (!(peer instanceof CiscoJtapiPeer)) {
+            return false;
+        }
+        CiscoJtapiPeer ciscoPeer = (CiscoJtapiPeer) peer;
+        CiscoJtapiProperties properties = ciscoPeer.getJtapiProperties();
+        if (properties == null) {
+            return false;
+        }
+        for (String name : properties.getTraceNames()) {
+            properties.setTraceValue(name, traces.contains(name));
+        }
+        for (String name : properties.getDebuggingNames()) {
+            properties.setDebuggingValue(name, debugging.contains(name));
+        }
+        ciscoPeer.setJtapiProperties(properties);
+        return true;
+    }
+}
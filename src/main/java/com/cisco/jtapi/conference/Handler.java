@@ -20,30 +20,19 @@ package com.cisco.jtapi.conference;
 import javax.telephony.*;
 import javax.telephony.events.*;
 import javax.telephony.callcontrol.*;
-import javax.telephony.callcontrol.events.CallCtlTermConnRingingEv;
-import javax.telephony.callcontrol.events.CallCtlTermConnTalkingEv;
 
 import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.common.Log;
 
 import com.cisco.cti.util.Condition;
 
 public class Handler implements ProviderObserver, TerminalObserver, AddressObserver, CallControlCallObserver {
 
     public Condition providerInService = new Condition();
-    public Condition fromAddressInService = new Condition();
-    public Condition toAddressInService = new Condition();
-    public Condition confAddressInService = new Condition();
-    public Condition fromTerminalInService = new Condition();
-    public Condition toTerminalInService = new Condition();
-    public Condition confTerminalInService = new Condition();
-    public Condition origCallRinging = new Condition();
-    public Condition origCallTalking = new Condition();
-    public Condition secondCallRinging = new Condition();
-    public Condition secondCallTalking = new Condition();
 
     public void providerChangedEvent(ProvEv[] events) {
         for (ProvEv ev : events) {
-            System.out.println("    Received--> Provider/" + ev);
+            Log.event("Provider", ev);
             switch (ev.getID()) {
                 case ProvInServiceEv.ID:
                     providerInService.set();
@@ -54,63 +43,19 @@ public class Handler implements ProviderObserver, TerminalObserver, AddressObser
 
     public void terminalChangedEvent(TermEv[] events) {
         for (TermEv ev : events) {
-            System.out.println("    Received--> Terminal/" + ev);
-            switch (ev.getID()) {
-                case CiscoTermInServiceEv.ID:
-                    if (ev.getTerminal() == conference.fromTerminal) {
-                        fromTerminalInService.set();
-                    }
-                    if (ev.getTerminal() == conference.toTerminal) {
-                        toTerminalInService.set();
-                    }
-                    if (ev.getTerminal() == conference.confTerminal) {
-                        confTerminalInService.set();
-                    }
-                    break;
-            }
+            Log.event("Terminal", ev);
         }
     }
 
     public void addressChangedEvent(AddrEv[] events) {
         for (AddrEv ev : events) {
-            System.out.println("    Received--> Address/" + ev);
-            switch (ev.getID()) {
-                case CiscoAddrInServiceEv.ID:
-                    if (ev.getAddress() == conference.fromAddress) {
-                        fromAddressInService.set();
-                    }
-                    if (ev.getAddress() == conference.toAddress) {
-                        toAddressInService.set();
-                    }
-                    if (ev.getAddress() == conference.confAddress) {
-                        confAddressInService.set();
-                    }
-                    break;
-            }
+            Log.event("Address", ev);
         }
     }
 
     public void callChangedEvent(CallEv[] events) {
         for (CallEv ev : events) {
-            System.out.println("    Received--> Call/" + ev);
-            switch (ev.getID()) {
-                case CallCtlTermConnRingingEv.ID:
-                    if (((CallCtlTermConnRingingEv) ev).getCalledAddress().getName().equals(conference.toAddress.getName())) {
-                        origCallRinging.set();
-                    }
-                    if (((CallCtlTermConnRingingEv) ev).getCalledAddress().getName().equals(conference.fromAddress.getName())) {
-                        secondCallRinging.set();
-                    }
-                    break;
-                case CallCtlTermConnTalkingEv.ID:
-                    if (((CallCtlTermConnTalkingEv) ev).getCalledAddress().getName().equals(conference.toAddress.getName())) {
-                        origCallTalking.set();
-                    }
-                    if (((CallCtlTermConnTalkingEv) ev).getCalledAddress().getName().equals(conference.fromAddress.getName())) {
-                        secondCallTalking.set();
-                    }
-                    break;
-            }
+            Log.event("Call", ev);
         }
     }
 
@@ -39,19 +39,30 @@ package com.cisco.jtapi.conference;
 //   OpenJDK 11.0.9
 //   CUCM 12.5
 
-import java.time.format.DateTimeFormatter;
-import java.time.LocalDateTime;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
 
 import javax.telephony.*;
+import javax.telephony.callcontrol.*;
+import javax.telephony.callcontrol.events.*;
 
 import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.common.CallEventAwaiter;
+import com.cisco.jtapi.common.CallThreads;
+import com.cisco.jtapi.common.EventDispatcher;
+import com.cisco.jtapi.common.EventSubscription;
+import com.cisco.jtapi.common.LineBootstrap;
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.common.Metrics;
+import com.cisco.jtapi.common.TraceProfile;
 
 import io.github.cdimascio.dotenv.Dotenv;
 
 public class conference {
 
-    private static DateTimeFormatter dtf = DateTimeFormatter.ofPattern("HH:mm:ss.SS");
-
     public static CiscoAddress fromAddress;
     public static CiscoAddress toAddress;
     public static CiscoAddress confAddress;
@@ -60,12 +71,18 @@ public class conference {
     public static CiscoTerminal confTerminal;
 
     private static void log(String msg) {
-        System.out.println(dtf.format(LocalDateTime.now()) + " " + msg);
+        Log.info(msg);
+    }
+
+    // Whether a call control terminal connection event is for a call to address
+    private static boolean isCalled(CallCtlCallEv ev, Address address) {
+        return ev.getCalledAddress().getName().equals(address.getName());
     }
 
     public static void main(String[] args)
             throws JtapiPeerUnavailableException, InvalidArgumentException, ResourceUnavailableException,
-            MethodNotSupportedException, PrivilegeViolationException, InvalidPartyException, InvalidStateException {
+            MethodNotSupportedException, PrivilegeViolationException, InvalidPartyException, InvalidStateException,
+            InterruptedException, ExecutionException, IOException {
 
         // Retrieve environment variables from .env, if present
         Dotenv dotenv = Dotenv.load();
@@ -74,9 +91,20 @@ public class conference {
         // events
         Handler handler = new Handler();
 
-        // Create the JtapiPeer object, representing the JTAPI library
+        // Handler callbacks run on the dispatcher's worker threads, so the JTAPI
+        // event thread only has to queue each event batch
+        EventDispatcher dispatcher = EventDispatcher.create(dotenv);
+        // Only the events listed for conference in event_subscriptions.properties
+        // are delivered
+        EventSubscription subscription = EventSubscription.load(dotenv, "conference");
+        EventDispatcher.Observer observer = dispatcher.wrap(handler, subscription);
+
+        // Create the JtapiPeer object, representing the JTAPI library (JTAPI_PEER may
+        // name an alternative, such as the simulator; unset means Cisco JTAPI)
         log("Initializing Jtapi");
-        CiscoJtapiPeer peer = (CiscoJtapiPeer) JtapiPeerFactory.getJtapiPeer(null);
+        CiscoJtapiPeer peer = (CiscoJtapiPeer) JtapiPeerFactory.getJtapiPeer(dotenv.get("JTAPI_PEER"));
+        // JTAPI_TRACE_PROFILE (perf/standard/forensic) overrides jtapi.ini's tracing
+        TraceProfile.configure(peer, dotenv);
 
         // Create and open the Provider, representing a JTAPI connection to CUCM CTI
         // Manager
@@ -84,93 +112,81 @@ public class conference {
                 dotenv.get("JTAPI_USERNAME"), dotenv.get("JTAPI_PASSWORD"));
         log("Connecting Provider: " + providerString);
         CiscoProvider provider = (CiscoProvider) peer.getProvider(providerString);
-        provider.addObserver(handler);
+        provider.addObserver(observer);
         log("Awaiting ProvInServiceEv...");
         handler.providerInService.waitTrue();
 
-        // Open the ALICE_DN Address and wait for it to go in service
-        log("Opening fromAddress DN: " + dotenv.get("ALICE_DN"));
-        fromAddress = (CiscoAddress) provider.getAddress(dotenv.get("ALICE_DN"));
-        log("Awaiting CiscoAddrInServiceEv for: " + fromAddress.getName() + "...");
-        fromAddress.addObserver(handler);
-        handler.fromAddressInService.waitTrue();
-        // Add a call observer to receive call events
-        fromAddress.addCallObserver(handler);
-        // Get/open the first Terminal for the Address. Could be multiple
-        // if it's a shared line
-        fromTerminal = (CiscoTerminal) fromAddress.getTerminals()[0];
-        log("Awaiting CiscoTermInServiceEv for: " + fromTerminal.getName() + "...");
-        fromTerminal.addObserver(handler);
-        handler.fromTerminalInService.waitTrue();
-
-        // Open the BOB_DN Address and wait for it to go in service
-        log("Opening toAddress DN: " + dotenv.get("BOB_DN"));
-        toAddress = (CiscoAddress) provider.getAddress(dotenv.get("BOB_DN"));
-        log("Awaiting CiscoAddrInServiceEv for: " + toAddress.getName() + "...");
-        toAddress.addObserver(handler);
-        handler.toAddressInService.waitTrue();
-        // Add a call observer to receive call events
-        toAddress.addCallObserver(handler);
-        // Get/open the first Terminal for the Address. Could be multiple
-        // if it's a shared line
-        toTerminal = (CiscoTerminal) toAddress.getTerminals()[0];
-        log("Awaiting CiscoTermInServiceEv for: " + toTerminal.getName() + "...");
-        toTerminal.addObserver(handler);
-        handler.toTerminalInService.waitTrue();
-
-        // Open the CHARLIE_DN Address and wait for it to go in service
-        log("Opening confAddress DN: " + dotenv.get("CHARLIE_DN"));
-        confAddress = (CiscoAddress) provider.getAddress(dotenv.get("CHARLIE_DN"));
-        log("Awaiting CiscoAddrInServiceEv for: " + confAddress.getName() + "...");
-        confAddress.addObserver(handler);
-        handler.confAddressInService.waitTrue();
-        // Add a call observer to receive call events
-        confAddress.addCallObserver(handler);
-        // Get/open the first Terminal for the Address. Could be multiple
-        // if it's a shared line
-        confTerminal = (CiscoTerminal) confAddress.getTerminals()[0];
-        log("Awaiting CiscoTermInServiceEv for: " + confTerminal.getName() + "...");
-        confTerminal.addObserver(handler);
-        handler.confTerminalInService.waitTrue();
-
-        // Make a call from ALICE to BOB
-
-        // Create a new Call object from our provider
+        // Open the ALICE_DN, BOB_DN and CHARLIE_DN Addresses and their first
+        // Terminals all at once, and wait for all of them to go in service; call
+        // observers are then added to receive call events
+        log("Opening DNs: " + dotenv.get("ALICE_DN") + ", " + dotenv.get("BOB_DN") + ", " + dotenv.get("CHARLIE_DN"));
+        log("Awaiting CiscoAddrInServiceEv/CiscoTermInServiceEv for all DNs...");
+        LineBootstrap bootstrap = new LineBootstrap(provider, observer);
+        List<LineBootstrap.Line> lines = bootstrap.open(dotenv.get("ALICE_DN"), dotenv.get("BOB_DN"),
+                dotenv.get("CHARLIE_DN"));
+        log(bootstrap.getStats());
+        fromAddress = lines.get(0).address;
+        fromTerminal = lines.get(0).terminal;
+        toAddress = lines.get(1).address;
+        toTerminal = lines.get(1).terminal;
+        confAddress = lines.get(2).address;
+        confTerminal = lines.get(2).terminal;
+
+        // Call steps are awaited as futures, completed by a second call observer
+        CallEventAwaiter awaiter = new CallEventAwaiter();
+        EventDispatcher.Observer callObserver = dispatcher.wrap(awaiter);
+        for (LineBootstrap.Line line : lines) {
+            line.address.addCallObserver(callObserver);
+        }
+
+        // The scenario runs as a call script on its own thread, a virtual thread
+        // with CALL_THREADS=virtual.  Its requests are issued on callControl;
+        // each wait is registered before the request that causes the event
+        CallThreads threads = CallThreads.create(dotenv);
+        ExecutorService callControl = threads.newExecutor("callControl", 1);
+        ExecutorService scripts = threads.newExecutor("conference", 1);
+
+        // Create new Call objects from our provider
         CiscoCall origCall = (CiscoCall) provider.createCall();
-
-        log("Connecting original call from " + dotenv.get("ALICE_DN") + " to DN: " + dotenv.get("BOB_DN"));
-        log("Awaiting CallCtlTermConnRingingEv for Call: " + origCall.toString() + "...");
-        origCall.connect(fromTerminal, fromAddress, toAddress.getName());
-        // Wait for the call to ring
-        handler.origCallRinging.waitTrue();
-
-        // Answer the ALICE->BOB call
-        log("Answering original call from DN: " + fromAddress.getName());
-        toTerminal.getTerminalConnections()[0].answer();
-        log("Awaiting CallCtlTermConnTalkingEv for original Call: " + origCall.toString() + "...");
-        handler.origCallTalking.waitTrue();
-
-        // Make a call from CHARLIE to ALICE
-
-        // Create a new Call object from our provider
         CiscoCall secondCall = (CiscoCall) provider.createCall();
 
-        log("Connecting second call from " + confAddress.getName() + " to DN: " + fromAddress.getName());
-        log("Awaiting CallCtlTermConnRingingEv for second Call: " + secondCall.toString() + "...");
-        secondCall.connect(confTerminal, confAddress, fromAddress.getName());
-        // Wait for the call to ring
-        handler.secondCallRinging.waitTrue();
-
-        // Answer the CHARLIE->ALICE call
-        log("Answering second call from DN: " + confAddress.getName());
-        fromTerminal.getTerminalConnections()[1].answer();
-        log("Awaiting CallCtlTermConnTalkingEv for second Call: " + secondCall.toString() + "...");
-        handler.secondCallTalking.waitTrue();
-
-        // Conference the calls at ALICE
-        log("Conferencing calls");
-        origCall.conference(secondCall);
-
+        scripts.submit(() -> {
+            // Make a call from ALICE to BOB, and wait for it to ring
+            log("Connecting original call from " + dotenv.get("ALICE_DN") + " to DN: " + dotenv.get("BOB_DN"));
+            log("Awaiting CallCtlTermConnRingingEv for Call: " + origCall.toString() + "...");
+            CallCtlTermConnRingingEv ringing = awaiter.request(origCall, CallCtlTermConnRingingEv.class,
+                    ev -> isCalled(ev, toAddress),
+                    () -> origCall.connect(fromTerminal, fromAddress, toAddress.getName()), callControl).join();
+
+            // Answer the ALICE->BOB call at the ringing terminal connection
+            log("Answering original call from DN: " + fromAddress.getName());
+            log("Awaiting CallCtlTermConnTalkingEv for original Call: " + origCall.toString() + "...");
+            CallControlTerminalConnection origTermConn = (CallControlTerminalConnection) ringing.getTerminalConnection();
+            awaiter.request(origCall, CallCtlTermConnTalkingEv.class, ev -> isCalled(ev, toAddress),
+                    origTermConn::answer, callControl).join();
+
+            // Make a call from CHARLIE to ALICE, and wait for it to ring
+            log("Connecting second call from " + confAddress.getName() + " to DN: " + fromAddress.getName());
+            log("Awaiting CallCtlTermConnRingingEv for second Call: " + secondCall.toString() + "...");
+            ringing = awaiter.request(secondCall, CallCtlTermConnRingingEv.class, ev -> isCalled(ev, fromAddress),
+                    () -> secondCall.connect(confTerminal, confAddress, fromAddress.getName()), callControl).join();
+
+            // Answer the CHARLIE->ALICE call
+            log("Answering second call from DN: " + confAddress.getName());
+            log("Awaiting CallCtlTermConnTalkingEv for second Call: " + secondCall.toString() + "...");
+            CallControlTerminalConnection secondTermConn = (CallControlTerminalConnection) ringing
+                    .getTerminalConnection();
+            awaiter.request(secondCall, CallCtlTermConnTalkingEv.class, ev -> isCalled(ev, fromAddress),
+                    secondTermConn::answer, callControl).join();
+
+            // Conference the calls at ALICE
+            log("Conferencing calls");
+            origCall.conference(secondCall);
+            return null;
+        }).get();
+
+        log(subscription.getStats());
+        log(Metrics.summary());
         log("Done.");
         System.exit(0);
     }
@@ -20,27 +20,27 @@ package com.cisco.jtapi.dialviaoffice;
 import javax.telephony.*;
 import javax.telephony.events.*;
 import javax.telephony.callcontrol.*;
+import javax.telephony.callcontrol.events.CallCtlTermConnHeldEv;
 import javax.telephony.callcontrol.events.CallCtlTermConnRingingEv;
 import javax.telephony.callcontrol.events.CallCtlTermConnTalkingEv;
 
 import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.common.Log;
 
-import com.cisco.cti.util.Condition;
-
+// Observes every CTI Port in dialViaOffice.ctipPool; in-service tracking for
+// the ports is done by the pool itself
 public class CtiPortHandler implements TerminalObserver, AddressObserver, CallControlCallObserver {
 
-    public Condition ctipAddressInService = new Condition();
-    public Condition ctipTerminalInService = new Condition();
-    public Condition ctipCallRinging;
-    public Condition ctipCallTalking;
-    public Condition ctipTransferCompleted;
-
     public void terminalChangedEvent(TermEv[] events) {
         for (TermEv ev : events) {
-            System.out.println("    Received--> Terminal/"+ev);
+            Log.event("Terminal", ev);
             switch (ev.getID()) {
-                case CiscoTermInServiceEv.ID:
-                    ctipTerminalInService.set();
+                case CiscoRTPInputStartedEv.ID:
+                    dialViaOffice.startRecording(dialViaOffice.ctipPool.find(ev.getTerminal()),
+                            ((CiscoRTPInputStartedEv) ev).getCallID().getCall());
+                    break;
+                case CiscoRTPInputStoppedEv.ID:
+                    dialViaOffice.stopRecording(dialViaOffice.ctipPool.find(ev.getTerminal()));
                     break;
             }
         }
@@ -48,31 +48,44 @@ public class CtiPortHandler implements TerminalObserver, AddressObserver, CallCo
 
     public void addressChangedEvent(AddrEv[] events) {
         for (AddrEv ev : events) {
-            System.out.println("    Received--> Address/"+ev);
-            switch (ev.getID()) {
-                case CiscoAddrInServiceEv.ID:
-                    ctipAddressInService.set();
-                    break;
-            }
+            Log.event("Address", ev);
         }
     }
 
     public void callChangedEvent(CallEv[] events) {
         for (CallEv ev : events) {
-            System.out.println("    Received--> Call/"+ev);
-            switch (ev.getID()) {
-                case CallCtlTermConnRingingEv.ID:
-                    dialViaOffice.ctipInboundCallEvent = (CallCtlTermConnRingingEv) ev;
-                    ctipCallRinging.set();
-                    break;
-                case CallCtlTermConnTalkingEv.ID:
-                    ctipCallTalking.set();
-                    break;
-                case CiscoTransferEndEv.ID:
-                    ctipTransferCompleted.set();
-                    break;
+            Log.event("Call", ev);
+            DialViaOfficeCall session = dialViaOffice.calls.get(ev.getCall());
+            if (ev instanceof TermConnEv) {
+                // Only the session's leased CTI Port's terminal connections drive the session
+                CallControlTerminalConnection termConn = (CallControlTerminalConnection) ((TermConnEv) ev)
+                        .getTerminalConnection();
+                if (session == null || session.getPort() == null
+                        || !termConn.getConnection().getAddress().equals(session.getPort().address)) {
+                    continue;
+                }
+                switch (ev.getID()) {
+                    case CallCtlTermConnRingingEv.ID:
+                        session.ctipRinging(ev.getCall(), termConn);
+                        break;
+                    case CallCtlTermConnTalkingEv.ID:
+                        session.ctipTalking(ev.getCall(), termConn);
+                        break;
+                    case CallCtlTermConnHeldEv.ID:
+                        session.ctipHeld(ev.getCall());
+                        break;
+                }
+            } else if (ev.getID() == CiscoTransferEndEv.ID) {
+                CiscoTransferEndEv transferEv = (CiscoTransferEndEv) ev;
+                session = dialViaOffice.calls.get(transferEv.getTransferredCall());
+                if (session == null) {
+                    session = dialViaOffice.calls.get(transferEv.getFinalCall());
+                }
+                if (session != null) {
+                    session.transferEnded(transferEv.isSuccess());
+                }
             }
         }
     }
 
-}
\ No newline at end of file
+}
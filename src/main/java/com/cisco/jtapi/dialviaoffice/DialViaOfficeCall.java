@@ -0,0 +1,289 @@
+package com.cisco.jtapi.dialviaoffice;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Per-call state machine for one dial-via-office session (a dialin call plus
+// its dialout call).  The Handler/CtiPortHandler observers look up the session
+// by Call and feed it events; each transition kicks off the next JTAPI request
+// on the dialViaOffice.callControl executor and returns immediately, so the
+// observer thread is never blocked and any number of sessions can be in flight.
+
+// Each transition records the time since the previous one as a Metrics step,
+// dialViaOffice.<step> (e.g. dialViaOffice.rp.answer is answer() on the Route
+// Point to its CallCtlTermConnTalkingEv), and a completed session records
+// dialViaOffice.session end to end.
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.*;
+
+import com.cisco.jtapi.common.CtiPortPool;
+import com.cisco.jtapi.common.Metrics;
+
+public class DialViaOfficeCall {
+
+    public enum State {
+        ANSWERING_DIALIN,
+        HOLDING_DIALIN,
+        DIALING_OUT,
+        REDIRECTING_DIALIN,
+        ANSWERING_CTIP_DIALIN,
+        HOLDING_CTIP_DIALIN,
+        REDIRECTING_DIALOUT,
+        ANSWERING_CTIP_DIALOUT,
+        TRANSFERRING,
+        COMPLETED,
+        FAILED
+    }
+
+    // A JTAPI request issued for a transition
+    private interface Action {
+        void run() throws Exception;
+    }
+
+    private final String id;
+    private final String callingDN;
+    private final Call dialinCall;
+    private final CallControlTerminalConnection rpDialinTermConn;
+    private Call dialoutCall;
+    private CtiPortPool.Port port;
+    private State state = State.ANSWERING_DIALIN;
+    private final long started = System.nanoTime();
+    private long stepStarted = started;
+
+    public DialViaOfficeCall(Call dialinCall, CallControlTerminalConnection rpDialinTermConn, String callingDN) {
+        this.id = dialinCall.toString();
+        this.callingDN = callingDN;
+        this.dialinCall = dialinCall;
+        this.rpDialinTermConn = rpDialinTermConn;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    // The CTI Port leased to this session, or null if none yet
+    public synchronized CtiPortPool.Port getPort() {
+        return port;
+    }
+
+    // 1. Dialin call is ringing on the CTI Route Point: answer it
+    public synchronized void start() {
+        log("Answering dialin call from DN: " + callingDN);
+        perform(() -> rpDialinTermConn.answer());
+    }
+
+    // 2. Dialin call is talking on the CTI Route Point: hold it
+    public synchronized void rpTalking(Call call) {
+        if (state != State.ANSWERING_DIALIN || call != dialinCall) {
+            return;
+        }
+        step("rp.answer");
+        state = State.HOLDING_DIALIN;
+        log("Holding dialin call on: " + rpDialinTermConn.getConnection().getAddress().getName());
+        perform(() -> rpDialinTermConn.hold());
+    }
+
+    // 3. Dialin call is held on the CTI Route Point: make the dialout call
+    public synchronized void rpHeld(Call call) {
+        if (state != State.HOLDING_DIALIN || call != dialinCall) {
+            return;
+        }
+        step("rp.hold");
+        state = State.DIALING_OUT;
+        log("Making dialout call to DN: " + dialViaOffice.dialoutDN);
+        perform(() -> {
+            Call call2 = dialViaOffice.provider.createCall();
+            // Register the dialout leg before connecting so early events find this session
+            setDialoutCall(call2);
+            call2.connect(dialViaOffice.rpTerminal, dialViaOffice.rpAddress, dialViaOffice.dialoutDN);
+        });
+    }
+
+    // 4. Dialout call is answered: lease a CTI Port from the pool
+    public synchronized void dialoutEstablished(Call call) {
+        if (state != State.DIALING_OUT || call != dialoutCall) {
+            return;
+        }
+        step("dialout.connect");
+        state = State.REDIRECTING_DIALIN;
+        log("Leasing CTI Port (" + dialViaOffice.ctipPool.getStats() + ")");
+        dialViaOffice.ctipPool.lease(leased -> dialViaOffice.callControl.execute(() -> portLeased(leased)));
+    }
+
+    // 4a. A CTI Port is ours: redirect the dialin call to it
+    private synchronized void portLeased(CtiPortPool.Port leased) {
+        if (state != State.REDIRECTING_DIALIN) {
+            // Session ended while waiting for a port
+            dialViaOffice.ctipPool.release(leased);
+            return;
+        }
+        step("ctip.lease");
+        port = leased;
+        log("Redirecting dialin call to CTI Port DN: " + port.getName());
+        perform(() -> ((CallControlConnection) rpDialinTermConn.getConnection()).redirect(leased.getName()));
+    }
+
+    // 5./8. A leg is ringing on the CTI Port: answer it
+    public synchronized void ctipRinging(Call call, CallControlTerminalConnection ctipTermConn) {
+        if (state == State.REDIRECTING_DIALIN && call == dialinCall) {
+            step("ctip.redirectDialin");
+            state = State.ANSWERING_CTIP_DIALIN;
+            log("Answering CTI Port dialin call");
+        } else if (state == State.REDIRECTING_DIALOUT && call == dialoutCall) {
+            step("ctip.redirectDialout");
+            state = State.ANSWERING_CTIP_DIALOUT;
+            log("Answering CTI Port dialout call");
+        } else {
+            return;
+        }
+        perform(() -> ctipTermConn.answer());
+    }
+
+    // 6./9. A leg is talking on the CTI Port: hold the dialin leg, or transfer
+    // the dialin leg to the dialout leg
+    public synchronized void ctipTalking(Call call, CallControlTerminalConnection ctipTermConn) {
+        if (state == State.ANSWERING_CTIP_DIALIN && call == dialinCall) {
+            step("ctip.answerDialin");
+            state = State.HOLDING_CTIP_DIALIN;
+            log("Holding CTI Port dialin call");
+            perform(() -> ctipTermConn.hold());
+        } else if (state == State.ANSWERING_CTIP_DIALOUT && call == dialoutCall) {
+            step("ctip.answerDialout");
+            state = State.TRANSFERRING;
+            log("Transfering dialin call to dialout call");
+            perform(() -> ((CallControlCall) dialinCall).transfer(call));
+        }
+    }
+
+    // 7. Dialin leg is held on the CTI Port: redirect the dialout call to the CTI Port
+    public synchronized void ctipHeld(Call call) {
+        if (state != State.HOLDING_CTIP_DIALIN || call != dialinCall) {
+            return;
+        }
+        step("ctip.hold");
+        state = State.REDIRECTING_DIALOUT;
+        log("Redirecting dialout call to CTI Port DN: " + port.getName());
+        // The Route Point's connection is looked up from the call rather than kept
+        // from connect(): events can get here before connect() has returned
+        Call call2 = dialoutCall;
+        String portDN = port.getName();
+        perform(() -> rpConnection(call2).redirect(portDN));
+    }
+
+    // 10. The CTI Port transfer has completed
+    public synchronized void transferEnded(boolean success) {
+        if (state != State.TRANSFERRING) {
+            return;
+        }
+        if (success) {
+            step("transfer");
+            Metrics.recordSince("dialViaOffice.session", started);
+            log("Transfer completed");
+            finish(State.COMPLETED);
+        } else {
+            fail("transfer was not successful");
+        }
+    }
+
+    // A remote party hung up before the session completed
+    public synchronized void disconnected(Call call) {
+        if (state == State.COMPLETED || state == State.FAILED) {
+            return;
+        }
+        fail("call disconnected in state " + state);
+    }
+
+    private synchronized void setDialoutCall(Call call) {
+        dialoutCall = call;
+        dialViaOffice.calls.put(call, this);
+    }
+
+    // Record the step just completed and start timing the next
+    private void step(String name) {
+        long now = System.nanoTime();
+        Metrics.record("dialViaOffice." + name, now - stepStarted);
+        stepStarted = now;
+    }
+
+    private static CallControlConnection rpConnection(Call call) throws InvalidStateException {
+        Connection[] connections = call.getConnections();
+        if (connections != null) {
+            for (Connection connection : connections) {
+                if (connection.getAddress().equals(dialViaOffice.rpAddress)) {
+                    return (CallControlConnection) connection;
+                }
+            }
+        }
+        throw new InvalidStateException(call, InvalidStateException.CALL_OBJECT, call.getState(),
+                "Route Point has no connection on " + call);
+    }
+
+    // Issue a JTAPI request off the observer thread; a failure ends the session
+    private void perform(Action action) {
+        dialViaOffice.callControl.execute(() -> {
+            try {
+                action.run();
+            } catch (Exception e) {
+                synchronized (this) {
+                    fail(e.toString());
+                }
+            }
+        });
+    }
+
+    private void fail(String reason) {
+        if (state == State.COMPLETED || state == State.FAILED) {
+            return;
+        }
+        log("Session failed (" + state + "): " + reason);
+        finish(State.FAILED);
+        // Drop whatever legs are still up
+        dialViaOffice.callControl.execute(() -> {
+            dropQuietly(dialinCall);
+            dropQuietly(dialoutCall);
+        });
+    }
+
+    private void finish(State finalState) {
+        state = finalState;
+        dialViaOffice.calls.remove(dialinCall);
+        if (dialoutCall != null) {
+            dialViaOffice.calls.remove(dialoutCall);
+        }
+        if (port != null) {
+            dialViaOffice.ctipPool.release(port);
+        }
+        log("Session " + finalState + ", " + dialViaOffice.calls.size() + " call(s) in flight; "
+                + dialViaOffice.ctipPool.getStats());
+    }
+
+    private static void dropQuietly(Call call) {
+        if (call == null || call.getState() == Call.INVALID) {
+            return;
+        }
+        try {
+            ((CallControlCall) call).drop();
+        } catch (Exception e) {
+            // Already gone
+        }
+    }
+
+    private void log(String msg) {
+        dialViaOffice.log("[" + id + "] " + msg);
+    }
+}
@@ -20,12 +20,14 @@ package com.cisco.jtapi.dialviaoffice;
 import javax.telephony.*;
 import javax.telephony.events.*;
 import javax.telephony.callcontrol.*;
+import javax.telephony.callcontrol.events.CallCtlConnDisconnectedEv;
 import javax.telephony.callcontrol.events.CallCtlConnEstablishedEv;
 import javax.telephony.callcontrol.events.CallCtlTermConnHeldEv;
 import javax.telephony.callcontrol.events.CallCtlTermConnRingingEv;
 import javax.telephony.callcontrol.events.CallCtlTermConnTalkingEv;
 
 import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.common.Log;
 import com.cisco.jtapi.extensions.CiscoMediaOpenLogicalChannelEv;
 
 import com.cisco.cti.util.Condition;
@@ -35,15 +37,10 @@ public class Handler implements ProviderObserver, TerminalObserver, AddressObser
     public Condition providerInService = new Condition();
     public Condition rpTerminalInService = new Condition();
     public Condition rpAddressInService = new Condition();
-    public Condition rpDialinCallRinging;
-    public Condition dialoutCallEstablished;
-    public Condition rpDialinCallTalking;
-    public Condition rpDialinCallHeld;
-    public Condition rpOpenLogicalChannel;
 
     public void providerChangedEvent(ProvEv[] events) {
         for (ProvEv ev : events) {
-            System.out.println("    Received--> Provider/" + ev);
+            Log.event("Provider", ev);
             switch (ev.getID()) {
                 case ProvInServiceEv.ID:
                     providerInService.set();
@@ -54,14 +51,22 @@ public class Handler implements ProviderObserver, TerminalObserver, AddressObser
 
     public void terminalChangedEvent(TermEv[] events) {
         for (TermEv ev : events) {
-            System.out.println("    Received--> Terminal/" + ev);
+            Log.event("Terminal", ev);
             switch (ev.getID()) {
                 case CiscoTermInServiceEv.ID:
                     rpTerminalInService.set();
                     break;
                 case CiscoMediaOpenLogicalChannelEv.ID:
-                    dialViaOffice.rpOpenLogicalChannelEvent = (CiscoMediaOpenLogicalChannelEv) ev;
-                    rpOpenLogicalChannel.set();
+                    // Every dialin call gets the same dynamic RTP media details
+                    CiscoMediaOpenLogicalChannelEv olcEv = (CiscoMediaOpenLogicalChannelEv) ev;
+                    dialViaOffice.callControl.execute(() -> {
+                        try {
+                            ((CiscoRouteTerminal) olcEv.getTerminal()).setRTPParams(olcEv.getCiscoRTPHandle(),
+                                    new CiscoRTPParams(dialViaOffice.rpRtpAddress, dialViaOffice.rpRtpPort));
+                        } catch (Exception e) {
+                            Log.warn("setRTPParams failed: " + e);
+                        }
+                    });
                     break;
             }
         }
@@ -69,7 +74,7 @@ public class Handler implements ProviderObserver, TerminalObserver, AddressObser
 
     public void addressChangedEvent(AddrEv[] events) {
         for (AddrEv ev : events) {
-            System.out.println("    Received--> Address/" + ev);
+            Log.event("Address", ev);
             switch (ev.getID()) {
                 case CiscoAddrInServiceEv.ID:
                     rpAddressInService.set();
@@ -80,28 +85,46 @@ public class Handler implements ProviderObserver, TerminalObserver, AddressObser
 
     public void callChangedEvent(CallEv[] events) {
         for (CallEv ev : events) {
-            System.out.println("    Received--> Call/" + ev);
+            Log.event("Call", ev);
+            DialViaOfficeCall session = dialViaOffice.calls.get(ev.getCall());
             switch (ev.getID()) {
                 case CallCtlTermConnRingingEv.ID:
-                    if (((CallCtlTermConnRingingEv) ev).getCalledAddress().equals(dialViaOffice.rpAddress)) {
-                        dialViaOffice.rpDialinCallEvent = (CallCtlTermConnRingingEv) ev;
-                        rpDialinCallRinging.set();
+                    CallCtlTermConnRingingEv ringingEv = (CallCtlTermConnRingingEv) ev;
+                    if (session == null && ringingEv.getCalledAddress().equals(dialViaOffice.rpAddress)) {
+                        // A new dialin call: start a session for it
+                        session = new DialViaOfficeCall(ev.getCall(),
+                                (CallControlTerminalConnection) ringingEv.getTerminalConnection(),
+                                ringingEv.getCallingAddress().getName());
+                        dialViaOffice.calls.put(ev.getCall(), session);
+                        session.start();
                     }
                     break;
                 case CallCtlConnEstablishedEv.ID:
-                    if (((CallCtlConnEstablishedEv) ev).getConnection().getAddress()
-                            .equals(dialViaOffice.dialoutAddress)) {
-                        dialoutCallEstablished.set();
+                    if (session != null && !((CallCtlConnEstablishedEv) ev).getConnection().getAddress()
+                            .equals(dialViaOffice.rpAddress)) {
+                        session.dialoutEstablished(ev.getCall());
                     }
                     break;
                 case CallCtlTermConnTalkingEv.ID:
-                    if (((CallCtlTermConnTalkingEv) ev).getTerminalConnection().getConnection().getAddress()
-                            .equals(dialViaOffice.rpAddress)) {
-                        rpDialinCallTalking.set();
+                    if (session != null && ((CallCtlTermConnTalkingEv) ev).getTerminalConnection().getConnection()
+                            .getAddress().equals(dialViaOffice.rpAddress)) {
+                        session.rpTalking(ev.getCall());
                     }
                     break;
                 case CallCtlTermConnHeldEv.ID:
-                    rpDialinCallHeld.set();
+                    if (session != null && ((CallCtlTermConnHeldEv) ev).getTerminalConnection().getConnection()
+                            .getAddress().equals(dialViaOffice.rpAddress)) {
+                        session.rpHeld(ev.getCall());
+                    }
+                    break;
+                case CallCtlConnDisconnectedEv.ID:
+                    // Only a remote party hanging up ends the session; the Route Point
+                    // or a CTI Port leaving the call after a redirect is expected
+                    Address disconnected = ((CallCtlConnDisconnectedEv) ev).getConnection().getAddress();
+                    if (session != null && !disconnected.equals(dialViaOffice.rpAddress)
+                            && dialViaOffice.ctipPool.find(disconnected) == null) {
+                        session.disconnected(ev.getCall());
+                    }
                     break;
             }
         }
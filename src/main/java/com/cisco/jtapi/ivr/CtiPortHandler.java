@@ -0,0 +1,100 @@
+package com.cisco.jtapi.ivr;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+import javax.telephony.*;
+import javax.telephony.events.*;
+import javax.telephony.callcontrol.*;
+import javax.telephony.callcontrol.events.CallCtlConnDisconnectedEv;
+import javax.telephony.callcontrol.events.CallCtlTermConnRingingEv;
+
+import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.common.CtiPortPool;
+import com.cisco.jtapi.common.Log;
+
+import com.cisco.cti.util.Condition;
+
+// Observes every CTI Port in ivr.ctipPool and hands each event on to the ivr
+// event loop; in-service tracking for the ports is done by the pool itself
+public class CtiPortHandler implements TerminalObserver, ProviderObserver, AddressObserver, CallControlCallObserver {
+
+    public Condition providerInService = new Condition();
+
+    public void providerChangedEvent(ProvEv[] events) {
+        for (ProvEv ev : events) {
+            Log.event("Provider", ev);
+            switch (ev.getID()) {
+                case ProvInServiceEv.ID:
+                    providerInService.set();
+                    break;
+            }
+        }
+    }
+
+    public void terminalChangedEvent(TermEv[] events) {
+        for (TermEv ev : events) {
+            Log.event("Terminal", ev);
+            switch (ev.getID()) {
+                case CiscoRTPInputStartedEv.ID:
+                    ivr.inputStarted(((CiscoRTPInputStartedEv) ev).getCallID().getCall());
+                    break;
+                case CiscoRTPOutputStartedEv.ID:
+                    CiscoRTPOutputStartedEv rtpEv = (CiscoRTPOutputStartedEv) ev;
+                    ivr.outputStarted(rtpEv.getCallID().getCall(), rtpEv.getRTPOutputProperties());
+                    break;
+            }
+        }
+    }
+
+    public void addressChangedEvent(AddrEv[] events) {
+        for (AddrEv ev : events) {
+            Log.event("Address", ev);
+        }
+    }
+
+    public void callChangedEvent(CallEv[] events) {
+        for (CallEv ev : events) {
+            Log.event("Call", ev);
+            switch (ev.getID()) {
+                case CallCtlTermConnRingingEv.ID:
+                    CallCtlTermConnRingingEv ringingEv = (CallCtlTermConnRingingEv) ev;
+                    CtiPortPool.Port port = ivr.ctipPool
+                            .find(ringingEv.getTerminalConnection().getConnection().getAddress());
+                    if (port != null) {
+                        ivr.ringing(ev.getCall(), port,
+                                (CallControlTerminalConnection) ringingEv.getTerminalConnection(),
+                                ringingEv.getCallingAddress().getName());
+                    }
+                    break;
+                case CallCtlConnDisconnectedEv.ID:
+                    // Only the CTI Port leaving ends the session: a redirected
+                    // call goes on without it
+                    CtiPortPool.Port leaving = ivr.ctipPool
+                            .find(((CallCtlConnDisconnectedEv) ev).getConnection().getAddress());
+                    if (leaving != null) {
+                        ivr.ended(ev.getCall());
+                    }
+                    break;
+                case CallInvalidEv.ID:
+                    ivr.ended(ev.getCall());
+                    break;
+            }
+        }
+    }
+
+}
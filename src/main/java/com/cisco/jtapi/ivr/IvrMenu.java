@@ -0,0 +1,177 @@
+package com.cisco.jtapi.ivr;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// The IVR's menus, read from ivr_menu.properties (under jtapi_config/, so on
+// the classpath) or the file named by IVR_MENU_FILE.  Each menu has a prompt
+// and an action per key:
+//   <menu>.prompt      WAV file, transcoded once by PromptCache
+//   <menu>.<key>       action for a key: 0-9, *, #, A-D
+//   <menu>.invalid     action for any other key (default: repeat)
+//   <menu>.timeout     action when no key is pressed within <menu>.timeout_ms
+//                      of the prompt ending (default: hangup after 5000 ms)
+// Actions are 'menu <name>', 'repeat', 'redirect <DN>' or 'hangup'; a DN
+// written as $SETTING is read from .env (e.g. redirect $BOB_DN).
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import com.cisco.jtapi.media.PromptCache;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class IvrMenu {
+
+    public static final String RESOURCE = "ivr_menu.properties";
+    private static final String KEYS = "0123456789*#ABCD";
+
+    public enum Kind {
+        MENU,
+        REPEAT,
+        REDIRECT,
+        HANGUP
+    }
+
+    public static final class Action {
+        public final Kind kind;
+        // Menu name or redirect DN
+        public final String target;
+
+        Action(Kind kind, String target) {
+            this.kind = kind;
+            this.target = target;
+        }
+
+        public String toString() {
+            return target == null ? kind.toString().toLowerCase() : kind.toString().toLowerCase() + " " + target;
+        }
+    }
+
+    private final String name;
+    private final PromptCache.Prompt prompt;
+    private final long timeoutMillis;
+    private final Map<Character, Action> keys = new HashMap<Character, Action>();
+    private final Action invalid;
+    private final Action timeout;
+
+    private IvrMenu(String name, PromptCache.Prompt prompt, long timeoutMillis, Action invalid, Action timeout) {
+        this.name = name;
+        this.prompt = prompt;
+        this.timeoutMillis = timeoutMillis;
+        this.invalid = invalid;
+        this.timeout = timeout;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public PromptCache.Prompt getPrompt() {
+        return prompt;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    // The action for a key press
+    public Action action(char key) {
+        Action action = keys.get(key);
+        return action != null ? action : invalid;
+    }
+
+    public Action timeoutAction() {
+        return timeout;
+    }
+
+    // All the menus, by name, with their prompts loaded; every menu an action
+    // names must exist
+    public static Map<String, IvrMenu> load(Dotenv dotenv, PromptCache prompts) throws IOException {
+        Properties properties = new Properties();
+        String file = dotenv.get("IVR_MENU_FILE", "");
+        try (InputStream in = file.isEmpty() ? IvrMenu.class.getClassLoader().getResourceAsStream(RESOURCE)
+                : Files.newInputStream(Paths.get(file))) {
+            if (in == null) {
+                throw new IOException("No " + RESOURCE + " on the classpath");
+            }
+            properties.load(in);
+        }
+        Map<String, IvrMenu> menus = new LinkedHashMap<String, IvrMenu>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.endsWith(".prompt")) {
+                String name = key.substring(0, key.length() - 7);
+                IvrMenu menu = new IvrMenu(name, prompts.get(properties.getProperty(key).trim()),
+                        Long.parseLong(properties.getProperty(name + ".timeout_ms", "5000").trim()),
+                        action(properties, name + ".invalid", "repeat", dotenv),
+                        action(properties, name + ".timeout", "hangup", dotenv));
+                for (char k : KEYS.toCharArray()) {
+                    Action action = action(properties, name + "." + k, null, dotenv);
+                    if (action != null) {
+                        menu.keys.put(k, action);
+                    }
+                }
+                menus.put(name, menu);
+            }
+        }
+        for (IvrMenu menu : menus.values()) {
+            for (Action action : menu.keys.values()) {
+                check(menus, menu, action);
+            }
+            check(menus, menu, menu.invalid);
+            check(menus, menu, menu.timeout);
+        }
+        return menus;
+    }
+
+    private static Action action(Properties properties, String key, String defaultValue, Dotenv dotenv) {
+        String value = properties.getProperty(key, defaultValue);
+        if (value == null) {
+            return null;
+        }
+        String[] words = value.trim().split("\\s+", 2);
+        Kind kind;
+        try {
+            kind = Kind.valueOf(words[0].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(key + ": unknown action '" + value + "'");
+        }
+        String target = words.length > 1 ? words[1].trim() : null;
+        if ((kind == Kind.MENU || kind == Kind.REDIRECT) && target == null) {
+            throw new IllegalArgumentException(key + ": '" + value + "' needs a " + (kind == Kind.MENU ? "menu" : "DN"));
+        }
+        if (kind == Kind.REDIRECT && target.startsWith("$")) {
+            target = dotenv.get(target.substring(1), "");
+            if (target.isEmpty()) {
+                throw new IllegalArgumentException(key + ": " + value.trim() + " is not set");
+            }
+        }
+        return new Action(kind, target);
+    }
+
+    private static void check(Map<String, IvrMenu> menus, IvrMenu menu, Action action) {
+        if (action.kind == Kind.MENU && !menus.containsKey(action.target)) {
+            throw new IllegalArgumentException("Menu " + menu.name + ": no menu '" + action.target + "'");
+        }
+    }
+}
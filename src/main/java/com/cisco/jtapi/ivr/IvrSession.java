@@ -0,0 +1,227 @@
+package com.cisco.jtapi.ivr;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// One caller's IVR session on a CTI Port.  Sessions belong to the ivr event
+// loop: every method here runs on its thread, so they keep plain state and no
+// locks.  Prompts are played by the shared RtpSender, key presses come from
+// the call's DtmfDetector on the RtpReceiver thread, and JTAPI requests go to
+// ivr.callControl; all of them report back by queueing a task on the loop.
+
+// A key pressed while a prompt is playing stops it (barge-in).  Each
+// transition's latency is recorded as a Metrics step: ivr.promptStart (answer
+// to the first prompt), ivr.key (key press detected to its action taken) and
+// ivr.session (answer to the end of the call).
+
+import java.net.InetAddress;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.*;
+
+import com.cisco.jtapi.common.CtiPortPool;
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.common.Metrics;
+import com.cisco.jtapi.media.DtmfDetector;
+import com.cisco.jtapi.media.RtpSender;
+
+public class IvrSession {
+
+    public enum State {
+        ANSWERING,
+        PLAYING,
+        WAITING,
+        LEAVING,
+        ENDED
+    }
+
+    private final Call call;
+    private final CtiPortPool.Port port;
+    private final CallControlTerminalConnection termConn;
+    private final String callingDN;
+    private final long answered = System.nanoTime();
+    private State state = State.ANSWERING;
+    private IvrMenu menu;
+    private InetAddress remoteAddress;
+    private int remotePort;
+    private RtpSender.Stream prompt;
+    private ScheduledFuture<?> timeout;
+
+    IvrSession(Call call, CtiPortPool.Port port, CallControlTerminalConnection termConn, String callingDN) {
+        this.call = call;
+        this.port = port;
+        this.termConn = termConn;
+        this.callingDN = callingDN;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public CtiPortPool.Port getPort() {
+        return port;
+    }
+
+    private void log(String msg) {
+        Log.info("IVR " + port.getName() + " (" + callingDN + "): " + msg);
+    }
+
+    // The caller's RTP has started: listen for keys
+    void inputStarted() {
+        if (state == State.ENDED || port.endpoint == null) {
+            return;
+        }
+        DtmfDetector detector = new DtmfDetector(ivr.dtmfPayloadType, key -> {
+            long pressed = System.nanoTime();
+            ivr.loop.execute(() -> keyPressed(key, pressed));
+        });
+        ivr.rtpReceiver.start(port.endpoint, ivr.rtpReceiver.recordingPath(port.getName()), detector);
+    }
+
+    // RTP output has started: the call is up, so play the first menu
+    void outputStarted(InetAddress address, int rtpPort) {
+        if (state != State.ANSWERING) {
+            return;
+        }
+        remoteAddress = address;
+        remotePort = rtpPort;
+        enter(ivr.startMenu);
+        Metrics.recordSince("ivr.promptStart", answered);
+    }
+
+    private void enter(IvrMenu next) {
+        menu = next;
+        log("Menu " + menu.getName());
+        play();
+    }
+
+    private void play() {
+        cancelTimeout();
+        stopPrompt();
+        state = State.PLAYING;
+        RtpSender.Stream[] started = new RtpSender.Stream[1];
+        started[0] = ivr.rtpSender.start(menu.getPrompt(), remoteAddress, remotePort,
+                () -> ivr.loop.execute(() -> promptDone(started[0])));
+        prompt = started[0];
+    }
+
+    // A prompt has played to the end (stale completions, from prompts since
+    // replaced, are ignored)
+    private void promptDone(RtpSender.Stream stream) {
+        if (stream != prompt || state != State.PLAYING) {
+            return;
+        }
+        prompt = null;
+        state = State.WAITING;
+        timeout = ivr.loop.schedule(this::timedOut, menu.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void timedOut() {
+        if (state != State.WAITING) {
+            return;
+        }
+        timeout = null;
+        log("No key pressed: " + menu.timeoutAction());
+        perform(menu.timeoutAction());
+    }
+
+    private void keyPressed(char key, long pressed) {
+        if (state != State.PLAYING && state != State.WAITING) {
+            return;
+        }
+        ivr.keys++;
+        IvrMenu.Action action = menu.action(key);
+        log("Key " + key + ": " + action);
+        perform(action);
+        Metrics.recordSince("ivr.key", pressed);
+    }
+
+    private void perform(IvrMenu.Action action) {
+        switch (action.kind) {
+            case MENU:
+                enter(ivr.menus.get(action.target));
+                break;
+            case REPEAT:
+                play();
+                break;
+            case REDIRECT:
+                leave();
+                ivr.redirects++;
+                String destination = action.target;
+                ivr.callControl.execute(() -> {
+                    try {
+                        ((CallControlConnection) termConn.getConnection()).redirect(destination);
+                    } catch (Exception e) {
+                        Log.warn("IVR " + port.getName() + ": redirect to " + destination + " failed: " + e);
+                        hangUp();
+                    }
+                });
+                break;
+            case HANGUP:
+                leave();
+                hangUp();
+                break;
+        }
+    }
+
+    // Done with the caller: the call's disconnect ends the session
+    private void leave() {
+        state = State.LEAVING;
+        cancelTimeout();
+        stopPrompt();
+    }
+
+    private void hangUp() {
+        ivr.callControl.execute(() -> {
+            try {
+                ((CallControlCall) call).drop();
+            } catch (Exception e) {
+                Log.warn("IVR " + port.getName() + ": drop failed: " + e);
+            }
+        });
+    }
+
+    // The CTI Port has left the call
+    void ended() {
+        if (state == State.ENDED) {
+            return;
+        }
+        state = State.ENDED;
+        cancelTimeout();
+        stopPrompt();
+        if (port.endpoint != null) {
+            ivr.rtpReceiver.stop(port.endpoint);
+        }
+        Metrics.recordSince("ivr.session", answered);
+    }
+
+    private void stopPrompt() {
+        if (prompt != null) {
+            prompt.stop();
+            prompt = null;
+        }
+    }
+
+    private void cancelTimeout() {
+        if (timeout != null) {
+            timeout.cancel(false);
+            timeout = null;
+        }
+    }
+}
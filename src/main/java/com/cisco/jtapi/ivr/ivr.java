@@ -0,0 +1,228 @@
+package com.cisco.jtapi.ivr;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// A lightweight IVR on a pool of CTI Ports: answer each inbound call, play a
+// menu prompt, and act on the caller's DTMF keys - another menu, a redirect()
+// to a DN (as dialViaOffice redirects calls), or hang up.
+
+// Devices used / requirements (configure these in .env):
+//   * CTI_PORT_DN / CTI Port(s) associated with JTAPI user (comma-separated;
+//     one per concurrent caller)
+//   * Any other phone to call a CTI Port, and DNs for the menus to redirect to
+//     (jtapi_config/ivr_menu.properties, or IVR_MENU_FILE)
+
+// Scenario:
+// 1. A call is placed to a CTI Port, which answers it
+// 2. On CiscoRTPInputStartedEv the caller's RTP is read by RtpReceiver and
+//    RFC 2833 telephone-events are decoded into keys by a DtmfDetector
+// 3. On CiscoRTPOutputStartedEv the IVR_START_MENU menu's prompt is played by
+//    RtpSender (prompts are transcoded once, at startup, by PromptCache)
+// 4. Each key runs the menu's action for it; with no key before the menu's
+//    timeout, its timeout action
+// 5. When the CTI Port leaves the call (redirected, dropped or hung up on) the
+//    port is returned to the pool
+
+// Calls don't get threads of their own.  Every session's state changes run
+// on one event loop thread ('ivr'), fed by the observer, the RtpReceiver
+// (keys), the RtpSender (prompts done) and its own timers; media for all the
+// calls is sent from one thread and received on another, and blocking JTAPI
+// requests go to a small callControl pool.  Thousands of sessions are limited
+// by CTI Ports, not threads.
+
+// Be sure to rename .env.example to .env and configure your CUCM/user/DN
+//   details for the scenario.
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.CallControlTerminalConnection;
+
+import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.common.CallThreads;
+import com.cisco.jtapi.common.CtiPortPool;
+import com.cisco.jtapi.common.EventDispatcher;
+import com.cisco.jtapi.common.EventSubscription;
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.common.MetricsServer;
+import com.cisco.jtapi.common.TraceProfile;
+import com.cisco.jtapi.media.DtmfDetector;
+import com.cisco.jtapi.media.PromptCache;
+import com.cisco.jtapi.media.RtpReceiver;
+import com.cisco.jtapi.media.RtpSender;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class ivr {
+
+    public static CtiPortPool ctipPool = new CtiPortPool();
+    static Map<String, IvrMenu> menus;
+    static IvrMenu startMenu;
+    static RtpSender rtpSender;
+    static RtpReceiver rtpReceiver;
+    static int dtmfPayloadType;
+
+    // The event loop: owns every session
+    static ScheduledExecutorService loop;
+    // JTAPI requests are issued from here, never from the loop or observer
+    // threads (CALL_THREADS=virtual: each on its own virtual thread)
+    static ExecutorService callControl;
+
+    // Owned by the loop
+    private static Map<Call, IvrSession> sessions = new HashMap<Call, IvrSession>();
+    private static long total;
+    static long keys;
+    static long redirects;
+
+    private static void log(String msg) {
+        Log.info(msg);
+    }
+
+    // Observer entry points: each queues its work on the loop
+
+    static void ringing(Call call, CtiPortPool.Port port, CallControlTerminalConnection termConn, String callingDN) {
+        loop.execute(() -> {
+            if (!ctipPool.acquire(port)) {
+                log("CTI Port " + port.getName() + " is already busy, ignoring call: " + call);
+                return;
+            }
+            sessions.put(call, new IvrSession(call, port, termConn, callingDN));
+            total++;
+            log("Answering call from DN: " + callingDN + " on CTI Port: " + port.getName());
+            callControl.execute(() -> {
+                try {
+                    termConn.answer();
+                } catch (Exception e) {
+                    log("Answer failed: " + e);
+                    ended(call);
+                }
+            });
+        });
+    }
+
+    static void inputStarted(Call call) {
+        loop.execute(() -> {
+            IvrSession session = sessions.get(call);
+            if (session != null) {
+                session.inputStarted();
+            }
+        });
+    }
+
+    static void outputStarted(Call call, CiscoRTPOutputProperties rtp) {
+        loop.execute(() -> {
+            IvrSession session = sessions.get(call);
+            if (session != null) {
+                session.outputStarted(rtp.getRemoteAddress(), rtp.getRemotePort());
+            }
+        });
+    }
+
+    static void ended(Call call) {
+        loop.execute(() -> {
+            IvrSession session = sessions.remove(call);
+            if (session == null) {
+                return;
+            }
+            session.ended();
+            ctipPool.release(session.getPort());
+            log(String.format("Call ended: %s; IVR: %d sessions (%d total), %d keys, %d redirects; %s; %s; %s",
+                    call, sessions.size(), total, keys, redirects, ctipPool.getStats(), rtpSender.getStats(),
+                    rtpReceiver.getStats()));
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        // Retrieve environment variables from .env, if present
+        Dotenv dotenv = Dotenv.load();
+
+        loop = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "ivr"));
+        callControl = CallThreads.create(dotenv).newExecutor("callControl", 4);
+
+        // Step latencies on METRICS_PORT, if set
+        MetricsServer.start(dotenv);
+
+        // Transcode every menu's prompt to 30ms u-law frames once, up front
+        menus = IvrMenu.load(dotenv, PromptCache.create(dotenv));
+        startMenu = menus.get(dotenv.get("IVR_START_MENU", "main"));
+        if (startMenu == null) {
+            throw new IOException("No IVR_START_MENU menu '" + dotenv.get("IVR_START_MENU", "main") + "' in "
+                    + menus.keySet());
+        }
+        for (IvrMenu menu : menus.values()) {
+            log("Menu " + menu.getName() + ": " + menu.getPrompt().getName() + " ("
+                    + menu.getPrompt().getDurationMillis() + " ms)");
+        }
+        dtmfPayloadType = Integer.parseInt(dotenv.get("IVR_DTMF_PAYLOAD_TYPE",
+                String.valueOf(DtmfDetector.DEFAULT_PAYLOAD_TYPE)));
+        rtpSender = new RtpSender();
+        rtpReceiver = RtpReceiver.create(dotenv);
+        ctipPool.setReceiver(rtpReceiver);
+
+        // The Handler class provides observers for provider/address/terminal/call
+        // events
+        CtiPortHandler handler = new CtiPortHandler();
+
+        // Handler callbacks run on the dispatcher's worker threads, and only queue
+        // work for the loop
+        EventDispatcher dispatcher = EventDispatcher.create(dotenv);
+        // Only the events listed for ivr in event_subscriptions.properties are
+        // delivered
+        EventSubscription subscription = EventSubscription.load(dotenv, "ivr");
+        EventDispatcher.Observer observer = dispatcher.wrap(handler, subscription);
+
+        // Create the JtapiPeer object, representing the JTAPI library (JTAPI_PEER may
+        // name an alternative, such as the simulator; unset means Cisco JTAPI)
+        log("Initializing Jtapi");
+        CiscoJtapiPeer peer = (CiscoJtapiPeer) JtapiPeerFactory.getJtapiPeer(dotenv.get("JTAPI_PEER"));
+        // JTAPI_TRACE_PROFILE (perf/standard/forensic) overrides jtapi.ini's tracing
+        TraceProfile.configure(peer, dotenv);
+
+        // Create and open the Provider, representing a JTAPI connection to CUCM CTI
+        // Manager
+        String providerString = String.format(
+                "%s;login=%s;passwd=%s",
+                dotenv.get("CUCM_ADDRESS"),
+                dotenv.get("JTAPI_USERNAME"),
+                dotenv.get("JTAPI_PASSWORD"));
+        log("Connecting Provider: " + providerString);
+        CiscoProvider provider = (CiscoProvider) peer.getProvider(providerString);
+        log("Awaiting ProvInServiceEv...");
+        provider.addObserver(observer);
+        handler.providerInService.waitTrue();
+
+        // Open and register the pool of CTI Ports; each has its own RTP port,
+        // read by the receiver
+        log("Opening/registering CTI Port DN(s): " + dotenv.get("CTI_PORT_DN"));
+        log("Awaiting CiscoTermInServiceEv/CiscoAddrInServiceEv for all CTI Ports...");
+        ctipPool.open(provider, CtiPortPool.parseDNs(dotenv.get("CTI_PORT_DN")), observer);
+        log(ctipPool.getStats());
+
+        // Wait for inbound calls on the CTI Ports; everything else happens on
+        // the loop
+        log("IVR ready for calls at CTI Port DN(s): " + dotenv.get("CTI_PORT_DN"));
+        new CountDownLatch(1).await();
+    }
+}
@@ -0,0 +1,584 @@
+package com.cisco.jtapi.journal;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Re-drives sample handlers from an EventJournal recording, with no CUCM.
+// Each recorded batch is rebuilt as event objects and passed to the
+// observer method of the handler that originally received it: handlers are
+// given in the order their EventDispatcher observers were created (e.g.
+// dialviaoffice.Handler, then dialviaoffice.CtiPortHandler): the first
+// handler gets the batches of the lowest observer number in the recording,
+// the second the next, and so on.  Batches are delivered one at a time on
+// the calling thread, so a replay always presents the same events in the
+// same order.
+
+// The calls, addresses, terminals and connections the events refer to are
+// stand-ins, one per recorded call ID/name, so handlers can compare and map
+// them as usual.  A call's getState() and getConnections() follow the
+// connection and call events delivered so far.  JTAPI requests made on them (answer(), redirect(),
+// transfer()...) are accepted and do nothing - the recording already holds
+// what CUCM did next - and getters the recording has no value for return
+// null/0/false.  A call from createCall() becomes a recorded call when it is
+// connect()ed: the first one not yet delivered whose originating connection
+// is the requesting address and whose called party is the dialed number, so a
+// handler's dialout gets the recorded dialout call's events however many
+// calls were in progress.  Events look their call up by ID as they are
+// delivered, so they follow it.
+
+// Timing: speed 1 keeps the recorded gaps between batches, 10 divides them
+// by ten, and 0 (or less) delivers as fast as possible - the handler
+// throughput benchmark.  Per-batch handler time is recorded as the
+// replay.handler Metrics step, and lateness against the recorded timing as
+// replay.lag.
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.events.*;
+import javax.telephony.events.*;
+
+import com.cisco.jtapi.common.EventJournal;
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.common.Metrics;
+import com.cisco.jtapi.extensions.*;
+
+public class EventReplayer {
+
+    // A method with arguments, or a value worked out when it's asked for
+    private interface Answer {
+        Object answer(Object[] args);
+    }
+
+    // Backs every stand-in object: getters return the recorded properties,
+    // anything else the type's default
+    private static class StandIn implements InvocationHandler {
+        volatile String label;
+        final Map<String, Object> properties = new ConcurrentHashMap<String, Object>();
+
+        StandIn(String label) {
+            this.label = label;
+        }
+
+        StandIn set(String method, Object value) {
+            if (value != null) {
+                properties.put(method, value);
+            }
+            return this;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "equals":
+                    if (method.getParameterCount() == 1) {
+                        return proxy == args[0];
+                    }
+                    break;
+                case "hashCode":
+                    if (method.getParameterCount() == 0) {
+                        return System.identityHashCode(proxy);
+                    }
+                    break;
+                case "toString":
+                    if (method.getParameterCount() == 0) {
+                        return label;
+                    }
+                    break;
+            }
+            Object value = properties.get(method.getName());
+            if (value instanceof Answer) {
+                return ((Answer) value).answer(args);
+            }
+            if (value != null && method.getReturnType().isInstance(value)) {
+                return value;
+            }
+            if (value != null && method.getReturnType().isPrimitive()) {
+                return value;
+            }
+            return defaultValue(method.getReturnType());
+        }
+
+        private static Object defaultValue(Class<?> type) {
+            if (type == boolean.class) {
+                return false;
+            } else if (type == int.class) {
+                return 0;
+            } else if (type == long.class) {
+                return 0L;
+            } else if (type == short.class) {
+                return (short) 0;
+            } else if (type == byte.class) {
+                return (byte) 0;
+            } else if (type == char.class) {
+                return (char) 0;
+            } else if (type == double.class) {
+                return 0.0;
+            } else if (type == float.class) {
+                return 0.0f;
+            } else if (type.isArray()) {
+                return Array.newInstance(type.getComponentType(), 0);
+            }
+            return null;
+        }
+    }
+
+    // Events as delivered to one observer
+    private static class Batch {
+        final int observer;
+        final int kind;
+        final long timestamp;
+        final List<Ev> events = new ArrayList<Ev>();
+        Ev[] array;
+
+        Batch(int observer, int kind, long timestamp) {
+            this.observer = observer;
+            this.kind = kind;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private static final int PROVIDER = 0;
+    private static final int TERMINAL = 1;
+    private static final int ADDRESS = 2;
+    private static final int CALL = 3;
+
+    private final CiscoProvider provider;
+    private final List<Batch> batches = new ArrayList<Batch>();
+    private final Map<String, CiscoAddress> addresses = new HashMap<String, CiscoAddress>();
+    private final Map<String, CiscoTerminal> terminals = new HashMap<String, CiscoTerminal>();
+    // Recorded call IDs' stand-ins: as recorded, and as now bound (to the
+    // handler's created call, once it is connected)
+    private final Map<Integer, CiscoCall> recordedCalls = new HashMap<Integer, CiscoCall>();
+    private final Map<Integer, CiscoCall> calls = new ConcurrentHashMap<Integer, CiscoCall>();
+    private final Map<String, Connection> connections = new HashMap<String, Connection>();
+    private final Map<String, TerminalConnection> terminalConnections = new HashMap<String, TerminalConnection>();
+    private final Map<String, Set<String>> addressTerminals = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> terminalAddresses = new HashMap<String, Set<String>>();
+    // Observer numbers in the recording, lowest first
+    private final List<Integer> observers = new ArrayList<Integer>();
+    // Call IDs in order of first appearance, and the batch each first appears in
+    private final List<Integer> callOrder = new ArrayList<Integer>();
+    private final Map<Integer, Integer> firstBatch = new HashMap<Integer, Integer>();
+    // Each recorded call's originating address and called party
+    private final Map<Integer, String> origins = new HashMap<Integer, String>();
+    private int events;
+    private int skipped;
+
+    // Replay state
+    private final Map<Call, Set<Connection>> liveConnections = new ConcurrentHashMap<Call, Set<Connection>>();
+    private final Map<Call, Integer> callStates = new ConcurrentHashMap<Call, Integer>();
+    private volatile int position;
+    // Recorded call IDs bound to created calls
+    private final Set<Integer> bound = new HashSet<Integer>();
+    private int unrecordedCalls;
+    private long delivered;
+    private long undelivered;
+    private long failures;
+
+    // Rebuild the events of a recording
+    public EventReplayer(Iterator<EventJournal.Record> records) {
+        StandIn providerImpl = new StandIn("ReplayProvider");
+        provider = proxy(providerImpl, CiscoProvider.class);
+        providerImpl.set("getName", "replay").set("getState", Provider.IN_SERVICE)
+                .set("getAddress", (Answer) args -> getAddress((String) args[0]))
+                .set("getTerminal", (Answer) args -> getTerminal((String) args[0]))
+                .set("createCall", (Answer) args -> createCall());
+        Batch batch = null;
+        while (records.hasNext()) {
+            EventJournal.Record record = records.next();
+            Class<? extends Ev> type = EventJournal.eventType(record.eventId);
+            if (type == null || record.kind > CALL) {
+                skipped++;
+                continue;
+            }
+            if (batch == null || record.batchStart || record.observer != batch.observer || record.kind != batch.kind) {
+                batch = new Batch(record.observer, record.kind, record.timestamp);
+                batches.add(batch);
+            }
+            batch.events.add(event(type, record));
+            events++;
+        }
+        Set<Integer> seen = new TreeSet<Integer>();
+        for (Batch each : batches) {
+            seen.add(each.observer);
+            each.array = each.events.toArray(newArray(each.kind, each.events.size()));
+        }
+        observers.addAll(seen);
+    }
+
+    private static Ev[] newArray(int kind, int size) {
+        switch (kind) {
+            case PROVIDER:
+                return new ProvEv[size];
+            case TERMINAL:
+                return new TermEv[size];
+            case ADDRESS:
+                return new AddrEv[size];
+            default:
+                return new CallEv[size];
+        }
+    }
+
+    private Ev event(Class<? extends Ev> type, EventJournal.Record record) {
+        StringBuilder label = new StringBuilder(type.getSimpleName()).append(" [");
+        StandIn ev = new StandIn(null);
+        ev.set("getID", record.eventId).set("getCause", record.cause).set("getCallControlCause", record.cause)
+                .set("getCiscoCause", record.cause).set("getMetaCode", Ev.META_UNKNOWN)
+                .set("getProvider", provider).set("isSuccess", record.success);
+        Object observed = provider;
+        if (record.callId != 0) {
+            CiscoCall call = call(record.callId);
+            Answer current = callAnswer(record.callId);
+            ev.set("getCall", current).set("getCallID", (Answer) args -> calls.get(record.callId).getCallID())
+                    .set("getFinalCall", current);
+            label.append("call=").append(call).append(' ');
+            observed = call;
+            if (record.callingAddress != null && record.callingAddress.equals(record.address)) {
+                origins.putIfAbsent(record.callId, origin(record.callingAddress, record.calledAddress));
+            }
+        }
+        if (record.address != null) {
+            ev.set("getAddress", getAddress(record.address)).set("getTransferControllerAddress",
+                    getAddress(record.address)).set("getConferenceControllerAddress", getAddress(record.address));
+            if (record.callId != 0) {
+                ev.set("getConnection", connection(record.callId, record.address));
+            }
+            if (record.kind == ADDRESS) {
+                observed = getAddress(record.address);
+            }
+        }
+        if (record.terminal != null) {
+            ev.set("getTerminal", getTerminal(record.terminal));
+            if (record.kind == TERMINAL) {
+                observed = getTerminal(record.terminal);
+            }
+            label.append("terminal=").append(record.terminal).append(' ');
+        }
+        if (record.address != null) {
+            label.append("address=").append(record.address).append(' ');
+        }
+        if (record.callId != 0 && record.address != null && record.terminal != null) {
+            TerminalConnection termConn = terminalConnection(record.callId, record.address, record.terminal);
+            ev.set("getTerminalConnection", termConn).set("getTransferController", termConn);
+        }
+        if (record.callingAddress != null) {
+            ev.set("getCallingAddress", getAddress(record.callingAddress));
+        }
+        if (record.calledAddress != null) {
+            ev.set("getCalledAddress", getAddress(record.calledAddress));
+        }
+        if (record.relatedCallId != 0) {
+            call(record.relatedCallId);
+            ev.set("getTransferredCall", callAnswer(record.relatedCallId)).set("getConferencedCall",
+                    callAnswer(record.relatedCallId));
+        }
+        ev.set("getObserved", observed instanceof Call ? callAnswer(record.callId) : observed);
+        return proxyOf(label.append("cause=").append(record.cause).append(']').toString(), ev, type);
+    }
+
+    private static Ev proxyOf(String label, StandIn from, Class<? extends Ev> type) {
+        StandIn ev = new StandIn(label);
+        ev.properties.putAll(from.properties);
+        return proxy(ev, type);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(StandIn impl, Class<T> iface, Class<?>... more) {
+        Class<?>[] interfaces = new Class<?>[more.length + 1];
+        interfaces[0] = iface;
+        System.arraycopy(more, 0, interfaces, 1, more.length);
+        return (T) Proxy.newProxyInstance(EventReplayer.class.getClassLoader(), interfaces, impl);
+    }
+
+    // The stand-in for an address, created on first use
+    public synchronized CiscoAddress getAddress(String name) {
+        CiscoAddress address = addresses.get(name);
+        if (address == null) {
+            StandIn impl = new StandIn(name);
+            address = proxy(impl, CiscoAddress.class);
+            impl.set("getName", name).set("getProvider", provider)
+                    .set("getTerminals", (Answer) args -> terminalsOf(name));
+            addresses.put(name, address);
+        }
+        return address;
+    }
+
+    // The stand-in for a terminal; it is also a CiscoRouteTerminal and a
+    // CiscoMediaTerminal, for handlers that cast CTI device terminals
+    public synchronized CiscoTerminal getTerminal(String name) {
+        CiscoTerminal terminal = terminals.get(name);
+        if (terminal == null) {
+            StandIn impl = new StandIn(name);
+            terminal = proxy(impl, CiscoRouteTerminal.class, CiscoMediaTerminal.class);
+            impl.set("getName", name).set("getProvider", provider)
+                    .set("getAddresses", (Answer) args -> addressesOf(name));
+            terminals.put(name, terminal);
+        }
+        return terminal;
+    }
+
+    public CiscoProvider getProvider() {
+        return provider;
+    }
+
+    private synchronized Terminal[] terminalsOf(String address) {
+        List<Terminal> list = new ArrayList<Terminal>();
+        for (String name : addressTerminals.getOrDefault(address, new LinkedHashSet<String>())) {
+            list.add(getTerminal(name));
+        }
+        return list.toArray(new Terminal[0]);
+    }
+
+    private synchronized Address[] addressesOf(String terminal) {
+        List<Address> list = new ArrayList<Address>();
+        for (String name : terminalAddresses.getOrDefault(terminal, new LinkedHashSet<String>())) {
+            list.add(getAddress(name));
+        }
+        return list.toArray(new Address[0]);
+    }
+
+    private static String origin(String address, String called) {
+        return address + "->" + called;
+    }
+
+    // The call now standing for a recorded call ID
+    private Answer callAnswer(int id) {
+        return args -> calls.get(id);
+    }
+
+    private CiscoCall call(int id) {
+        CiscoCall call = calls.get(id);
+        if (call == null) {
+            call = newCall(id);
+            calls.put(id, call);
+            recordedCalls.put(id, call);
+            callOrder.add(id);
+            firstBatch.put(id, batches.size() - 1);
+        }
+        return call;
+    }
+
+    private CiscoCall newCall(int id) {
+        StandIn impl = new StandIn("CallID=" + id);
+        CiscoCall call = proxy(impl, CiscoCall.class);
+        StandIn callIdImpl = new StandIn("CallID=" + id);
+        callIdImpl.set("intValue", id).set("getGlobalCallID", id).set("getCallManagerID", 1)
+                .set("getCall", (Answer) args -> calls.getOrDefault(id, call));
+        impl.set("getCallID", proxy(callIdImpl, CiscoCallID.class)).set("getProvider", provider)
+                .set("getState", (Answer) args -> callStates.getOrDefault(call, Call.IDLE))
+                .set("getConnections", (Answer) args -> {
+                    Set<Connection> live = liveConnections.get(call);
+                    return live == null ? null : live.toArray(new Connection[0]);
+                });
+        return call;
+    }
+
+    private Connection connection(int callId, String address) {
+        String key = callId + "/" + address;
+        Connection connection = connections.get(key);
+        if (connection == null) {
+            StandIn impl = new StandIn(address + ":" + callId);
+            connection = proxy(impl, CiscoConnection.class);
+            call(callId);
+            impl.set("getAddress", getAddress(address)).set("getCall", callAnswer(callId));
+            connections.put(key, connection);
+        }
+        return connection;
+    }
+
+    private TerminalConnection terminalConnection(int callId, String address, String terminal) {
+        String key = callId + "/" + address + "/" + terminal;
+        TerminalConnection termConn = terminalConnections.get(key);
+        if (termConn == null) {
+            StandIn impl = new StandIn(terminal + ":" + address + ":" + callId);
+            termConn = proxy(impl, CiscoTerminalConnection.class);
+            impl.set("getTerminal", getTerminal(terminal)).set("getConnection", connection(callId, address));
+            terminalConnections.put(key, termConn);
+            addressTerminals.computeIfAbsent(address, a -> new LinkedHashSet<String>()).add(terminal);
+            terminalAddresses.computeIfAbsent(terminal, t -> new LinkedHashSet<String>()).add(address);
+        }
+        return termConn;
+    }
+
+    // A call of no recorded call ID until it is connected
+    private synchronized CiscoCall createCall() {
+        unrecordedCalls++;
+        CiscoCall call = newCall(-unrecordedCalls);
+        ((StandIn) Proxy.getInvocationHandler(call)).set("connect",
+                (Answer) args -> connect(call, ((Address) args[1]).getName(), (String) args[2]));
+        return call;
+    }
+
+    // Bind a created call to the first recorded call, not yet delivered or
+    // bound, placed from address to dialed; left unbound (no events will
+    // come) if the recording has none
+    private synchronized Connection[] connect(CiscoCall call, String address, String dialed) {
+        String origin = origin(address, dialed);
+        for (int id : callOrder) {
+            if (firstBatch.get(id) > position && origin.equals(origins.get(id)) && bound.add(id)) {
+                StandIn impl = (StandIn) Proxy.getInvocationHandler(call);
+                impl.set("getCallID", recordedCalls.get(id).getCallID());
+                impl.label = "CallID=" + id;
+                calls.put(id, call);
+                return new Connection[] { connection(id, address), connection(id, dialed) };
+            }
+        }
+        return new Connection[0];
+    }
+
+    // Deliver every batch to the handler for its observer (handlers[n] for
+    // the recording's nth observer); speed 1 is the recorded timing, 0 as fast
+    // as possible
+    public void replay(double speed, Object... handlers) {
+        synchronized (this) {
+            position = 0;
+            bound.clear();
+            calls.putAll(recordedCalls);
+        }
+        liveConnections.clear();
+        callStates.clear();
+        long start = System.nanoTime();
+        long recordedStart = batches.isEmpty() ? 0 : batches.get(0).timestamp;
+        for (int i = 0; i < batches.size(); i++) {
+            Batch batch = batches.get(i);
+            position = i;
+            if (speed > 0) {
+                long due = start + (long) ((batch.timestamp - recordedStart) / speed);
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                Metrics.record("replay.lag", System.nanoTime() - due);
+            }
+            track(batch);
+            int n = observers.indexOf(batch.observer);
+            Object handler = n < handlers.length ? handlers[n] : null;
+            if (!deliver(handler, batch)) {
+                undelivered += batch.array.length;
+                continue;
+            }
+            delivered += batch.array.length;
+        }
+    }
+
+    // Bring the calls' state and connections up to date with a batch before
+    // it is delivered, as JTAPI does
+    private void track(Batch batch) {
+        if (batch.kind != CALL) {
+            return;
+        }
+        for (Ev ev : batch.array) {
+            Call call = ((CallEv) ev).getCall();
+            if (call == null) {
+                continue;
+            }
+            switch (ev.getID()) {
+                case CallActiveEv.ID:
+                    callStates.put(call, Call.ACTIVE);
+                    break;
+                case CallInvalidEv.ID:
+                    callStates.put(call, Call.INVALID);
+                    liveConnections.remove(call);
+                    break;
+                default:
+                    if (ev instanceof ConnEv && ((ConnEv) ev).getConnection() != null) {
+                        Connection connection = ((ConnEv) ev).getConnection();
+                        Set<Connection> live = liveConnections.computeIfAbsent(call,
+                                c -> Collections.synchronizedSet(new LinkedHashSet<Connection>()));
+                        if (ev instanceof ConnDisconnectedEv || ev instanceof ConnFailedEv
+                                || ev instanceof CallCtlConnDisconnectedEv || ev instanceof CallCtlConnFailedEv) {
+                            live.remove(connection);
+                        } else {
+                            live.add(connection);
+                        }
+                    }
+            }
+        }
+    }
+
+    private boolean deliver(Object handler, Batch batch) {
+        long start = System.nanoTime();
+        try {
+            switch (batch.kind) {
+                case PROVIDER:
+                    if (!(handler instanceof ProviderObserver)) {
+                        return false;
+                    }
+                    ((ProviderObserver) handler).providerChangedEvent((ProvEv[]) batch.array);
+                    break;
+                case TERMINAL:
+                    if (!(handler instanceof TerminalObserver)) {
+                        return false;
+                    }
+                    ((TerminalObserver) handler).terminalChangedEvent((TermEv[]) batch.array);
+                    break;
+                case ADDRESS:
+                    if (!(handler instanceof AddressObserver)) {
+                        return false;
+                    }
+                    ((AddressObserver) handler).addressChangedEvent((AddrEv[]) batch.array);
+                    break;
+                case CALL:
+                    if (!(handler instanceof CallObserver)) {
+                        return false;
+                    }
+                    ((CallObserver) handler).callChangedEvent((CallEv[]) batch.array);
+                    break;
+            }
+        } catch (RuntimeException e) {
+            // As in EventDispatcher, a failing handler doesn't stop the others
+            if (failures++ < 10) {
+                Log.warn("EventReplayer: handler threw " + e);
+            }
+        }
+        Metrics.recordSince("replay.handler", start);
+        return true;
+    }
+
+    public int getEventCount() {
+        return events;
+    }
+
+    public int getObserverCount() {
+        return observers.size();
+    }
+
+    public int getBatchCount() {
+        return batches.size();
+    }
+
+    public String getStats() {
+        return String.format("Replay: %d events in %d batches recorded (%d skipped), %d delivered, %d with no"
+                + " handler, %d handler exceptions", events, batches.size(), skipped, delivered, undelivered,
+                failures);
+    }
+}
@@ -0,0 +1,154 @@
+package com.cisco.jtapi.journal;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Streams an EventJournal back as text, one line per event, for analysis
+// after an incident (grep, sort, a spreadsheet...).  Reads every segment in
+// EVENT_JOURNAL_DIR, or the directories/segment files given as arguments.
+
+// Arguments (all optional, in any order):
+//   <directory or file>  journal segments to read (default EVENT_JOURNAL_DIR)
+//   call=<id>            only events for this call ID
+//   address=<name>       only events for this address (DN)
+//   terminal=<name>      only events for this terminal (device)
+//   event=<name>         only this event type, e.g. CallCtlConnEstablishedEv
+//   --summary            instead of the events: the time span, the count of
+//                        each event type and the busiest second
+
+// Output:
+//   2020-10-01T14:03:07.123456789Z Call CallCtlConnEstablishedEv cause=100 call=25 address=1001
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.cisco.jtapi.common.EventJournal;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class readJournal {
+
+    public static void main(String[] args) {
+
+        // Retrieve environment variables from .env, if present
+        Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
+
+        List<File> files = new ArrayList<File>();
+        Integer call = null;
+        String address = null;
+        String terminal = null;
+        String event = null;
+        boolean summary = false;
+        for (String arg : args) {
+            if (arg.startsWith("call=")) {
+                call = Integer.parseInt(arg.substring(5));
+            } else if (arg.startsWith("address=")) {
+                address = arg.substring(8);
+            } else if (arg.startsWith("terminal=")) {
+                terminal = arg.substring(9);
+            } else if (arg.startsWith("event=")) {
+                event = arg.substring(6);
+            } else if (arg.equals("--summary")) {
+                summary = true;
+            } else {
+                addFiles(files, new File(arg));
+            }
+        }
+        if (files.isEmpty()) {
+            String dir = dotenv.get("EVENT_JOURNAL_DIR", "");
+            if (dir.isEmpty()) {
+                System.err.println("No journal: set EVENT_JOURNAL_DIR in .env or name a directory or segment file");
+                System.exit(1);
+            }
+            addFiles(files, new File(dir));
+        }
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 1 << 16));
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        long total = 0;
+        long first = 0;
+        long last = 0;
+        long second = -1;
+        long inSecond = 0;
+        long busiestSecond = 0;
+        long busiestCount = 0;
+        EventJournal.Reader reader = new EventJournal.Reader(files);
+        while (reader.hasNext()) {
+            EventJournal.Record record = reader.next();
+            if ((call != null && record.callId != call) || (address != null && !address.equals(record.address))
+                    || (terminal != null && !terminal.equals(record.terminal))
+                    || (event != null && !event.equals(record.getEventName()))) {
+                continue;
+            }
+            if (!summary) {
+                out.println(record);
+                continue;
+            }
+            if (total++ == 0) {
+                first = record.timestamp;
+            }
+            last = record.timestamp;
+            counts.merge(record.getEventName(), 1L, Long::sum);
+            long thisSecond = record.timestamp / 1_000_000_000L;
+            if (thisSecond != second) {
+                second = thisSecond;
+                inSecond = 0;
+            }
+            if (++inSecond > busiestCount) {
+                busiestCount = inSecond;
+                busiestSecond = thisSecond;
+            }
+        }
+        if (summary) {
+            out.printf("%d events in %d segment(s)", total, files.size());
+            if (total > 0) {
+                out.printf(", %s to %s (%.3f s); busiest second %s with %d events%n",
+                        Instant.ofEpochSecond(0, first), Instant.ofEpochSecond(0, last), (last - first) / 1e9,
+                        Instant.ofEpochSecond(busiestSecond), busiestCount);
+                for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                    out.printf("    %-40s %d%n", entry.getKey(), entry.getValue());
+                }
+            } else {
+                out.println();
+            }
+        }
+        if (reader.getGaps() > 0) {
+            // A writer died part way through a record
+            out.printf("%d gap(s) of incomplete records skipped%n", reader.getGaps());
+        }
+        out.flush();
+    }
+
+    private static void addFiles(List<File> files, File file) {
+        if (file.isDirectory()) {
+            files.addAll(EventJournal.segmentFiles(file));
+        } else {
+            files.add(file);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.cisco.jtapi.journal;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Replays an EventJournal recording into a sample's handlers with no CUCM,
+// to reproduce an incident deterministically or, at speed=max, to benchmark
+// handler logic on real traffic.  See EventReplayer for what is and isn't
+// reproduced: the handlers' own JTAPI requests are accepted and ignored.
+
+// Arguments (all optional, in any order):
+//   <directory or file>         journal segments to read (default EVENT_JOURNAL_DIR)
+//   handlers=<class>,<class>    handler classes (relative to com.cisco.jtapi, or
+//                               fully qualified), in the order the sample
+//                               created its EventDispatcher observers (default
+//                               dialviaoffice.Handler,dialviaoffice.CtiPortHandler)
+//   speed=<1|N|max>             1: recorded timing, N: N times faster, max: as
+//                               fast as possible (default 1)
+//   repeat=<N>                  replay N times, e.g. to warm up the JIT
+//   static=<Class.field=value>  set a sample static before replaying, e.g.
+//                               static=dialviaoffice.dialViaOffice.rpAddress=3000
+//                               Address/Terminal fields get the replayed object
+//                               of that name, Provider fields the replay
+//                               provider, CtiPortPool fields a pool of the
+//                               comma-separated DNs' ports, and Executor fields
+//                               given 'direct' run tasks inline on the replay
+//                               thread
+//   require=<Class.field>,...   statics the handlers can't run without: the
+//                               replay doesn't start unless each is set (by
+//                               default, with the default handlers,
+//                               dialViaOffice's provider, rpAddress,
+//                               rpTerminal, dialoutDN and callControl)
+
+// For benchmarking, set LOG_LEVEL=INFO in .env so per-event logging doesn't
+// dominate; replay.handler in the Metrics summary is the time per batch.
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.telephony.*;
+
+import com.cisco.jtapi.common.CtiPortPool;
+import com.cisco.jtapi.common.EventJournal;
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.common.Metrics;
+
+import com.cisco.jtapi.extensions.*;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class replayJournal {
+
+    static final String DEFAULT_HANDLERS = "dialviaoffice.Handler,dialviaoffice.CtiPortHandler";
+    static final String DEFAULT_REQUIRED = "dialviaoffice.dialViaOffice.provider,dialviaoffice.dialViaOffice.rpAddress,"
+            + "dialviaoffice.dialViaOffice.rpTerminal,dialviaoffice.dialViaOffice.dialoutDN,"
+            + "dialviaoffice.dialViaOffice.callControl";
+
+    // Runs each task on the calling thread, so a replay stays single-threaded
+    static class DirectExecutorService extends AbstractExecutorService {
+        private volatile boolean shutdown;
+
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return new ArrayList<Runnable>();
+        }
+
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        // Retrieve environment variables from .env, if present
+        Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
+
+        List<File> files = new ArrayList<File>();
+        String handlers = DEFAULT_HANDLERS;
+        String required = null;
+        double speed = 1;
+        int repeat = 1;
+        List<String> statics = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.startsWith("handlers=")) {
+                handlers = arg.substring(9);
+            } else if (arg.startsWith("speed=")) {
+                speed = arg.equals("speed=max") ? 0 : Double.parseDouble(arg.substring(6));
+            } else if (arg.startsWith("repeat=")) {
+                repeat = Integer.parseInt(arg.substring(7));
+            } else if (arg.startsWith("static=")) {
+                statics.add(arg.substring(7));
+            } else if (arg.startsWith("require=")) {
+                required = arg.substring(8);
+            } else {
+                File file = new File(arg);
+                files.addAll(file.isDirectory() ? EventJournal.segmentFiles(file) : List.of(file));
+            }
+        }
+        if (files.isEmpty()) {
+            String dir = dotenv.get("EVENT_JOURNAL_DIR", "");
+            if (dir.isEmpty()) {
+                System.err.println("No journal: set EVENT_JOURNAL_DIR in .env or name a directory or segment file");
+                System.exit(1);
+            }
+            files.addAll(EventJournal.segmentFiles(new File(dir)));
+        }
+        if (required == null) {
+            required = handlers.equals(DEFAULT_HANDLERS) ? DEFAULT_REQUIRED : "";
+        }
+
+        long loadStart = System.nanoTime();
+        List<EventJournal.Record> records = new ArrayList<EventJournal.Record>();
+        new EventJournal.Reader(files).forEachRemaining(records::add);
+        Log.info(String.format("Read %d events from %d segment(s) in %.1f ms", records.size(), files.size(),
+                (System.nanoTime() - loadStart) / 1e6));
+
+        // Each repeat starts from scratch: new stand-ins, statics and handlers
+        for (int i = 0; i < repeat; i++) {
+            EventReplayer replayer = new EventReplayer(records.iterator());
+            for (String assignment : statics) {
+                setStatic(replayer, assignment);
+            }
+            List<String> missing = unset(required);
+            if (!missing.isEmpty()) {
+                System.err.println("Required statics not set (give static=<Class.field>=<value> for each): "
+                        + String.join(", ", missing));
+                System.exit(1);
+            }
+            List<Object> instances = new ArrayList<Object>();
+            for (String name : handlers.split(",")) {
+                instances.add(classFor(name.trim()).getDeclaredConstructor().newInstance());
+            }
+            long start = System.nanoTime();
+            replayer.replay(speed, instances.toArray());
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Log.info(String.format("Replay %d: %d events in %d batches for %d observer(s) in %.3f s (%.0f events/s)",
+                    i + 1, replayer.getEventCount(), replayer.getBatchCount(), replayer.getObserverCount(), seconds,
+                    replayer.getEventCount() / seconds));
+            Log.info(replayer.getStats());
+        }
+        Log.info(Metrics.summary());
+        System.exit(0);
+    }
+
+    // The comma-separated Class.field statics that are null
+    private static List<String> unset(String fields) throws Exception {
+        List<String> missing = new ArrayList<String>();
+        for (String target : fields.split(",")) {
+            target = target.trim();
+            if (target.isEmpty()) {
+                continue;
+            }
+            int dot = target.lastIndexOf('.');
+            if (classFor(target.substring(0, dot)).getField(target.substring(dot + 1)).get(null) == null) {
+                missing.add(target);
+            }
+        }
+        return missing;
+    }
+
+    private static Class<?> classFor(String name) throws ClassNotFoundException {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            return Class.forName("com.cisco.jtapi." + name);
+        }
+    }
+
+    // Class.field=value, the value converted for the field's type
+    private static void setStatic(EventReplayer replayer, String assignment) throws Exception {
+        int equals = assignment.indexOf('=');
+        String target = assignment.substring(0, equals);
+        String value = assignment.substring(equals + 1);
+        int dot = target.lastIndexOf('.');
+        Field field = classFor(target.substring(0, dot)).getField(target.substring(dot + 1));
+        Class<?> type = field.getType();
+        Object converted;
+        if (Address.class.isAssignableFrom(type)) {
+            converted = replayer.getAddress(value);
+        } else if (Terminal.class.isAssignableFrom(type)) {
+            converted = replayer.getTerminal(value);
+        } else if (Provider.class.isAssignableFrom(type)) {
+            converted = replayer.getProvider();
+        } else if (type == CtiPortPool.class) {
+            CtiPortPool pool = new CtiPortPool();
+            for (String dn : CtiPortPool.parseDNs(value)) {
+                CiscoAddress address = replayer.getAddress(dn);
+                Terminal[] terminals = address.getTerminals();
+                CiscoMediaTerminal terminal = (CiscoMediaTerminal) (terminals.length > 0 ? terminals[0]
+                        : replayer.getTerminal(dn));
+                pool.add(address, terminal, InetAddress.getLoopbackAddress(), 0);
+            }
+            converted = pool;
+        } else if (type.isAssignableFrom(DirectExecutorService.class) && value.equals("direct")) {
+            converted = new DirectExecutorService();
+        } else if (type == String.class) {
+            converted = value;
+        } else if (type == int.class || type == Integer.class) {
+            converted = Integer.parseInt(value);
+        } else if (type == long.class || type == Long.class) {
+            converted = Long.parseLong(value);
+        } else if (type == boolean.class || type == Boolean.class) {
+            converted = Boolean.parseBoolean(value);
+        } else if (type == InetAddress.class) {
+            converted = InetAddress.getByName(value);
+        } else {
+            throw new IllegalArgumentException("Can't set " + target + " (" + type.getSimpleName() + ")");
+        }
+        field.set(null, converted);
+    }
+}
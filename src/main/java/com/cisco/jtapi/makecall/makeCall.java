@@ -37,26 +37,32 @@ package com.cisco.jtapi.makecall;
 // OpenJDK 11.0.8
 // CUCM 11.5
 
-import java.time.format.DateTimeFormatter;  
-import java.time.LocalDateTime;  
+
+import java.io.IOException;
 
 import javax.telephony.*;
+import javax.telephony.events.*;
 import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.common.CallEventAwaiter;
+import com.cisco.jtapi.common.EventDispatcher;
+import com.cisco.jtapi.common.EventSubscription;
+import com.cisco.jtapi.common.LineBootstrap;
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.common.Metrics;
+import com.cisco.jtapi.common.TraceProfile;
 
 import io.github.cdimascio.dotenv.Dotenv;
 
 public class makeCall {
 
-    private static DateTimeFormatter dtf = DateTimeFormatter.ofPattern("HH:mm:ss.SS"); 
-
     private static void log(String msg) {
-        System.out.println(dtf.format(LocalDateTime.now()) + " " + msg);
+        Log.info(msg);
     }
 
     public static void main(String[] args) throws
 
     JtapiPeerUnavailableException, ResourceUnavailableException, MethodNotSupportedException, InvalidArgumentException,
-            PrivilegeViolationException, InvalidPartyException, InvalidStateException, InterruptedException {
+            PrivilegeViolationException, InvalidPartyException, InvalidStateException, InterruptedException, IOException {
 
         // Retrieve environment variables from .env, if present
         Dotenv dotenv=Dotenv.load();
@@ -64,9 +70,20 @@ public class makeCall {
         // The Handler class provides observers for provider/address/terminal/call events
         Handler handler = new Handler();
 
-        // Create the JtapiPeer object, representing the JTAPI library
+        // Handler callbacks run on the dispatcher's worker threads, so the JTAPI
+        // event thread only has to queue each event batch
+        EventDispatcher dispatcher = EventDispatcher.create(dotenv);
+        // Only the events listed for makeCall in event_subscriptions.properties
+        // are delivered
+        EventSubscription subscription = EventSubscription.load(dotenv, "makeCall");
+        EventDispatcher.Observer observer = dispatcher.wrap(handler, subscription);
+
+        // Create the JtapiPeer object, representing the JTAPI library (JTAPI_PEER may
+        // name an alternative, such as the simulator; unset means Cisco JTAPI)
         log("Initializing Jtapi");
-        CiscoJtapiPeer peer = (CiscoJtapiPeer) JtapiPeerFactory.getJtapiPeer(null);
+        CiscoJtapiPeer peer = (CiscoJtapiPeer) JtapiPeerFactory.getJtapiPeer(dotenv.get("JTAPI_PEER"));
+        // JTAPI_TRACE_PROFILE (perf/standard/forensic) overrides jtapi.ini's tracing
+        TraceProfile.configure(peer, dotenv);
 
         // Create and open the Provider, representing a JTAPI connection to CUCM CTI
         // Manager
@@ -78,31 +95,30 @@ public class makeCall {
         log("Connecting Provider: " + providerString);
         CiscoProvider provider=(CiscoProvider) peer.getProvider(providerString);
         log("Awaiting ProvInServiceEv...");
-        provider.addObserver(handler);
+        provider.addObserver(observer);
         handler.providerInService.waitTrue();
 
-        // Open the ALICE_DN Address and wait for it to go in service
+        // Open the ALICE_DN Address and its first Terminal (could be multiple
+        //   if it's a shared line) together, wait for both to go in service, then
+        //   add a call observer to receive call events
         log("Opening fromAddress DN: " + dotenv.get("ALICE_DN"));
-        CiscoAddress fromAddress = (CiscoAddress) provider.getAddress(dotenv.get("ALICE_DN"));
-        log("Awaiting CiscoAddrInServiceEv for: " + fromAddress.getName() + "...");
-        fromAddress.addObserver(handler);
-        handler.fromAddressInService.waitTrue();
-        // Add a call observer to receive call events
-        fromAddress.addCallObserver(handler);
-        // Get/open the first Terminal for the Address.  Could be multiple
-        //   if it's a shared line
-        CiscoTerminal fromTerminal = (CiscoTerminal) fromAddress.getTerminals()[0];
-        log("Awaiting CiscoTermInServiceEv for: " + fromTerminal.getName() + "...");
-        fromTerminal.addObserver(handler);
-        handler.fromTerminalInService.waitTrue();
+        log("Awaiting CiscoAddrInServiceEv/CiscoTermInServiceEv for: " + dotenv.get("ALICE_DN") + "...");
+        LineBootstrap.Line fromLine = new LineBootstrap(provider, observer).open(dotenv.get("ALICE_DN")).get(0);
+        CiscoAddress fromAddress = fromLine.address;
+        CiscoTerminal fromTerminal = fromLine.terminal;
+
+        // Call steps are awaited as futures, completed by a second call observer
+        CallEventAwaiter awaiter = new CallEventAwaiter();
+        fromAddress.addCallObserver(dispatcher.wrap(awaiter));
 
         // Create a new Call object from our provider
         CiscoCall call = (CiscoCall) provider.createCall();
 
         log("Creating/connecting call to DN: "+dotenv.get("BOB_DN"));
         log("Awaiting CallActiveEv for Call: " + call.toString() + "...");
-        call.connect(fromTerminal, fromAddress, dotenv.get("BOB_DN"));
-        handler.callActive.waitTrue();
+        // The wait is registered before connect() so the event can't be missed
+        awaiter.request(call, CallActiveEv.class,
+            () -> call.connect(fromTerminal, fromAddress, dotenv.get("BOB_DN")), Runnable::run).join();
 
         // Wait 5 sec, then drop the call
         log("Sleeping 5 seconds...");
@@ -111,6 +127,8 @@ public class makeCall {
         log("Dropping call: " + call.toString());
         call.drop();
 
+        log(subscription.getStats());
+        log(Metrics.summary());
         System.exit(0);
     }
 }
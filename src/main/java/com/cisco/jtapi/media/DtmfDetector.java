@@ -0,0 +1,71 @@
+package com.cisco.jtapi.media;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// DTMF key presses from RFC 2833 (RFC 4733) telephone-event packets, as an
+// RtpReceiver.Listener on one stream.  Every packet of an event carries the
+// RTP timestamp of the event's start, and the last one is sent three times,
+// so a key is reported once, on the first packet with a new timestamp: as
+// soon as the key goes down, without waiting for the end of the event.
+// Packets of other payload types (the audio) are ignored.
+
+import java.nio.ByteBuffer;
+
+public class DtmfDetector implements RtpReceiver.Listener {
+
+    // The dynamic payload type usually negotiated for telephone-event
+    public static final int DEFAULT_PAYLOAD_TYPE = 101;
+    private static final int EVENT_BYTES = 4;
+    // Event codes 0-15; higher codes (flash, tones) aren't keys
+    private static final char[] KEYS = "0123456789*#ABCD".toCharArray();
+
+    // Called on the receiver thread, once per key press
+    public interface KeyListener {
+        void key(char key);
+    }
+
+    private final int payloadType;
+    private final KeyListener listener;
+    private boolean any;
+    private int lastTimestamp;
+    private long keys;
+
+    public DtmfDetector(int payloadType, KeyListener listener) {
+        this.payloadType = payloadType;
+        this.listener = listener;
+    }
+
+    public void packet(RtpReceiver.Stream stream, int payloadType, boolean marker, int timestamp,
+            ByteBuffer payload) {
+        if (payloadType != this.payloadType || payload.remaining() < EVENT_BYTES) {
+            return;
+        }
+        int event = payload.get(payload.position()) & 0xFF;
+        if (event >= KEYS.length || (any && timestamp == lastTimestamp)) {
+            return;
+        }
+        any = true;
+        lastTimestamp = timestamp;
+        keys++;
+        listener.key(KEYS[event]);
+    }
+
+    public long getKeys() {
+        return keys;
+    }
+}
@@ -0,0 +1,247 @@
+package com.cisco.jtapi.media;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Audio prompts, transcoded once into G.711 u-law (PCMU) RTP payload frames of
+// 30 ms (240 bytes at 8 kHz) and kept in a memory-mapped cache file.  Each
+// prompt's frames are mapped read-only and shared by every call playing it,
+// so per-call work is only packetization: no file reads, parsing or encoding.
+
+// The cache file (<prompt>-<hash>.ulaw in the cache directory, the hash taken
+// from the source's full path so same-named WAV files in different directories
+// don't share it) is reused across runs as long as it is newer than the source
+// WAV file.  WAV files may be 8/16-bit
+// linear PCM or u-law, mono or stereo, at any sample rate (resampled to 8 kHz).
+
+// Configuration (.env, optional):
+//   PROMPT_CACHE_DIR  where transcoded prompts are kept (default target/prompt-cache)
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class PromptCache {
+
+    public static final int SAMPLE_RATE = 8000;
+    public static final int FRAME_MILLIS = 30;
+    public static final int FRAME_BYTES = SAMPLE_RATE * FRAME_MILLIS / 1000;
+    // u-law encoding of a zero sample, used to pad the last frame
+    public static final byte SILENCE = (byte) 0xFF;
+
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_MULAW = 7;
+
+    // A transcoded prompt: a read-only run of FRAME_BYTES u-law frames
+    public static final class Prompt {
+        private final String name;
+        private final ByteBuffer frames;
+        private final int frameCount;
+
+        Prompt(String name, ByteBuffer frames) {
+            this.name = name;
+            this.frames = frames.asReadOnlyBuffer();
+            this.frameCount = frames.capacity() / FRAME_BYTES;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getFrameCount() {
+            return frameCount;
+        }
+
+        public long getDurationMillis() {
+            return (long) frameCount * FRAME_MILLIS;
+        }
+
+        // A read-only view of all the frames, for one reader to position as it
+        // likes; the buffer is shared, not copied
+        public ByteBuffer frames() {
+            return frames.duplicate();
+        }
+
+        // A read-only view of one frame; the buffer is shared, not copied
+        public ByteBuffer frame(int index) {
+            if (index < 0 || index >= frameCount) {
+                throw new IndexOutOfBoundsException("Frame " + index + " of " + frameCount);
+            }
+            ByteBuffer frame = frames.duplicate();
+            frame.limit((index + 1) * FRAME_BYTES).position(index * FRAME_BYTES);
+            return frame.slice();
+        }
+    }
+
+    private final Path cacheDir;
+    private final Map<Path, Prompt> prompts = new ConcurrentHashMap<Path, Prompt>();
+
+    public PromptCache(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public static PromptCache create(Dotenv dotenv) {
+        return new PromptCache(Paths.get(dotenv.get("PROMPT_CACHE_DIR", "target/prompt-cache")));
+    }
+
+    // The prompt for a WAV file, transcoding it on first use
+    public Prompt get(String wavFile) throws IOException {
+        Path source = Paths.get(wavFile).toAbsolutePath().normalize();
+        Prompt prompt = prompts.get(source);
+        if (prompt == null) {
+            synchronized (this) {
+                prompt = prompts.get(source);
+                if (prompt == null) {
+                    prompt = load(source);
+                    prompts.put(source, prompt);
+                }
+            }
+        }
+        return prompt;
+    }
+
+    private Prompt load(Path source) throws IOException {
+        Path cached = cacheDir.resolve(source.getFileName() + "-" + pathHash(source) + ".ulaw");
+        if (!Files.exists(cached)
+                || Files.getLastModifiedTime(cached).compareTo(Files.getLastModifiedTime(source)) < 0) {
+            byte[] frames = transcode(ByteBuffer.wrap(Files.readAllBytes(source)), source);
+            // Write beside the final name and move into place, so a concurrently
+            // starting process never maps a partly written file
+            Files.createDirectories(cacheDir);
+            Path temp = Files.createTempFile(cacheDir, source.getFileName().toString(), ".tmp");
+            Files.write(temp, frames);
+            Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        try (FileChannel channel = FileChannel.open(cached, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.load();
+            return new Prompt(source.getFileName().toString(), mapped);
+        }
+    }
+
+    // The first 8 bytes of the SHA-256 of source's absolute path, in hex
+    private static String pathHash(Path source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // WAV file -> u-law frames at 8 kHz, the last frame padded with silence
+    static byte[] transcode(ByteBuffer wav, Path source) throws IOException {
+        wav.order(ByteOrder.LITTLE_ENDIAN);
+        if (wav.remaining() < 12 || wav.getInt(0) != 0x46464952 || wav.getInt(8) != 0x45564157) {
+            throw new IOException(source + " is not a RIFF/WAVE file");
+        }
+        int format = -1;
+        int channels = 0;
+        int rate = 0;
+        int bits = 0;
+        ByteBuffer data = null;
+        int pos = 12;
+        while (pos + 8 <= wav.limit()) {
+            int id = wav.getInt(pos);
+            int size = wav.getInt(pos + 4);
+            int body = pos + 8;
+            if (size < 0 || body + size > wav.limit()) {
+                // Truncated final chunk: take what is there
+                size = wav.limit() - body;
+            }
+            if (id == 0x20746d66) { // "fmt "
+                format = wav.getShort(body) & 0xFFFF;
+                channels = wav.getShort(body + 2) & 0xFFFF;
+                rate = wav.getInt(body + 4);
+                bits = wav.getShort(body + 14) & 0xFFFF;
+            } else if (id == 0x61746164) { // "data"
+                data = wav.duplicate();
+                data.limit(body + size).position(body);
+                data = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+            }
+            pos = body + size + (size & 1);
+        }
+        if (data == null || channels < 1 || rate < 1) {
+            throw new IOException(source + " has no fmt/data chunk");
+        }
+        if (!(format == WAVE_FORMAT_PCM && (bits == 8 || bits == 16))
+                && !(format == WAVE_FORMAT_MULAW && bits == 8)) {
+            throw new IOException(source + ": unsupported WAV format " + format + "/" + bits + " bits");
+        }
+
+        // Decode to 16-bit linear, downmixing to mono
+        int bytesPerSample = bits / 8;
+        int inputSamples = data.remaining() / (bytesPerSample * channels);
+        short[] pcm = new short[inputSamples];
+        for (int i = 0; i < inputSamples; i++) {
+            int sum = 0;
+            for (int c = 0; c < channels; c++) {
+                int at = (i * channels + c) * bytesPerSample;
+                if (format == WAVE_FORMAT_MULAW) {
+                    sum += G711.ulawToLinear(data.get(at));
+                } else if (bits == 8) {
+                    sum += ((data.get(at) & 0xFF) - 128) << 8;
+                } else {
+                    sum += data.getShort(at);
+                }
+            }
+            pcm[i] = (short) (sum / channels);
+        }
+
+        // Resample to 8 kHz (linear interpolation) and encode
+        int outputSamples = (int) ((long) inputSamples * SAMPLE_RATE / rate);
+        int frameCount = (outputSamples + FRAME_BYTES - 1) / FRAME_BYTES;
+        byte[] frames = new byte[frameCount * FRAME_BYTES];
+        for (int i = 0; i < outputSamples; i++) {
+            int sample;
+            if (rate == SAMPLE_RATE) {
+                sample = pcm[i];
+            } else {
+                double at = (double) i * rate / SAMPLE_RATE;
+                int left = (int) at;
+                int right = Math.min(left + 1, inputSamples - 1);
+                double fraction = at - left;
+                sample = (int) Math.round(pcm[left] * (1 - fraction) + pcm[right] * fraction);
+            }
+            frames[i] = G711.linearToUlaw(sample);
+        }
+        for (int i = outputSamples; i < frames.length; i++) {
+            frames[i] = SILENCE;
+        }
+        return frames;
+    }
+}
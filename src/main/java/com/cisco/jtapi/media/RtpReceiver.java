@@ -0,0 +1,572 @@
+package com.cisco.jtapi.media;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Pure-Java RTP receiver: takes the inbound media of any number of CTI Ports
+// on one NIO Selector thread, puts each stream through a jitter buffer and
+// records its PCMU audio to a memory-mapped WAV file per call.
+
+// Each CTI Port's RTP port is an Endpoint: a non-blocking DatagramChannel
+// bound when the port is registered and kept open, so the port number given
+// to CUCM stays ours and whatever arrives on it is read.  A Stream is started
+// on an Endpoint when the call's CiscoRTPInputStartedEv arrives; packets that
+// arrive while no stream is started are read and dropped.
+
+// The jitter buffer is a ring of packet buffers indexed by sequence number.
+// Packets are received straight into a spare ring buffer, which is then
+// swapped into its slot, so nothing is copied until playout.  A packet is
+// played out once JITTER_BUFFER_MS worth of later packets has arrived, or
+// once the stream has been quiet for that long, in sequence order; missing
+// packets are counted as lost, and packets arriving after their turn as late.
+// Played-out PCMU payload is put from the receive buffer directly into the
+// mapped recording file, at the offset given by its RTP timestamp, so lost
+// packets leave silence and no heap copy or write() call is made.  Recording
+// files grow a mapped region (about two minutes of audio) at a time and are
+// truncated to the audio received when the stream stops.
+
+// Configuration (.env, optional):
+//   RECORDING_DIR     where record() writes <name>-<time>.wav (no recording if
+//                     empty)
+//   JITTER_BUFFER_MS  playout delay (default 60, i.e. two 30 ms packets)
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.common.Metrics;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class RtpReceiver implements Runnable {
+
+    public static final int PAYLOAD_TYPE_PCMU = 0;
+    private static final int HEADER_BYTES = 12;
+    private static final int MAX_PACKET_BYTES = 1500;
+    // Ring size; a power of two, more than any jitter buffer depth
+    private static final int SLOTS = 64;
+    private static final int WAV_HEADER_BYTES = 44;
+    private static final int WAVE_FORMAT_MULAW = 7;
+    // Recording files are mapped this much at a time
+    private static final long REGION_BYTES = 1 << 20;
+    // A timestamp jump longer than this is a new timeline, not lost audio
+    private static final long MAX_GAP_SAMPLES = 2L * PromptCache.SAMPLE_RATE;
+    private static final long NANOS_PER_SAMPLE = TimeUnit.SECONDS.toNanos(1) / PromptCache.SAMPLE_RATE;
+
+    // Sees every packet of a stream as it is played out of the jitter buffer,
+    // on the receiver thread; payload is only valid during the call
+    public interface Listener {
+        void packet(Stream stream, int payloadType, boolean marker, int timestamp, ByteBuffer payload);
+    }
+
+    // A CTI Port's RTP port
+    public final class Endpoint {
+        private final DatagramChannel channel;
+        private final InetSocketAddress address;
+        // Owned by the receiver thread
+        private Stream stream;
+
+        Endpoint(DatagramChannel channel) throws IOException {
+            this.channel = channel;
+            this.address = (InetSocketAddress) channel.getLocalAddress();
+        }
+
+        public int getPort() {
+            return address.getPort();
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        public String toString() {
+            return "Endpoint(" + address + ")";
+        }
+    }
+
+    // One call's inbound media on an Endpoint
+    public final class Stream {
+        private final Endpoint endpoint;
+        private final Path recording;
+        private final Listener listener;
+        private final ByteBuffer[] slots = new ByteBuffer[SLOTS];
+        private final int[] slotSequence = new int[SLOTS];
+        private ByteBuffer spare = newPacketBuffer();
+        private boolean started;
+        private int ssrc;
+        private int nextSequence;
+        private int highestSequence;
+        private int buffered;
+        private long lastArrival;
+        // Interarrival jitter (RFC 3550 6.4.1), in nanoseconds
+        private double jitter;
+        private long previousTransit;
+        // Recording
+        private FileChannel file;
+        private MappedByteBuffer region;
+        private int baseTimestamp;
+        private long recorded;
+        // Statistics
+        private long packets;
+        private long lost;
+        private long late;
+        private long reordered;
+        private long duplicates;
+        private long invalid;
+
+        Stream(Endpoint endpoint, Path recording, Listener listener) {
+            this.endpoint = endpoint;
+            this.recording = recording;
+            this.listener = listener;
+            Arrays.fill(slotSequence, -1);
+            for (int i = 0; i < SLOTS; i++) {
+                slots[i] = newPacketBuffer();
+            }
+        }
+
+        public Endpoint getEndpoint() {
+            return endpoint;
+        }
+
+        // The recording file, or null
+        public Path getRecording() {
+            return recording;
+        }
+
+        // A packet has been received into spare
+        void received(long now) {
+            ByteBuffer packet = spare;
+            packet.flip();
+            int length = packet.limit();
+            int first = length > 0 ? packet.get(0) & 0xFF : 0;
+            if (length < HEADER_BYTES || first >> 6 != 2) {
+                invalid++;
+                return;
+            }
+            int headerLength = HEADER_BYTES + 4 * (first & 0x0F);
+            if ((first & 0x10) != 0 && headerLength + 4 <= length) {
+                headerLength += 4 + 4 * (packet.getShort(headerLength + 2) & 0xFFFF);
+            }
+            int payloadEnd = (first & 0x20) != 0 ? length - (packet.get(length - 1) & 0xFF) : length;
+            if (headerLength > payloadEnd) {
+                invalid++;
+                return;
+            }
+            int sequence = packet.getShort(2) & 0xFFFF;
+            int timestamp = packet.getInt(4);
+            int packetSsrc = packet.getInt(8);
+            packets++;
+            if (!started || packetSsrc != ssrc) {
+                // First packet, or a new source: play out what the old one left
+                // and carry on recording from where it ended
+                flush();
+                started = true;
+                ssrc = packetSsrc;
+                nextSequence = sequence;
+                highestSequence = sequence;
+                baseTimestamp = timestamp - (int) recorded;
+                previousTransit = now / NANOS_PER_SAMPLE - (timestamp & 0xFFFFFFFFL);
+            }
+            lastArrival = now;
+            long transit = now / NANOS_PER_SAMPLE - (timestamp & 0xFFFFFFFFL);
+            jitter += (Math.abs(transit - previousTransit) * NANOS_PER_SAMPLE - jitter) / 16;
+            previousTransit = transit;
+
+            int ahead = (short) (sequence - nextSequence);
+            if (ahead < 0) {
+                late++;
+                totalLate.incrementAndGet();
+                return;
+            }
+            if (ahead >= SLOTS) {
+                // Too far ahead for the ring: give up on what's missing
+                flush();
+                nextSequence = sequence;
+                highestSequence = sequence;
+            }
+            int slot = sequence & (SLOTS - 1);
+            if (slotSequence[slot] == sequence) {
+                duplicates++;
+                return;
+            }
+            if ((short) (sequence - highestSequence) < 0) {
+                reordered++;
+            } else {
+                highestSequence = sequence;
+            }
+            packet.limit(payloadEnd).position(headerLength);
+            spare = slots[slot];
+            slots[slot] = packet;
+            slotSequence[slot] = sequence;
+            buffered++;
+            while (buffered > 0 && (short) (highestSequence - nextSequence) >= depth) {
+                playNext();
+            }
+        }
+
+        // Play out everything buffered
+        void flush() {
+            while (buffered > 0) {
+                playNext();
+            }
+        }
+
+        private void playNext() {
+            int slot = nextSequence & (SLOTS - 1);
+            if (slotSequence[slot] == nextSequence) {
+                ByteBuffer packet = slots[slot];
+                slotSequence[slot] = -1;
+                buffered--;
+                play(packet);
+            } else {
+                lost++;
+                totalLost.incrementAndGet();
+            }
+            nextSequence = (nextSequence + 1) & 0xFFFF;
+        }
+
+        private void play(ByteBuffer packet) {
+            int payloadType = packet.get(1) & 0x7F;
+            int timestamp = packet.getInt(4);
+            if (listener != null) {
+                int position = packet.position();
+                try {
+                    listener.packet(this, payloadType, (packet.get(1) & 0x80) != 0, timestamp, packet);
+                } catch (RuntimeException e) {
+                    Log.warn("RtpReceiver: listener threw " + e);
+                }
+                packet.position(position);
+            }
+            if (payloadType == PAYLOAD_TYPE_PCMU && file != null) {
+                try {
+                    record(timestamp, packet);
+                } catch (IOException e) {
+                    Log.warn("RtpReceiver: recording to " + recording + " failed, stopped: " + e);
+                    closeFile();
+                }
+            }
+        }
+
+        // Put a payload into the recording at its timestamp's offset
+        private void record(int timestamp, ByteBuffer payload) throws IOException {
+            long offset = (timestamp - baseTimestamp) & 0xFFFFFFFFL;
+            if (offset > recorded + MAX_GAP_SAMPLES) {
+                // A timestamp jump: continue from the end
+                baseTimestamp = timestamp - (int) recorded;
+                offset = recorded;
+            }
+            if (offset + payload.remaining() <= recorded) {
+                // Already there (or from before a jump back)
+                return;
+            }
+            long start = recorded;
+            while (recorded < offset) {
+                mapped().put(PromptCache.SILENCE);
+                recorded++;
+            }
+            // Skip any overlap with what is already recorded
+            payload.position(payload.position() + (int) (recorded - offset));
+            while (payload.hasRemaining()) {
+                MappedByteBuffer target = mapped();
+                int count = Math.min(payload.remaining(), target.remaining());
+                ByteBuffer part = payload.duplicate();
+                part.limit(part.position() + count);
+                target.put(part);
+                payload.position(payload.position() + count);
+                recorded += count;
+            }
+            totalRecorded.addAndGet(recorded - start);
+        }
+
+        // The mapped region, positioned at the end of the audio, remapping once
+        // it is full
+        private MappedByteBuffer mapped() throws IOException {
+            if (region == null || !region.hasRemaining()) {
+                region = file.map(FileChannel.MapMode.READ_WRITE, WAV_HEADER_BYTES + recorded, REGION_BYTES);
+            }
+            return region;
+        }
+
+        void open() throws IOException {
+            if (recording == null) {
+                return;
+            }
+            Files.createDirectories(recording.toAbsolutePath().getParent());
+            file = FileChannel.open(recording, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            writeHeader();
+        }
+
+        void close() {
+            flush();
+            if (started) {
+                Metrics.record("rtpReceiver.jitter", (long) jitter);
+            }
+            closeFile();
+            Log.info(String.format("RTP stream on %s stopped: %d packets, %d lost, %d late, %d reordered, "
+                    + "%d duplicate, %d invalid, jitter %.1f ms%s", endpoint, packets, lost, late, reordered,
+                    duplicates, invalid, jitter / 1e6,
+                    recording == null ? "" : String.format("; recorded %.1f s to %s",
+                            recorded / (double) PromptCache.SAMPLE_RATE, recording)));
+        }
+
+        private void closeFile() {
+            if (file == null) {
+                return;
+            }
+            try {
+                region = null;
+                writeHeader();
+                // Drop the unused end of the last region (a file still mapped
+                // can't be truncated on some platforms; the header's sizes make
+                // the excess harmless there)
+                try {
+                    file.truncate(WAV_HEADER_BYTES + recorded);
+                } catch (IOException e) {
+                    Log.debug("RtpReceiver: unable to truncate " + recording + ": ", e);
+                }
+                file.close();
+            } catch (IOException e) {
+                Log.warn("RtpReceiver: unable to close " + recording + ": " + e);
+            }
+            file = null;
+        }
+
+        // RIFF/WAVE, mono 8 kHz u-law
+        private void writeHeader() throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0x46464952).putInt((int) (36 + recorded)).putInt(0x45564157); // "RIFF" size "WAVE"
+            header.putInt(0x20746d66).putInt(16).putShort((short) WAVE_FORMAT_MULAW).putShort((short) 1) // "fmt "
+                    .putInt(PromptCache.SAMPLE_RATE).putInt(PromptCache.SAMPLE_RATE).putShort((short) 1)
+                    .putShort((short) 8);
+            header.putInt(0x61746164).putInt((int) recorded); // "data"
+            header.flip();
+            while (header.hasRemaining()) {
+                file.write(header, header.position());
+            }
+        }
+    }
+
+    private final int depth;
+    private final Path recordingDir;
+    private final Selector selector;
+    // start/stop/register requests for the receiver thread
+    private final Queue<Runnable> requests = new ConcurrentLinkedQueue<Runnable>();
+    // Owned by the receiver thread
+    private final List<Stream> streams = new ArrayList<Stream>();
+    private final ByteBuffer discard = newPacketBuffer();
+    private final SimpleDateFormat fileTime = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS");
+
+    // Statistics
+    private final AtomicInteger endpoints = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong packets = new AtomicLong();
+    private final AtomicLong unexpected = new AtomicLong();
+    // Counted as packets are played out, not when a stream stops (which is
+    // queued), so getStats() is current whenever it's called
+    private final AtomicLong totalLost = new AtomicLong();
+    private final AtomicLong totalLate = new AtomicLong();
+    private final AtomicLong totalRecorded = new AtomicLong();
+
+    // depth: packets held back for reordering; recordingDir: for record(), or
+    // null
+    public RtpReceiver(int depth, Path recordingDir) throws IOException {
+        this.depth = Math.max(0, Math.min(depth, SLOTS / 2));
+        this.recordingDir = recordingDir;
+        selector = Selector.open();
+        Thread thread = new Thread(this, "RtpReceiver");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    public static RtpReceiver create(Dotenv dotenv) throws IOException {
+        int millis = Integer.parseInt(dotenv.get("JITTER_BUFFER_MS", "60"));
+        String dir = dotenv.get("RECORDING_DIR", "");
+        return new RtpReceiver((millis + PromptCache.FRAME_MILLIS - 1) / PromptCache.FRAME_MILLIS,
+                dir.isEmpty() ? null : Paths.get(dir));
+    }
+
+    private static ByteBuffer newPacketBuffer() {
+        return ByteBuffer.allocateDirect(MAX_PACKET_BYTES);
+    }
+
+    // Bind an RTP port on address (an ephemeral port number) and start reading it
+    public Endpoint open(InetAddress address) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(address, 0));
+        channel.configureBlocking(false);
+        Endpoint endpoint = new Endpoint(channel);
+        endpoints.incrementAndGet();
+        request(() -> {
+            try {
+                channel.register(selector, SelectionKey.OP_READ, endpoint);
+            } catch (IOException e) {
+                Log.warn("RtpReceiver: unable to read " + endpoint + ": " + e);
+            }
+        });
+        return endpoint;
+    }
+
+    public boolean isRecording() {
+        return recordingDir != null;
+    }
+
+    // Record an endpoint's inbound audio to RECORDING_DIR/<name>-<time>.wav;
+    // null if there is no RECORDING_DIR
+    public Stream record(Endpoint endpoint, String name) {
+        Path recording = recordingPath(name);
+        return recording == null ? null : start(endpoint, recording, null);
+    }
+
+    // A new RECORDING_DIR/<name>-<time>.wav, or null if there is no
+    // RECORDING_DIR
+    public Path recordingPath(String name) {
+        if (recordingDir == null) {
+            return null;
+        }
+        synchronized (fileTime) {
+            return recordingDir.resolve(name + "-" + fileTime.format(new Date()) + ".wav");
+        }
+    }
+
+    // Start a stream on an endpoint, recording to a file and/or passing each
+    // packet to a listener (either may be null); any stream already started on
+    // the endpoint is stopped first
+    public Stream start(Endpoint endpoint, Path recording, Listener listener) {
+        Stream stream = new Stream(endpoint, recording, listener);
+        started.incrementAndGet();
+        request(() -> {
+            if (endpoint.stream != null) {
+                stop(endpoint.stream);
+            }
+            try {
+                stream.open();
+            } catch (IOException e) {
+                Log.warn("RtpReceiver: unable to record to " + recording + ": " + e);
+            }
+            endpoint.stream = stream;
+            streams.add(stream);
+            active.incrementAndGet();
+        });
+        return stream;
+    }
+
+    // Stop whatever stream is started on an endpoint, closing its recording
+    public void stop(Endpoint endpoint) {
+        request(() -> {
+            if (endpoint.stream != null) {
+                stop(endpoint.stream);
+            }
+        });
+    }
+
+    // Receiver thread
+    private void stop(Stream stream) {
+        stream.close();
+        stream.endpoint.stream = null;
+        streams.remove(stream);
+        active.decrementAndGet();
+    }
+
+    private void request(Runnable request) {
+        requests.add(request);
+        selector.wakeup();
+    }
+
+    public void run() {
+        long quietNanos = TimeUnit.MILLISECONDS.toNanos((long) (depth + 1) * PromptCache.FRAME_MILLIS);
+        while (true) {
+            try {
+                selector.select(PromptCache.FRAME_MILLIS);
+            } catch (IOException e) {
+                Log.warn("RtpReceiver: select failed: " + e);
+                return;
+            }
+            Runnable request;
+            while ((request = requests.poll()) != null) {
+                request.run();
+            }
+            long now = System.nanoTime();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                receive((Endpoint) key.attachment(), now);
+            }
+            // Play out streams that have gone quiet
+            for (Stream stream : streams) {
+                if (stream.buffered > 0 && now - stream.lastArrival > quietNanos) {
+                    stream.flush();
+                }
+            }
+        }
+    }
+
+    // Read everything waiting on an endpoint
+    private void receive(Endpoint endpoint, long now) {
+        try {
+            while (true) {
+                Stream stream = endpoint.stream;
+                ByteBuffer buffer = stream != null ? stream.spare : discard;
+                buffer.clear();
+                if (endpoint.channel.receive(buffer) == null) {
+                    return;
+                }
+                packets.incrementAndGet();
+                if (stream != null) {
+                    stream.received(now);
+                } else {
+                    unexpected.incrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("RtpReceiver: receive on " + endpoint + " failed: " + e);
+        }
+    }
+
+    public String getStats() {
+        return String.format("RTP receiver: %d endpoints, %d active streams (%d total), %d packets received "
+                + "(%d with no stream), %d lost, %d late, %.1f s recorded",
+                endpoints.get(), active.get(), started.get(), packets.get(), unexpected.get(), totalLost.get(),
+                totalLate.get(), totalRecorded.get() / (double) PromptCache.SAMPLE_RATE);
+    }
+}
@@ -0,0 +1,231 @@
+package com.cisco.jtapi.media;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Pure-Java RTP/PCMU sender: plays PromptCache prompts to any number of
+// remote endpoints from one NIO DatagramChannel and one pacing thread.
+
+// Streams are kept on a timer wheel of 30 one-millisecond slots, i.e. one
+// packet period.  A stream joins the slot for the millisecond it was started
+// in and stays there, so every tick the pacing thread sends exactly the
+// packets that are due, and each stream gets a packet every 30 ms.  Ticks
+// are scheduled against absolute time, so a late tick is caught up rather
+// than drifting; with no streams the thread sleeps until one is started.
+// The wheel belongs to the pacing thread; other threads only queue new
+// streams and flag stopped ones.
+
+// Each stream has its own random SSRC, initial sequence number and initial
+// timestamp (RFC 3550); the sequence number advances by one and the
+// timestamp by 240 samples per packet, and the first packet carries the
+// marker bit.
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.cisco.jtapi.common.Log;
+
+public class RtpSender implements Runnable {
+
+    public static final int PAYLOAD_TYPE_PCMU = 0;
+    private static final int HEADER_BYTES = 12;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // Ticks later than this count as late in the statistics
+    private static final long LATE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final int SLOTS = PromptCache.FRAME_MILLIS;
+
+    // One prompt being played to one endpoint
+    public static final class Stream {
+        private final PromptCache.Prompt prompt;
+        private final ByteBuffer frames;
+        private final InetSocketAddress target;
+        private final Runnable onComplete;
+        private final int ssrc;
+        private int sequence;
+        private int timestamp;
+        private int nextFrame;
+        private volatile boolean stopped;
+
+        Stream(PromptCache.Prompt prompt, InetSocketAddress target, Runnable onComplete) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            this.prompt = prompt;
+            this.frames = prompt.frames();
+            this.target = target;
+            this.onComplete = onComplete;
+            this.ssrc = random.nextInt();
+            this.sequence = random.nextInt(0x10000);
+            this.timestamp = random.nextInt();
+        }
+
+        public int getSsrc() {
+            return ssrc;
+        }
+
+        public InetSocketAddress getTarget() {
+            return target;
+        }
+
+        // Stop sending; onComplete is not called
+        public void stop() {
+            stopped = true;
+        }
+    }
+
+    private final DatagramChannel channel;
+    private final Queue<Stream> added = new ConcurrentLinkedQueue<Stream>();
+    @SuppressWarnings("unchecked")
+    private final List<Stream>[] wheel = (List<Stream>[]) new List<?>[SLOTS];
+    private final ByteBuffer packet = ByteBuffer.allocateDirect(HEADER_BYTES + PromptCache.FRAME_BYTES);
+    private final Thread pacer;
+    private final long epoch = System.nanoTime();
+    private long tick;
+
+    // Statistics
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong streams = new AtomicLong();
+    private final AtomicLong packets = new AtomicLong();
+    private final AtomicLong sendErrors = new AtomicLong();
+    private final AtomicLong lateTicks = new AtomicLong();
+    private volatile long maxLateNanos;
+
+    public RtpSender() throws IOException {
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(0));
+        for (int i = 0; i < SLOTS; i++) {
+            wheel[i] = new ArrayList<Stream>();
+        }
+        pacer = new Thread(this, "RtpSender");
+        pacer.setDaemon(true);
+        pacer.setPriority(Thread.MAX_PRIORITY);
+        pacer.start();
+    }
+
+    // Start playing a prompt to address:port; onComplete runs on the pacing
+    // thread once the last packet is sent, so it should only hand off work
+    public Stream start(PromptCache.Prompt prompt, InetAddress address, int port, Runnable onComplete) {
+        Stream stream = new Stream(prompt, new InetSocketAddress(address, port), onComplete);
+        streams.incrementAndGet();
+        active.incrementAndGet();
+        added.add(stream);
+        LockSupport.unpark(pacer);
+        return stream;
+    }
+
+    public void run() {
+        long next = epoch;
+        while (true) {
+            if (active.get() == 0 && added.isEmpty()) {
+                // Idle: sleep until start() wakes us, then pick up the wheel at
+                // the current time
+                LockSupport.park(this);
+                tick = (System.nanoTime() - epoch) / TICK_NANOS;
+                next = epoch + tick * TICK_NANOS;
+                continue;
+            }
+            long now = System.nanoTime();
+            if (now < next) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+            long late = now - next;
+            if (late >= LATE_NANOS) {
+                lateTicks.incrementAndGet();
+                if (late > maxLateNanos) {
+                    maxLateNanos = late;
+                }
+            }
+            Stream stream;
+            while ((stream = added.poll()) != null) {
+                wheel[(int) (tick % SLOTS)].add(stream);
+            }
+            sendSlot(wheel[(int) (tick % SLOTS)]);
+            tick++;
+            next = epoch + tick * TICK_NANOS;
+        }
+    }
+
+    private void sendSlot(List<Stream> slot) {
+        for (int i = slot.size() - 1; i >= 0; i--) {
+            Stream stream = slot.get(i);
+            boolean done = stream.stopped || !send(stream);
+            if (done) {
+                // Order within a slot doesn't matter: swap-remove
+                slot.set(i, slot.get(slot.size() - 1));
+                slot.remove(slot.size() - 1);
+                active.decrementAndGet();
+                if (!stream.stopped && stream.onComplete != null) {
+                    try {
+                        stream.onComplete.run();
+                    } catch (RuntimeException e) {
+                        Log.warn("RtpSender: completion callback threw " + e);
+                    }
+                }
+            }
+        }
+    }
+
+    // Send the stream's next packet; false once the prompt is finished
+    private boolean send(Stream stream) {
+        if (stream.nextFrame >= stream.prompt.getFrameCount()) {
+            return false;
+        }
+        packet.clear();
+        packet.put((byte) 0x80); // V=2, no padding/extension/CSRCs
+        packet.put((byte) ((stream.nextFrame == 0 ? 0x80 : 0) | PAYLOAD_TYPE_PCMU));
+        packet.putShort((short) stream.sequence);
+        packet.putInt(stream.timestamp);
+        packet.putInt(stream.ssrc);
+        int start = stream.nextFrame * PromptCache.FRAME_BYTES;
+        stream.frames.limit(start + PromptCache.FRAME_BYTES).position(start);
+        packet.put(stream.frames);
+        packet.flip();
+        try {
+            channel.send(packet, stream.target);
+            packets.incrementAndGet();
+        } catch (IOException e) {
+            // A dropped packet is just lost audio; keep the stream's timing
+            sendErrors.incrementAndGet();
+        }
+        stream.sequence = (stream.sequence + 1) & 0xFFFF;
+        stream.timestamp += PromptCache.FRAME_BYTES;
+        stream.nextFrame++;
+        return true;
+    }
+
+    public int activeStreams() {
+        return active.get();
+    }
+
+    public String getStats() {
+        return String.format("RTP sender: %d active streams (%d total), %d packets sent, %d send errors, "
+                + "%d ticks >5 ms late (max %.1f ms)",
+                active.get(), streams.get(), packets.get(), sendErrors.get(), lateTicks.get(),
+                maxLateNanos / 1e6);
+    }
+}
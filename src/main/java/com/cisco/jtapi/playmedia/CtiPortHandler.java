@@ -20,27 +20,24 @@ package com.cisco.jtapi.playmedia;
 import javax.telephony.*;
 import javax.telephony.events.*;
 import javax.telephony.callcontrol.*;
+import javax.telephony.callcontrol.events.CallCtlConnDisconnectedEv;
 import javax.telephony.callcontrol.events.CallCtlTermConnRingingEv;
-import javax.telephony.callcontrol.events.CallCtlTermConnTalkingEv;
 
 import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.common.CtiPortPool;
+import com.cisco.jtapi.common.Log;
 
 import com.cisco.cti.util.Condition;
 
+// Observes every CTI Port in playMedia.ctipPool; in-service tracking for the
+// ports is done by the pool itself
 public class CtiPortHandler implements TerminalObserver, ProviderObserver, AddressObserver, CallControlCallObserver {
 
-    public Condition ctipAddressInService = new Condition();
-    public Condition ctipTerminalInService = new Condition();
-    public Condition ctipCallRinging = new Condition();
-    public Condition ctipCallTalking = new Condition();
-    public Condition ctipTransferCompleted = new Condition();
     public Condition providerInService = new Condition();
-    public Condition ctipRTPOutputStarted = new Condition();
-
 
     public void providerChangedEvent(ProvEv[] events) {
         for (ProvEv ev : events) {
-            System.out.println("    Received--> Provider/" + ev);
+            Log.event("Provider", ev);
             switch (ev.getID()) {
                 case ProvInServiceEv.ID:
                     providerInService.set();
@@ -48,47 +45,52 @@ public class CtiPortHandler implements TerminalObserver, ProviderObserver, Addre
             }
         }
     }
+
     public void terminalChangedEvent(TermEv[] events) {
         for (TermEv ev : events) {
-            System.out.println("    Received--> Terminal/"+ev);
+            Log.event("Terminal", ev);
             switch (ev.getID()) {
-                case CiscoTermInServiceEv.ID:
-                    ctipTerminalInService.set();
-                    break;
                 case CiscoRTPOutputStartedEv.ID:
-                    playMedia.ctipRTPOutputStartedEvent = (CiscoRTPOutputStartedEv) ev;
-                    ctipRTPOutputStarted.set();
-                    break;            }
+                    CiscoRTPOutputStartedEv rtpEv = (CiscoRTPOutputStartedEv) ev;
+                    playMedia.startPlayback(rtpEv.getCallID().getCall(), rtpEv.getRTPOutputProperties());
+                    break;
+                case CiscoRTPInputStartedEv.ID:
+                    CiscoRTPInputStartedEv inputEv = (CiscoRTPInputStartedEv) ev;
+                    playMedia.startRecording(inputEv.getCallID().getCall(), inputEv.getRTPInputProperties());
+                    break;
+                case CiscoRTPInputStoppedEv.ID:
+                    playMedia.stopRecording(((CiscoRTPInputStoppedEv) ev).getCallID().getCall());
+                    break;
+            }
         }
     }
 
     public void addressChangedEvent(AddrEv[] events) {
         for (AddrEv ev : events) {
-            System.out.println("    Received--> Address/"+ev);
-            switch (ev.getID()) {
-                case CiscoAddrInServiceEv.ID:
-                    ctipAddressInService.set();
-                    break;
-            }
+            Log.event("Address", ev);
         }
     }
 
     public void callChangedEvent(CallEv[] events) {
         for (CallEv ev : events) {
-            System.out.println("    Received--> Call/"+ev);
+            Log.event("Call", ev);
             switch (ev.getID()) {
                 case CallCtlTermConnRingingEv.ID:
-                    playMedia.ctipDialinCallEvent = (CallCtlTermConnRingingEv) ev;
-                    ctipCallRinging.set();
-                    break;
-                case CallCtlTermConnTalkingEv.ID:
-                    ctipCallTalking.set();
+                    CallCtlTermConnRingingEv ringingEv = (CallCtlTermConnRingingEv) ev;
+                    CtiPortPool.Port port = playMedia.ctipPool
+                            .find(ringingEv.getTerminalConnection().getConnection().getAddress());
+                    if (port != null) {
+                        playMedia.answer(ev.getCall(), port,
+                                (CallControlTerminalConnection) ringingEv.getTerminalConnection(),
+                                ringingEv.getCallingAddress().getName());
+                    }
                     break;
-                case CiscoTransferEndEv.ID:
-                    ctipTransferCompleted.set();
+                case CallCtlConnDisconnectedEv.ID:
+                case CallInvalidEv.ID:
+                    playMedia.callEnded(ev.getCall());
                     break;
             }
         }
     }
 
-}
\ No newline at end of file
+}
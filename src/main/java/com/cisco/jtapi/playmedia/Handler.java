@@ -21,6 +21,7 @@ import javax.telephony.*;
 import javax.telephony.events.*;
 import javax.telephony.callcontrol.*;
 import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.common.Log;
 import com.cisco.cti.util.Condition;
 
 public class Handler implements
@@ -34,7 +35,7 @@ public class Handler implements
 
     public void providerChangedEvent(ProvEv[] events) {
         for (ProvEv ev : events) {
-            System.out.println("    Received--> Provider/" + ev);
+            Log.event("Provider", ev);
             switch (ev.getID()) {
                 case ProvInServiceEv.ID:
                     providerInService.set();
@@ -45,7 +46,7 @@ public class Handler implements
 
     public void terminalChangedEvent(TermEv[] events) {
         for (TermEv ev : events) {
-            System.out.println("    Received--> Terminal/"+ev);
+            Log.event("Terminal", ev);
             switch (ev.getID()) {
                 case CiscoTermInServiceEv.ID:
                     fromTerminalInService.set();
@@ -56,7 +57,7 @@ public class Handler implements
 
     public void addressChangedEvent(AddrEv[] events) {
         for (AddrEv ev : events) {
-            System.out.println("    Received--> Address/"+ev);
+            Log.event("Address", ev);
             switch (ev.getID()) {
                 case CiscoAddrInServiceEv.ID:
                     fromAddressInService.set();
@@ -67,7 +68,7 @@ public class Handler implements
 
     public void callChangedEvent(CallEv[] events) {
         for (CallEv ev : events) {
-            System.out.println("    Received--> Call/"+ev);
+            Log.event("Call", ev);
             switch (ev.getID()) {
                 case CallActiveEv.ID:
                     callActive.set();
@@ -1,184 +1,332 @@
-package com.cisco.jtapi.playmedia;
-
-// Copyright (c) 2020 Cisco and/or its affiliates.
-// Permission is hereby granted, free of charge, to any person obtaining a copy
-// of this software and associated documentation files (the "Software"), to deal
-// in the Software without restriction, including without limitation the rights
-// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
-// copies of the Software, and to permit persons to whom the Software is
-// furnished to do so, subject to the following conditions:
-// The above copyright notice and this permission notice shall be included in all
-// copies or substantial portions of the Software.
-// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
-// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
-// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
-// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
-// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
-// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
-// SOFTWARE.
-
-// Answer an inbound call on a CTI Port, then play an audio file using the GStreamer framework
-
-// Devices used / requirements (configure these in .env):
-//   * CTI_PORT_DN / CTI Port associated with JTAPI user
-//   * Any other phone to make the call to the CTI Port
-
-// Scenario:
-// 1. A call is placed to the CTI Port
-// 2. The CTI Port answers the call
-// 3. The GStreamer framework is used to stream an audio file to the dynamic IP/port of the caller
-// 3. CTI_PORT_DN drops the call
-
-// Be sure to rename .env.example to .env and configure your CUCM/user/DN
-//   details for the scenario.
-
-// Tested using:
-
-// Ubuntu Linux 22.04
-// Oracle JDK 1.8
-// OpenJDK 11.0.8
-// CUCM 11.5 / 14
-
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketException;
-import java.net.UnknownHostException;
-
-import java.time.format.DateTimeFormatter;
-import java.time.LocalDateTime;
-
-import javax.telephony.*;
-import javax.telephony.callcontrol.*;
-import javax.telephony.callcontrol.CallControlTerminalConnection;
-import javax.telephony.callcontrol.events.CallCtlTermConnRingingEv;
-
-import com.cisco.jtapi.extensions.*;
-
-import org.freedesktop.gstreamer.Gst;
-import org.freedesktop.gstreamer.GstObject;
-import org.freedesktop.gstreamer.Pipeline;
-import org.freedesktop.gstreamer.Bus;
-
-import io.github.cdimascio.dotenv.Dotenv;
-
-public class playMedia {
-
-    public static CallCtlTermConnRingingEv ctipDialinCallEvent;
-    public static CiscoRTPOutputStartedEv ctipRTPOutputStartedEvent;
-    private static Pipeline pipeline;
-    private static Bus bus;
-
-    private static DateTimeFormatter dtf = DateTimeFormatter.ofPattern("HH:mm:ss.SS");
-
-    private static void log(String msg) {
-        System.out.println(dtf.format(LocalDateTime.now()) + " " + msg);
-    }
-
-    public static void main(String[] args) throws
-
-    JtapiPeerUnavailableException, ResourceUnavailableException, MethodNotSupportedException, InvalidArgumentException,
-            PrivilegeViolationException, InvalidPartyException, InvalidStateException, InterruptedException,
-            UnknownHostException, SocketException, CiscoRegistrationException {
-
-        // Retrieve environment variables from .env, if present
-        Dotenv dotenv = Dotenv.load();
-
-        // Determine this PC's address and get an ephemeral port number
-        // for registering RTP media for the CTI Port
-        InetAddress ctipRtpAddress = InetAddress.getLocalHost();
-        DatagramSocket sock1 = new DatagramSocket();
-        int ctipRtpPort = sock1.getLocalPort();
-        sock1.close();
-
-        // Initialize the gstreamer-java framework Gst object
-        Utils.configurePaths();
-        Gst.init();
-
-        // The Handler class provides observers for provider/address/terminal/call
-        // events
-        CtiPortHandler handler = new CtiPortHandler();
-
-        // Create the JtapiPeer object, representing the JTAPI library
-        log("Initializing Jtapi");
-        CiscoJtapiPeer peer = (CiscoJtapiPeer) JtapiPeerFactory.getJtapiPeer(null);
-
-        // Create and open the Provider, representing a JTAPI connection to CUCM CTI
-        // Manager
-        String providerString = String.format(
-                "%s;login=%s;passwd=%s",
-                dotenv.get("CUCM_ADDRESS"),
-                dotenv.get("JTAPI_USERNAME"),
-                dotenv.get("JTAPI_PASSWORD"));
-        log("Connecting Provider: " + providerString);
-        CiscoProvider provider = (CiscoProvider) peer.getProvider(providerString);
-        log("Awaiting ProvInServiceEv...");
-        provider.addObserver(handler);
-        handler.providerInService.waitTrue();
-
-        // Open the CTI_PORT_DN Address and wait for it to go in service
-        log("Opening fromAddress DN: " + dotenv.get("CTI_PORT_DN"));
-        CiscoAddress ctipAddress = (CiscoAddress) provider.getAddress(dotenv.get("CTI_PORT_DN"));
-        ctipAddress.addObserver(handler);
-
-        // Add and register the CTI Port media terminal
-        CiscoMediaTerminal ctipTerminal = (CiscoMediaTerminal) ctipAddress.getTerminals()[0];
-        ctipTerminal.addObserver(handler);
-        ctipTerminal.register(ctipRtpAddress, ctipRtpPort,
-                new CiscoMediaCapability[] { CiscoMediaCapability.G711_64K_30_MILLISECONDS });
-        log("Awaiting CiscoTermInServiceEv for: " + ctipTerminal.getName() + "...");
-        handler.ctipTerminalInService.waitTrue();
-        log("Awaiting CiscoAddrInServiceEv for: " + ctipAddress.getName() + "...");
-        handler.ctipAddressInService.waitTrue();
-        // Enable auto accept for incoming offering calls
-        ctipAddress.setAutoAcceptStatus(CiscoAddress.AUTOACCEPT_ON, ctipTerminal);
-        // Add a call observer to receive call events
-        ctipAddress.addCallObserver(handler);
-
-        // Wait for an inbound call on the CTI Port
-        log("Ready for dialin call at CTI Port DN: " + ctipAddress.getName());
-        log("Awaiting dialin CallCtlTermConnRingingEv for: " + ctipTerminal.getName() + "...");
-        handler.ctipCallRinging.waitTrue();
-
-        // Via the newly populated ctipDialinCallEvent (see handler), drill/cast down to
-        // a CallControlTerminalConnection so we can do some operations
-        CallControlTerminalConnection ctipIncomingCctConnection = (CallControlTerminalConnection) ctipDialinCallEvent
-                .getTerminalConnection();
-
-        // Answer the dialin call on the CTI Port
-        log("Answering dialin call from DN: " + ctipDialinCallEvent.getCallingAddress().getName());
-        ctipIncomingCctConnection.answer();
-        // Wait for the RTP output started event to indicate we can begin streaming
-        // audio
-        log("Awaiting CiscoRTPOutputStartedEv for: " + ctipIncomingCctConnection.getTerminal().getName());
-        handler.ctipRTPOutputStarted.waitTrue();
-
-        // Extract the caller's IP/port for sending RTP audio media
-        String destHost = ctipRTPOutputStartedEvent.getRTPOutputProperties().getRemoteAddress().getHostAddress();
-        Integer destPort = ctipRTPOutputStartedEvent.getRTPOutputProperties().getRemotePort();
-        // Create the GStreamer pipeline string to send audio from a file to the
-        // caller's phone; 30ms RTP packet size (in nanoseconds!)
-        String pipelineDescription = String.format(
-                "filesrc location=media/g711.wav ! wavparse ! mulawenc ! rtppcmupay max-ptime=30000000 ! udpsink host=%s port=%s",
-                destHost, destPort);
-        // Instantiate the GStreamer pipline from the string
-        pipeline = (Pipeline) Gst.parseLaunch(pipelineDescription);
-
-        // Add a GStreamer message bus event listener, triggered when the file is
-        // finished playing
-        bus = (Bus) pipeline.getBus();
-        bus.connect(new Bus.EOS() {
-            public void endOfStream(GstObject source) {
-                Gst.quit();
-            }
-        });
-        // Start the RTP stream
-        pipeline.play();
-        // Keep this thread alive until Gst.quit() is called in the EOS event handler
-        Gst.main();
-
-        log("Dropping call: " + ctipDialinCallEvent.getCall().toString());
-        ((CallControlCall) ctipDialinCallEvent.getCall()).drop();
-
-        System.exit(0);
-    }
-}
+package com.cisco.jtapi.playmedia;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Answer an inbound call on a CTI Port, then play an audio file using the GStreamer framework
+
+// Devices used / requirements (configure these in .env):
+//   * CTI_PORT_DN / CTI Port associated with JTAPI user (may list several
+//     comma-separated CTI Ports, e.g. members of a hunt group, which are
+//     pooled so calls to each can be played to at the same time)
+//   * Any other phone to make the call to the CTI Port
+
+// Scenario:
+// 1. A call is placed to the CTI Port
+// 2. The CTI Port answers the call
+// 3. The GStreamer framework is used to stream an audio file to the dynamic IP/port of the caller
+//    (the file is transcoded to u-law once at startup by PromptCache; each call's
+//    pipeline only packetizes the shared, pre-encoded frames).  With
+//    MEDIA_ENGINE=JAVA the frames are instead sent by RtpSender, a pure-Java
+//    RTP sender that paces every call's stream from a single thread
+// 4. CTI_PORT_DN drops the call, and the CTI Port is returned to the pool
+
+// Meanwhile the caller's audio, which arrives at the CTI Port's RTP port, is
+// read by RtpReceiver and, if RECORDING_DIR is set, recorded to a WAV file per
+// call from CiscoRTPInputStartedEv until CiscoRTPInputStoppedEv
+
+// Be sure to rename .env.example to .env and configure your CUCM/user/DN
+//   details for the scenario.
+
+// Tested using:
+
+// Ubuntu Linux 22.04
+// Oracle JDK 1.8
+// OpenJDK 11.0.8
+// CUCM 11.5 / 14
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.*;
+import javax.telephony.callcontrol.CallControlTerminalConnection;
+
+import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.common.CallThreads;
+import com.cisco.jtapi.common.EventDispatcher;
+import com.cisco.jtapi.common.EventSubscription;
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.common.Metrics;
+import com.cisco.jtapi.common.MetricsServer;
+import com.cisco.jtapi.common.CtiPortPool;
+import com.cisco.jtapi.common.TraceProfile;
+import com.cisco.jtapi.media.PromptCache;
+import com.cisco.jtapi.media.RtpReceiver;
+import com.cisco.jtapi.media.RtpSender;
+
+import org.freedesktop.gstreamer.Buffer;
+import org.freedesktop.gstreamer.Caps;
+import org.freedesktop.gstreamer.Gst;
+import org.freedesktop.gstreamer.GstObject;
+import org.freedesktop.gstreamer.Pipeline;
+import org.freedesktop.gstreamer.Bus;
+import org.freedesktop.gstreamer.elements.AppSrc;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class playMedia {
+
+    // A call answered on one of the pooled CTI Ports
+    private static class MediaCall {
+        final CtiPortPool.Port port;
+        final long answered = System.nanoTime();
+        Pipeline pipeline;
+        RtpSender.Stream stream;
+
+        MediaCall(CtiPortPool.Port port) {
+            this.port = port;
+        }
+    }
+
+    public static CtiPortPool ctipPool = new CtiPortPool();
+    // The audio file, pre-encoded and shared by all calls
+    static PromptCache.Prompt prompt;
+    // Set when MEDIA_ENGINE=JAVA; otherwise each call gets a GStreamer pipeline
+    static RtpSender rtpSender;
+    // Reads the CTI Ports' inbound RTP
+    static RtpReceiver rtpReceiver;
+    private static Map<Call, MediaCall> calls = new ConcurrentHashMap<Call, MediaCall>();
+
+    // JTAPI requests are issued from here, never from the observer threads
+    // (CALL_THREADS=virtual: each on its own virtual thread)
+    private static ExecutorService callControl;
+
+    private static void log(String msg) {
+        Log.info(msg);
+    }
+
+    // A call is ringing on a pooled CTI Port: lease the port and answer
+    static void answer(Call call, CtiPortPool.Port port, CallControlTerminalConnection termConn, String callingDN) {
+        if (!ctipPool.acquire(port)) {
+            log("CTI Port " + port.getName() + " is already busy, ignoring call: " + call);
+            return;
+        }
+        calls.put(call, new MediaCall(port));
+        log("Answering dialin call from DN: " + callingDN + " on CTI Port: " + port.getName());
+        callControl.execute(() -> {
+            try {
+                termConn.answer();
+            } catch (Exception e) {
+                log("Answer failed: " + e);
+                callEnded(call);
+            }
+        });
+    }
+
+    // RTP output has started for an answered call: stream the audio file to
+    // the caller's IP/port
+    static void startPlayback(Call call, CiscoRTPOutputProperties rtp) {
+        MediaCall mediaCall = calls.get(call);
+        if (mediaCall == null) {
+            return;
+        }
+        // Answer to CiscoRTPOutputStartedEv
+        Metrics.recordSince("playMedia.mediaStart", mediaCall.answered);
+        log("Playing media to: " + rtp.getRemoteAddress().getHostAddress() + ":" + rtp.getRemotePort());
+        if (rtpSender != null) {
+            RtpSender.Stream stream = rtpSender.start(prompt, rtp.getRemoteAddress(), rtp.getRemotePort(),
+                    () -> callControl.execute(() -> playbackDone(call)));
+            synchronized (mediaCall) {
+                mediaCall.stream = stream;
+            }
+            return;
+        }
+        // Create the GStreamer pipeline string to send the cached u-law frames to
+        // the caller's phone; 30ms RTP packet size (in nanoseconds!)
+        String pipelineDescription = String.format(
+                "appsrc name=prompt is-live=true format=time ! rtppcmupay min-ptime=30000000 max-ptime=30000000 ! udpsink host=%s port=%s",
+                rtp.getRemoteAddress().getHostAddress(), rtp.getRemotePort());
+        // Instantiate the GStreamer pipline from the string
+        Pipeline pipeline = (Pipeline) Gst.parseLaunch(pipelineDescription);
+        // Feed the prompt's frames into the pipeline as it asks for them; each is
+        // timestamped so udpsink paces them out in real time
+        AppSrc source = (AppSrc) pipeline.getElementByName("prompt");
+        source.setCaps(Caps.fromString("audio/x-mulaw,rate=" + PromptCache.SAMPLE_RATE + ",channels=1"));
+        int[] next = { 0 };
+        source.connect((AppSrc.NEED_DATA) (elem, size) -> {
+            if (next[0] >= prompt.getFrameCount()) {
+                elem.endOfStream();
+                return;
+            }
+            Buffer buffer = new Buffer(PromptCache.FRAME_BYTES);
+            buffer.map(true).put(prompt.frame(next[0]));
+            buffer.unmap();
+            buffer.setPresentationTimestamp(next[0] * PromptCache.FRAME_MILLIS * 1_000_000L);
+            buffer.setDuration(PromptCache.FRAME_MILLIS * 1_000_000L);
+            next[0]++;
+            elem.pushBuffer(buffer);
+        });
+        synchronized (mediaCall) {
+            mediaCall.pipeline = pipeline;
+        }
+        // Add a GStreamer message bus event listener, triggered when the file is
+        // finished playing
+        Bus bus = pipeline.getBus();
+        bus.connect(new Bus.EOS() {
+            public void endOfStream(GstObject source) {
+                callControl.execute(() -> playbackDone(call));
+            }
+        });
+        // Start the RTP stream
+        pipeline.play();
+    }
+
+    // RTP input has started for an answered call: record the caller's audio
+    static void startRecording(Call call, CiscoRTPInputProperties rtp) {
+        MediaCall mediaCall = calls.get(call);
+        if (mediaCall == null || rtpReceiver == null || mediaCall.port.endpoint == null) {
+            return;
+        }
+        RtpReceiver.Stream stream = rtpReceiver.record(mediaCall.port.endpoint, mediaCall.port.getName());
+        if (stream != null) {
+            log("Recording media from: " + rtp.getLocalAddress().getHostAddress() + ":" + rtp.getLocalPort()
+                    + " to: " + stream.getRecording());
+        }
+    }
+
+    static void stopRecording(Call call) {
+        MediaCall mediaCall = calls.get(call);
+        if (mediaCall != null && rtpReceiver != null && mediaCall.port.endpoint != null) {
+            rtpReceiver.stop(mediaCall.port.endpoint);
+        }
+    }
+
+    // The whole file has been played: hang up
+    private static void playbackDone(Call call) {
+        try {
+            log("Dropping call: " + call.toString());
+            ((CallControlCall) call).drop();
+        } catch (Exception e) {
+            log("Drop failed: " + e);
+        }
+        callEnded(call);
+    }
+
+    // The call is over: stop any playback and return the CTI Port to the pool
+    static void callEnded(Call call) {
+        MediaCall mediaCall = calls.remove(call);
+        if (mediaCall == null) {
+            return;
+        }
+        synchronized (mediaCall) {
+            if (mediaCall.pipeline != null) {
+                mediaCall.pipeline.stop();
+                mediaCall.pipeline.dispose();
+            }
+            if (mediaCall.stream != null) {
+                mediaCall.stream.stop();
+            }
+        }
+        if (rtpReceiver != null && mediaCall.port.endpoint != null) {
+            rtpReceiver.stop(mediaCall.port.endpoint);
+        }
+        ctipPool.release(mediaCall.port);
+        log("Call ended: " + call + "; " + ctipPool.getStats()
+                + (rtpSender != null ? "; " + rtpSender.getStats() : "")
+                + (rtpReceiver != null ? "; " + rtpReceiver.getStats() : ""));
+    }
+
+    public static void main(String[] args) throws
+
+    JtapiPeerUnavailableException, ResourceUnavailableException, MethodNotSupportedException, InvalidArgumentException,
+            PrivilegeViolationException, InvalidPartyException, InvalidStateException, InterruptedException,
+            UnknownHostException, SocketException, CiscoRegistrationException, IOException {
+
+        // Retrieve environment variables from .env, if present
+        Dotenv dotenv = Dotenv.load();
+
+        callControl = CallThreads.create(dotenv).newExecutor("callControl", 4);
+
+        // Step latencies on METRICS_PORT, if set
+        MetricsServer.start(dotenv);
+
+        // MEDIA_ENGINE selects how audio is sent: GSTREAMER (a pipeline per call)
+        // or JAVA (RtpSender)
+        boolean gstreamer = !dotenv.get("MEDIA_ENGINE", "GSTREAMER").equalsIgnoreCase("JAVA");
+        if (gstreamer) {
+            // Initialize the gstreamer-java framework Gst object
+            Utils.configurePaths();
+            Gst.init();
+        } else {
+            rtpSender = new RtpSender();
+        }
+
+        // Transcode the audio file to 30ms u-law frames once, up front
+        prompt = PromptCache.create(dotenv).get("media/g711.wav");
+        log("Prompt " + prompt.getName() + ": " + prompt.getFrameCount() + " frames ("
+                + prompt.getDurationMillis() + " ms), cached");
+
+        // The Handler class provides observers for provider/address/terminal/call
+        // events
+        CtiPortHandler handler = new CtiPortHandler();
+
+        // Handler callbacks run on the dispatcher's worker threads, so the JTAPI
+        // event thread only has to queue each event batch
+        EventDispatcher dispatcher = EventDispatcher.create(dotenv);
+        // Only the events listed for playMedia in event_subscriptions.properties
+        // are delivered
+        EventSubscription subscription = EventSubscription.load(dotenv, "playMedia");
+        EventDispatcher.Observer observer = dispatcher.wrap(handler, subscription);
+
+        // Create the JtapiPeer object, representing the JTAPI library (JTAPI_PEER may
+        // name an alternative, such as the simulator; unset means Cisco JTAPI)
+        log("Initializing Jtapi");
+        CiscoJtapiPeer peer = (CiscoJtapiPeer) JtapiPeerFactory.getJtapiPeer(dotenv.get("JTAPI_PEER"));
+        // JTAPI_TRACE_PROFILE (perf/standard/forensic) overrides jtapi.ini's tracing
+        TraceProfile.configure(peer, dotenv);
+
+        // Create and open the Provider, representing a JTAPI connection to CUCM CTI
+        // Manager
+        String providerString = String.format(
+                "%s;login=%s;passwd=%s",
+                dotenv.get("CUCM_ADDRESS"),
+                dotenv.get("JTAPI_USERNAME"),
+                dotenv.get("JTAPI_PASSWORD"));
+        log("Connecting Provider: " + providerString);
+        CiscoProvider provider = (CiscoProvider) peer.getProvider(providerString);
+        log("Awaiting ProvInServiceEv...");
+        provider.addObserver(observer);
+        handler.providerInService.waitTrue();
+
+        // Open and register the pool of CTI Ports; each has its own RTP port,
+        // read by the receiver (JITTER_BUFFER_MS, RECORDING_DIR)
+        rtpReceiver = RtpReceiver.create(dotenv);
+        ctipPool.setReceiver(rtpReceiver);
+        log("Opening/registering CTI Port DN(s): " + dotenv.get("CTI_PORT_DN"));
+        log("Awaiting CiscoTermInServiceEv/CiscoAddrInServiceEv for all CTI Ports...");
+        ctipPool.open(provider, CtiPortPool.parseDNs(dotenv.get("CTI_PORT_DN")), observer);
+        log(ctipPool.getStats());
+
+        // Wait for inbound calls on the CTI Ports; the handler answers each one
+        // and starts its playback
+        log("Ready for dialin calls at CTI Port DN(s): " + dotenv.get("CTI_PORT_DN"));
+        if (gstreamer) {
+            // Keep this thread running the GStreamer main loop
+            Gst.main();
+        } else {
+            // RtpSender runs on its own thread; just keep the sample alive
+            new CountDownLatch(1).await();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.cisco.jtapi.sendData;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Broadcast mode for sendData: pushes one IP Phone Services XML object (e.g.
+// an emergency notification) to every phone in a device list.
+
+// Each device is opened (getTerminal(), or createTerminal() for devices
+// outside the user's control list, which needs the 'Superprovider' feature),
+// observed until CiscoTermInServiceEv, then sent the object.  Devices are
+// spread across the providers of the shared ProviderPool and worked on in
+// parallel, at most BROADCAST_CONCURRENCY at a time, and each CTI Manager gets
+// at most BROADCAST_RATE sendData requests a second.  A failed request - an
+// exception, or a CiscoIPPhoneError response - is retried after
+// BROADCAST_RETRY_MS, doubling each time, up to BROADCAST_RETRIES times.
+
+// Each device name is sent to once, however often it is listed.  A terminal is
+// only observed until its send is done; it is not tracked by the pool's
+// Members, which would observe it for as long as the provider is open.
+
+// Completion times (broadcast start to each phone's successful sendData) go
+// to the broadcast.complete Metrics step, so the fleet-wide p50/p99/max are in
+// the summary and on METRICS_PORT.
+
+// Configuration (.env):
+//   BROADCAST_DEVICE_LIST_FILE  one device name per line; blank lines and lines
+//                               starting with # are ignored
+//   BROADCAST_XML               the object to send (default a CiscoIPPhoneText)
+//   BROADCAST_CONCURRENCY       devices in progress at once (default 32)
+//   BROADCAST_RATE              sendData requests per second per CTI Manager
+//                               (default 50)
+//   BROADCAST_RETRIES           retries per device (default 3)
+//   BROADCAST_RETRY_MS          first retry delay (default 500)
+//   BROADCAST_TIMEOUT_MS        in-service wait per device (default 30000)
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.telephony.*;
+import javax.telephony.events.*;
+
+import com.cisco.jtapi.common.CallThreads;
+import com.cisco.jtapi.common.EventSubscription;
+import com.cisco.jtapi.common.LatencyHistogram;
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.common.Metrics;
+import com.cisco.jtapi.common.ProviderPool;
+import com.cisco.jtapi.common.TokenBucket;
+import com.cisco.jtapi.extensions.*;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class Broadcaster implements TerminalObserver {
+
+    public static final String DEFAULT_XML = "<CiscoIPPhoneText><Title>Emergency</Title>"
+            + "<Text>This is a test of the emergency notification system</Text></CiscoIPPhoneText>";
+
+    private final ProviderPool pool;
+    private final EventSubscription subscription;
+    private final String xml;
+    private final int retries;
+    private final long retryMillis;
+    private final long timeoutMillis;
+    private final double rate;
+    private final Semaphore inProgress;
+    private final ExecutorService workers;
+    // One rate limit per CTI Manager
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+    // Devices waiting for CiscoTermInServiceEv
+    private final Map<String, CompletableFuture<Void>> inService = new ConcurrentHashMap<String, CompletableFuture<Void>>();
+    private final LatencyHistogram completion = Metrics.histogram("broadcast.complete");
+
+    private final AtomicInteger delivered = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger retried = new AtomicInteger();
+    private long started;
+
+    public Broadcaster(ProviderPool pool, EventSubscription subscription, Dotenv dotenv) {
+        this.pool = pool;
+        this.subscription = subscription;
+        String xml = dotenv.get("BROADCAST_XML", "");
+        this.xml = xml.isEmpty() ? DEFAULT_XML : xml;
+        this.retries = Math.max(0, Integer.parseInt(dotenv.get("BROADCAST_RETRIES", "3")));
+        this.retryMillis = Long.parseLong(dotenv.get("BROADCAST_RETRY_MS", "500"));
+        this.timeoutMillis = Long.parseLong(dotenv.get("BROADCAST_TIMEOUT_MS", "30000"));
+        this.rate = Double.parseDouble(dotenv.get("BROADCAST_RATE", "50"));
+        int concurrency = Math.max(1, Integer.parseInt(dotenv.get("BROADCAST_CONCURRENCY", "32")));
+        this.inProgress = new Semaphore(concurrency);
+        this.workers = CallThreads.create(dotenv).newExecutor("broadcast", concurrency);
+    }
+
+    // Device names from a list file, each once, in file order
+    public static List<String> readDeviceList(String file) throws IOException {
+        Set<String> names = new LinkedHashSet<String>();
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                names.add(line);
+            }
+        }
+        return new ArrayList<String>(names);
+    }
+
+    // Send to every device, returning once each has been sent to or has failed
+    public void broadcast(List<String> deviceList) throws InterruptedException {
+        // In-service waits are keyed by name, so each device is sent to once
+        Set<String> deviceNames = new LinkedHashSet<String>(deviceList);
+        started = System.nanoTime();
+        CountDownLatch done = new CountDownLatch(deviceNames.size());
+        for (String name : deviceNames) {
+            inProgress.acquire();
+            workers.execute(() -> {
+                try {
+                    send(name);
+                } finally {
+                    inProgress.release();
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        workers.shutdown();
+    }
+
+    private void send(String name) {
+        CiscoTerminal terminal;
+        try {
+            terminal = open(name);
+        } catch (Exception e) {
+            fail(name, "unable to open: " + e);
+            return;
+        }
+        try {
+            sendTo(name, terminal);
+        } finally {
+            unobserve(terminal);
+        }
+    }
+
+    private void sendTo(String name, CiscoTerminal terminal) {
+        for (int attempt = 0;; attempt++) {
+            String failure;
+            try {
+                awaitToken(pool.providerFor(name));
+                long sendStart = System.nanoTime();
+                String response = terminal.sendData(xml);
+                Metrics.recordSince("broadcast.sendData", sendStart);
+                if (response == null || !response.contains("CiscoIPPhoneError")) {
+                    completion.recordSince(started);
+                    delivered.incrementAndGet();
+                    return;
+                }
+                failure = response;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(name, "interrupted");
+                return;
+            } catch (Exception e) {
+                failure = e.toString();
+            }
+            if (attempt == retries) {
+                fail(name, failure);
+                return;
+            }
+            retried.incrementAndGet();
+            try {
+                Thread.sleep(retryMillis << attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(name, "interrupted");
+                return;
+            }
+        }
+    }
+
+    // Get the device's terminal and wait until it is in service
+    private CiscoTerminal open(String name) throws InvalidArgumentException, InvalidStateException,
+            PrivilegeViolationException, ResourceUnavailableException, MethodNotSupportedException,
+            InterruptedException, ExecutionException, TimeoutException {
+        CiscoProvider provider = pool.providerFor(name);
+        CiscoTerminal terminal;
+        try {
+            terminal = (CiscoTerminal) provider.getTerminal(name);
+        } catch (InvalidArgumentException e) {
+            // Not in the user's control list
+            terminal = provider.createTerminal(name);
+        }
+        long openStart = System.nanoTime();
+        CompletableFuture<Void> ready = new CompletableFuture<Void>();
+        inService.put(name, ready);
+        try {
+            terminal.addObserver(this);
+            ready.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            unobserve(terminal);
+            throw e;
+        } finally {
+            inService.remove(name);
+        }
+        Metrics.recordSince("broadcast.inService", openStart);
+        subscription.applyTo(terminal);
+        return terminal;
+    }
+
+    private void unobserve(CiscoTerminal terminal) {
+        try {
+            terminal.removeObserver(this);
+        } catch (RuntimeException e) {
+            // Gone with its provider
+        }
+    }
+
+    // Wait for the device's CTI Manager to allow another request
+    private void awaitToken(CiscoProvider provider) throws InterruptedException {
+        String ctiManager = ctiManager(provider);
+        TokenBucket bucket = buckets.computeIfAbsent(ctiManager, m -> new TokenBucket(rate, 1));
+        while (!bucket.tryAcquire()) {
+            TimeUnit.NANOSECONDS.sleep(Math.max(1, bucket.nanosUntilAvailable()));
+        }
+    }
+
+    private String ctiManager(CiscoProvider provider) {
+        for (ProviderPool.Member member : pool.getMembers()) {
+            if (member.provider.equals(provider)) {
+                return member.ctiManager;
+            }
+        }
+        return "";
+    }
+
+    private void fail(String name, String reason) {
+        failed.incrementAndGet();
+        Log.warn("Broadcast to " + name + " failed: " + reason);
+    }
+
+    public void terminalChangedEvent(TermEv[] events) {
+        for (TermEv ev : events) {
+            if (ev.getID() == CiscoTermInServiceEv.ID) {
+                CompletableFuture<Void> ready = inService.get(ev.getTerminal().getName());
+                if (ready != null) {
+                    ready.complete(null);
+                }
+            }
+        }
+    }
+
+    public String getStats() {
+        return String.format("Broadcast: %d delivered, %d failed, %d retries in %.1f s; completion p50 %.0f ms,"
+                + " p90 %.0f ms, p99 %.0f ms, max %.0f ms", delivered.get(), failed.get(), retried.get(),
+                (System.nanoTime() - started) / 1e9, completion.getValueAtQuantile(0.5) / 1e6,
+                completion.getValueAtQuantile(0.9) / 1e6, completion.getValueAtQuantile(0.99) / 1e6,
+                completion.getMax() / 1e6);
+    }
+}
@@ -21,6 +21,7 @@ import javax.telephony.*;
 import javax.telephony.events.*;
 import javax.telephony.callcontrol.*;
 import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.common.Log;
 import com.cisco.cti.util.Condition;
 
 public class Handler implements
@@ -28,13 +29,11 @@ public class Handler implements
         ProviderObserver, TerminalObserver, AddressObserver, CallControlCallObserver {
 
     public Condition providerInService = new Condition();
-    public Condition fromTerminalInService = new Condition();
-    public Condition phoneAddressInService = new Condition();
     public Condition callActive = new Condition();
 
     public void providerChangedEvent(ProvEv[] events) {
         for (ProvEv ev : events) {
-            System.out.println("    Received--> Provider/" + ev);
+            Log.event("Provider", ev);
             switch (ev.getID()) {
                 case ProvInServiceEv.ID:
                     providerInService.set();
@@ -45,29 +44,19 @@ public class Handler implements
 
     public void terminalChangedEvent(TermEv[] events) {
         for (TermEv ev : events) {
-            System.out.println("    Received--> Terminal/"+ev);
-            switch (ev.getID()) {
-                case CiscoTermInServiceEv.ID:
-                    fromTerminalInService.set();
-                    break;
-            }
+            Log.event("Terminal", ev);
         }
     }
 
     public void addressChangedEvent(AddrEv[] events) {
         for (AddrEv ev : events) {
-            System.out.println("    Received--> Address/"+ev);
-            switch (ev.getID()) {
-                case CiscoAddrInServiceEv.ID:
-                    phoneAddressInService.set();
-                    break;
-            }
+            Log.event("Address", ev);
         }
     }
 
     public void callChangedEvent(CallEv[] events) {
         for (CallEv ev : events) {
-            System.out.println("    Received--> Call/"+ev);
+            Log.event("Call", ev);
             switch (ev.getID()) {
                 case CallActiveEv.ID:
                     callActive.set();
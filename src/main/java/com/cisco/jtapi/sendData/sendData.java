@@ -26,6 +26,9 @@ package com.cisco.jtapi.sendData;
 // Scenario:
 // 1. ALICE_DN requests CiscoTerminal.sendData()
 
+// Broadcast mode: with BROADCAST_DEVICE_LIST_FILE set, BROADCAST_XML is sent
+//   to every device in the file instead (see Broadcaster)
+
 // Be sure to rename .env.example to .env and configure your CUCM/user/DN
 //   details for the scenario.
 
@@ -34,26 +37,33 @@ package com.cisco.jtapi.sendData;
 //   OpenJDK 11.0.8
 //   CUCM 11.5
 
-import java.time.format.DateTimeFormatter;
-import java.time.LocalDateTime;
+
+import java.io.IOException;
+import java.util.List;
 
 import javax.telephony.*;
 import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.common.EventDispatcher;
+import com.cisco.jtapi.common.EventSubscription;
+import com.cisco.jtapi.common.LineBootstrap;
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.common.Metrics;
+import com.cisco.jtapi.common.MetricsServer;
+import com.cisco.jtapi.common.ProviderPool;
+import com.cisco.jtapi.common.TraceProfile;
 
 import io.github.cdimascio.dotenv.Dotenv;
 
 public class sendData {
 
-    private static DateTimeFormatter dtf = DateTimeFormatter.ofPattern("HH:mm:ss.SS");
-
     private static void log(String msg) {
-        System.out.println(dtf.format(LocalDateTime.now()) + " " + msg);
+        Log.info(msg);
     }
 
     public static void main(String[] args) throws
 
     JtapiPeerUnavailableException, ResourceUnavailableException, MethodNotSupportedException, InvalidArgumentException,
-            PrivilegeViolationException, InvalidPartyException, InvalidStateException, InterruptedException {
+            PrivilegeViolationException, InvalidPartyException, InvalidStateException, InterruptedException, IOException {
 
         // Retrieve environment variables from .env, if present
         Dotenv dotenv = Dotenv.load();
@@ -62,9 +72,36 @@ public class sendData {
         // events ALICE_DN
         Handler handler = new Handler();
 
-        // Create the JtapiPeer object, representing the JTAPI library
+        // Handler callbacks run on the dispatcher's worker threads, so the JTAPI
+        // event thread only has to queue each event batch
+        EventDispatcher dispatcher = EventDispatcher.create(dotenv);
+        // Only the events listed for sendData in event_subscriptions.properties
+        // are delivered
+        EventSubscription subscription = EventSubscription.load(dotenv, "sendData");
+
+        String deviceListFile = dotenv.get("BROADCAST_DEVICE_LIST_FILE", "");
+        if (!deviceListFile.isEmpty()) {
+            MetricsServer.start(dotenv);
+            // Devices are spread across the pool's providers (PROVIDER_POOL_SIZE)
+            ProviderPool pool = ProviderPool.shared(dotenv);
+            List<String> deviceNames = Broadcaster.readDeviceList(deviceListFile);
+            log("Broadcasting to " + deviceNames.size() + " devices from " + deviceListFile);
+            Broadcaster broadcaster = new Broadcaster(pool, subscription, dotenv);
+            broadcaster.broadcast(deviceNames);
+            log(broadcaster.getStats());
+            log(pool.getStats());
+            log(Metrics.summary());
+            log("Done.");
+            System.exit(0);
+        }
+        EventDispatcher.Observer observer = dispatcher.wrap(handler, subscription);
+
+        // Create the JtapiPeer object, representing the JTAPI library (JTAPI_PEER may
+        // name an alternative, such as the simulator; unset means Cisco JTAPI)
         log("Initializing Jtapi");
-        CiscoJtapiPeer peer = (CiscoJtapiPeer) JtapiPeerFactory.getJtapiPeer(null);
+        CiscoJtapiPeer peer = (CiscoJtapiPeer) JtapiPeerFactory.getJtapiPeer(dotenv.get("JTAPI_PEER"));
+        // JTAPI_TRACE_PROFILE (perf/standard/forensic) overrides jtapi.ini's tracing
+        TraceProfile.configure(peer, dotenv);
 
         // Create and open the Provider, representing a JTAPI connection to CUCM CTI
         // Manager
@@ -72,25 +109,18 @@ public class sendData {
                 dotenv.get("JTAPI_USERNAME"), dotenv.get("JTAPI_PASSWORD"));
         log("Connecting Provider: " + providerString);
         CiscoProvider provider = (CiscoProvider) peer.getProvider(providerString);
-        provider.addObserver(handler);
+        provider.addObserver(observer);
         log("Awaiting ProvInServiceEv...");
         handler.providerInService.waitTrue();
         
-        // Open the ALICE_DN Address and wait for it to go in service
+        // Open the ALICE_DN Address and its first Terminal (could be multiple
+        //   if it's a shared line) together, wait for both to go in service, then
+        //   add a call observer to receive call events
         log("Opening fromAddress DN: " + dotenv.get("ALICE_DN"));
-        CiscoAddress phoneAddress = (CiscoAddress) provider.getAddress(dotenv.get("ALICE_DN"));
-        log("Awaiting CiscoAddrInServiceEv for: " + phoneAddress.getName() + "...");
-        phoneAddress.addObserver(handler);
-        handler.phoneAddressInService.waitTrue();
-        // Add a call observer to receive call events
-        phoneAddress.addCallObserver(handler);
-
-        // Get/open the first Terminal for the Address.  Could be multiple
-        //   if it's a shared line
-        CiscoTerminal phoneTerminal = (CiscoTerminal) phoneAddress.getTerminals()[0];
-        log("Awaiting CiscoTermInServiceEv for: " + phoneTerminal.getName() + "...");
-        phoneTerminal.addObserver(handler);
-        handler.fromTerminalInService.waitTrue();
+        log("Awaiting CiscoAddrInServiceEv/CiscoTermInServiceEv for: " + dotenv.get("ALICE_DN") + "...");
+        LineBootstrap.Line phoneLine = new LineBootstrap(provider, observer).open(dotenv.get("ALICE_DN")).get(0);
+        CiscoAddress phoneAddress = phoneLine.address;
+        CiscoTerminal phoneTerminal = phoneLine.terminal;
 
         // Send an IP Phone Services XML object to the phone's display
         log("Sending <CiscoIPPhoneText> object to: " + phoneTerminal.getName());
@@ -104,6 +134,8 @@ public class sendData {
         log("Sending <CiscoIPPhoneExecute> object to: " + phoneTerminal.getName());
         phoneTerminal.sendData("<CiscoIPPhoneExecute><ExecuteItem URL='Init:Services' /></CiscoIPPhoneExecute>");
 
+        log(subscription.getStats());
+        log(Metrics.summary());
         log("Done.");
         System.exit(0);
     }
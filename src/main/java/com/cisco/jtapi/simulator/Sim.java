@@ -0,0 +1,126 @@
+package com.cisco.jtapi.simulator;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// The JTAPI/Cisco interfaces are far too large to implement in full, so the
+// simulator's objects are dynamic proxies: each proxy forwards a call to the
+// public method of the same name and parameter types on its implementation
+// object (SimProvider, SimCall, SimEvent...).  Anything the simulator does not
+// implement throws MethodNotSupportedException where the interface allows it,
+// or UnsupportedOperationException otherwise.
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.telephony.MethodNotSupportedException;
+
+public class Sim implements InvocationHandler {
+
+    private static final Method NOT_IMPLEMENTED;
+    // Interface method -> implementation method, per implementation class
+    private static final ClassValue<Map<Method, Method>> targets = new ClassValue<Map<Method, Method>>() {
+        protected Map<Method, Method> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<Method, Method>();
+        }
+    };
+
+    static {
+        try {
+            NOT_IMPLEMENTED = Sim.class.getDeclaredMethod("notImplemented");
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Object impl;
+
+    private Sim(Object impl) {
+        this.impl = impl;
+    }
+
+    // Create a proxy implementing the given interfaces, backed by impl
+    @SuppressWarnings("unchecked")
+    public static <T> T proxy(Object impl, Class<T> iface, Class<?>... more) {
+        Class<?>[] interfaces = new Class<?>[more.length + 1];
+        interfaces[0] = iface;
+        System.arraycopy(more, 0, interfaces, 1, more.length);
+        return (T) Proxy.newProxyInstance(Sim.class.getClassLoader(), interfaces, new Sim(impl));
+    }
+
+    // The implementation object behind a simulator proxy, or null
+    public static Object implOf(Object proxy) {
+        if (proxy != null && Proxy.isProxyClass(proxy.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(proxy);
+            if (handler instanceof Sim) {
+                return ((Sim) handler).impl;
+            }
+        }
+        return null;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "equals":
+                if (method.getParameterCount() == 1) {
+                    return proxy == args[0];
+                }
+                break;
+            case "hashCode":
+                if (method.getParameterCount() == 0) {
+                    return System.identityHashCode(proxy);
+                }
+                break;
+            case "toString":
+                if (method.getParameterCount() == 0) {
+                    return impl.toString();
+                }
+                break;
+        }
+        Map<Method, Method> implTargets = targets.get(impl.getClass());
+        Method target = implTargets.get(method);
+        if (target == null) {
+            try {
+                target = impl.getClass().getMethod(method.getName(), method.getParameterTypes());
+            } catch (NoSuchMethodException e) {
+                target = NOT_IMPLEMENTED;
+            }
+            implTargets.put(method, target);
+        }
+        if (target == NOT_IMPLEMENTED) {
+            for (Class<?> exception : method.getExceptionTypes()) {
+                if (exception == MethodNotSupportedException.class) {
+                    throw new MethodNotSupportedException("Not supported by the simulator: " + method.getName());
+                }
+            }
+            throw new UnsupportedOperationException("Not supported by the simulator: " + method);
+        }
+        try {
+            return target.invoke(impl, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static void notImplemented() {
+    }
+}
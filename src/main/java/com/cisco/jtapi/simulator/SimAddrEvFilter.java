@@ -0,0 +1,98 @@
+package com.cisco.jtapi.simulator;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Address event filter; the simulator sends none of the filtered events, so
+// it only keeps the settings
+
+import com.cisco.jtapi.extensions.CiscoAddrEvFilter;
+
+public class SimAddrEvFilter implements CiscoAddrEvFilter, Cloneable {
+
+    private boolean parkStatus;
+    private boolean intercomInfoChanged;
+    private boolean intercomInfoRestorationFailed;
+    private boolean recordingConfigChanged;
+    private boolean pickupGroupChanged;
+    private boolean monitoringTerminated;
+    private boolean voiceMailPilotChanged;
+
+    public SimAddrEvFilter copy() {
+        try {
+            return (SimAddrEvFilter) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public boolean getCiscoAddrParkStatusEvFilter() {
+        return parkStatus;
+    }
+
+    public void setCiscoAddrParkStatusEvFilter(boolean enabled) {
+        parkStatus = enabled;
+    }
+
+    public boolean getCiscoAddrIntercomInfoChangedEvFilter() {
+        return intercomInfoChanged;
+    }
+
+    public void setCiscoAddrIntercomInfoChangedEvFilter(boolean enabled) {
+        intercomInfoChanged = enabled;
+    }
+
+    public boolean getCiscoAddrIntercomInfoRestorationFailedEvFilter() {
+        return intercomInfoRestorationFailed;
+    }
+
+    public void setCiscoAddrIntercomInfoRestorationFailedEvFilter(boolean enabled) {
+        intercomInfoRestorationFailed = enabled;
+    }
+
+    public boolean getCiscoAddrRecordingConfigChangedEvFilter() {
+        return recordingConfigChanged;
+    }
+
+    public void setCiscoAddrRecordingConfigChangedEvFilter(boolean enabled) {
+        recordingConfigChanged = enabled;
+    }
+
+    public boolean getCiscoAddrPickupGroupChangedEvFilter() {
+        return pickupGroupChanged;
+    }
+
+    public void setCiscoAddrPickupGroupChangedEvFilter(boolean enabled) {
+        pickupGroupChanged = enabled;
+    }
+
+    public boolean getCiscoAddrMonitoringTerminatedEvFilter() {
+        return monitoringTerminated;
+    }
+
+    public void setCiscoAddrMonitoringTerminatedEvFilter(boolean enabled) {
+        monitoringTerminated = enabled;
+    }
+
+    public boolean getCiscoAddrVoiceMailPilotChangedEvFilter() {
+        return voiceMailPilotChanged;
+    }
+
+    public void setCiscoAddrVoiceMailPilotChangedEvFilter(boolean enabled) {
+        voiceMailPilotChanged = enabled;
+    }
+}
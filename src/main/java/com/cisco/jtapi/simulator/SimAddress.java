@@ -0,0 +1,137 @@
+package com.cisco.jtapi.simulator;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// A simulated line (DN).  Each address has exactly one terminal.
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.telephony.*;
+import javax.telephony.events.AddrEv;
+
+import com.cisco.jtapi.extensions.*;
+
+public class SimAddress extends SimObject {
+
+    final SimProvider provider;
+    final String name;
+    final SimTerminal terminal;
+    final CiscoAddress proxy;
+    final List<AddressObserver> observers = new CopyOnWriteArrayList<AddressObserver>();
+    final List<CallObserver> callObservers = new CopyOnWriteArrayList<CallObserver>();
+    final List<SimConnection> connections = new ArrayList<SimConnection>();
+    private int autoAccept = CiscoAddress.AUTOACCEPT_OFF;
+    private volatile SimAddrEvFilter filter = new SimAddrEvFilter();
+
+    SimAddress(SimProvider provider, String name, SimTerminal terminal) {
+        this.provider = provider;
+        this.name = name;
+        this.terminal = terminal;
+        this.proxy = Sim.proxy(this, CiscoAddress.class);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Provider getProvider() {
+        return provider.proxy;
+    }
+
+    public Terminal[] getTerminals() {
+        return new Terminal[] { terminal.proxy };
+    }
+
+    public int getState() {
+        return terminal.isInService() ? CiscoAddress.IN_SERVICE : CiscoAddress.OUT_OF_SERVICE;
+    }
+
+    public void addObserver(AddressObserver observer) {
+        observers.add(observer);
+        synchronized (provider) {
+            if (terminal.isInService()) {
+                provider.postAddress(Collections.singletonList(observer), inServiceEvent());
+            }
+        }
+    }
+
+    public void removeObserver(AddressObserver observer) {
+        observers.remove(observer);
+    }
+
+    public AddressObserver[] getObservers() {
+        return observers.isEmpty() ? null : observers.toArray(new AddressObserver[0]);
+    }
+
+    public void addCallObserver(CallObserver observer) {
+        callObservers.add(observer);
+    }
+
+    public void removeCallObserver(CallObserver observer) {
+        callObservers.remove(observer);
+    }
+
+    public CallObserver[] getCallObservers() {
+        return callObservers.isEmpty() ? null : callObservers.toArray(new CallObserver[0]);
+    }
+
+    public Connection[] getConnections() {
+        synchronized (provider) {
+            if (connections.isEmpty()) {
+                return null;
+            }
+            Connection[] result = new Connection[connections.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = connections.get(i).proxy;
+            }
+            return result;
+        }
+    }
+
+    public void setAutoAcceptStatus(int status, Terminal terminal) {
+        autoAccept = status;
+    }
+
+    public int getAutoAcceptStatus(Terminal terminal) {
+        return autoAccept;
+    }
+
+    public CiscoAddrEvFilter getFilter() {
+        return filter.copy();
+    }
+
+    public void setFilter(CiscoAddrEvFilter filter) {
+        this.filter = ((SimAddrEvFilter) filter).copy();
+    }
+
+    public String toString() {
+        return name;
+    }
+
+    // Whether an application will see calls at this address
+    boolean isObserved() {
+        return !callObservers.isEmpty() || !terminal.callObservers.isEmpty();
+    }
+
+    AddrEv inServiceEvent() {
+        return new SimEvent(CiscoAddrInServiceEv.class).observed(proxy).address(proxy).terminal(terminal.proxy).as();
+    }
+}
@@ -0,0 +1,356 @@
+package com.cisco.jtapi.simulator;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// A simulated call.  As in JTAPI, transfer() and conference() move the
+// parties of the other call into this one and invalidate the other call.
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.CallControlConnection;
+import javax.telephony.callcontrol.CallControlTerminalConnection;
+import javax.telephony.callcontrol.events.CallCtlConnEstablishedEv;
+import javax.telephony.events.*;
+
+import com.cisco.jtapi.extensions.*;
+
+public class SimCall extends SimObject {
+
+    final SimProvider provider;
+    final int id;
+    final CiscoCall proxy;
+    final CiscoCallID callID = new CallID();
+    int state = Call.IDLE;
+    final List<SimConnection> connections = new ArrayList<SimConnection>();
+    private final Set<CallObserver> observers = new LinkedHashSet<CallObserver>();
+    private SimAddress callingAddress;
+    private SimAddress calledAddress;
+    private SimAddress lastRedirectedAddress;
+    private SimTerminal callingTerminal;
+
+    private class CallID extends SimObject implements CiscoCallID {
+        public int intValue() {
+            return id;
+        }
+
+        public CiscoCall getCall() {
+            return proxy;
+        }
+
+        public int getCallManagerID() {
+            return 1;
+        }
+
+        public int getGlobalCallID() {
+            return id;
+        }
+
+        public String toString() {
+            return "CallID=" + id;
+        }
+    }
+
+    SimCall(SimProvider provider, int id) {
+        this.provider = provider;
+        this.id = id;
+        this.proxy = Sim.proxy(this, CiscoCall.class);
+    }
+
+    public Provider getProvider() {
+        return provider.proxy;
+    }
+
+    public int getState() {
+        synchronized (provider) {
+            return state;
+        }
+    }
+
+    public CiscoCallID getCallID() {
+        return callID;
+    }
+
+    public Connection[] getConnections() {
+        synchronized (provider) {
+            if (connections.isEmpty()) {
+                return null;
+            }
+            Connection[] result = new Connection[connections.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = connections.get(i).proxy;
+            }
+            return result;
+        }
+    }
+
+    public void addObserver(CallObserver observer) {
+        synchronized (provider) {
+            observers.add(observer);
+        }
+    }
+
+    public void removeObserver(CallObserver observer) {
+        synchronized (provider) {
+            observers.remove(observer);
+        }
+    }
+
+    public CallObserver[] getObservers() {
+        synchronized (provider) {
+            return observers.isEmpty() ? null : observers.toArray(new CallObserver[0]);
+        }
+    }
+
+    public Address getCallingAddress() {
+        synchronized (provider) {
+            return callingAddress == null ? null : callingAddress.proxy;
+        }
+    }
+
+    public Address getCalledAddress() {
+        synchronized (provider) {
+            return calledAddress == null ? null : calledAddress.proxy;
+        }
+    }
+
+    public Address getLastRedirectedAddress() {
+        synchronized (provider) {
+            return lastRedirectedAddress == null ? null : lastRedirectedAddress.proxy;
+        }
+    }
+
+    public Terminal getCallingTerminal() {
+        synchronized (provider) {
+            return callingTerminal == null ? null : callingTerminal.proxy;
+        }
+    }
+
+    public Connection[] connect(Terminal origTerminal, Address origAddress, String dialedDigits)
+            throws InvalidStateException, InvalidArgumentException, InvalidPartyException {
+        synchronized (provider) {
+            provider.checkInService();
+            if (state != Call.IDLE) {
+                throw new InvalidStateException(proxy, InvalidStateException.CALL_OBJECT, state, "Call is not idle");
+            }
+            SimTerminal terminal = provider.terminalOf(origTerminal);
+            SimAddress address = provider.addressOf(origAddress);
+            if (!terminal.isInService()) {
+                throw new InvalidPartyException(InvalidPartyException.ORIGINATING_PARTY,
+                        terminal.name + " is not in service");
+            }
+            SimAddress destination = provider.destination(dialedDigits);
+            List<CallEv> events = new ArrayList<CallEv>();
+            SimConnection origin = originate(address, terminal, destination, events);
+            post(events);
+            return new Connection[] { origin.proxy, connections.get(1).proxy };
+        }
+    }
+
+    public void drop() throws InvalidStateException {
+        synchronized (provider) {
+            requireActive(this);
+            List<CallEv> events = new ArrayList<CallEv>();
+            end(events);
+            post(events);
+        }
+    }
+
+    public void transfer(Call otherCall) throws InvalidStateException, InvalidArgumentException {
+        synchronized (provider) {
+            SimCall other = provider.callOf(otherCall);
+            requireActive(this);
+            requireActive(other);
+            SimAddress controller = commonAddress(other);
+            observers.addAll(other.observers);
+            post(Collections.singletonList(
+                    event(CiscoTransferStartEv.class).transfer(other.proxy, proxy, true).address(controller.proxy).as()));
+            List<CallEv> otherEvents = new ArrayList<CallEv>();
+            other.leave(other.connectionOf(controller), otherEvents);
+            List<CallEv> events = new ArrayList<CallEv>();
+            leave(connectionOf(controller), events);
+            merge(other, events, otherEvents);
+            events.add(event(CiscoTransferEndEv.class).transfer(other.proxy, proxy, true).address(controller.proxy).as());
+            if (connections.size() <= 1) {
+                end(events);
+            }
+            other.post(otherEvents);
+            post(events);
+        }
+    }
+
+    public void conference(Call otherCall) throws InvalidStateException, InvalidArgumentException {
+        synchronized (provider) {
+            SimCall other = provider.callOf(otherCall);
+            requireActive(this);
+            requireActive(other);
+            SimAddress controller = commonAddress(other);
+            observers.addAll(other.observers);
+            post(Collections.singletonList(
+                    event(CiscoConferenceStartEv.class).transfer(other.proxy, proxy, true).address(controller.proxy).as()));
+            List<CallEv> otherEvents = new ArrayList<CallEv>();
+            other.leave(other.connectionOf(controller), otherEvents);
+            List<CallEv> events = new ArrayList<CallEv>();
+            merge(other, events, otherEvents);
+            SimTerminalConnection controllerTermConn = connectionOf(controller).terminalConnection;
+            if (controllerTermConn.state == CallControlTerminalConnection.HELD) {
+                controllerTermConn.setState(CallControlTerminalConnection.TALKING, events);
+            }
+            events.add(event(CiscoConferenceEndEv.class).transfer(other.proxy, proxy, true).address(controller.proxy).as());
+            other.post(otherEvents);
+            post(events);
+        }
+    }
+
+    public String toString() {
+        return "GCID=(1," + id + ")";
+    }
+
+    // An event about this call, with its current parties filled in
+    SimEvent event(Class<? extends CallEv> type) {
+        return new SimEvent(type).observed(proxy).call(proxy).parties(
+                callingAddress == null ? null : callingAddress.proxy,
+                calledAddress == null ? null : calledAddress.proxy,
+                lastRedirectedAddress == null ? null : lastRedirectedAddress.proxy,
+                callingTerminal == null ? null : callingTerminal.proxy);
+    }
+
+    void post(List<CallEv> events) {
+        if (!events.isEmpty()) {
+            provider.postCall(observers, events);
+        }
+    }
+
+    // Start the call: from a talking originator to a ringing destination.
+    // Returns the originating connection
+    SimConnection originate(SimAddress from, SimTerminal fromTerminal, SimAddress to, List<CallEv> events) {
+        state = Call.ACTIVE;
+        callingAddress = from;
+        calledAddress = to;
+        callingTerminal = fromTerminal;
+        observe(from);
+        observe(to);
+        events.add(event(CallActiveEv.class).as());
+        SimConnection origin = join(from, fromTerminal, CallControlConnection.ESTABLISHED,
+                CallControlTerminalConnection.TALKING, events);
+        SimConnection destination = join(to, to.terminal, CallControlConnection.ALERTING,
+                CallControlTerminalConnection.RINGING, events);
+        provider.alerting(destination);
+        return origin;
+    }
+
+    // Take a party off the call and offer the call to another address instead
+    SimConnection redirect(SimConnection from, SimAddress to, List<CallEv> events) {
+        observe(to);
+        leave(from, events);
+        lastRedirectedAddress = from.address;
+        calledAddress = to;
+        SimConnection redirected = join(to, to.terminal, CallControlConnection.ALERTING,
+                CallControlTerminalConnection.RINGING, events);
+        provider.alerting(redirected);
+        return redirected;
+    }
+
+    // A party hangs up; a call left with one party ends
+    void disconnect(SimConnection connection, List<CallEv> events) {
+        leave(connection, events);
+        if (connections.size() <= 1) {
+            end(events);
+        }
+    }
+
+    void end(List<CallEv> events) {
+        for (SimConnection connection : new ArrayList<SimConnection>(connections)) {
+            leave(connection, events);
+        }
+        state = Call.INVALID;
+        events.add(event(CallInvalidEv.class).as());
+        provider.callEnded(this);
+    }
+
+    private SimConnection join(SimAddress address, SimTerminal terminal, int connectionState, int termConnState,
+            List<CallEv> events) {
+        SimConnection connection = new SimConnection(this, address);
+        connections.add(connection);
+        address.connections.add(connection);
+        connection.setState(connectionState, events);
+        SimTerminalConnection termConn = new SimTerminalConnection(connection, terminal);
+        connection.terminalConnection = termConn;
+        terminal.terminalConnections.add(termConn);
+        termConn.setState(termConnState, events);
+        return connection;
+    }
+
+    private void leave(SimConnection connection, List<CallEv> events) {
+        if (connection.terminalConnection != null) {
+            connection.terminalConnection.setState(CallControlTerminalConnection.DROPPED, events);
+        }
+        connection.setState(CallControlConnection.DISCONNECTED, events);
+        connections.remove(connection);
+        connection.address.connections.remove(connection);
+    }
+
+    // Move the remaining parties of other into this call and invalidate it
+    private void merge(SimCall other, List<CallEv> events, List<CallEv> otherEvents) {
+        for (SimConnection connection : other.connections) {
+            connection.call = this;
+            connections.add(connection);
+            events.add(event(CallCtlConnEstablishedEv.class)
+                    .connection(connection.proxy).as());
+        }
+        other.connections.clear();
+        other.state = Call.INVALID;
+        otherEvents.add(other.event(CallInvalidEv.class).as());
+        provider.callEnded(other);
+    }
+
+    private void observe(SimAddress address) {
+        observers.addAll(address.callObservers);
+        observers.addAll(address.terminal.callObservers);
+    }
+
+    private SimConnection connectionOf(SimAddress address) {
+        for (SimConnection connection : connections) {
+            if (connection.address == address) {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    // The transfer/conference controller: the address that is in both calls
+    private SimAddress commonAddress(SimCall other) throws InvalidArgumentException {
+        for (SimConnection connection : connections) {
+            if (other.connectionOf(connection.address) != null) {
+                return connection.address;
+            }
+        }
+        throw new InvalidArgumentException("Calls have no party in common");
+    }
+
+    private static void requireActive(SimCall call) throws InvalidStateException {
+        if (call.state != Call.ACTIVE) {
+            throw new InvalidStateException(call.proxy, InvalidStateException.CALL_OBJECT, call.state,
+                    "Call is not active");
+        }
+    }
+}
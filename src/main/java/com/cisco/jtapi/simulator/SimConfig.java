@@ -0,0 +1,137 @@
+package com.cisco.jtapi.simulator;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Simulator settings, read from .env (all optional):
+//   SIM_PROVIDER_OPEN_MS   time getProvider() takes to "log in" (default 200)
+//   SIM_EVENT_LATENCY_MS   delay from a request to its events (default 2,
+//                          fractions allowed)
+//   SIM_ANSWER_DELAY_MS    unobserved phones answer after this long (default
+//                          1000; negative means they never answer)
+//   SIM_CALL_ARRIVAL_RATE  inbound calls per second (default 0, none)
+//   SIM_CALL_HOLD_MS       inbound callers hang up after this long (default 0,
+//                          they wait for the application to drop the call)
+//   SIM_CALLER_DN          DN inbound calls come from (default ALICE_DN)
+//   SIM_CALL_TARGET_DN     DN(s) inbound calls go to (default the CTI Route
+//                          Point, else the CTI Ports, round-robin)
+//   SIM_DEVICE_STATE_RATE  random device state changes per second (default 0)
+//   SIM_RTP_SINK           host:port CTI Port media is sent to (default a
+//                          local sink that counts packets)
+//   SIM_RTP_SOURCE         on: CTI Ports' callers send them RTP, a 440 Hz
+//                          tone (see SimRtpSource; default off)
+//   SIM_RTP_DTMF           keys those callers press, one every 2 s, as RFC 2833
+//                          telephone-events (default none)
+//   SIM_SEED               random seed (default 1)
+//   SIM_OUTAGE_AFTER_MS    take a provider out of service (a CTI Manager
+//                          outage) this long after it opens (default 0, never)
+//   SIM_OUTAGE_MS          bring it back after this long (default 0, never)
+//   SIM_OUTAGE_PROVIDER    the provider to take down, by its first CTI Manager
+//                          name (default the first provider opened)
+//   SIM_SEND_DATA_FAILURE_RATE  fraction of sendData() requests the phone
+//                          rejects with a CiscoIPPhoneError (default 0)
+//   SIM_TRACE              on: trace events like Cisco JTAPI, as configured in
+//                          jtapi.ini / JTAPI_TRACE_PROFILE (see SimTrace;
+//                          default off, no trace)
+// The sample settings CTI_ROUTE_POINT_DN and CTI_PORT_DN decide which DNs are
+// CTI devices; ALICE_DEVICE_NAME names the phone for ALICE_DN.  Any other DN
+// is a phone.
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class SimConfig {
+
+    public final long providerOpenMs;
+    public final long eventLatencyNanos;
+    public final long answerDelayMs;
+    public final double callArrivalRate;
+    public final long callHoldMs;
+    public final String callerDN;
+    public final List<String> targetDNs;
+    public final List<String> routePointDNs;
+    public final List<String> ctiPortDNs;
+    public final Map<String, String> deviceNames = new HashMap<String, String>();
+    public final double deviceStateRate;
+    public final InetSocketAddress rtpSink;
+    public final boolean rtpSource;
+    public final String rtpDtmf;
+    public final long seed;
+    public final long outageAfterMs;
+    public final long outageMs;
+    public final String outageProvider;
+    public final double sendDataFailureRate;
+    public final boolean trace;
+
+    public SimConfig(Dotenv dotenv) {
+        providerOpenMs = Long.parseLong(get(dotenv, "SIM_PROVIDER_OPEN_MS", "200"));
+        eventLatencyNanos = (long) (Double.parseDouble(get(dotenv, "SIM_EVENT_LATENCY_MS", "2")) * 1_000_000);
+        answerDelayMs = Long.parseLong(get(dotenv, "SIM_ANSWER_DELAY_MS", "1000"));
+        callArrivalRate = Double.parseDouble(get(dotenv, "SIM_CALL_ARRIVAL_RATE", "0"));
+        callHoldMs = Long.parseLong(get(dotenv, "SIM_CALL_HOLD_MS", "0"));
+        callerDN = get(dotenv, "SIM_CALLER_DN", get(dotenv, "ALICE_DN", "1000"));
+        targetDNs = parseDNs(get(dotenv, "SIM_CALL_TARGET_DN", ""));
+        routePointDNs = parseDNs(get(dotenv, "CTI_ROUTE_POINT_DN", ""));
+        ctiPortDNs = parseDNs(get(dotenv, "CTI_PORT_DN", ""));
+        String aliceDevice = get(dotenv, "ALICE_DEVICE_NAME", "");
+        String aliceDN = get(dotenv, "ALICE_DN", "");
+        if (!aliceDevice.isEmpty() && !aliceDN.isEmpty()) {
+            deviceNames.put(aliceDN, aliceDevice);
+        }
+        deviceStateRate = Double.parseDouble(get(dotenv, "SIM_DEVICE_STATE_RATE", "0"));
+        String sink = get(dotenv, "SIM_RTP_SINK", "");
+        if (sink.isEmpty()) {
+            rtpSink = null;
+        } else {
+            int colon = sink.lastIndexOf(':');
+            rtpSink = new InetSocketAddress(sink.substring(0, colon), Integer.parseInt(sink.substring(colon + 1)));
+        }
+        rtpSource = get(dotenv, "SIM_RTP_SOURCE", "off").equals("on");
+        rtpDtmf = get(dotenv, "SIM_RTP_DTMF", "");
+        seed = Long.parseLong(get(dotenv, "SIM_SEED", "1"));
+        outageAfterMs = Long.parseLong(get(dotenv, "SIM_OUTAGE_AFTER_MS", "0"));
+        outageMs = Long.parseLong(get(dotenv, "SIM_OUTAGE_MS", "0"));
+        outageProvider = get(dotenv, "SIM_OUTAGE_PROVIDER", "");
+        sendDataFailureRate = Double.parseDouble(get(dotenv, "SIM_SEND_DATA_FAILURE_RATE", "0"));
+        trace = get(dotenv, "SIM_TRACE", "off").equals("on");
+    }
+
+    public static SimConfig load() {
+        return new SimConfig(Dotenv.configure().ignoreIfMissing().load());
+    }
+
+    // Unset and empty settings both take the default
+    private static String get(Dotenv dotenv, String key, String defaultValue) {
+        String value = dotenv.get(key);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    private static List<String> parseDNs(String dnList) {
+        List<String> dns = new ArrayList<String>();
+        for (String dn : dnList.trim().split("\\s*,\\s*")) {
+            if (!dn.isEmpty()) {
+                dns.add(dn);
+            }
+        }
+        return dns;
+    }
+}
@@ -0,0 +1,152 @@
+package com.cisco.jtapi.simulator;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// An address's part in a simulated call
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.CallControlConnection;
+import javax.telephony.callcontrol.events.*;
+import javax.telephony.events.CallEv;
+
+import com.cisco.jtapi.extensions.CiscoConnection;
+
+public class SimConnection extends SimObject {
+
+    final SimAddress address;
+    final CiscoConnection proxy;
+    // Changes when a transfer or conference moves this party to another call
+    SimCall call;
+    SimTerminalConnection terminalConnection;
+    int state = CallControlConnection.IDLE;
+
+    SimConnection(SimCall call, SimAddress address) {
+        this.call = call;
+        this.address = address;
+        this.proxy = Sim.proxy(this, CiscoConnection.class);
+    }
+
+    public Address getAddress() {
+        return address.proxy;
+    }
+
+    public Call getCall() {
+        synchronized (address.provider) {
+            return call.proxy;
+        }
+    }
+
+    public int getState() {
+        switch (getCallControlState()) {
+            case CallControlConnection.OFFERED:
+            case CallControlConnection.INITIATED:
+            case CallControlConnection.DIALING:
+                return Connection.INPROGRESS;
+            case CallControlConnection.ALERTING:
+                return Connection.ALERTING;
+            case CallControlConnection.ESTABLISHED:
+                return Connection.CONNECTED;
+            case CallControlConnection.DISCONNECTED:
+                return Connection.DISCONNECTED;
+            case CallControlConnection.FAILED:
+                return Connection.FAILED;
+            default:
+                return Connection.IDLE;
+        }
+    }
+
+    public int getCallControlState() {
+        synchronized (address.provider) {
+            return state;
+        }
+    }
+
+    public TerminalConnection[] getTerminalConnections() {
+        synchronized (address.provider) {
+            return terminalConnection == null ? null : new TerminalConnection[] { terminalConnection.proxy };
+        }
+    }
+
+    public void disconnect() throws InvalidStateException {
+        synchronized (address.provider) {
+            if (state == CallControlConnection.DISCONNECTED) {
+                throw new InvalidStateException(proxy, InvalidStateException.CONNECTION_OBJECT, state,
+                        "Connection is already disconnected");
+            }
+            SimCall current = call;
+            List<CallEv> events = new ArrayList<CallEv>();
+            current.disconnect(this, events);
+            current.post(events);
+        }
+    }
+
+    // Calls are offered straight to alerting, so there is nothing to accept
+    public void accept() throws InvalidStateException {
+        synchronized (address.provider) {
+            if (state != CallControlConnection.ALERTING) {
+                throw new InvalidStateException(proxy, InvalidStateException.CONNECTION_OBJECT, state,
+                        "Connection is not offered");
+            }
+        }
+    }
+
+    public Connection redirect(String destination) throws InvalidStateException, InvalidPartyException {
+        synchronized (address.provider) {
+            if (state == CallControlConnection.DISCONNECTED || call.state != Call.ACTIVE) {
+                throw new InvalidStateException(proxy, InvalidStateException.CONNECTION_OBJECT, state,
+                        "Connection is not in a call");
+            }
+            SimAddress to = address.provider.destination(destination);
+            SimCall current = call;
+            List<CallEv> events = new ArrayList<CallEv>();
+            SimConnection redirected = current.redirect(this, to, events);
+            current.post(events);
+            return redirected.proxy;
+        }
+    }
+
+    public String toString() {
+        return address.name + ":" + call;
+    }
+
+    // Move to a new state, adding its event to the batch
+    void setState(int newState, List<CallEv> events) {
+        state = newState;
+        Class<? extends CallEv> type = null;
+        switch (newState) {
+            case CallControlConnection.ALERTING:
+                type = CallCtlConnAlertingEv.class;
+                break;
+            case CallControlConnection.ESTABLISHED:
+                type = CallCtlConnEstablishedEv.class;
+                break;
+            case CallControlConnection.DISCONNECTED:
+                type = CallCtlConnDisconnectedEv.class;
+                break;
+            case CallControlConnection.FAILED:
+                type = CallCtlConnFailedEv.class;
+                break;
+        }
+        if (type != null) {
+            events.add(call.event(type).connection(proxy).as());
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.cisco.jtapi.simulator;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Backing object for every simulated event.  One class serves all the event
+// interfaces: the proxy created by as() exposes whichever getters the event
+// interface declares, and unused fields are simply left null.
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.telephony.*;
+import javax.telephony.events.Ev;
+
+import com.cisco.jtapi.extensions.*;
+
+public class SimEvent {
+
+    private static final Map<Class<?>, Integer> ids = new ConcurrentHashMap<Class<?>, Integer>();
+
+    private final Class<? extends Ev> type;
+    private final int id;
+    private int cause = Ev.CAUSE_NORMAL;
+    private int metaCode = Ev.META_UNKNOWN;
+    private Object observed;
+    private Call call;
+    private Terminal terminal;
+    private Address address;
+    private Connection connection;
+    private TerminalConnection terminalConnection;
+    private Address callingAddress;
+    private Address calledAddress;
+    private Address lastRedirectedAddress;
+    private Terminal callingTerminal;
+    private CiscoCallID callID;
+    private CiscoRTPHandle rtpHandle;
+    private CiscoRTPOutputProperties rtpOutputProperties;
+    private CiscoRTPInputProperties rtpInputProperties;
+    private Call transferredCall;
+    private Call finalCall;
+    private boolean success = true;
+
+    public SimEvent(Class<? extends Ev> type) {
+        this.type = type;
+        this.id = idOf(type);
+    }
+
+    // The ID constant declared by an event interface
+    public static int idOf(Class<? extends Ev> type) {
+        Integer id = ids.get(type);
+        if (id == null) {
+            try {
+                id = type.getField("ID").getInt(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("No ID for event type " + type.getName());
+            }
+            ids.put(type, id);
+        }
+        return id;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Ev> T as() {
+        return (T) Sim.proxy(this, type);
+    }
+
+    // Fluent setters used by the simulator to fill in the event
+
+    SimEvent cause(int cause) {
+        this.cause = cause;
+        return this;
+    }
+
+    SimEvent meta(int metaCode) {
+        this.metaCode = metaCode;
+        return this;
+    }
+
+    SimEvent observed(Object observed) {
+        this.observed = observed;
+        return this;
+    }
+
+    SimEvent call(Call call) {
+        this.call = call;
+        return this;
+    }
+
+    SimEvent terminal(Terminal terminal) {
+        this.terminal = terminal;
+        return this;
+    }
+
+    SimEvent address(Address address) {
+        this.address = address;
+        return this;
+    }
+
+    SimEvent connection(Connection connection) {
+        this.connection = connection;
+        return this;
+    }
+
+    SimEvent terminalConnection(TerminalConnection terminalConnection) {
+        this.terminalConnection = terminalConnection;
+        return this;
+    }
+
+    SimEvent parties(Address callingAddress, Address calledAddress, Address lastRedirectedAddress,
+            Terminal callingTerminal) {
+        this.callingAddress = callingAddress;
+        this.calledAddress = calledAddress;
+        this.lastRedirectedAddress = lastRedirectedAddress;
+        this.callingTerminal = callingTerminal;
+        return this;
+    }
+
+    SimEvent callID(CiscoCallID callID) {
+        this.callID = callID;
+        return this;
+    }
+
+    SimEvent rtp(CiscoRTPHandle handle, CiscoRTPOutputProperties output, CiscoRTPInputProperties input) {
+        this.rtpHandle = handle;
+        this.rtpOutputProperties = output;
+        this.rtpInputProperties = input;
+        return this;
+    }
+
+    SimEvent transfer(Call transferredCall, Call finalCall, boolean success) {
+        this.transferredCall = transferredCall;
+        this.finalCall = finalCall;
+        this.success = success;
+        return this;
+    }
+
+    // Ev
+
+    public int getID() {
+        return id;
+    }
+
+    public int getCause() {
+        return cause;
+    }
+
+    public int getMetaCode() {
+        return metaCode;
+    }
+
+    public boolean isNewMetaEvent() {
+        return false;
+    }
+
+    public Object getObserved() {
+        return observed;
+    }
+
+    // Call/connection events
+
+    public Call getCall() {
+        return call;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public TerminalConnection getTerminalConnection() {
+        return terminalConnection;
+    }
+
+    public Address getCallingAddress() {
+        return callingAddress;
+    }
+
+    public Address getCalledAddress() {
+        return calledAddress;
+    }
+
+    public Address getLastRedirectedAddress() {
+        return lastRedirectedAddress;
+    }
+
+    public Terminal getCallingTerminal() {
+        return callingTerminal;
+    }
+
+    public int getCallControlCause() {
+        return cause;
+    }
+
+    public int getCiscoCause() {
+        return cause;
+    }
+
+    public Call getTransferredCall() {
+        return transferredCall;
+    }
+
+    public Call getFinalCall() {
+        return finalCall;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public Call getConferencedCall() {
+        return transferredCall;
+    }
+
+    public TerminalConnection getTransferController() {
+        return terminalConnection;
+    }
+
+    public Address getTransferControllerAddress() {
+        return address;
+    }
+
+    public Address getConferenceControllerAddress() {
+        return address;
+    }
+
+    public int getCiscoFeatureReason() {
+        return 0;
+    }
+
+    // Terminal/address/provider events
+
+    public Terminal getTerminal() {
+        return terminal;
+    }
+
+    public Address getAddress() {
+        return address;
+    }
+
+    public Provider getProvider() {
+        return (Provider) observed;
+    }
+
+    public int getSupportedEncoding() {
+        return CiscoTerminal.ASCII_ENCODING;
+    }
+
+    public int getLocale() {
+        return 1;
+    }
+
+    public boolean getDNDStatus() {
+        return false;
+    }
+
+    public int getDNDOption() {
+        return CiscoTerminal.DND_OPTION_NONE;
+    }
+
+    // Media events
+
+    public CiscoCallID getCallID() {
+        return callID;
+    }
+
+    public CiscoRTPHandle getCiscoRTPHandle() {
+        return rtpHandle;
+    }
+
+    public CiscoRTPOutputProperties getRTPOutputProperties() {
+        return rtpOutputProperties;
+    }
+
+    public CiscoRTPInputProperties getRTPInputProperties() {
+        return rtpInputProperties;
+    }
+
+    public int getPacketSize() {
+        return 30;
+    }
+
+    public int getPayLoadType() {
+        return 0;
+    }
+
+    public int getMediaConnectionMode() {
+        return 3;
+    }
+
+    public int getAddressingModeForMedia() {
+        return CiscoTerminal.IP_ADDRESSING_MODE_IPV4;
+    }
+
+    public boolean isRTPRequired() {
+        return true;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder(type.getSimpleName()).append(" [");
+        if (call != null) {
+            sb.append("call=").append(call).append(' ');
+        }
+        if (terminalConnection != null) {
+            sb.append("termConn=").append(terminalConnection).append(' ');
+        } else if (connection != null) {
+            sb.append("conn=").append(connection).append(' ');
+        }
+        if (terminal != null) {
+            sb.append("terminal=").append(terminal.getName()).append(' ');
+        }
+        if (address != null) {
+            sb.append("address=").append(address.getName()).append(' ');
+        }
+        return sb.append("cause=").append(cause).append(']').toString();
+    }
+}
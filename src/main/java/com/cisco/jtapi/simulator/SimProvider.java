@@ -0,0 +1,583 @@
+package com.cisco.jtapi.simulator;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// A simulated CTI Manager connection.  Calls, addresses and terminals live in
+// memory and every request produces the events a real provider would send,
+// delivered on a single event thread after SIM_EVENT_LATENCY_MS.  Unobserved
+// phones answer by themselves, and optional inbound traffic and device state
+// churn (see SimConfig) let the samples run under load without a CUCM.
+
+// All simulator state is guarded by the SimProvider's monitor.  Only the
+// call-control event set is generated (CallActiveEv, CallCtl*Ev,
+// CallInvalidEv), not the core Conn*/TermConn* duplicates.
+
+// outOfService() simulates losing the CTI Manager: ProvOutOfServiceEv is sent
+// and every other event is lost until inService().  Calls carry on in the
+// simulated world, but each provider is a world of its own, so another
+// provider never sees this one's calls.
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.telephony.*;
+import javax.telephony.events.*;
+
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.extensions.*;
+
+public class SimProvider extends SimObject {
+
+    private static final int[] CHURN_STATES = { CiscoTerminal.DEVICESTATE_IDLE, CiscoTerminal.DEVICESTATE_ACTIVE,
+            CiscoTerminal.DEVICESTATE_ALERTING, CiscoTerminal.DEVICESTATE_HELD };
+
+    // Whether SIM_OUTAGE_AFTER_MS has been given to a provider yet
+    private static final AtomicBoolean outageScheduled = new AtomicBoolean();
+
+    final SimConfig config;
+    final CiscoProvider proxy;
+    // JTAPI-style event trace, or null
+    private final SimTrace trace;
+    private final String name;
+    private int state = Provider.IN_SERVICE;
+    private volatile boolean outage;
+    private final List<ProviderObserver> observers = new CopyOnWriteArrayList<ProviderObserver>();
+    private final Map<String, SimAddress> addresses = new LinkedHashMap<String, SimAddress>();
+    private final Map<String, SimTerminal> terminals = new LinkedHashMap<String, SimTerminal>();
+    private final List<SimTerminal> observedTerminals = new ArrayList<SimTerminal>();
+    private final Set<SimCall> calls = new LinkedHashSet<SimCall>();
+    private final ScheduledExecutorService delivery;
+    private final ScheduledExecutorService timers;
+    private final Random random;
+    private SimRtpSink rtpSink;
+    private SimRtpSource rtpSource;
+    private int nextCallID = 1;
+    private int nextRTPHandle = 1;
+    private int nextTarget;
+
+    // Statistics
+    private final AtomicLong eventsDelivered = new AtomicLong();
+    private long callsCreated;
+    private long arrivals;
+    private long arrivalsBlocked;
+
+    public SimProvider(SimConfig config, String name) {
+        this(config, name, null);
+    }
+
+    public SimProvider(SimConfig config, String name, SimTrace trace) {
+        this.config = config;
+        this.trace = trace;
+        this.name = name;
+        this.proxy = Sim.proxy(this, CiscoProvider.class);
+        this.random = new Random(config.seed);
+        delivery = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "SimProvider-events"));
+        timers = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "SimProvider-timers"));
+        if (config.callArrivalRate > 0) {
+            long period = (long) (1e9 / config.callArrivalRate);
+            timers.scheduleAtFixedRate(this::arrival, period, period, TimeUnit.NANOSECONDS);
+        }
+        if (config.deviceStateRate > 0) {
+            long period = (long) (1e9 / config.deviceStateRate);
+            timers.scheduleAtFixedRate(this::churn, period, period, TimeUnit.NANOSECONDS);
+        }
+        if (config.outageAfterMs > 0 && (config.outageProvider.isEmpty() ? outageScheduled.compareAndSet(false, true)
+                : name.split(",")[0].equals(config.outageProvider))) {
+            timers.schedule(this::outOfService, config.outageAfterMs, TimeUnit.MILLISECONDS);
+            if (config.outageMs > 0) {
+                timers.schedule(this::inService, config.outageAfterMs + config.outageMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    // Provider
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized int getState() {
+        return state;
+    }
+
+    public void addObserver(ProviderObserver observer) {
+        observers.add(observer);
+        synchronized (this) {
+            if (state == Provider.IN_SERVICE) {
+                postProvider(Collections.singletonList(observer), providerEvent(ProvInServiceEv.class));
+            }
+        }
+    }
+
+    public void removeObserver(ProviderObserver observer) {
+        observers.remove(observer);
+    }
+
+    public ProviderObserver[] getObservers() {
+        return observers.isEmpty() ? null : observers.toArray(new ProviderObserver[0]);
+    }
+
+    public Address getAddress(String number) throws InvalidArgumentException {
+        if (number == null || number.isEmpty()) {
+            throw new InvalidArgumentException("No address number given");
+        }
+        return address(number).proxy;
+    }
+
+    public synchronized Address[] getAddresses() {
+        if (addresses.isEmpty()) {
+            return null;
+        }
+        Address[] result = new Address[addresses.size()];
+        int i = 0;
+        for (SimAddress address : addresses.values()) {
+            result[i++] = address.proxy;
+        }
+        return result;
+    }
+
+    public synchronized Terminal getTerminal(String terminalName) throws InvalidArgumentException {
+        SimTerminal terminal = terminals.get(terminalName);
+        if (terminal == null) {
+            throw new InvalidArgumentException("Unknown terminal: " + terminalName);
+        }
+        return terminal.proxy;
+    }
+
+    public synchronized Terminal[] getTerminals() {
+        if (terminals.isEmpty()) {
+            return null;
+        }
+        Terminal[] result = new Terminal[terminals.size()];
+        int i = 0;
+        for (SimTerminal terminal : terminals.values()) {
+            result[i++] = terminal.proxy;
+        }
+        return result;
+    }
+
+    public synchronized Call[] getCalls() {
+        if (calls.isEmpty()) {
+            return null;
+        }
+        Call[] result = new Call[calls.size()];
+        int i = 0;
+        for (SimCall call : calls) {
+            result[i++] = call.proxy;
+        }
+        return result;
+    }
+
+    public synchronized Call createCall() throws InvalidStateException {
+        checkInService();
+        return newCall().proxy;
+    }
+
+    // 'Superprovider' terminal creation: look the device up by name
+    public synchronized CiscoTerminal createTerminal(String deviceName) throws InvalidArgumentException {
+        if (deviceName == null || deviceName.isEmpty()) {
+            throw new InvalidArgumentException("No device name given");
+        }
+        SimTerminal terminal = terminals.get(deviceName);
+        if (terminal != null) {
+            return terminal.proxy;
+        }
+        for (Map.Entry<String, String> device : config.deviceNames.entrySet()) {
+            if (device.getValue().equals(deviceName)) {
+                return address(device.getKey()).terminal.proxy;
+            }
+        }
+        // An unknown device gets a line of its own, numbered after the device
+        return address(deviceName, deviceName).terminal.proxy;
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            if (state == Provider.SHUTDOWN) {
+                return;
+            }
+            state = Provider.SHUTDOWN;
+            postProvider(observers, providerEvent(ProvShutdownEv.class));
+        }
+        timers.shutdownNow();
+        // Let the shutdown event out before stopping the event thread
+        delivery.schedule(delivery::shutdown, config.eventLatencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Lose the CTI Manager connection
+    public synchronized void outOfService() {
+        if (state != Provider.IN_SERVICE) {
+            return;
+        }
+        Log.warn("Simulator: provider " + name + " out of service");
+        postProvider(observers, providerEvent(ProvOutOfServiceEv.class));
+        state = Provider.OUT_OF_SERVICE;
+        outage = true;
+    }
+
+    // Reconnect after outOfService()
+    public synchronized void inService() {
+        if (state != Provider.OUT_OF_SERVICE) {
+            return;
+        }
+        Log.warn("Simulator: provider " + name + " back in service");
+        state = Provider.IN_SERVICE;
+        outage = false;
+        postProvider(observers, providerEvent(ProvInServiceEv.class));
+    }
+
+    public String toString() {
+        return "SimProvider(" + name + ")";
+    }
+
+    public synchronized String getStats() {
+        return String.format("Simulator: %d calls created, %d active, %d inbound arrivals (%d blocked), "
+                + "%d events delivered%s",
+                callsCreated, calls.size(), arrivals, arrivalsBlocked, eventsDelivered.get(),
+                rtpSink == null ? "" : String.format(", RTP sink received %d packets", rtpSink.getPackets()))
+                + (rtpSource == null ? "" : String.format(", RTP source sent %d packets", rtpSource.getPackets()));
+    }
+
+    // Object lookup
+
+    synchronized SimAddress address(String dn) {
+        return address(dn, config.deviceNames.get(dn));
+    }
+
+    // As above, naming a new line's device (null for the default name)
+    synchronized SimAddress address(String dn, String deviceName) {
+        SimAddress address = addresses.get(dn);
+        if (address == null) {
+            SimTerminal.Type type = config.routePointDNs.contains(dn) ? SimTerminal.Type.ROUTE_POINT
+                    : config.ctiPortDNs.contains(dn) ? SimTerminal.Type.CTI_PORT : SimTerminal.Type.PHONE;
+            if (deviceName == null) {
+                deviceName = type == SimTerminal.Type.ROUTE_POINT ? "CTIRP" + dn
+                        : type == SimTerminal.Type.CTI_PORT ? "CTIP" + dn
+                                : String.format("SEP%12s", dn).replace(' ', '0');
+            }
+            SimTerminal terminal = new SimTerminal(this, deviceName, type);
+            address = new SimAddress(this, dn, terminal);
+            terminal.address = address;
+            addresses.put(dn, address);
+            terminals.put(deviceName, terminal);
+        }
+        return address;
+    }
+
+    // Resolve a dialed number, which must be able to take a call
+    SimAddress destination(String dn) throws InvalidPartyException {
+        if (dn == null || dn.isEmpty()) {
+            throw new InvalidPartyException(InvalidPartyException.DESTINATION_PARTY, "No destination given");
+        }
+        SimAddress address = address(dn);
+        if (address.terminal.type != SimTerminal.Type.PHONE && !address.terminal.isInService()) {
+            throw new InvalidPartyException(InvalidPartyException.DESTINATION_PARTY, dn + " is not registered");
+        }
+        return address;
+    }
+
+    SimAddress addressOf(Address address) throws InvalidArgumentException {
+        Object impl = Sim.implOf(address);
+        if (!(impl instanceof SimAddress) || ((SimAddress) impl).provider != this) {
+            throw new InvalidArgumentException("Not an address of this provider: " + address);
+        }
+        return (SimAddress) impl;
+    }
+
+    SimTerminal terminalOf(Terminal terminal) throws InvalidArgumentException {
+        Object impl = Sim.implOf(terminal);
+        if (!(impl instanceof SimTerminal) || ((SimTerminal) impl).provider != this) {
+            throw new InvalidArgumentException("Not a terminal of this provider: " + terminal);
+        }
+        return (SimTerminal) impl;
+    }
+
+    SimCall callOf(Call call) throws InvalidArgumentException {
+        Object impl = Sim.implOf(call);
+        if (!(impl instanceof SimCall) || ((SimCall) impl).provider != this) {
+            throw new InvalidArgumentException("Not a call of this provider: " + call);
+        }
+        return (SimCall) impl;
+    }
+
+    void checkInService() throws InvalidStateException {
+        if (state != Provider.IN_SERVICE) {
+            throw new InvalidStateException(proxy, InvalidStateException.PROVIDER_OBJECT, state,
+                    "Provider is not in service");
+        }
+    }
+
+    SimCall newCall() {
+        SimCall call = new SimCall(this, nextCallID++);
+        calls.add(call);
+        callsCreated++;
+        return call;
+    }
+
+    void callEnded(SimCall call) {
+        calls.remove(call);
+    }
+
+    int newRTPHandle() {
+        return nextRTPHandle++;
+    }
+
+    void terminalObserved(SimTerminal terminal) {
+        if (!observedTerminals.contains(terminal)) {
+            observedTerminals.add(terminal);
+        }
+    }
+
+    // Where CTI Port media is sent
+    InetSocketAddress rtpSink() {
+        if (config.rtpSink != null) {
+            return config.rtpSink;
+        }
+        if (rtpSink == null) {
+            try {
+                rtpSink = new SimRtpSink();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return rtpSink.getAddress();
+    }
+
+    // What sends CTI Ports their callers' media, or null (SIM_RTP_SOURCE)
+    synchronized SimRtpSource rtpSource() {
+        if (!config.rtpSource) {
+            return null;
+        }
+        if (rtpSource == null) {
+            try {
+                rtpSource = new SimRtpSource(config.rtpDtmf);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return rtpSource;
+    }
+
+    // Whether a phone rejects this sendData() request (SIM_SEND_DATA_FAILURE_RATE)
+    synchronized boolean sendDataFails() {
+        return config.sendDataFailureRate > 0 && random.nextDouble() < config.sendDataFailureRate;
+    }
+
+    // A connection has started alerting: an unobserved phone answers by itself
+    void alerting(SimConnection connection) {
+        SimTerminalConnection termConn = connection.terminalConnection;
+        if (termConn.terminal.type != SimTerminal.Type.PHONE || connection.address.isObserved()
+                || config.answerDelayMs < 0) {
+            return;
+        }
+        timers.schedule(() -> {
+            synchronized (this) {
+                if (termConn.state == javax.telephony.callcontrol.CallControlTerminalConnection.RINGING) {
+                    termConn.terminal.answer(termConn);
+                }
+            }
+        }, config.answerDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Simulated traffic
+
+    private void arrival() {
+        synchronized (this) {
+            if (state != Provider.IN_SERVICE) {
+                return;
+            }
+            SimAddress target;
+            if (!config.targetDNs.isEmpty()) {
+                target = pickTarget(config.targetDNs);
+            } else {
+                target = pickTarget(config.routePointDNs);
+                if (target == null && !anyReady(config.routePointDNs)) {
+                    target = pickTarget(config.ctiPortDNs);
+                }
+            }
+            if (target == null) {
+                return;
+            }
+            arrivals++;
+            SimAddress caller = address(config.callerDN);
+            SimCall call = newCall();
+            List<CallEv> events = new ArrayList<CallEv>();
+            SimConnection callerConnection = call.originate(caller, caller.terminal, target, events);
+            call.post(events);
+            if (config.callHoldMs > 0) {
+                timers.schedule(() -> hangUp(callerConnection), config.callHoldMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    // Next target in round-robin order that can take a call; a CTI Port
+    // takes one call at a time
+    private SimAddress pickTarget(List<String> dns) {
+        boolean ready = false;
+        for (int i = 0; i < dns.size(); i++) {
+            int index = (nextTarget + i) % dns.size();
+            SimAddress address = addresses.get(dns.get(index));
+            if (address == null || !address.terminal.isInService() || !address.isObserved()) {
+                continue;
+            }
+            ready = true;
+            if (address.terminal.type == SimTerminal.Type.CTI_PORT && !address.terminal.terminalConnections.isEmpty()) {
+                continue;
+            }
+            nextTarget = index + 1;
+            return address;
+        }
+        if (ready) {
+            arrivalsBlocked++;
+        }
+        return null;
+    }
+
+    private boolean anyReady(List<String> dns) {
+        for (String dn : dns) {
+            SimAddress address = addresses.get(dn);
+            if (address != null && address.terminal.isInService() && address.isObserved()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void hangUp(SimConnection connection) {
+        synchronized (this) {
+            SimCall call = connection.call;
+            if (connection.state == javax.telephony.callcontrol.CallControlConnection.DISCONNECTED
+                    || call.state != Call.ACTIVE) {
+                return;
+            }
+            List<CallEv> events = new ArrayList<CallEv>();
+            call.disconnect(connection, events);
+            call.post(events);
+        }
+    }
+
+    private void churn() {
+        synchronized (this) {
+            if (observedTerminals.isEmpty()) {
+                return;
+            }
+            SimTerminal terminal = observedTerminals.get(random.nextInt(observedTerminals.size()));
+            terminal.setDeviceState(CHURN_STATES[random.nextInt(CHURN_STATES.length)]);
+        }
+    }
+
+    // Event delivery
+
+    private ProvEv providerEvent(Class<? extends ProvEv> type) {
+        return new SimEvent(type).observed(proxy).as();
+    }
+
+    void postProvider(Collection<ProviderObserver> targets, ProvEv... events) {
+        ProviderObserver[] to = targets.toArray(new ProviderObserver[0]);
+        deliver(events, to, () -> {
+            for (ProviderObserver observer : to) {
+                try {
+                    observer.providerChangedEvent(events);
+                } catch (RuntimeException e) {
+                    Log.warn("SimProvider: observer threw " + e);
+                }
+            }
+        });
+    }
+
+    void postTerminal(Collection<TerminalObserver> targets, TermEv... events) {
+        if (outage) {
+            return;
+        }
+        TerminalObserver[] to = targets.toArray(new TerminalObserver[0]);
+        deliver(events, to, () -> {
+            for (TerminalObserver observer : to) {
+                try {
+                    observer.terminalChangedEvent(events);
+                } catch (RuntimeException e) {
+                    Log.warn("SimProvider: observer threw " + e);
+                }
+            }
+        });
+    }
+
+    void postAddress(Collection<AddressObserver> targets, AddrEv... events) {
+        if (outage) {
+            return;
+        }
+        AddressObserver[] to = targets.toArray(new AddressObserver[0]);
+        deliver(events, to, () -> {
+            for (AddressObserver observer : to) {
+                try {
+                    observer.addressChangedEvent(events);
+                } catch (RuntimeException e) {
+                    Log.warn("SimProvider: observer threw " + e);
+                }
+            }
+        });
+    }
+
+    void postCall(Collection<CallObserver> targets, List<CallEv> events) {
+        if (outage) {
+            return;
+        }
+        CallObserver[] to = targets.toArray(new CallObserver[0]);
+        CallEv[] batch = events.toArray(new CallEv[0]);
+        deliver(batch, to, () -> {
+            for (CallObserver observer : to) {
+                try {
+                    observer.callChangedEvent(batch);
+                } catch (RuntimeException e) {
+                    Log.warn("SimProvider: observer threw " + e);
+                }
+            }
+        });
+    }
+
+    // Every batch goes through the one event thread with the same delay, so
+    // batches arrive in the order they were posted
+    private void deliver(Ev[] events, Object[] observers, Runnable task) {
+        int count = observers.length * events.length;
+        if (count == 0 || delivery.isShutdown()) {
+            return;
+        }
+        delivery.schedule(() -> {
+            if (trace != null) {
+                trace.delivering(events, observers);
+            }
+            task.run();
+            eventsDelivered.addAndGet(count);
+        }, config.eventLatencyNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,131 @@
+package com.cisco.jtapi.simulator;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Media details carried by the simulator's RTP and logical channel events
+
+import java.net.InetAddress;
+
+import com.cisco.jtapi.extensions.*;
+
+public final class SimRTP {
+
+    private SimRTP() {
+    }
+
+    public static class Handle implements CiscoRTPHandle {
+        private final int handle;
+
+        Handle(int handle) {
+            this.handle = handle;
+        }
+
+        public int getHandle() {
+            return handle;
+        }
+
+        public String toString() {
+            return "RTPHandle=" + handle;
+        }
+    }
+
+    // G.711 mu-law, 30 ms packets
+    public static class Output implements CiscoRTPOutputProperties {
+        private final InetAddress remoteAddress;
+        private final int remotePort;
+
+        Output(InetAddress remoteAddress, int remotePort) {
+            this.remoteAddress = remoteAddress;
+            this.remotePort = remotePort;
+        }
+
+        public InetAddress getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        public int getRemotePort() {
+            return remotePort;
+        }
+
+        public int getPacketSize() {
+            return 30;
+        }
+
+        public int getPayloadType() {
+            return 4; // CiscoMediaCapability G711_ULAW_64K
+        }
+
+        public int getPrecedenceValue() {
+            return 0;
+        }
+
+        public boolean getSilenceSuppression() {
+            return false;
+        }
+
+        public int getMaxFramesPerPacket() {
+            return 30;
+        }
+
+        public int getBitRate() {
+            return 64000;
+        }
+
+        public String toString() {
+            return remoteAddress.getHostAddress() + ":" + remotePort;
+        }
+    }
+
+    public static class Input implements CiscoRTPInputProperties {
+        private final InetAddress localAddress;
+        private final int localPort;
+
+        Input(InetAddress localAddress, int localPort) {
+            this.localAddress = localAddress;
+            this.localPort = localPort;
+        }
+
+        public InetAddress getLocalAddress() {
+            return localAddress;
+        }
+
+        public int getLocalPort() {
+            return localPort;
+        }
+
+        public int getPacketSize() {
+            return 30;
+        }
+
+        public int getPayloadType() {
+            return 4;
+        }
+
+        public boolean getEchoCancellation() {
+            return false;
+        }
+
+        public int getBitRate() {
+            return 64000;
+        }
+
+        public String toString() {
+            return localAddress.getHostAddress() + ":" + localPort;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.cisco.jtapi.simulator;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Stands in for the far end of every simulated CTI Port call when
+// SIM_RTP_SOURCE=on: sends each port a 30 ms PCMU packet of a 440 Hz tone
+// every 30 ms, from CiscoRTPInputStartedEv until CiscoRTPInputStoppedEv.  One
+// pair of packets in every 16 goes out in swapped order, so the application's
+// jitter buffer has some reordering to deal with.
+
+// With SIM_RTP_DTMF set, each caller also presses those keys in turn, one
+// every 2 s: an RFC 2833 telephone-event of 120 ms (payload type 101) in place
+// of the tone, its last packet sent three times.
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cisco.jtapi.media.G711;
+import com.cisco.jtapi.media.PromptCache;
+
+public class SimRtpSource implements Runnable {
+
+    private static final int HEADER_BYTES = 12;
+    private static final int PAYLOAD_TYPE_PCMU = 0;
+    private static final int PAYLOAD_TYPE_TELEPHONE_EVENT = 101;
+    private static final int TONE_HZ = 440;
+    private static final String EVENT_KEYS = "0123456789*#ABCD";
+    // Packets between key presses, and per key press
+    private static final int KEY_EVERY = 2000 / PromptCache.FRAME_MILLIS;
+    private static final int KEY_PACKETS = 4;
+
+    // One simulated caller's stream
+    private static class Talker {
+        final InetSocketAddress target;
+        final int ssrc;
+        int sequence;
+        int timestamp;
+        long packets;
+        // The previous packet, held back to be sent after the next one
+        ByteBuffer held;
+        // The start timestamp of the key being pressed
+        int keyTimestamp;
+
+        Talker(InetSocketAddress target) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            this.target = target;
+            this.ssrc = random.nextInt();
+            this.sequence = random.nextInt(0x10000);
+            this.timestamp = random.nextInt();
+        }
+    }
+
+    private final DatagramChannel channel;
+    private final Map<Object, Talker> talkers = new ConcurrentHashMap<Object, Talker>();
+    // Three seconds of tone: a whole number of 30 ms frames and of cycles
+    private final byte[] tone = new byte[3 * PromptCache.SAMPLE_RATE];
+    private final AtomicLong packets = new AtomicLong();
+    private final String keys;
+
+    public SimRtpSource(String keys) throws IOException {
+        this.keys = keys;
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        for (int i = 0; i < tone.length; i++) {
+            tone[i] = G711.linearToUlaw(
+                    (int) (8000 * Math.sin(2 * Math.PI * TONE_HZ * i / PromptCache.SAMPLE_RATE)));
+        }
+        Thread thread = new Thread(this, "SimRtpSource");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Start sending to address:port, keyed by the stream's media
+    void start(Object key, InetAddress address, int port) {
+        talkers.put(key, new Talker(new InetSocketAddress(address, port)));
+    }
+
+    void stop(Object key) {
+        talkers.remove(key);
+    }
+
+    public long getPackets() {
+        return packets.get();
+    }
+
+    public void run() {
+        long next = System.nanoTime();
+        while (true) {
+            next += PromptCache.FRAME_MILLIS * 1_000_000L;
+            for (Talker talker : talkers.values()) {
+                send(talker);
+            }
+            long sleep = next - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep / 1_000_000, (int) (sleep % 1_000_000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            } else {
+                next = System.nanoTime();
+            }
+        }
+    }
+
+    private void send(Talker talker) {
+        int keyPacket = (int) (talker.packets % KEY_EVERY) - (KEY_EVERY - KEY_PACKETS);
+        int keyIndex = (int) (talker.packets / KEY_EVERY);
+        if (keyPacket >= 0 && keyIndex < keys.length()) {
+            sendKey(talker, keys.charAt(keyIndex), keyPacket);
+            return;
+        }
+        ByteBuffer packet = ByteBuffer.allocate(HEADER_BYTES + PromptCache.FRAME_BYTES);
+        packet.put((byte) 0x80);
+        packet.put((byte) ((talker.packets == 0 ? 0x80 : 0) | PAYLOAD_TYPE_PCMU));
+        packet.putShort((short) talker.sequence);
+        packet.putInt(talker.timestamp);
+        packet.putInt(talker.ssrc);
+        int offset = (int) (talker.packets * PromptCache.FRAME_BYTES % tone.length);
+        packet.put(tone, offset, PromptCache.FRAME_BYTES);
+        packet.flip();
+        talker.sequence = (talker.sequence + 1) & 0xFFFF;
+        talker.timestamp += PromptCache.FRAME_BYTES;
+        talker.packets++;
+        try {
+            if (talker.packets % 16 == 5) {
+                talker.held = packet;
+                return;
+            }
+            channel.send(packet, talker.target);
+            packets.incrementAndGet();
+            if (talker.held != null) {
+                channel.send(talker.held, talker.target);
+                packets.incrementAndGet();
+                talker.held = null;
+            }
+        } catch (IOException e) {
+            // Lost, as it would be on the network
+        }
+    }
+
+    // Packet n of a key press
+    private void sendKey(Talker talker, char key, int n) {
+        if (n == 0) {
+            talker.keyTimestamp = talker.timestamp;
+        }
+        try {
+            if (talker.held != null) {
+                channel.send(talker.held, talker.target);
+                packets.incrementAndGet();
+                talker.held = null;
+            }
+        } catch (IOException e) {
+            // Lost, as it would be on the network
+        }
+        boolean end = n == KEY_PACKETS - 1;
+        for (int copy = 0; copy < (end ? 3 : 1); copy++) {
+            ByteBuffer packet = ByteBuffer.allocate(HEADER_BYTES + 4);
+            packet.put((byte) 0x80);
+            packet.put((byte) ((n == 0 ? 0x80 : 0) | PAYLOAD_TYPE_TELEPHONE_EVENT));
+            packet.putShort((short) talker.sequence);
+            packet.putInt(talker.keyTimestamp);
+            packet.putInt(talker.ssrc);
+            packet.put((byte) EVENT_KEYS.indexOf(key));
+            packet.put((byte) ((end ? 0x80 : 0) | 10)); // end bit, volume -10 dBm0
+            packet.putShort((short) ((n + 1) * PromptCache.FRAME_BYTES));
+            packet.flip();
+            talker.sequence = (talker.sequence + 1) & 0xFFFF;
+            try {
+                channel.send(packet, talker.target);
+                packets.incrementAndGet();
+            } catch (IOException e) {
+                // Lost, as it would be on the network
+            }
+        }
+        talker.timestamp += PromptCache.FRAME_BYTES;
+        talker.packets++;
+    }
+}
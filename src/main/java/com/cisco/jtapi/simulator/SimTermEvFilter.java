@@ -0,0 +1,160 @@
+package com.cisco.jtapi.simulator;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Terminal event filter; the simulator honours the device state flags
+
+import com.cisco.jtapi.extensions.CiscoTermEvFilter;
+
+public class SimTermEvFilter implements CiscoTermEvFilter, Cloneable {
+
+    private boolean deviceData;
+    private boolean buttonPressed;
+    private boolean rtpEvents = true;
+    private boolean snapshot;
+    private boolean rtpKeyEvents;
+    private boolean deviceStateActive;
+    private boolean deviceStateHeld;
+    private boolean deviceStateAlerting;
+    private boolean deviceStateIdle;
+    private boolean deviceStateWhisper;
+    private boolean dndChanged;
+    private boolean dndOptionChanged;
+    private boolean multiMediaStreamsInfo;
+    private boolean huntLogStatusChanged;
+
+    public SimTermEvFilter copy() {
+        try {
+            return (SimTermEvFilter) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public boolean getDeviceDataEnabled() {
+        return deviceData;
+    }
+
+    public void setDeviceDataEnabled(boolean enabled) {
+        deviceData = enabled;
+    }
+
+    public boolean getButtonPressedEnabled() {
+        return buttonPressed;
+    }
+
+    public void setButtonPressedEnabled(boolean enabled) {
+        buttonPressed = enabled;
+    }
+
+    public boolean getRTPEventsEnabled() {
+        return rtpEvents;
+    }
+
+    public void setRTPEventsEnabled(boolean enabled) {
+        rtpEvents = enabled;
+    }
+
+    public boolean getSnapshotEnabled() {
+        return snapshot;
+    }
+
+    public void setSnapshotEnabled(boolean enabled) {
+        snapshot = enabled;
+    }
+
+    public boolean getRTPKeyEventsEnabled() {
+        return rtpKeyEvents;
+    }
+
+    public void setRTPKeyEventsEnabled(boolean enabled) {
+        rtpKeyEvents = enabled;
+    }
+
+    public boolean getDeviceStateActiveEvFilter() {
+        return deviceStateActive;
+    }
+
+    public boolean getDeviceStateHeldEvFilter() {
+        return deviceStateHeld;
+    }
+
+    public boolean getDeviceStateAlertingEvFilter() {
+        return deviceStateAlerting;
+    }
+
+    public boolean getDeviceStateIdleEvFilter() {
+        return deviceStateIdle;
+    }
+
+    public void setDeviceStateActiveEvFilter(boolean enabled) {
+        deviceStateActive = enabled;
+    }
+
+    public void setDeviceStateHeldEvFilter(boolean enabled) {
+        deviceStateHeld = enabled;
+    }
+
+    public void setDeviceStateAlertingEvFilter(boolean enabled) {
+        deviceStateAlerting = enabled;
+    }
+
+    public void setDeviceStateIdleEvFilter(boolean enabled) {
+        deviceStateIdle = enabled;
+    }
+
+    public boolean getDeviceStateWhisperEvFilter() {
+        return deviceStateWhisper;
+    }
+
+    public void setDeviceStateWhisperEvFilter(boolean enabled) {
+        deviceStateWhisper = enabled;
+    }
+
+    public boolean getDNDChangedEvFilter() {
+        return dndChanged;
+    }
+
+    public void setDNDChangedEvFilter(boolean enabled) {
+        dndChanged = enabled;
+    }
+
+    public boolean getDNDOptionChangedEvFilter() {
+        return dndOptionChanged;
+    }
+
+    public void setDNDOptionChangedEvFilter(boolean enabled) {
+        dndOptionChanged = enabled;
+    }
+
+    public boolean getMultiMediaStreamsInfoEvFilter() {
+        return multiMediaStreamsInfo;
+    }
+
+    public void setMultiMediaStreamsInfoEvFilter(boolean enabled) {
+        multiMediaStreamsInfo = enabled;
+    }
+
+    public boolean getHuntLogStatusChangedEvFilter() {
+        return huntLogStatusChanged;
+    }
+
+    public void setHuntLogStatusChangedEvFilter(boolean enabled) {
+        huntLogStatusChanged = enabled;
+    }
+}
@@ -0,0 +1,344 @@
+package com.cisco.jtapi.simulator;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// A simulated device: a phone, a CTI Route Point or a CTI Port.  CTI devices
+// come into service when the application registers them; phones are always
+// in service.
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.CallControlConnection;
+import javax.telephony.callcontrol.CallControlTerminalConnection;
+import javax.telephony.events.CallEv;
+import javax.telephony.events.TermEv;
+
+import com.cisco.jtapi.extensions.*;
+
+public class SimTerminal extends SimObject {
+
+    public enum Type {
+        PHONE, ROUTE_POINT, CTI_PORT
+    }
+
+    final SimProvider provider;
+    final String name;
+    final Type type;
+    final CiscoTerminal proxy;
+    SimAddress address;
+    final List<TerminalObserver> observers = new CopyOnWriteArrayList<TerminalObserver>();
+    final List<CallObserver> callObservers = new CopyOnWriteArrayList<CallObserver>();
+    final List<SimTerminalConnection> terminalConnections = new ArrayList<SimTerminalConnection>();
+    // Route Point calls answered but waiting for setRTPParams(), by RTP handle
+    private final Map<Integer, SimTerminalConnection> pendingMedia = new HashMap<Integer, SimTerminalConnection>();
+    private volatile boolean registered;
+    private boolean dynamicMedia;
+    private InetAddress rtpAddress;
+    private int rtpPort;
+    private volatile SimTermEvFilter filter = new SimTermEvFilter();
+    private int deviceState = CiscoTerminal.DEVICESTATE_IDLE;
+    private long dataSent;
+
+    SimTerminal(SimProvider provider, String name, Type type) {
+        this.provider = provider;
+        this.name = name;
+        this.type = type;
+        this.proxy = type == Type.ROUTE_POINT ? Sim.proxy(this, CiscoRouteTerminal.class)
+                : type == Type.CTI_PORT ? Sim.proxy(this, CiscoMediaTerminal.class)
+                        : Sim.proxy(this, CiscoTerminal.class);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Provider getProvider() {
+        return provider.proxy;
+    }
+
+    public Address[] getAddresses() {
+        return new Address[] { address.proxy };
+    }
+
+    public int getState() {
+        return isInService() ? CiscoTerminal.IN_SERVICE : CiscoTerminal.OUT_OF_SERVICE;
+    }
+
+    public void addObserver(TerminalObserver observer) {
+        observers.add(observer);
+        synchronized (provider) {
+            provider.terminalObserved(this);
+            if (isInService()) {
+                provider.postTerminal(Collections.singletonList(observer), inServiceEvent());
+            }
+        }
+    }
+
+    public void removeObserver(TerminalObserver observer) {
+        observers.remove(observer);
+    }
+
+    public TerminalObserver[] getObservers() {
+        return observers.isEmpty() ? null : observers.toArray(new TerminalObserver[0]);
+    }
+
+    public void addCallObserver(CallObserver observer) {
+        callObservers.add(observer);
+    }
+
+    public void removeCallObserver(CallObserver observer) {
+        callObservers.remove(observer);
+    }
+
+    public CallObserver[] getCallObservers() {
+        return callObservers.isEmpty() ? null : callObservers.toArray(new CallObserver[0]);
+    }
+
+    public TerminalConnection[] getTerminalConnections() {
+        synchronized (provider) {
+            if (terminalConnections.isEmpty()) {
+                return null;
+            }
+            TerminalConnection[] result = new TerminalConnection[terminalConnections.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = terminalConnections.get(i).proxy;
+            }
+            return result;
+        }
+    }
+
+    // CiscoRouteTerminal registration
+    public void register(CiscoMediaCapability[] capabilities, int registrationType)
+            throws CiscoRegistrationException {
+        synchronized (provider) {
+            dynamicMedia = registrationType == CiscoRouteTerminal.DYNAMIC_MEDIA_REGISTRATION;
+            registered();
+        }
+    }
+
+    public void register(CiscoMediaCapability[] capabilities) throws CiscoRegistrationException {
+        register(capabilities, CiscoRouteTerminal.NO_MEDIA_REGISTRATION);
+    }
+
+    // CiscoMediaTerminal registration
+    public void register(InetAddress address, int port, CiscoMediaCapability[] capabilities)
+            throws CiscoRegistrationException {
+        synchronized (provider) {
+            rtpAddress = address;
+            rtpPort = port;
+            registered();
+        }
+    }
+
+    public void register(InetAddress address, int port) throws CiscoRegistrationException {
+        register(address, port, null);
+    }
+
+    public void unregister() {
+        synchronized (provider) {
+            registered = false;
+        }
+    }
+
+    public boolean isRegistered() {
+        return registered;
+    }
+
+    public void setRTPParams(CiscoRTPHandle handle, CiscoRTPParams params) throws InvalidArgumentException {
+        synchronized (provider) {
+            SimTerminalConnection termConn = pendingMedia.remove(handle.getHandle());
+            if (termConn == null) {
+                throw new InvalidArgumentException("Unknown RTP handle: " + handle.getHandle());
+            }
+            if (termConn.connection.state == CallControlConnection.ESTABLISHED) {
+                List<CallEv> events = new ArrayList<CallEv>();
+                termConn.setState(CallControlTerminalConnection.TALKING, events);
+                termConn.connection.call.post(events);
+            }
+        }
+    }
+
+    public String sendData(String data) throws InvalidStateException {
+        synchronized (provider) {
+            if (!isInService()) {
+                throw new InvalidStateException(proxy, InvalidStateException.TERMINAL_OBJECT,
+                        CiscoTerminal.OUT_OF_SERVICE, "Terminal is not in service");
+            }
+            if (provider.sendDataFails()) {
+                return "<CiscoIPPhoneError Number=\"1\"/>";
+            }
+            dataSent++;
+            return "<CiscoIPPhoneResponse/>";
+        }
+    }
+
+    public CiscoTermEvFilter getFilter() {
+        return filter.copy();
+    }
+
+    public void setFilter(CiscoTermEvFilter filter) {
+        this.filter = ((SimTermEvFilter) filter).copy();
+    }
+
+    public int getDeviceState() {
+        synchronized (provider) {
+            return deviceState;
+        }
+    }
+
+    public String toString() {
+        return name;
+    }
+
+    boolean isInService() {
+        return type == Type.PHONE || registered;
+    }
+
+    private void registered() throws CiscoRegistrationException {
+        if (registered) {
+            throw new CiscoRegistrationException("Terminal is already registered: " + name);
+        }
+        registered = true;
+        provider.postTerminal(observers, inServiceEvent());
+        provider.postAddress(address.observers, address.inServiceEvent());
+    }
+
+    private TermEv inServiceEvent() {
+        return event(CiscoTermInServiceEv.class).as();
+    }
+
+    private SimEvent event(Class<? extends TermEv> type) {
+        return new SimEvent(type).observed(proxy).terminal(proxy);
+    }
+
+    // Answer a ringing call here.  A phone puts its other active call on hold
+    // first; a dynamic media Route Point reports the logical channel and only
+    // starts talking once the application has called setRTPParams()
+    void answer(SimTerminalConnection termConn) {
+        if (type == Type.PHONE) {
+            for (SimTerminalConnection other : new ArrayList<SimTerminalConnection>(terminalConnections)) {
+                if (other != termConn && other.state == CallControlTerminalConnection.TALKING) {
+                    List<CallEv> events = new ArrayList<CallEv>();
+                    other.setState(CallControlTerminalConnection.HELD, events);
+                    other.connection.call.post(events);
+                }
+            }
+        }
+        List<CallEv> events = new ArrayList<CallEv>();
+        termConn.connection.setState(CallControlConnection.ESTABLISHED, events);
+        if (type == Type.ROUTE_POINT && dynamicMedia) {
+            SimRTP.Handle handle = new SimRTP.Handle(provider.newRTPHandle());
+            pendingMedia.put(handle.getHandle(), termConn);
+            provider.postTerminal(observers, event(CiscoMediaOpenLogicalChannelEv.class)
+                    .callID(termConn.connection.call.callID).rtp(handle, null, null).as());
+        } else {
+            termConn.setState(CallControlTerminalConnection.TALKING, events);
+        }
+        termConn.connection.call.post(events);
+    }
+
+    void dropped(SimTerminalConnection termConn) {
+        terminalConnections.remove(termConn);
+        pendingMedia.values().remove(termConn);
+    }
+
+    // A CTI Port's call has started or stopped talking: report its RTP streams
+    void mediaStarted(SimTerminalConnection termConn) {
+        if (!filter.getRTPEventsEnabled()) {
+            return;
+        }
+        InetSocketAddress sink = provider.rtpSink();
+        SimRTP.Handle handle = new SimRTP.Handle(termConn.rtpHandle());
+        CiscoCallID callID = termConn.connection.call.callID;
+        provider.postTerminal(observers,
+                event(CiscoRTPOutputStartedEv.class).callID(callID)
+                        .rtp(handle, new SimRTP.Output(sink.getAddress(), sink.getPort()), null).as(),
+                event(CiscoRTPInputStartedEv.class).callID(callID)
+                        .rtp(handle, null, new SimRTP.Input(rtpAddress, rtpPort)).as());
+        SimRtpSource source = provider.rtpSource();
+        if (source != null) {
+            source.start(termConn, rtpAddress, rtpPort);
+        }
+    }
+
+    void mediaStopped(SimTerminalConnection termConn) {
+        if (!filter.getRTPEventsEnabled()) {
+            return;
+        }
+        SimRTP.Handle handle = new SimRTP.Handle(termConn.rtpHandle());
+        CiscoCallID callID = termConn.connection.call.callID;
+        provider.postTerminal(observers,
+                event(CiscoRTPOutputStoppedEv.class).callID(callID).rtp(handle, null, null).as(),
+                event(CiscoRTPInputStoppedEv.class).callID(callID).rtp(handle, null, null).as());
+        SimRtpSource source = provider.rtpSource();
+        if (source != null) {
+            source.stop(termConn);
+        }
+    }
+
+    // Recompute the whole-device state after a terminal connection changed
+    void updateDeviceState() {
+        int state = CiscoTerminal.DEVICESTATE_IDLE;
+        for (SimTerminalConnection termConn : terminalConnections) {
+            if (termConn.state == CallControlTerminalConnection.TALKING) {
+                state = CiscoTerminal.DEVICESTATE_ACTIVE;
+                break;
+            } else if (termConn.state == CallControlTerminalConnection.RINGING) {
+                state = CiscoTerminal.DEVICESTATE_ALERTING;
+            } else if (termConn.state == CallControlTerminalConnection.HELD
+                    && state != CiscoTerminal.DEVICESTATE_ALERTING) {
+                state = CiscoTerminal.DEVICESTATE_HELD;
+            }
+        }
+        setDeviceState(state);
+    }
+
+    void setDeviceState(int state) {
+        if (state == deviceState) {
+            return;
+        }
+        deviceState = state;
+        SimTermEvFilter f = filter;
+        Class<? extends TermEv> type = null;
+        switch (state) {
+            case CiscoTerminal.DEVICESTATE_IDLE:
+                type = f.getDeviceStateIdleEvFilter() ? CiscoTermDeviceStateIdleEv.class : null;
+                break;
+            case CiscoTerminal.DEVICESTATE_ACTIVE:
+                type = f.getDeviceStateActiveEvFilter() ? CiscoTermDeviceStateActiveEv.class : null;
+                break;
+            case CiscoTerminal.DEVICESTATE_ALERTING:
+                type = f.getDeviceStateAlertingEvFilter() ? CiscoTermDeviceStateAlertingEv.class : null;
+                break;
+            case CiscoTerminal.DEVICESTATE_HELD:
+                type = f.getDeviceStateHeldEvFilter() ? CiscoTermDeviceStateHeldEv.class : null;
+                break;
+        }
+        if (type != null) {
+            provider.postTerminal(observers, event(type).as());
+        }
+    }
+}
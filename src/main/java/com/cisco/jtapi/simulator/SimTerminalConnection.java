@@ -0,0 +1,150 @@
+package com.cisco.jtapi.simulator;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// A terminal's part in a simulated call
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.telephony.*;
+import javax.telephony.callcontrol.CallControlTerminalConnection;
+import javax.telephony.callcontrol.events.*;
+import javax.telephony.events.CallEv;
+
+import com.cisco.jtapi.extensions.CiscoTerminalConnection;
+
+public class SimTerminalConnection extends SimObject {
+
+    final SimConnection connection;
+    final SimTerminal terminal;
+    final CiscoTerminalConnection proxy;
+    int state = CallControlTerminalConnection.IDLE;
+    private int rtpHandle;
+
+    SimTerminalConnection(SimConnection connection, SimTerminal terminal) {
+        this.connection = connection;
+        this.terminal = terminal;
+        this.proxy = Sim.proxy(this, CiscoTerminalConnection.class);
+    }
+
+    public Terminal getTerminal() {
+        return terminal.proxy;
+    }
+
+    public Connection getConnection() {
+        return connection.proxy;
+    }
+
+    public int getState() {
+        switch (getCallControlState()) {
+            case CallControlTerminalConnection.RINGING:
+                return TerminalConnection.RINGING;
+            case CallControlTerminalConnection.TALKING:
+            case CallControlTerminalConnection.HELD:
+                return TerminalConnection.ACTIVE;
+            case CallControlTerminalConnection.DROPPED:
+                return TerminalConnection.DROPPED;
+            default:
+                return TerminalConnection.IDLE;
+        }
+    }
+
+    public int getCallControlState() {
+        synchronized (terminal.provider) {
+            return state;
+        }
+    }
+
+    public void answer() throws InvalidStateException {
+        synchronized (terminal.provider) {
+            require(CallControlTerminalConnection.RINGING, "ringing");
+            terminal.answer(this);
+        }
+    }
+
+    public void hold() throws InvalidStateException {
+        synchronized (terminal.provider) {
+            require(CallControlTerminalConnection.TALKING, "talking");
+            List<CallEv> events = new ArrayList<CallEv>();
+            setState(CallControlTerminalConnection.HELD, events);
+            connection.call.post(events);
+        }
+    }
+
+    public void unhold() throws InvalidStateException {
+        synchronized (terminal.provider) {
+            require(CallControlTerminalConnection.HELD, "held");
+            List<CallEv> events = new ArrayList<CallEv>();
+            setState(CallControlTerminalConnection.TALKING, events);
+            connection.call.post(events);
+        }
+    }
+
+    public String toString() {
+        return terminal.name + ":" + connection;
+    }
+
+    private void require(int required, String description) throws InvalidStateException {
+        if (state != required) {
+            throw new InvalidStateException(proxy, InvalidStateException.TERMINAL_CONNECTION_OBJECT, state,
+                    "TerminalConnection is not " + description);
+        }
+    }
+
+    // The RTP handle for this call's media, allocated on first use
+    int rtpHandle() {
+        if (rtpHandle == 0) {
+            rtpHandle = terminal.provider.newRTPHandle();
+        }
+        return rtpHandle;
+    }
+
+    // Move to a new state, adding its event to the batch
+    void setState(int newState, List<CallEv> events) {
+        int oldState = state;
+        state = newState;
+        Class<? extends CallEv> type = null;
+        switch (newState) {
+            case CallControlTerminalConnection.RINGING:
+                type = CallCtlTermConnRingingEv.class;
+                break;
+            case CallControlTerminalConnection.TALKING:
+                type = CallCtlTermConnTalkingEv.class;
+                break;
+            case CallControlTerminalConnection.HELD:
+                type = CallCtlTermConnHeldEv.class;
+                break;
+            case CallControlTerminalConnection.DROPPED:
+                type = CallCtlTermConnDroppedEv.class;
+                terminal.dropped(this);
+                break;
+        }
+        if (type != null) {
+            events.add(connection.call.event(type).connection(connection.proxy).terminalConnection(proxy).as());
+        }
+        if (terminal.type == SimTerminal.Type.CTI_PORT) {
+            if (newState == CallControlTerminalConnection.TALKING && oldState != newState) {
+                terminal.mediaStarted(this);
+            } else if (oldState == CallControlTerminalConnection.TALKING && newState != oldState) {
+                terminal.mediaStopped(this);
+            }
+        }
+        terminal.updateDeviceState();
+    }
+}
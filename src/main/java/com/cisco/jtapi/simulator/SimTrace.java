@@ -0,0 +1,242 @@
+package com.cisco.jtapi.simulator;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Stand-in for Cisco JTAPI's trace, so the cost of a trace configuration can
+// be measured without a CUCM (SIM_TRACE=on).  The settings start from
+// jtapi.ini on the classpath, as JTAPI's do, and are read and changed through
+// the peer's CiscoJtapiProperties (only the trace settings are implemented);
+// changes take effect on setJtapiProperties().
+
+// Every event delivered is traced on the event thread the way JTAPI traces
+// it, in proportion to what is enabled:
+//   INFORMATIONAL + JTAPI_DEBUGGING  one line per event and per observer
+//   DEBUG + JTAPIIMPL_DEBUGGING      the event's objects, dumped
+//   DEBUG + CTIIMPL_DEBUGGING        the CTI event it was built from
+//   DEBUG + PROTOCOL_DEBUGGING       a hex dump of the CTI message
+// Lines go to rolling files in TracePath (FileNameBase01.log, ...), each up
+// to TraceFileSize bytes, NumTraceFiles of them, when UseTraceFile=1.
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Properties;
+
+import javax.telephony.events.Ev;
+
+import com.cisco.jtapi.common.Log;
+
+public class SimTrace {
+
+    private static final String[] TRACE_NAMES = { "WARNING", "INFORMATIONAL", "DEBUG" };
+    private static final String[] DEBUGGING_NAMES = { "JTAPI_DEBUGGING", "JTAPIIMPL_DEBUGGING", "CTI_DEBUGGING",
+            "CTIIMPL_DEBUGGING", "PROTOCOL_DEBUGGING", "MISC_DEBUGGING" };
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    // Typical size of a CTI event message
+    private static final int MESSAGE_BYTES = 160;
+
+    private final Properties settings = new Properties();
+    private final SimpleDateFormat timestamp = new SimpleDateFormat("MMM dd HH:mm:ss.SSS");
+    private final StringBuilder line = new StringBuilder(256);
+    private final byte[] message = new byte[MESSAGE_BYTES];
+
+    // What setJtapiProperties() last applied
+    private volatile boolean events;
+    private volatile boolean objects;
+    private volatile boolean cti;
+    private volatile boolean protocol;
+    private boolean useFile;
+    private long fileSize;
+    private int numFiles;
+    private Writer out;
+    private long written;
+    private int fileIndex;
+    private long sequence;
+
+    public SimTrace() {
+        try (InputStream in = SimTrace.class.getClassLoader().getResourceAsStream("jtapi.ini")) {
+            if (in != null) {
+                settings.load(in);
+            }
+        } catch (IOException e) {
+            Log.warn("SimTrace: unable to read jtapi.ini: " + e);
+        }
+        apply();
+    }
+
+    // CiscoJtapiProperties (the trace settings)
+
+    public String[] getTraceNames() {
+        return TRACE_NAMES.clone();
+    }
+
+    public synchronized boolean getTraceValue(String name) {
+        return isOn(name);
+    }
+
+    public synchronized void setTraceValue(String name, boolean value) {
+        settings.setProperty(name, value ? "1" : "0");
+    }
+
+    public String[] getDebuggingNames() {
+        return DEBUGGING_NAMES.clone();
+    }
+
+    public synchronized boolean getDebuggingValue(String name) {
+        return isOn(name);
+    }
+
+    public synchronized void setDebuggingValue(String name, boolean value) {
+        settings.setProperty(name, value ? "1" : "0");
+    }
+
+    public synchronized String getTracePath() {
+        return settings.getProperty("TracePath", ".");
+    }
+
+    public synchronized void setTracePath(String path) {
+        settings.setProperty("TracePath", path);
+    }
+
+    public synchronized boolean getUseFileTrace() {
+        return isOn("UseTraceFile");
+    }
+
+    public synchronized void setUseFileTrace(boolean value) {
+        settings.setProperty("UseTraceFile", value ? "1" : "0");
+    }
+
+    private boolean isOn(String name) {
+        return settings.getProperty(name, "0").trim().equals("1");
+    }
+
+    // Take up the current settings, reopening the trace files
+    synchronized void apply() {
+        boolean debug = isOn("DEBUG");
+        events = isOn("INFORMATIONAL") && isOn("JTAPI_DEBUGGING");
+        objects = debug && isOn("JTAPIIMPL_DEBUGGING");
+        cti = debug && isOn("CTIIMPL_DEBUGGING");
+        protocol = debug && isOn("PROTOCOL_DEBUGGING");
+        useFile = isOn("UseTraceFile");
+        fileSize = Long.parseLong(settings.getProperty("TraceFileSize", "1048576").trim());
+        numFiles = Math.max(1, Integer.parseInt(settings.getProperty("NumTraceFiles", "10").trim()));
+        close();
+        fileIndex = 0;
+    }
+
+    public boolean isEnabled() {
+        return events || objects || cti || protocol;
+    }
+
+    // Trace a batch of events being delivered to observers
+    void delivering(Ev[] batch, Object[] observers) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            for (Ev ev : batch) {
+                if (cti) {
+                    begin("CTI").append("CtiEventNotify {eventId=").append(ev.getID()).append(", cause=")
+                            .append(ev.getCause()).append('}');
+                    end();
+                }
+                if (protocol) {
+                    dump(ev);
+                }
+                if (objects) {
+                    begin("JTAPIIMPL").append("Event object ").append(ev).append(" meta=").append(ev.getMetaCode());
+                    end();
+                }
+                if (events) {
+                    for (Object observer : observers) {
+                        begin("JTAPI").append("Delivering ").append(ev).append(" to ").append(observer);
+                        end();
+                    }
+                }
+            }
+        }
+    }
+
+    // The CTI message, as PROTOCOL_DEBUGGING prints it: 16 bytes a line
+    private void dump(Ev ev) {
+        int seed = ev.getID() * 31 + ev.getCause();
+        for (int i = 0; i < message.length; i++) {
+            message[i] = (byte) (seed + i * 7);
+        }
+        for (int offset = 0; offset < message.length; offset += 16) {
+            begin("PROTOCOL");
+            for (int i = offset; i < offset + 16 && i < message.length; i++) {
+                line.append(HEX[(message[i] >> 4) & 0xf]).append(HEX[message[i] & 0xf]).append(' ');
+            }
+            end();
+        }
+    }
+
+    private StringBuilder begin(String facility) {
+        line.setLength(0);
+        return line.append(sequence++).append(": ").append(timestamp.format(new Date())).append(" ")
+                .append(Thread.currentThread().getName()).append(" ").append(facility).append(": ");
+    }
+
+    private void end() {
+        if (!useFile) {
+            return;
+        }
+        line.append(System.lineSeparator());
+        try {
+            if (out == null || written >= fileSize) {
+                roll();
+            }
+            out.append(line);
+            written += line.length();
+        } catch (IOException e) {
+            Log.warn("SimTrace: unable to write trace: " + e);
+            useFile = false;
+        }
+    }
+
+    // Start the next file in the cycle
+    private void roll() throws IOException {
+        close();
+        File dir = new File(getTracePath());
+        dir.mkdirs();
+        File file = new File(dir, String.format("%s%02d.%s", settings.getProperty("FileNameBase", "CiscoJtapi"),
+                fileIndex % numFiles + 1, settings.getProperty("FileNameExtension", "log")));
+        fileIndex++;
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+        written = 0;
+    }
+
+    synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                Log.warn("SimTrace: unable to close trace: " + e);
+            }
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.cisco.jtapi.simulator;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// JtapiPeer for the simulator.  Set JTAPI_PEER=com.cisco.jtapi.simulator.SimulatedJtapiPeer
+// in .env and the samples run against SimProvider instead of a CUCM; the
+// provider string's host part becomes the provider name, and the login and
+// password are ignored.  In-process users (e.g. the benchmarks) can also
+// construct one directly with their own SimConfig, and take a simulated
+// provider out of service and back on demand.
+
+import javax.telephony.Provider;
+import javax.telephony.ProviderUnavailableException;
+
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.extensions.CiscoJtapiPeer;
+import com.cisco.jtapi.extensions.CiscoJtapiProperties;
+import com.cisco.services.tracing.TraceManager;
+
+public class SimulatedJtapiPeer extends SimObject implements CiscoJtapiPeer {
+
+    private final SimConfig config;
+    // Shared by the peer's providers, like JTAPI's trace; null unless SIM_TRACE=on
+    private final SimTrace trace;
+
+    public SimulatedJtapiPeer() {
+        this(SimConfig.load());
+    }
+
+    public SimulatedJtapiPeer(SimConfig config) {
+        this.config = config;
+        this.trace = config.trace ? new SimTrace() : null;
+    }
+
+    public String getName() {
+        return getClass().getName();
+    }
+
+    public String[] getServices() {
+        return new String[] { "simulator" };
+    }
+
+    public Provider getProvider(String providerString) throws ProviderUnavailableException {
+        String name = providerString == null ? "" : providerString.split(";", 2)[0];
+        if (name.isEmpty() || name.equals("null")) {
+            name = "simulator";
+        }
+        try {
+            // Stand-in for the CTI Manager login
+            Thread.sleep(config.providerOpenMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProviderUnavailableException(ProviderUnavailableException.CAUSE_UNKNOWN, "Interrupted");
+        }
+        Log.warn("Simulator: using simulated provider " + name + " (no CUCM connection)");
+        return new SimProvider(config, name, trace).proxy;
+    }
+
+    // Simulate a CTI Manager outage on a provider from getProvider()
+    public static void outOfService(Provider provider) {
+        ((SimProvider) Sim.implOf(provider)).outOfService();
+    }
+
+    public static void inService(Provider provider) {
+        ((SimProvider) Sim.implOf(provider)).inService();
+    }
+
+    // Only the trace settings, and only with SIM_TRACE=on
+    public CiscoJtapiProperties getJtapiProperties() {
+        return trace == null ? null : Sim.proxy(trace, CiscoJtapiProperties.class);
+    }
+
+    public void setJtapiProperties(CiscoJtapiProperties properties) {
+        if (trace != null) {
+            trace.apply();
+        }
+    }
+
+    public TraceManager getTraceManager() {
+        return null;
+    }
+
+    public String getTraceModuleName() {
+        return "SimulatedJtapiPeer";
+    }
+}
@@ -0,0 +1,270 @@
+package com.cisco.jtapi.superProvider_deviceStateServer;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Bulk mode for superProvider_deviceStateServer: creates, observes and
+// filters terminals for a whole list of device names, for monitoring
+// thousands of phones from one superprovider, or spread across the providers
+// of a ProviderPool.
+
+// Devices are handed to a pool of worker threads in batches.  Each device
+// holds a permit from the time its terminal is created until its
+// CiscoTermInServiceEv arrives, so at most DEVICE_MONITOR_MAX_PENDING
+// in-service waits are outstanding and CTI Manager isn't flooded with
+// registrations.  The in-service event only releases the permit; setting the
+// device-state filter and reading the initial state is handed back to the
+// workers, never done on the JTAPI event thread.  A device that doesn't come
+// into service within DEVICE_MONITOR_TIMEOUT_MS gives up its permit and is
+// counted as timed out; it is still filtered if it shows up later.
+
+// Configuration (.env):
+//   DEVICE_LIST_FILE             one device name per line; blank lines,
+//                                lines starting with # and repeated names
+//                                are ignored
+//   DEVICE_MONITOR_THREADS       worker threads (default 8)
+//   DEVICE_MONITOR_BATCH         devices per batch (default 100)
+//   DEVICE_MONITOR_MAX_PENDING   outstanding in-service waits (default 500)
+//   DEVICE_MONITOR_TIMEOUT_MS    in-service wait per device (default 30000)
+//   DEVICE_MONITOR_PROGRESS_MS   progress report interval (default 2000)
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.telephony.*;
+import javax.telephony.events.*;
+
+import com.cisco.jtapi.common.EventSubscription;
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.common.Metrics;
+import com.cisco.jtapi.common.ProviderPool;
+import com.cisco.jtapi.extensions.*;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class DeviceMonitor implements TerminalObserver {
+
+    private final ProviderPool pool;
+    private final TerminalObserver observer;
+    private final int batchSize;
+    private final long timeoutNanos;
+    private final long progressMillis;
+    private final Semaphore pending;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "DeviceMonitor-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Devices awaiting CiscoTermInServiceEv, with the time they were created
+    private final Map<String, Long> waiting = new ConcurrentHashMap<String, Long>();
+    private final Set<String> monitored = ConcurrentHashMap.newKeySet();
+    private CountDownLatch done;
+    private int total;
+    private long started;
+
+    // Statistics
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger timedOut = new AtomicInteger();
+    private final AtomicInteger late = new AtomicInteger();
+
+    public DeviceMonitor(ProviderPool pool, TerminalObserver observer, Dotenv dotenv) {
+        this.pool = pool;
+        this.observer = observer;
+        this.batchSize = Math.max(1, Integer.parseInt(dotenv.get("DEVICE_MONITOR_BATCH", "100")));
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(dotenv.get("DEVICE_MONITOR_TIMEOUT_MS", "30000")));
+        this.progressMillis = Long.parseLong(dotenv.get("DEVICE_MONITOR_PROGRESS_MS", "2000"));
+        this.pending = new Semaphore(Math.max(1, Integer.parseInt(dotenv.get("DEVICE_MONITOR_MAX_PENDING", "500"))));
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, Integer.parseInt(dotenv.get("DEVICE_MONITOR_THREADS", "8"))),
+                r -> new Thread(r, "DeviceMonitor-" + threads.incrementAndGet()));
+    }
+
+    // Device names from a list file, each once, in file order
+    public static List<String> readDeviceList(String file) throws IOException {
+        Set<String> names = new LinkedHashSet<String>();
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                names.add(line);
+            }
+        }
+        return new ArrayList<String>(names);
+    }
+
+    // Create and monitor a terminal for each device, returning once every
+    // device is monitored, has failed or has timed out
+    public void monitor(List<String> deviceList) throws InterruptedException {
+        // Devices are tracked by name, so each is waited for once
+        Set<String> deviceNames = new LinkedHashSet<String>(deviceList);
+        total = deviceNames.size();
+        done = new CountDownLatch(total);
+        started = System.nanoTime();
+        timer.scheduleAtFixedRate(this::expire, 1, 1, TimeUnit.SECONDS);
+        if (progressMillis > 0) {
+            timer.scheduleAtFixedRate(() -> Log.info(progress()), progressMillis, progressMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        // Permits are taken here rather than in the workers, so a worker is
+        // never stuck waiting for one while filter work queues up behind it
+        List<String> batch = new ArrayList<String>(batchSize);
+        for (String name : deviceNames) {
+            if (!pending.tryAcquire()) {
+                // Send off what we have before waiting, as its devices may be
+                // the ones holding the permits
+                if (!batch.isEmpty()) {
+                    submitBatch(batch);
+                    batch = new ArrayList<String>(batchSize);
+                }
+                pending.acquire();
+            }
+            waiting.put(name, System.nanoTime());
+            batch.add(name);
+            if (batch.size() == batchSize) {
+                submitBatch(batch);
+                batch = new ArrayList<String>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            submitBatch(batch);
+        }
+        done.await();
+        timer.shutdownNow();
+        Log.info(String.format("Full coverage: %d/%d devices monitored in %.1f s (%d failed, %d timed out)",
+                monitored.size(), total, (System.nanoTime() - started) / 1e9, failed.get(), timedOut.get()));
+        Log.info(superProvider_deviceStateServer.deviceStates.getStats());
+    }
+
+    private void submitBatch(List<String> batch) {
+        workers.execute(() -> {
+            for (String name : batch) {
+                try {
+                    CiscoTerminal terminal = pool.providerFor(name).createTerminal(name);
+                    created.incrementAndGet();
+                    // The sample's handler first, so it sees the in-service
+                    // event before the filter is set
+                    terminal.addObserver(observer);
+                    terminal.addObserver(this);
+                    pool.track(terminal);
+                } catch (Exception e) {
+                    Log.warn("Unable to monitor " + name + ": " + e);
+                    finish(name, failed);
+                }
+            }
+        });
+    }
+
+    // Settle a device that didn't make it into service
+    private void finish(String name, AtomicInteger outcome) {
+        if (waiting.remove(name) != null) {
+            outcome.incrementAndGet();
+            pending.release();
+            done.countDown();
+        }
+    }
+
+    private void expire() {
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<String, Long>> it = waiting.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Long> entry = it.next();
+            if (now - entry.getValue() > timeoutNanos) {
+                Log.warn("Timed out waiting for CiscoTermInServiceEv from " + entry.getKey());
+                finish(entry.getKey(), timedOut);
+            }
+        }
+    }
+
+    // Enable the device-state events and record the initial state
+    private void startMonitoring(CiscoTerminal terminal, boolean counted) {
+        try {
+            CiscoTermEvFilter termFilter = terminal.getFilter();
+            termFilter.setDeviceStateIdleEvFilter(true);
+            termFilter.setDeviceStateActiveEvFilter(true);
+            termFilter.setDeviceStateAlertingEvFilter(true);
+            termFilter.setDeviceStateHeldEvFilter(true);
+            termFilter.setDeviceStateWhisperEvFilter(true);
+            EventSubscription.of(observer).applyTo(termFilter);
+            terminal.setFilter(termFilter);
+            int state = terminal.getDeviceState();
+            superProvider_deviceStateServer.deviceStates.initial(terminal.getName(), state);
+            Log.debug("    INITIAL DEVICE STATE--> " + terminal.getName() + " ", DeviceStateIndex.stateName(state));
+            monitored.add(terminal.getName());
+        } catch (InvalidStateException e) {
+            Log.warn("Unable to read device state of " + terminal.getName() + ": " + e);
+            if (counted) {
+                failed.incrementAndGet();
+            }
+        }
+        if (counted) {
+            done.countDown();
+        }
+    }
+
+    public String progress() {
+        int settled = monitored.size() + failed.get() + timedOut.get();
+        double seconds = (System.nanoTime() - started) / 1e9;
+        return String.format("Devices: %d/%d monitored, %d created, %d awaiting in-service, %d failed, %d timed out (%d late) (%.0f/s)",
+                monitored.size(), total, created.get(), waiting.size(), failed.get(), timedOut.get(), late.get(),
+                seconds == 0 ? 0.0 : settled / seconds);
+    }
+
+    public void terminalChangedEvent(TermEv[] events) {
+        for (TermEv ev : events) {
+            if (ev.getID() != CiscoTermInServiceEv.ID) {
+                continue;
+            }
+            CiscoTerminal terminal = (CiscoTerminal) ev.getTerminal();
+            String name = terminal.getName();
+            Long createdNanos = waiting.remove(name);
+            boolean counted = createdNanos != null;
+            if (counted) {
+                Metrics.recordSince("deviceMonitor.inService", createdNanos);
+                pending.release();
+            } else if (monitored.contains(name)) {
+                // Back in service after an outage; the filter is still set
+                continue;
+            } else {
+                late.incrementAndGet();
+            }
+            workers.execute(() -> startMonitoring(terminal, counted));
+        }
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,198 @@
+package com.cisco.jtapi.superProvider_deviceStateServer;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// The current device state of every monitored device, kept up to date from
+// the CiscoTermDeviceState*Ev events so it can be queried at any time, e.g.
+// by a BLF/presence service polling it many times a second.
+
+// Besides the device name -> state map, the index keeps a count and a member
+// set per state, indexed by the CiscoTerminal.DEVICESTATE_* value, so "how
+// many are ACTIVE" is O(1) and "which are IDLE" is O(k) in the answer,
+// without scanning every device.  Updates to one device are serialized on
+// its entry; queries take no locks, and member sets are live, weakly
+// consistent views.
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.extensions.CiscoTerminal;
+
+public class DeviceStateIndex {
+
+    // DEVICESTATE_IDLE (0) .. DEVICESTATE_WHISPER (5)
+    public static final int STATES = CiscoTerminal.DEVICESTATE_WHISPER + 1;
+
+    private static final String[] NAMES = new String[STATES];
+    // Entry state once the device is removed
+    private static final int REMOVED = -2;
+
+    static {
+        NAMES[CiscoTerminal.DEVICESTATE_IDLE] = "IDLE";
+        NAMES[CiscoTerminal.DEVICESTATE_ACTIVE] = "ACTIVE";
+        NAMES[CiscoTerminal.DEVICESTATE_ALERTING] = "ALERTING";
+        NAMES[CiscoTerminal.DEVICESTATE_HELD] = "HELD";
+        NAMES[CiscoTerminal.DEVICESTATE_UNKNOWN] = "UNKNOWN";
+        NAMES[CiscoTerminal.DEVICESTATE_WHISPER] = "WHISPER";
+    }
+
+    // A device's state and when it last changed (epoch milliseconds)
+    public static final class DeviceState {
+        private final String device;
+        private volatile int state = -1;
+        private volatile long since;
+
+        DeviceState(String device) {
+            this.device = device;
+        }
+
+        public String getDevice() {
+            return device;
+        }
+
+        public int getState() {
+            return state;
+        }
+
+        public long getSince() {
+            return since;
+        }
+
+        public String toString() {
+            return device + " " + stateName(state) + " since " + since;
+        }
+    }
+
+    private final ConcurrentHashMap<String, DeviceState> devices = new ConcurrentHashMap<String, DeviceState>();
+    private final AtomicInteger[] counts = new AtomicInteger[STATES];
+    @SuppressWarnings("unchecked")
+    private final Set<String>[] members = (Set<String>[]) new Set<?>[STATES];
+    private final Set<String>[] views;
+    private volatile Consumer<String> listener;
+
+    @SuppressWarnings("unchecked")
+    public DeviceStateIndex() {
+        views = (Set<String>[]) new Set<?>[STATES];
+        for (int i = 0; i < STATES; i++) {
+            counts[i] = new AtomicInteger();
+            members[i] = ConcurrentHashMap.newKeySet();
+            views[i] = Collections.unmodifiableSet(members[i]);
+        }
+    }
+
+    // Called with the device name after each change, on the updating thread
+    public void setListener(Consumer<String> listener) {
+        this.listener = listener;
+    }
+
+    public static String stateName(int state) {
+        return state >= 0 && state < STATES ? NAMES[state] : "UNKNOWN";
+    }
+
+    // Record a device state change
+    public void update(String device, int state) {
+        set(device, state, false);
+    }
+
+    // Record a device's initial state, as read by getDeviceState(); ignored if
+    // an event has already reported a newer one
+    public void initial(String device, int state) {
+        set(device, state, true);
+    }
+
+    private void set(String device, int state, boolean initial) {
+        if (state < 0 || state >= STATES) {
+            state = CiscoTerminal.DEVICESTATE_UNKNOWN;
+        }
+        while (true) {
+            DeviceState entry = devices.computeIfAbsent(device, DeviceState::new);
+            synchronized (entry) {
+                int previous = entry.state;
+                if (previous == REMOVED) {
+                    // Lost a race with remove(); start a new entry
+                    continue;
+                }
+                if (previous == state || (initial && previous >= 0)) {
+                    return;
+                }
+                if (previous >= 0) {
+                    members[previous].remove(device);
+                    counts[previous].decrementAndGet();
+                }
+                members[state].add(device);
+                counts[state].incrementAndGet();
+                entry.state = state;
+                entry.since = Log.currentTimeMillis();
+            }
+            Consumer<String> listener = this.listener;
+            if (listener != null) {
+                listener.accept(device);
+            }
+            return;
+        }
+    }
+
+    // Stop tracking a device
+    public void remove(String device) {
+        DeviceState entry = devices.remove(device);
+        if (entry != null) {
+            synchronized (entry) {
+                if (entry.state >= 0) {
+                    members[entry.state].remove(device);
+                    counts[entry.state].decrementAndGet();
+                }
+                entry.state = REMOVED;
+            }
+            Consumer<String> listener = this.listener;
+            if (listener != null) {
+                listener.accept(device);
+            }
+        }
+    }
+
+    // The device's state, or null if it isn't tracked
+    public DeviceState get(String device) {
+        return devices.get(device);
+    }
+
+    // Number of devices in a DEVICESTATE_* state
+    public int count(int state) {
+        return state >= 0 && state < STATES ? counts[state].get() : 0;
+    }
+
+    // The devices in a DEVICESTATE_* state (a live, read-only view)
+    public Set<String> devices(int state) {
+        return state >= 0 && state < STATES ? views[state] : Collections.<String>emptySet();
+    }
+
+    public int size() {
+        return devices.size();
+    }
+
+    public String getStats() {
+        StringBuilder stats = new StringBuilder("Device states:");
+        for (int i = 0; i < STATES; i++) {
+            stats.append(' ').append(NAMES[i]).append('=').append(counts[i].get());
+        }
+        return stats.toString();
+    }
+}
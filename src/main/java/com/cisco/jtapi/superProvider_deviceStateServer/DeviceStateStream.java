@@ -0,0 +1,339 @@
+package com.cisco.jtapi.superProvider_deviceStateServer;
+
+// Copyright (c) 2020 Cisco and/or its affiliates.
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+// Streams device state changes to subscribers over a plain TCP line protocol,
+// e.g. for dashboards.  Connect to DEVICE_STATE_STREAM_PORT and send one line
+// naming the devices wanted: a comma-separated list of device names and/or
+// prefixes ending in *, or just * for every device.  The server replies with
+// the current state of each matching device, then an update line whenever one
+// changes:
+
+//   <device name> <IDLE|ACTIVE|ALERTING|HELD|UNKNOWN|WHISPER> <since, epoch ms>
+
+// Sending another subscription line replaces the filter (and re-sends the
+// current states).
+
+// The DeviceStateIndex only notes which devices changed; every
+// DEVICE_STATE_STREAM_COALESCE_MS the server thread reads their current state
+// from the index and fans it out, so a phone flapping ACTIVE/HELD/ACTIVE within
+// one window is one update (or none, if it ends where it started).  All socket
+// I/O is non-blocking on one selector thread, and each subscriber's backlog is
+// a map of device -> latest state, so a slow client only falls behind on the
+// latest states; it never holds up the JTAPI event threads or other clients.
+
+// Configuration (.env):
+//   DEVICE_STATE_STREAM_PORT         TCP port to listen on (unset: no streaming)
+//   DEVICE_STATE_STREAM_COALESCE_MS  coalescing window (default 250)
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cisco.jtapi.common.Log;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class DeviceStateStream implements Runnable {
+
+    private static final int MAX_LINE = 64 * 1024;
+
+    // A connected subscriber; only touched by the server thread
+    private static class Client {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+        final ByteBuffer out = ByteBuffer.allocate(16 * 1024);
+        // Updates not yet written, latest state per device, oldest change first
+        final LinkedHashMap<String, DeviceStateIndex.DeviceState> backlog = new LinkedHashMap<String, DeviceStateIndex.DeviceState>();
+        Set<String> names = new HashSet<String>();
+        List<String> prefixes = new ArrayList<String>();
+        boolean subscribed;
+        boolean all;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+            out.flip();
+        }
+
+        boolean matches(String device) {
+            if (all || names.contains(device)) {
+                return true;
+            }
+            for (String prefix : prefixes) {
+                if (device.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final DeviceStateIndex index;
+    private final int port;
+    private final long coalesceMillis;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final List<Client> clients = new CopyOnWriteArrayList<Client>();
+    // Devices changed since the last flush
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
+    // State last fanned out per device, to drop changes that net out
+    private final Map<String, Integer> published = new HashMap<String, Integer>();
+
+    // Statistics
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+
+    public DeviceStateStream(DeviceStateIndex index, Dotenv dotenv) throws IOException {
+        this.index = index;
+        this.port = Integer.parseInt(dotenv.get("DEVICE_STATE_STREAM_PORT"));
+        this.coalesceMillis = Math.max(1, Long.parseLong(dotenv.get("DEVICE_STATE_STREAM_COALESCE_MS", "250")));
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public void start() {
+        index.setListener(this::changed);
+        Thread thread = new Thread(this, "DeviceStateStream");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    // Called by the index on whatever thread changed the state: just note it
+    private void changed(String device) {
+        changes.incrementAndGet();
+        changed.add(device);
+    }
+
+    public void run() {
+        long nextFlush = System.currentTimeMillis() + coalesceMillis;
+        while (true) {
+            try {
+                long wait = nextFlush - System.currentTimeMillis();
+                if (wait > 0) {
+                    selector.select(wait);
+                }
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    handle(key);
+                }
+                if (System.currentTimeMillis() >= nextFlush) {
+                    flush();
+                    nextFlush = System.currentTimeMillis() + coalesceMillis;
+                }
+            } catch (IOException e) {
+                Log.warn("DeviceStateStream: " + e);
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            SocketChannel channel = server.accept();
+            if (channel != null) {
+                channel.configureBlocking(false);
+                Client client = new Client(channel);
+                channel.register(selector, SelectionKey.OP_READ, client);
+                clients.add(client);
+                Log.info("DeviceStateStream: " + channel.getRemoteAddress() + " connected");
+            }
+            return;
+        }
+        Client client = (Client) key.attachment();
+        try {
+            if (key.isReadable()) {
+                read(client);
+            }
+            if (key.isValid() && key.isWritable()) {
+                write(client);
+            }
+        } catch (IOException e) {
+            close(client);
+        }
+    }
+
+    private void read(Client client) throws IOException {
+        if (client.channel.read(client.in) < 0) {
+            close(client);
+            return;
+        }
+        client.in.flip();
+        int start = client.in.position();
+        for (int i = start; i < client.in.limit(); i++) {
+            if (client.in.get(i) == '\n') {
+                byte[] line = new byte[i - start];
+                client.in.get(line);
+                client.in.get();
+                subscribe(client, new String(line, StandardCharsets.UTF_8).trim());
+                start = i + 1;
+            }
+        }
+        client.in.compact();
+        if (!client.in.hasRemaining()) {
+            Log.warn("DeviceStateStream: subscription line too long");
+            close(client);
+        }
+    }
+
+    // Apply a subscription line and queue the current state of its devices
+    private void subscribe(Client client, String line) {
+        client.names = new HashSet<String>();
+        client.prefixes = new ArrayList<String>();
+        client.all = false;
+        for (String item : line.split("\\s*,\\s*")) {
+            if (line.isEmpty() || item.equals("*")) {
+                client.all = true;
+            } else if (item.endsWith("*")) {
+                client.prefixes.add(item.substring(0, item.length() - 1));
+            } else if (!item.isEmpty()) {
+                client.names.add(item);
+            }
+        }
+        client.subscribed = true;
+        client.backlog.clear();
+        if (client.all || !client.prefixes.isEmpty()) {
+            for (int state = 0; state < DeviceStateIndex.STATES; state++) {
+                for (String device : index.devices(state)) {
+                    queue(client, device);
+                }
+            }
+        } else {
+            for (String device : client.names) {
+                queue(client, device);
+            }
+        }
+        interestWrite(client);
+    }
+
+    private void queue(Client client, String device) {
+        DeviceStateIndex.DeviceState state = index.get(device);
+        if (state != null && state.getState() >= 0 && client.matches(device)) {
+            // Re-insert so the backlog stays in order of change
+            client.backlog.remove(device);
+            client.backlog.put(device, state);
+            updates.incrementAndGet();
+        }
+    }
+
+    // Fan out the devices that changed during the last window
+    private void flush() {
+        if (changed.isEmpty()) {
+            return;
+        }
+        for (Iterator<String> it = changed.iterator(); it.hasNext();) {
+            String device = it.next();
+            it.remove();
+            DeviceStateIndex.DeviceState state = index.get(device);
+            Integer current = state == null ? null : state.getState();
+            if (current == null ? published.remove(device) == null : current.equals(published.put(device, current))) {
+                continue;
+            }
+            for (Client client : clients) {
+                if (client.subscribed) {
+                    queue(client, device);
+                }
+            }
+        }
+        for (Client client : clients) {
+            interestWrite(client);
+        }
+    }
+
+    private void interestWrite(Client client) {
+        SelectionKey key = client.channel.keyFor(selector);
+        if (key != null && key.isValid() && !client.backlog.isEmpty()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void write(Client client) throws IOException {
+        while (true) {
+            if (!client.out.hasRemaining()) {
+                if (client.backlog.isEmpty()) {
+                    client.channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+                fill(client);
+            }
+            client.channel.write(client.out);
+            if (client.out.hasRemaining()) {
+                // Socket buffer full: wait for the next OP_WRITE
+                return;
+            }
+        }
+    }
+
+    // Encode as many backlog lines as fit in the output buffer
+    private void fill(Client client) {
+        client.out.clear();
+        for (Iterator<DeviceStateIndex.DeviceState> it = client.backlog.values().iterator(); it.hasNext();) {
+            DeviceStateIndex.DeviceState state = it.next();
+            byte[] line = (state.getDevice() + " " + DeviceStateIndex.stateName(state.getState()) + " "
+                    + state.getSince() + "\n").getBytes(StandardCharsets.UTF_8);
+            if (line.length > client.out.remaining()) {
+                break;
+            }
+            client.out.put(line);
+            it.remove();
+            sent.incrementAndGet();
+        }
+        client.out.flip();
+    }
+
+    private void close(Client client) {
+        clients.remove(client);
+        try {
+            Log.info("DeviceStateStream: " + client.channel.getRemoteAddress() + " disconnected");
+            client.channel.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    public String getStats() {
+        return String.format("Device state stream: %d clients, %d changes, %d updates queued, %d sent",
+                clients.size(), changes.get(), updates.get(), sent.get());
+    }
+}
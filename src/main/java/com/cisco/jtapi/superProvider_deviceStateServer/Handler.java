@@ -20,47 +20,56 @@ package com.cisco.jtapi.superProvider_deviceStateServer;
 import javax.telephony.*;
 import javax.telephony.events.*;
 import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.common.Log;
 import com.cisco.cti.util.Condition;
 
 public class Handler implements
 
         ProviderObserver, TerminalObserver {
 
-    public Condition providerInService = new Condition();
     public Condition phoneTerminalInService = new Condition();
 
     public void providerChangedEvent(ProvEv[] events) {
         for (ProvEv ev : events) {
-            System.out.println("    Received--> Provider/" + ev);
-            switch (ev.getID()) {
-                case ProvInServiceEv.ID:
-                    providerInService.set();
-                    break;
-            }
+            Log.event("Provider", ev);
+        }
+    }
+
+    // Record the new state in the index and display it; with many devices
+    // monitored, each line needs to say which device it is
+    private static void deviceState(TermEv ev, int state) {
+        String device = ev.getTerminal().getName();
+        superProvider_deviceStateServer.deviceStates.update(device, state);
+        if (Log.isDebugEnabled()) {
+            Log.debug("    DEVICE STATE--> " + device + " ", DeviceStateIndex.stateName(state));
         }
     }
 
     public void terminalChangedEvent(TermEv[] events) {
         for (TermEv ev : events) {
-            System.out.println("    Received--> Terminal/"+ev);
+            Log.event("Terminal", ev);
             switch (ev.getID()) {
                 case CiscoTermInServiceEv.ID:
                     phoneTerminalInService.set();
                     break;
+                case CiscoTermOutOfServiceEv.ID:
+                    // No device state while the device is out of service
+                    deviceState(ev, CiscoTerminal.DEVICESTATE_UNKNOWN);
+                    break;
                 case CiscoTermDeviceStateIdleEv.ID:
-                    System.out.println("    DEVICE STATE--> "+superProvider_deviceStateServer.stateName.get(CiscoTerminal.DEVICESTATE_IDLE));
+                    deviceState(ev, CiscoTerminal.DEVICESTATE_IDLE);
                     break;
                 case CiscoTermDeviceStateActiveEv.ID:
-                    System.out.println("    DEVICE STATE--> "+superProvider_deviceStateServer.stateName.get(CiscoTerminal.DEVICESTATE_ACTIVE));
+                    deviceState(ev, CiscoTerminal.DEVICESTATE_ACTIVE);
                     break;
                 case CiscoTermDeviceStateAlertingEv.ID:
-                    System.out.println("    DEVICE STATE--> "+superProvider_deviceStateServer.stateName.get(CiscoTerminal.DEVICESTATE_ALERTING));
+                    deviceState(ev, CiscoTerminal.DEVICESTATE_ALERTING);
                     break;
                 case CiscoTermDeviceStateHeldEv.ID:
-                    System.out.println("    DEVICE STATE--> "+superProvider_deviceStateServer.stateName.get(CiscoTerminal.DEVICESTATE_HELD));
+                    deviceState(ev, CiscoTerminal.DEVICESTATE_HELD);
                     break;
                 case CiscoTermDeviceStateWhisperEv.ID:
-                    System.out.println("    DEVICE STATE--> "+superProvider_deviceStateServer.stateName.get(CiscoTerminal.DEVICESTATE_WHISPER));
+                    deviceState(ev, CiscoTerminal.DEVICESTATE_WHISPER);
                     break;            }
         }
     }
@@ -36,6 +36,10 @@ package com.cisco.jtapi.superProvider_deviceStateServer;
 // 4. BOB_DN manually performs various call operations (hold/end)
 // 5. (Optional) additional phones can call ALICE_DN to view summary states
 
+// Bulk mode: if DEVICE_LIST_FILE is set, every device named in the file is
+// monitored instead of ALICE_DEVICE_NAME - see DeviceMonitor.  The devices are
+// spread across the PROVIDER_POOL_SIZE providers of the shared ProviderPool
+
 
 // Be sure to rename .env.example to .env and configure your CUCM/user/DN
 //   details for the scenario.
@@ -46,73 +50,87 @@ package com.cisco.jtapi.superProvider_deviceStateServer;
 // OpenJDK 11.0.8
 // CUCM 11.5
 
-import java.time.format.DateTimeFormatter;
-import java.time.LocalDateTime;
 
 import javax.telephony.*;
+import java.io.IOException;
 import java.util.*;
 import com.cisco.jtapi.extensions.*;
+import com.cisco.jtapi.common.EventDispatcher;
+import com.cisco.jtapi.common.EventSubscription;
+import com.cisco.jtapi.common.Log;
+import com.cisco.jtapi.common.MetricsServer;
+import com.cisco.jtapi.common.ProviderPool;
 
 import io.github.cdimascio.dotenv.Dotenv;
 
 public class superProvider_deviceStateServer {
 
-    private static DateTimeFormatter dtf = DateTimeFormatter.ofPattern("HH:mm:ss.SS");
-
     private static void log(String msg) {
-        System.out.println(dtf.format(LocalDateTime.now()) + " " + msg);
+        Log.info(msg);
     }
     
-    // Create a hash map to get friendly names for the device states
-    public static Map <Integer, String> stateName = new HashMap<Integer, String>();
+    // Current state of every monitored device, for querying; see DeviceStateIndex
+    public static DeviceStateIndex deviceStates = new DeviceStateIndex();
 
     public static void main(String[] args) throws
 
     JtapiPeerUnavailableException, ResourceUnavailableException, MethodNotSupportedException, InvalidArgumentException,
-            PrivilegeViolationException, InvalidPartyException, InvalidStateException, InterruptedException {
-
-        stateName.put(CiscoTerminal.DEVICESTATE_IDLE, "IDLE");
-        stateName.put(CiscoTerminal.DEVICESTATE_ACTIVE, "ACTIVE");
-        stateName.put(CiscoTerminal.DEVICESTATE_ALERTING, "ALERTING");
-        stateName.put(CiscoTerminal.DEVICESTATE_HELD, "HELD");
-        stateName.put(CiscoTerminal.DEVICESTATE_WHISPER, "WHISPER");
-        stateName.put(CiscoTerminal.DEVICESTATE_UNKNOWN, "UNKNOWN");
-            
+            PrivilegeViolationException, InvalidPartyException, InvalidStateException, InterruptedException, IOException {
+
         // Retrieve environment variables from .env, if present
         Dotenv dotenv=Dotenv.load();
+
+        // Step latencies on METRICS_PORT, if set
+        MetricsServer.start(dotenv);
  
         // The Handler class provides observers for provider/address/terminal/call events
         Handler handler = new Handler();
 
-        // Create the JtapiPeer object, representing the JTAPI library
-        log("Initializing Jtapi");
-        CiscoJtapiPeer peer = (CiscoJtapiPeer) JtapiPeerFactory.getJtapiPeer(null);
-
-        // Create and open the Provider, representing a JTAPI connection to CUCM CTI
-        // Manager
-        String providerString = String.format(
-            "%s;login=%s;passwd=%s",
-            dotenv.get("CUCM_ADDRESS"),
-            dotenv.get("JTAPI_USERNAME"),
-            dotenv.get("JTAPI_PASSWORD"));
-        log("Connecting Provider: " + providerString);
-        CiscoProvider provider=(CiscoProvider) peer.getProvider(providerString);
-        log("Awaiting ProvInServiceEv...");
-        provider.addObserver(handler);
-        handler.providerInService.waitTrue();
+        // Handler callbacks run on the dispatcher's worker threads, so the JTAPI
+        // event thread only has to queue each event batch
+        EventDispatcher dispatcher = EventDispatcher.create(dotenv);
+        // Only the events listed for superProvider_deviceStateServer in event_subscriptions.properties
+        // are delivered
+        EventSubscription subscription = EventSubscription.load(dotenv, "superProvider_deviceStateServer");
+        EventDispatcher.Observer observer = dispatcher.wrap(handler, subscription);
+
+        // Open the provider pool - PROVIDER_POOL_SIZE JTAPI connections to CUCM CTI
+        // Manager(s), shared with any other scenario in this JVM - and wait for
+        // all of them to go in service
+        log("Opening provider pool at: " + dotenv.get("CUCM_ADDRESS"));
+        ProviderPool pool = ProviderPool.shared(dotenv);
+        pool.addObserver(observer);
+
+        // Optionally stream state changes to TCP subscribers - see DeviceStateStream
+        if (dotenv.get("DEVICE_STATE_STREAM_PORT", "").length() > 0) {
+            DeviceStateStream stream = new DeviceStateStream(deviceStates, dotenv);
+            stream.start();
+            log("Streaming device states on port " + stream.getPort());
+        }
+
+        if (dotenv.get("DEVICE_LIST_FILE", "").length() > 0) {
+            List<String> deviceNames = DeviceMonitor.readDeviceList(dotenv.get("DEVICE_LIST_FILE"));
+            log("Monitoring " + deviceNames.size() + " devices from " + dotenv.get("DEVICE_LIST_FILE") + "...");
+            new DeviceMonitor(pool, observer, dotenv).monitor(deviceNames);
+            log(pool.getStats());
+            log("Monitoring state changes...");
+            return;
+        }
 
         // Dynamically create a terminal by device name via 'Super Provider' feature
         log("Creating phoneTerminal using device name: " + dotenv.get("ALICE_DEVICE_NAME"));
-        CiscoTerminal phoneTerminal = (CiscoTerminal) provider.createTerminal(dotenv.get("ALICE_DEVICE_NAME"));
+        CiscoTerminal phoneTerminal = (CiscoTerminal) pool.providerFor(dotenv.get("ALICE_DEVICE_NAME"))
+                .createTerminal(dotenv.get("ALICE_DEVICE_NAME"));
 
         log("Awaiting CiscoTermInServiceEv for: "+phoneTerminal.getName() + "...");
-        phoneTerminal.addObserver(handler);
+        phoneTerminal.addObserver(observer);
         handler.phoneTerminalInService.waitTrue();
 
          // Check the current device state
         int currentState = phoneTerminal.getDeviceState();
+        deviceStates.initial(phoneTerminal.getName(), currentState);
 
-        log("INITIAL DEVICE STATE--> " + stateName.get(currentState));
+        log("INITIAL DEVICE STATE--> " + DeviceStateIndex.stateName(currentState));
 
         // Enable filters to receive various device state events
         CiscoTermEvFilter termFilter = phoneTerminal.getFilter();
@@ -122,6 +140,8 @@ public class superProvider_deviceStateServer {
         termFilter.setDeviceStateAlertingEvFilter(true);
         termFilter.setDeviceStateHeldEvFilter(true);
         termFilter.setDeviceStateWhisperEvFilter(true);
+        // ...and turn off the events the handler doesn't subscribe to
+        subscription.applyTo(termFilter);
 
         phoneTerminal.setFilter(termFilter);
 